@@ -17,6 +17,7 @@ import com.salesforce.apollo.web.resources.ByteTransactionApi;
 import com.salesforce.apollo.web.resources.DagApi;
 import com.salesforce.apollo.web.resources.FirefliesHealthCheck;
 import com.salesforce.apollo.web.resources.GenesisBlockApi;
+import com.salesforce.apollo.web.resources.TrafficApi;
 
 import io.dropwizard.Application;
 import io.dropwizard.setup.Environment;
@@ -54,6 +55,7 @@ public class ApolloService extends Application<ApolloServiceConfiguration> {
         environment.jersey().register(new ByteTransactionApi(processor, scheduler));
         environment.jersey().register(new GenesisBlockApi(processor, scheduler));
         environment.jersey().register(new DagApi(apollo.getAvalanche().getDagDao()));
+        environment.jersey().register(new TrafficApi(apollo.getRouter().getAccounting()));
     }
 
     public void start() {
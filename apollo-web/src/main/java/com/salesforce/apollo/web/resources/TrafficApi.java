@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.apollo.web.resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.codahale.metrics.annotation.Timed;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting;
+
+/**
+ * Dump of the heaviest traffic of the node, by peer, method and context
+ *
+ * @author hal.hildebrand
+ */
+@Path("/api/traffic")
+public class TrafficApi {
+
+    private final TrafficAccounting accounting;
+
+    public TrafficApi(TrafficAccounting accounting) {
+        this.accounting = accounting;
+    }
+
+    @GET
+    @Timed
+    @Produces(MediaType.TEXT_PLAIN)
+    public String dump() {
+        return accounting.dump();
+    }
+}
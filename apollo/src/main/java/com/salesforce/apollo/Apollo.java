@@ -96,6 +96,10 @@ public class Apollo {
         return processor;
     }
 
+    public Router getRouter() {
+        return communications;
+    }
+
     public boolean getRunning() {
         return running.get();
     }
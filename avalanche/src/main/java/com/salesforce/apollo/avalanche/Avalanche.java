@@ -42,6 +42,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
 import com.salesfoce.apollo.proto.ByteMessage;
 import com.salesfoce.apollo.proto.DagEntry;
 import com.salesfoce.apollo.proto.DagEntry.Builder;
@@ -55,6 +56,7 @@ import com.salesforce.apollo.avalanche.communications.AvalancheClientCommunicati
 import com.salesforce.apollo.avalanche.communications.AvalancheServerCommunications;
 import com.salesforce.apollo.comm.Router;
 import com.salesforce.apollo.comm.Router.CommonCommunications;
+import com.salesforce.apollo.comm.grpc.AliasingMarshaller;
 import com.salesforce.apollo.fireflies.Node;
 import com.salesforce.apollo.fireflies.View;
 import com.salesforce.apollo.membership.Context;
@@ -240,8 +242,11 @@ public class Avalanche {
         this.context = context;
         this.queryExecutor = queryExecutor;
         this.comm = communications.create(node, context.getId(), service,
-                                          r -> new AvalancheServerCommunications(
+                                          // transactions and DAG entries are parsed without copying
+                                          r -> AliasingMarshaller.alias(new AvalancheServerCommunications(
                                                   communications.getClientIdentityProvider(), metrics, r),
+                                                                        AvalancheGrpc.getQueryMethod(),
+                                                                        AvalancheGrpc.getRequestDagMethod()),
                                           AvalancheClientCommunications.getCreate(metrics));
         DataType vB = null;
         MVMap.Builder<HashKey, byte[]> builder = new MVMap.Builder<HashKey, byte[]>().keyType(HashKeyType.INSTANCE)
@@ -24,17 +24,26 @@ import com.salesfoce.apollo.proto.SuppliedDagNodes;
 import com.salesforce.apollo.avalanche.AvalancheMetrics;
 import com.salesforce.apollo.comm.ServerConnectionCache.CreateClientCommunications;
 import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
+import com.salesforce.apollo.comm.grpc.AliasingMarshaller;
 import com.salesforce.apollo.fireflies.Participant;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.Avalanche;
 import com.salesforce.apollo.protocols.HashKey;
 
+import io.grpc.ClientInterceptor;
+
 /**
  * @author hal.hildebrand
  * @since 220
  */
 public class AvalancheClientCommunications implements Avalanche {
 
+    /**
+     * Parses the DAG entries and transactions of the responses without copying
+     */
+    private static final ClientInterceptor ALIASING = AliasingMarshaller.clientInterceptor(AvalancheGrpc.getQueryMethod(),
+                                                                                           AvalancheGrpc.getRequestDagMethod());
+
     public static CreateClientCommunications<AvalancheClientCommunications> getCreate(AvalancheMetrics metrics) {
         return (t, f, c) -> new AvalancheClientCommunications(c, t, metrics);
 
@@ -48,7 +57,7 @@ public class AvalancheClientCommunications implements Avalanche {
     public AvalancheClientCommunications(ManagedServerConnection conn, Member member, AvalancheMetrics metrics) {
         this.channel = conn;
         this.member = member;
-        this.client = AvalancheGrpc.newFutureStub(conn.channel).withCompression("gzip");
+        this.client = AvalancheGrpc.newFutureStub(conn.channel).withInterceptors(ALIASING).withCompression("gzip");
         this.metrics = metrics;
     }
 
@@ -35,7 +35,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
-import java.util.zip.DeflaterInputStream;
+import java.util.zip.Deflater;
 import java.util.zip.InflaterInputStream;
 
 import org.h2.mvstore.MVStore;
@@ -63,6 +63,7 @@ import com.salesfoce.apollo.consortium.proto.CheckpointSync;
 import com.salesfoce.apollo.consortium.proto.Genesis;
 import com.salesfoce.apollo.consortium.proto.Join;
 import com.salesfoce.apollo.consortium.proto.JoinResult;
+import com.salesfoce.apollo.consortium.proto.OrderingServiceGrpc;
 import com.salesfoce.apollo.consortium.proto.Reconfigure;
 import com.salesfoce.apollo.consortium.proto.ReplicateTransactions;
 import com.salesfoce.apollo.consortium.proto.Stop;
@@ -75,6 +76,7 @@ import com.salesfoce.apollo.consortium.proto.TransactionResult;
 import com.salesfoce.apollo.consortium.proto.Validate;
 import com.salesfoce.apollo.consortium.proto.ViewMember;
 import com.salesforce.apollo.comm.Router.CommonCommunications;
+import com.salesforce.apollo.comm.grpc.AliasingMarshaller;
 import com.salesforce.apollo.consortium.comms.ConsortiumClientCommunications;
 import com.salesforce.apollo.consortium.comms.ConsortiumServerCommunications;
 import com.salesforce.apollo.consortium.fsm.CollaboratorFsm;
@@ -92,6 +94,7 @@ import com.salesforce.apollo.membership.messaging.MemberOrder;
 import com.salesforce.apollo.membership.messaging.Messenger;
 import com.salesforce.apollo.membership.messaging.Messenger.MessageHandler.Msg;
 import com.salesforce.apollo.protocols.BbBackedInputStream;
+import com.salesforce.apollo.protocols.CompositeBuffer;
 import com.salesforce.apollo.protocols.Conversion;
 import com.salesforce.apollo.protocols.HashKey;
 import com.salesforce.apollo.protocols.Utils;
@@ -246,24 +249,21 @@ public class Consortium {
     private static final Logger log = LoggerFactory.getLogger(Consortium.class);
 
     public static ByteString compress(ByteString input) {
-        DeflaterInputStream dis = new DeflaterInputStream(
-                BbBackedInputStream.aggregate(input.asReadOnlyByteBufferList()));
+        Deflater deflater = new Deflater();
         try {
-            return ByteString.readFrom(dis);
-        } catch (IOException e) {
-            log.error("Cannot compress input", e);
-            return null;
+            return CompositeBuffer.of(input).deflate(deflater);
+        } finally {
+            deflater.end();
         }
     }
 
     public static HashKey hashOf(TransactionOrBuilder transaction) {
-        List<ByteString> buffers = new ArrayList<>();
-        buffers.add(transaction.getNonce());
-        buffers.add(ByteString.copyFrom(transaction.getJoin() ? new byte[] { 1 } : new byte[] { 0 }));
-        buffers.add(transaction.getSource());
-        buffers.add(transaction.getTxn().toByteString());
-
-        return new HashKey(Conversion.hashOf(BbBackedInputStream.aggregate(buffers)));
+        return new HashKey(Conversion.hashOf(CompositeBuffer.newBuilder()
+                                                            .add(transaction.getNonce())
+                                                            .add(transaction.getJoin() ? (byte) 1 : (byte) 0)
+                                                            .add(transaction.getSource())
+                                                            .add(transaction.getTxn().toByteString())
+                                                            .build()));
     }
 
     public static Block manifestBlock(byte[] data) {
@@ -322,9 +322,12 @@ public class Consortium {
         this.params = parameters;
         store = new Store(builder.open());
         this.createClientComms = k -> parameters.communications.create(parameters.member, k, new Service(),
-                                                                       r -> new ConsortiumServerCommunications(
+                                                                       // checkpoints and blocks are parsed without copying
+                                                                       r -> AliasingMarshaller.alias(new ConsortiumServerCommunications(
                                                                                parameters.communications.getClientIdentityProvider(),
                                                                                null, r),
+                                                                                                     OrderingServiceGrpc.getFetchMethod(),
+                                                                                                     OrderingServiceGrpc.getFetchBlocksMethod()),
                                                                        ConsortiumClientCommunications.getCreate(null));
         fsm = Fsm.construct(new CollaboratorContext(this), Transitions.class, CollaboratorFsm.INITIAL, true);
         fsm.setName(getMember().getId().b64Encoded());
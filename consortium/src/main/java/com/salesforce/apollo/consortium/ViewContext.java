@@ -13,11 +13,13 @@ import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -32,6 +34,7 @@ import com.salesfoce.apollo.consortium.proto.ViewMember;
 import com.salesforce.apollo.consortium.support.SigningUtils;
 import com.salesforce.apollo.membership.Context;
 import com.salesforce.apollo.membership.Context.MembershipListener;
+import com.salesforce.apollo.membership.Context.ViewDelta;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.membership.messaging.Messenger;
 import com.salesforce.apollo.protocols.Conversion;
@@ -60,13 +63,15 @@ public class ViewContext implements MembershipListener<Member> {
             return !contained;
         });
         assert successors.size() == baseContext.getRingCount();
+        List<Member> active = new ArrayList<>();
         successors.forEach(e -> {
             if (baseContext.isActive(e)) {
-                newView.activate(e);
+                active.add(e);
             } else {
                 newView.offline(e);
             }
         });
+        newView.activate(active);
         assert newView.getActive().size() + newView.getOffline().size() == baseContext.getRingCount();
         return newView;
     }
@@ -116,7 +121,7 @@ public class ViewContext implements MembershipListener<Member> {
     public ViewContext(HashKey id, Context<Member> baseContext, Member m, KeyPair consensusKeyPair,
             List<ViewMember> members) {
         this(viewFor(id, baseContext), m, consensusKeyPair, members);
-        baseContext.register(this);
+        baseContext.subscribe(this);
     }
 
     public ViewContext(Reconfigure view, Context<Member> baseContext, Member member, KeyPair consensusKeyPair) {
@@ -124,7 +129,7 @@ public class ViewContext implements MembershipListener<Member> {
     }
 
     public void activeAll() {
-        context.getOffline().forEach(m -> context.activate(m));
+        context.activate(new ArrayList<>(context.getOffline()));
     }
 
     public int activeCardinality() {
@@ -139,6 +144,24 @@ public class ViewContext implements MembershipListener<Member> {
         return context.cardinality();
     }
 
+    /**
+     * Apply a batch of the base context's changes to the view: the view's members
+     * that failed or were removed are taken offline, and those that recovered are
+     * activated in bulk
+     */
+    @Override
+    public void changed(ViewDelta<Member> delta) {
+        Stream.concat(delta.getFailed().stream(), delta.getRemoved().stream())
+              .forEach(m -> context.offlineIfActive(m.getId()));
+        List<Member> recovered = delta.getRecovered()
+                                      .stream()
+                                      .filter(m -> context.isOffline(m))
+                                      .collect(Collectors.toList());
+        if (!recovered.isEmpty()) {
+            context.activate(recovered);
+        }
+    }
+
     public ViewContext cloneWith(List<ViewMember> members) {
         return new ViewContext(context, member, consensusKeyPair, members);
     }
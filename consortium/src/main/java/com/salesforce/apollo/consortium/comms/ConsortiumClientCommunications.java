@@ -20,14 +20,23 @@ import com.salesfoce.apollo.consortium.proto.SubmitTransaction;
 import com.salesfoce.apollo.consortium.proto.TransactionResult;
 import com.salesforce.apollo.comm.ServerConnectionCache.CreateClientCommunications;
 import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
+import com.salesforce.apollo.comm.grpc.AliasingMarshaller;
 import com.salesforce.apollo.membership.Member;
 
+import io.grpc.ClientInterceptor;
+
 /**
  * @author hal.hildebrand
  *
  */
 public class ConsortiumClientCommunications implements ConsortiumService {
 
+    /**
+     * Parses the checkpoint segments and blocks of the responses without copying
+     */
+    private static final ClientInterceptor ALIASING = AliasingMarshaller.clientInterceptor(OrderingServiceGrpc.getFetchMethod(),
+                                                                                           OrderingServiceGrpc.getFetchBlocksMethod());
+
     public static CreateClientCommunications<ConsortiumClientCommunications> getCreate(ConsortiumMetrics metrics) {
         return (t, f, c) -> new ConsortiumClientCommunications(c, t, metrics);
 
@@ -42,7 +51,9 @@ public class ConsortiumClientCommunications implements ConsortiumService {
     public ConsortiumClientCommunications(ManagedServerConnection channel, Member member, ConsortiumMetrics metrics) {
         this.member = member;
         this.channel = channel;
-        this.client = OrderingServiceGrpc.newFutureStub(channel.channel).withCompression("gzip");
+        this.client = OrderingServiceGrpc.newFutureStub(channel.channel)
+                                         .withInterceptors(ALIASING)
+                                         .withCompression("gzip");
         this.metrics = metrics;
     }
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.consortium;
+
+import static com.salesforce.apollo.consortium.support.SigningUtils.generateKeyPair;
+import static com.salesforce.apollo.test.pregen.PregenPopulation.getMember;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.apollo.membership.Context;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.Utils;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ViewContextTest {
+
+    @Test
+    public void changes() throws Exception {
+        List<Member> members = IntStream.range(1, 6)
+                                        .mapToObj(i -> new Member(getMember(i).getX509Certificate()))
+                                        .collect(Collectors.toList());
+        Context<Member> base = new Context<>(HashKey.ORIGIN.prefix(1), 3);
+        base.activate(members);
+
+        ViewContext view = new ViewContext(HashKey.ORIGIN.prefix(2), base, members.get(0),
+                generateKeyPair(2048, "RSA"), Collections.emptyList());
+        assertEquals(3, view.activeCardinality());
+        Member viewMember = view.allMembers().findFirst().get();
+
+        base.offline(viewMember);
+        assertTrue(Utils.waitForCondition(2_000, () -> view.activeCardinality() == 2));
+        assertEquals(3, view.cardinality());
+
+        base.activate(viewMember);
+        assertTrue(Utils.waitForCondition(2_000, () -> view.activeCardinality() == 3));
+
+        base.remove(viewMember);
+        assertTrue(Utils.waitForCondition(2_000, () -> view.activeCardinality() == 2));
+    }
+}
@@ -24,6 +24,12 @@ public class FirefliesParameters {
     public static final String  DEFAULT_HASH_ALGORITHM      = Conversion.SHA_256;
     private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.25;
 
+    /**
+     * Initiate gossip with register blocked bloom filters. Only enable when all
+     * members understand them
+     */
+    public final boolean blockedBloomFilters;
+
     /**
      * The CA certificate that signs all the member's certificates
      */
@@ -63,6 +69,11 @@ public class FirefliesParameters {
      * The JCE algorithm name used for signatures
      */
     public final String signatureAlgorithm;
+    /**
+     * Gossip with each ring successor over a long lived stream, falling back to
+     * unary calls for members that do not support streaming
+     */
+    public final boolean streaming;
     /**
      * The number of rings tolerated either by a failure or through byzantine
      * subversion
@@ -79,7 +90,19 @@ public class FirefliesParameters {
 
     public FirefliesParameters(X509Certificate ca, String signatureAlgorithm, String hashAlgorithm,
             double falsePositiveRate) {
+        this(ca, signatureAlgorithm, hashAlgorithm, falsePositiveRate, false);
+    }
+
+    public FirefliesParameters(X509Certificate ca, String signatureAlgorithm, String hashAlgorithm,
+            double falsePositiveRate, boolean blockedBloomFilters) {
+        this(ca, signatureAlgorithm, hashAlgorithm, falsePositiveRate, blockedBloomFilters, true);
+    }
+
+    public FirefliesParameters(X509Certificate ca, String signatureAlgorithm, String hashAlgorithm,
+            double falsePositiveRate, boolean blockedBloomFilters, boolean streaming) {
         this.ca = ca;
+        this.streaming = streaming;
+        this.blockedBloomFilters = blockedBloomFilters;
         this.signatureAlgorithm = signatureAlgorithm;
         this.hashAlgorithm = hashAlgorithm;
         this.falsePositiveRate = falsePositiveRate;
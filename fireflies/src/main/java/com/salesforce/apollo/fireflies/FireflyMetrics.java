@@ -9,14 +9,18 @@ package com.salesforce.apollo.fireflies;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
+import com.salesforce.apollo.comm.ExecutionLane.LaneMetrics;
 import com.salesforce.apollo.comm.ServerConnectionCache.ServerConnectionCacheMetrics;
 import com.salesforce.apollo.protocols.BandwidthMetrics;
+import com.salesforce.apollo.protocols.CompressionMetrics;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
 
 /**
  * @author hal.hildebrand
  *
  */
-public interface FireflyMetrics extends ServerConnectionCacheMetrics, BandwidthMetrics {
+public interface FireflyMetrics
+        extends ServerConnectionCacheMetrics, BandwidthMetrics, HandshakeMetrics, CompressionMetrics, LaneMetrics {
 
     Histogram gossipReply();
 
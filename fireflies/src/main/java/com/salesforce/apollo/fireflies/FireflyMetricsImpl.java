@@ -21,13 +21,17 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
     private final Meter     borrowRate;
     private final Timer     channelOpenDuration;
     private final Meter     closeConnectionRate;
+    private final Timer     compressionCpu;
+    private final Histogram compressionRatio;
     private final Counter   createConnection;
     private final Meter     createConnectionRate;
     private final Meter     failedConnectionRate;
     private final Counter   failedOpenConnection;
+    private final Meter     fullHandshakes;
     private final Histogram gossipReply;
     private final Histogram gossipResponse;
     private final Timer     gossipRoundDuration;
+    private final Timer     handshakeDuration;
     private final Meter inboundBandwidth;
     private final Histogram inboundGossip;
     private final Meter     inboundGossipRate;
@@ -46,9 +50,12 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
     private final Histogram outboundUpdate;
     private final Meter     outboundUpdateRate;
     private final Timer     outboundUpdateTimer;
+    private final MetricRegistry registry;
     private final Meter     releaseRate;
+    private final Meter     resumedHandshakes;
 
     public FireflyMetricsImpl(MetricRegistry registry) {
+        this.registry = registry;
         inboundBandwidth = registry.meter(INBOUND_BANDWIDTH);
         outboundBandwidth = registry.meter(OUTBOUND_BANDWIDTH);
 
@@ -81,6 +88,13 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         borrowRate = registry.meter("Connection Borrow Rate");
         releaseRate = registry.meter("Connection Release Rate");
 
+        compressionCpu = registry.timer(COMPRESSION_CPU);
+        compressionRatio = registry.histogram(COMPRESSION_RATIO);
+
+        fullHandshakes = registry.meter(FULL_HANDSHAKES);
+        resumedHandshakes = registry.meter(RESUMED_HANDSHAKES);
+        handshakeDuration = registry.timer(HANDSHAKE_DURATION);
+
         channelOpenDuration = registry.timer("Outbound Channel Open Duration");
         gossipRoundDuration = registry.timer("Gossip Round Duration");
 
@@ -101,6 +115,16 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         return closeConnectionRate;
     }
 
+    @Override
+    public Timer compressionCpu() {
+        return compressionCpu;
+    }
+
+    @Override
+    public Histogram compressionRatio() {
+        return compressionRatio;
+    }
+
     @Override
     public Counter createConnection() {
         return createConnection;
@@ -121,6 +145,11 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         return failedOpenConnection;
     }
 
+    @Override
+    public Meter fullHandshakes() {
+        return fullHandshakes;
+    }
+
     @Override
     public Histogram gossipReply() {
         return gossipReply;
@@ -136,6 +165,11 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         return gossipRoundDuration;
     }
 
+    @Override
+    public Timer handshakeDuration() {
+        return handshakeDuration;
+    }
+
     @Override
     public Meter inboundBandwidth() {
         return inboundBandwidth;
@@ -176,6 +210,16 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         return inboundUpdateTimer;
     }
 
+    @Override
+    public Counter laneDepth(String lane) {
+        return registry.counter(MetricRegistry.name(LANE_DEPTH, lane));
+    }
+
+    @Override
+    public Meter laneShed(String lane) {
+        return registry.meter(MetricRegistry.name(LANE_SHED, lane));
+    }
+
     @Override
     public Counter openConnections() {
         return openConnections;
@@ -231,4 +275,8 @@ public class FireflyMetricsImpl implements FireflyMetrics, BandwidthMetrics {
         return releaseRate;
     }
 
+    @Override
+    public Meter resumedHandshakes() {
+        return resumedHandshakes;
+    }
 }
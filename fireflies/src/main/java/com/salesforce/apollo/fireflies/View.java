@@ -23,9 +23,11 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -48,12 +50,16 @@ import com.salesfoce.apollo.proto.AccusationGossip.Builder;
 import com.salesfoce.apollo.proto.CertificateGossip;
 import com.salesfoce.apollo.proto.Digests;
 import com.salesfoce.apollo.proto.EncodedCertificate;
+import com.salesfoce.apollo.proto.FirefliesFrame;
 import com.salesfoce.apollo.proto.Gossip;
 import com.salesfoce.apollo.proto.Message;
 import com.salesfoce.apollo.proto.NoteGossip;
 import com.salesfoce.apollo.proto.Signed;
 import com.salesfoce.apollo.proto.Update;
+import com.salesforce.apollo.comm.ConnectionWarmer;
 import com.salesforce.apollo.comm.EndpointProvider;
+import com.salesforce.apollo.comm.ExecutionLane;
+import com.salesforce.apollo.comm.GossipStream;
 import com.salesforce.apollo.comm.Router;
 import com.salesforce.apollo.comm.Router.CommonCommunications;
 import com.salesforce.apollo.comm.StandardEpProvider;
@@ -64,7 +70,6 @@ import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.membership.Ring;
 import com.salesforce.apollo.protocols.BloomFilter;
 import com.salesforce.apollo.protocols.CaValidator;
-import com.salesforce.apollo.protocols.HashFunction;
 import com.salesforce.apollo.protocols.HashKey;
 import com.salesforce.apollo.protocols.Utils;
 
@@ -275,11 +280,11 @@ public class View {
             int seed = Utils.entropy().nextInt();
             return Gossip.newBuilder()
                          .setRedirect(false)
-                         .setCertificates(processCertificateDigests(from, new BloomFilter(digests.getCertificateBff()),
+                         .setCertificates(processCertificateDigests(from, BloomFilter.from(digests.getCertificateBff()),
                                                                     seed, getParameters().falsePositiveRate))
-                         .setNotes(processNoteDigests(from, new BloomFilter(digests.getNoteBff()), seed,
+                         .setNotes(processNoteDigests(from, BloomFilter.from(digests.getNoteBff()), seed,
                                                       getParameters().falsePositiveRate))
-                         .setAccusations(processAccusationDigests(new BloomFilter(digests.getAccusationBff()), seed,
+                         .setAccusations(processAccusationDigests(BloomFilter.from(digests.getAccusationBff()), seed,
                                                                   getParameters().falsePositiveRate))
                          .build();
         }
@@ -289,14 +294,15 @@ public class View {
                 return;
             }
             comm.register(context.getId(), service);
+            warmer.start(d);
             node.setFailed(false);
             node.nextNote();
             recover(node);
             List<HashKey> seedList = new ArrayList<>();
-            seeds.stream()
-                 .map(cert -> new Participant(cert, getParameters()))
-                 .peek(m -> seedList.add(m.getId()))
-                 .forEach(m -> addSeed(m));
+            addSeeds(seeds.stream()
+                          .map(cert -> new Participant(cert, getParameters()))
+                          .peek(m -> seedList.add(m.getId()))
+                          .collect(Collectors.toList()));
 
             long interval = d.toMillis();
             int initialDelay = Utils.entropy().nextInt((int) interval * 2);
@@ -318,6 +324,10 @@ public class View {
                 return;
             }
             comm.deregister(context.getId());
+            warmer.stop();
+            streams.values().forEach(s -> s.close());
+            streams.clear();
+            unary.clear();
             ScheduledFuture<?> currentGossip = futureGossip;
             futureGossip = null;
             if (currentGossip != null) {
@@ -349,6 +359,7 @@ public class View {
          * @return the next ClientCommunications in the next ring
          */
         FfClientCommunications nextRing() {
+            pruneStreams();
             FfClientCommunications link = null;
             int last = lastRing;
             int current = (last + 1) % getParameters().rings;
@@ -452,11 +463,26 @@ public class View {
      */
     private final Service service = new Service();
 
+    /**
+     * Open gossip streams by ring successor id
+     */
+    private final ConcurrentMap<HashKey, GossipStream<FirefliesFrame>> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Successors that do not support gossip streams
+     */
+    private final Set<HashKey> unary = ConcurrentHashMap.newKeySet();
+
     /**
      * The view of all known members
      */
     private final ConcurrentMap<HashKey, Participant> view = new ConcurrentHashMap<>();
 
+    /**
+     * Warms the connections to the node's ring neighbors
+     */
+    private final ConnectionWarmer<Participant> warmer;
+
     public View(HashKey id, Node node, Router communications, FireflyMetrics metrics) {
         this(id, node, communications, metrics, ForkJoinPool.commonPool());
     }
@@ -468,8 +494,11 @@ public class View {
         this.comm = communications.create(node, id, service,
                                           r -> new FfServerCommunications(service,
                                                   communications.getClientIdentityProvider(), metrics, r),
-                                          getCreate(metrics));
+                                          getCreate(metrics),
+                                          // pings and gossip are liveness critical, with reserved threads
+                                          ExecutionLane.newBuilder().setPriority(true));
         context = new Context<>(id, getParameters().rings);
+        warmer = communications.warmer(context, node);
         diameter = context.diameter(getParameters().cardinality);
         assert diameter > 0 : "Diameter must be greater than zero: " + diameter;
         add(node);
@@ -753,19 +782,21 @@ public class View {
     }
 
     /**
-     * For bootstrap, add the seed as a fake, non crashed member. The note is signed
-     * by this node, and so will be rejected by any other node as invalid. The
-     * gossip protocol of Fireflies provides redirects to what actual members
+     * For bootstrap, add the seeds as fake, non crashed members. Their notes are
+     * signed by this node, and so will be rejected by any other node as invalid.
+     * The gossip protocol of Fireflies provides redirects to what actual members
      * believe the view should be gossiping with, and so new members quickly
      * converge on a common, valid view of the membership
      * 
-     * @param seed
+     * @param seeds
      */
-    void addSeed(Participant seed) {
-        seed.setNote(new Note(seed.getId(), -1, Node.createInitialMask(getParameters().toleranceLevel, Utils.entropy()),
-                node.forSigning()));
-        context.add(seed);
-        context.activate(seed);
+    void addSeeds(List<Participant> seeds) {
+        seeds.forEach(seed -> {
+            seed.setNote(new Note(seed.getId(), -1,
+                    Node.createInitialMask(getParameters().toleranceLevel, Utils.entropy()), node.forSigning()));
+            context.add(seed);
+        });
+        context.activate(seeds);
     }
 
     /**
@@ -829,9 +860,12 @@ public class View {
     Digests commonDigests() {
         int seed = Utils.entropy().nextInt();
         return Digests.newBuilder()
-                      .setAccusationBff(getAccusationsBff(seed, getParameters().falsePositiveRate).toBff())
-                      .setNoteBff(getNotesBff(seed, getParameters().falsePositiveRate).toBff())
-                      .setCertificateBff(getCertificatesBff(seed, getParameters().falsePositiveRate).toBff())
+                      .setAccusationBff(getAccusationsBff(seed, getParameters().falsePositiveRate,
+                                                          getParameters().blockedBloomFilters).toBff())
+                      .setNoteBff(getNotesBff(seed, getParameters().falsePositiveRate,
+                                              getParameters().blockedBloomFilters).toBff())
+                      .setCertificateBff(getCertificatesBff(seed, getParameters().falsePositiveRate,
+                                                            getParameters().blockedBloomFilters).toBff())
                       .build();
     }
 
@@ -840,9 +874,8 @@ public class View {
         member.setFailed(true);
     }
 
-    BloomFilter getAccusationsBff(int seed, double p) {
-        BloomFilter bff = new BloomFilter(
-                new HashFunction(seed, getParameters().cardinality * getParameters().rings, p));
+    BloomFilter getAccusationsBff(int seed, double p, boolean blocked) {
+        BloomFilter bff = BloomFilter.create(seed, getParameters().cardinality * getParameters().rings, p, blocked);
         context.getActive()
                .stream()
                .flatMap(m -> m.getAccusations())
@@ -851,8 +884,8 @@ public class View {
         return bff;
     }
 
-    BloomFilter getCertificatesBff(int seed, double p) {
-        BloomFilter bff = new BloomFilter(new HashFunction(seed, getParameters().cardinality, p));
+    BloomFilter getCertificatesBff(int seed, double p, boolean blocked) {
+        BloomFilter bff = BloomFilter.create(seed, getParameters().cardinality, p, blocked);
         view.values()
             .stream()
             .map(m -> m.getCertificateHash())
@@ -861,8 +894,8 @@ public class View {
         return bff;
     }
 
-    BloomFilter getNotesBff(int seed, double p) {
-        BloomFilter bff = new BloomFilter(new HashFunction(seed, getParameters().cardinality, p));
+    BloomFilter getNotesBff(int seed, double p, boolean blocked) {
+        BloomFilter bff = BloomFilter.create(seed, getParameters().cardinality, p, blocked);
         view.values()
             .stream()
             .map(m -> m.getNote())
@@ -1014,7 +1047,34 @@ public class View {
             log.debug("No successor to node on ring: {} members: {}", ring, context.ring(ring).size());
             return null;
         }
-        return linkFor(successor);
+        FfClientCommunications link = linkFor(successor);
+        if (link != null && getParameters().streaming) {
+            link.useStream(streamTo(successor));
+        }
+        return link;
+    }
+
+    /**
+     * Close the gossip streams of members that are no longer ring successors
+     */
+    void pruneStreams() {
+        if (streams.isEmpty()) {
+            return;
+        }
+        Set<HashKey> successors = new HashSet<>();
+        for (int ring = 0; ring < getParameters().rings; ring++) {
+            Participant successor = context.ring(ring).successor(node, m -> !m.isFailed());
+            if (successor != null) {
+                successors.add(successor.getId());
+            }
+        }
+        streams.entrySet().removeIf(e -> {
+            if (successors.contains(e.getKey())) {
+                return false;
+            }
+            e.getValue().close();
+            return true;
+        });
     }
 
     /**
@@ -1131,7 +1191,7 @@ public class View {
                .flatMap(m -> m.getAccusations())
                .filter(a -> !bff.contains(new HashKey(a.hash())))
                .forEach(a -> builder.addUpdates(a.getSigned()));
-        builder.setBff(getAccusationsBff(seed, p).toBff());
+        builder.setBff(getAccusationsBff(seed, p, bff.isBlocked()).toBff());
         AccusationGossip gossip = builder.build();
         log.trace("process accusations produded updates: {}", gossip.getUpdatesCount());
         return gossip;
@@ -1149,7 +1209,7 @@ public class View {
             .map(m -> m.getEncodedCertificate())
             .filter(cert -> cert != null)
             .forEach(cert -> builder.addUpdates(cert));
-        builder.setBff(getCertificatesBff(seed, p).toBff());
+        builder.setBff(getCertificatesBff(seed, p, bff.isBlocked()).toBff());
         CertificateGossip gossip = builder.build();
         log.trace("process certificates produced updates: {}", gossip.getUpdatesCount());
         return gossip;
@@ -1177,7 +1237,7 @@ public class View {
                .filter(m -> !bff.contains(new HashKey(m.getNote().hash())))
                .map(m -> m.getSignedNote())
                .forEach(n -> builder.addUpdates(n));
-        builder.setBff(getNotesBff(seed, p).toBff());
+        builder.setBff(getNotesBff(seed, p, bff.isBlocked()).toBff());
         NoteGossip gossip = builder.build();
         log.trace("process notes produded updates: {}", gossip.getUpdatesCount());
         return gossip;
@@ -1323,7 +1383,7 @@ public class View {
         com.salesfoce.apollo.proto.Update.Builder builder = Update.newBuilder();
 
         // certificates
-        BloomFilter certBff = new BloomFilter(gossip.getCertificates().getBff());
+        BloomFilter certBff = BloomFilter.from(gossip.getCertificates().getBff());
         view.values()
             .stream()
             .filter(m -> !certBff.contains(new HashKey(m.getCertificateHash())))
@@ -1332,7 +1392,7 @@ public class View {
             .forEach(cert -> builder.addCertificates(cert));
 
         // notes
-        BloomFilter notesBff = new BloomFilter(gossip.getNotes().getBff());
+        BloomFilter notesBff = BloomFilter.from(gossip.getNotes().getBff());
         view.values()
             .stream()
             .filter(m -> m.getNote() != null)
@@ -1340,7 +1400,7 @@ public class View {
             .map(m -> m.getSignedNote())
             .forEach(n -> builder.addNotes(n));
 
-        BloomFilter accBff = new BloomFilter(gossip.getAccusations().getBff());
+        BloomFilter accBff = BloomFilter.from(gossip.getAccusations().getBff());
         context.getActive()
                .stream()
                .flatMap(m -> m.getAccusations())
@@ -1373,6 +1433,36 @@ public class View {
         }
     }
 
+    /**
+     * @return the open gossip stream to the successor, or null if the successor
+     *         does not support streaming
+     */
+    private GossipStream<FirefliesFrame> streamTo(Participant successor) {
+        HashKey id = successor.getId();
+        if (unary.contains(id)) {
+            return null;
+        }
+        GossipStream<FirefliesFrame> stream = streams.get(id);
+        if (stream != null && !stream.isClosed()) {
+            return stream;
+        }
+        if (stream != null) {
+            streams.remove(id, stream);
+            if (stream.isUnimplemented()) {
+                log.debug("Member: {} does not support gossip streams, falling back to unary calls", id);
+                unary.add(id);
+                return null;
+            }
+        }
+        FfClientCommunications connection = linkFor(successor);
+        if (connection == null) {
+            return null;
+        }
+        stream = connection.openStream();
+        streams.put(id, stream);
+        return stream;
+    }
+
     private FfClientCommunications linkFor(Participant m) {
         try {
             return comm.apply(m, node);
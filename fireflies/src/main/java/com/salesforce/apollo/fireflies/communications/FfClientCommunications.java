@@ -10,8 +10,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 
 import com.codahale.metrics.Timer.Context;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.salesfoce.apollo.proto.Digests;
+import com.salesfoce.apollo.proto.FirefliesFrame;
 import com.salesfoce.apollo.proto.FirefliesGrpc;
 import com.salesfoce.apollo.proto.FirefliesGrpc.FirefliesFutureStub;
 import com.salesfoce.apollo.proto.Gossip;
@@ -20,6 +23,7 @@ import com.salesfoce.apollo.proto.SayWhat;
 import com.salesfoce.apollo.proto.Signed;
 import com.salesfoce.apollo.proto.State;
 import com.salesfoce.apollo.proto.Update;
+import com.salesforce.apollo.comm.GossipStream;
 import com.salesforce.apollo.comm.ServerConnectionCache.CreateClientCommunications;
 import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
 import com.salesforce.apollo.fireflies.FireflyMetrics;
@@ -39,10 +43,11 @@ public class FfClientCommunications implements Fireflies {
 
     }
 
-    private final ManagedServerConnection channel;
-    private final FirefliesFutureStub     client;
-    private final Participant             member;
-    private final FireflyMetrics          metrics;
+    private final ManagedServerConnection         channel;
+    private final FirefliesFutureStub             client;
+    private final Participant                     member;
+    private final FireflyMetrics                  metrics;
+    private volatile GossipStream<FirefliesFrame> stream;
 
     public FfClientCommunications(ManagedServerConnection channel, Participant member, FireflyMetrics metrics) {
         this.member = member;
@@ -56,6 +61,14 @@ public class FfClientCommunications implements Fireflies {
         return member;
     }
 
+    /**
+     * Open a gossip stream on this connection, which remains borrowed until the
+     * stream closes
+     */
+    public GossipStream<FirefliesFrame> openStream() {
+        return new GossipStream<>(inbound -> FirefliesGrpc.newStub(channel.channel).link(inbound), () -> release());
+    }
+
     @Override
     public ListenableFuture<Gossip> gossip(HashKey context, Signed note, int ring, Digests digests) {
         Context timer = null;
@@ -69,7 +82,14 @@ public class FfClientCommunications implements Fireflies {
                                 .setRing(ring)
                                 .setGossip(digests)
                                 .build();
-            ListenableFuture<Gossip> result = client.gossip(sw);
+            GossipStream<FirefliesFrame> current = stream;
+            ListenableFuture<Gossip> result;
+            if (current != null && !current.isClosed()) {
+                result = Futures.transform(current.request(FirefliesFrame.newBuilder().setGossip(sw).build()),
+                                           frame -> frame.getReply(), MoreExecutors.directExecutor());
+            } else {
+                result = client.gossip(sw);
+            }
             if (metrics != null) {
                 metrics.outboundBandwidth().mark(sw.getSerializedSize());
                 metrics.outboundGossip().update(sw.getSerializedSize());
@@ -127,6 +147,13 @@ public class FfClientCommunications implements Fireflies {
 
     }
 
+    /**
+     * Gossip over the stream, rather than unary calls, while it remains open
+     */
+    public void useStream(GossipStream<FirefliesFrame> stream) {
+        this.stream = stream;
+    }
+
     @Override
     public String toString() {
         return String.format("->[%s]", member);
@@ -140,7 +167,12 @@ public class FfClientCommunications implements Fireflies {
         }
         try {
             State state = State.newBuilder().setContext(context.toID()).setRing(ring).setUpdate(update).build();
-            client.update(state);
+            GossipStream<FirefliesFrame> current = stream;
+            if (current != null && !current.isClosed()) {
+                current.send(FirefliesFrame.newBuilder().setUpdate(state).build());
+            } else {
+                client.update(state);
+            }
             if (metrics != null) {
                 metrics.outboundBandwidth().mark(state.getSerializedSize());
                 metrics.outboundUpdate().update(state.getSerializedSize());
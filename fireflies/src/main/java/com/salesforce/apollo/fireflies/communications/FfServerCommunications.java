@@ -6,16 +6,24 @@
  */
 package com.salesforce.apollo.fireflies.communications;
 
+import java.security.cert.X509Certificate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.codahale.metrics.Timer.Context;
+import com.salesfoce.apollo.proto.FirefliesFrame;
 import com.salesfoce.apollo.proto.FirefliesGrpc.FirefliesImplBase;
 import com.salesfoce.apollo.proto.Gossip;
 import com.salesfoce.apollo.proto.Null;
 import com.salesfoce.apollo.proto.SayWhat;
 import com.salesfoce.apollo.proto.State;
+import com.salesforce.apollo.comm.GossipLink;
 import com.salesforce.apollo.comm.RoutableService;
 import com.salesforce.apollo.fireflies.FireflyMetrics;
 import com.salesforce.apollo.fireflies.View.Service;
 import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.HashKey;
 
 import io.grpc.stub.StreamObserver;
 
@@ -24,6 +32,8 @@ import io.grpc.stub.StreamObserver;
  *
  */
 public class FfServerCommunications extends FirefliesImplBase {
+    private static final Logger log = LoggerFactory.getLogger(FfServerCommunications.class);
+
     private ClientIdentity                 identity;
     private final FireflyMetrics           metrics;
     private final RoutableService<Service> router;
@@ -62,6 +72,88 @@ public class FfServerCommunications extends FirefliesImplBase {
         });
     }
 
+    /**
+     * The gossip stream of a predecessor. Frames are routed by their context and
+     * evaluated in the service's execution lane, and every gossip frame is
+     * answered in order - with empty gossip if the context is unknown, or the
+     * evaluation fails or is shed - to keep the answers in the order of the
+     * requests
+     */
+    @Override
+    public StreamObserver<FirefliesFrame> link(StreamObserver<FirefliesFrame> responseObserver) {
+        HashKey from = identity.getFrom();
+        X509Certificate cert = identity.getCert();
+        GossipLink<FirefliesFrame> link = new GossipLink<>(responseObserver,
+                FirefliesFrame.newBuilder().setReply(Gossip.getDefaultInstance()).build());
+        return new StreamObserver<FirefliesFrame>() {
+            @Override
+            public void onCompleted() {
+                link.completed();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.trace("Gossip stream from: {} failed", from, t);
+                link.failed();
+            }
+
+            @Override
+            public void onNext(FirefliesFrame frame) {
+                switch (frame.getFrameCase()) {
+                case GOSSIP:
+                    gossip(frame.getGossip(), link.answer());
+                    break;
+                case UPDATE:
+                    update(frame.getUpdate(), link.acknowledge());
+                    break;
+                default:
+                    log.trace("Unexpected frame: {} from: {}", frame.getFrameCase(), from);
+                }
+            }
+
+            private void gossip(SayWhat request, StreamObserver<FirefliesFrame> reply) {
+                router.evaluate(reply, request.getContext(), s -> {
+                    Context timer = metrics == null ? null : metrics.inboundGossipTimer().time();
+                    try {
+                        Gossip gossip = s.rumors(request.getRing(), request.getGossip(), from, cert,
+                                                 request.getNote());
+                        reply.onNext(FirefliesFrame.newBuilder().setReply(gossip).build());
+                        if (metrics != null) {
+                            metrics.inboundGossipRate().mark();
+                            metrics.inboundBandwidth().mark(request.getSerializedSize());
+                            metrics.outboundBandwidth().mark(gossip.getSerializedSize());
+                            metrics.inboundGossip().update(request.getSerializedSize());
+                            metrics.gossipReply().update(gossip.getSerializedSize());
+                        }
+                    } finally {
+                        if (timer != null) {
+                            timer.stop();
+                        }
+                    }
+                });
+            }
+
+            private void update(State request, StreamObserver<FirefliesFrame> ack) {
+                router.evaluate(ack, request.getContext(), s -> {
+                    Context timer = metrics == null ? null : metrics.inboundUpdateTimer().time();
+                    try {
+                        s.update(request.getRing(), request.getUpdate(), from);
+                        ack.onCompleted();
+                        if (metrics != null) {
+                            metrics.inboundBandwidth().mark(request.getSerializedSize());
+                            metrics.inboundUpdate().update(request.getSerializedSize());
+                            metrics.inboundUpdateRate().mark();
+                        }
+                    } finally {
+                        if (timer != null) {
+                            timer.stop();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
     @Override
     public void ping(Null request, StreamObserver<Null> responseObserver) {
         router.evaluate(responseObserver, request.getContext(), s -> {
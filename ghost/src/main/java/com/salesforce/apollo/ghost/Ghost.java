@@ -11,7 +11,9 @@ import static com.salesforce.apollo.protocols.Conversion.hashOf;
 import static com.salesforce.apollo.protocols.HashKey.LAST;
 import static com.salesforce.apollo.protocols.HashKey.ORIGIN;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -19,6 +21,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
@@ -39,6 +43,11 @@ import com.salesforce.apollo.ghost.communications.GhostServerCommunications;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.membership.Ring;
 import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable;
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable.Difference;
+import com.salesforce.apollo.protocols.SpaceGhost;
+import com.salesforce.apollo.protocols.StrataEstimator;
+import com.salesforce.apollo.protocols.Utils;
 
 /**
  * Spaaaaaaaaaaaace Ghooooooooossssssstttttt.
@@ -96,14 +105,18 @@ public class Ghost {
      * The network service interface
      */
     public class Service {
-        private final AtomicBoolean busy    = new AtomicBoolean();
-        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicBoolean         busy    = new AtomicBoolean();
+        private volatile ScheduledFuture<?> futureJoin;
+        private final AtomicBoolean         started = new AtomicBoolean();
 
         public DagEntry get(HashKey key) {
             return store.get(key);
         }
 
-        @SuppressWarnings("unused")
+        /**
+         * Reconcile the keys of this node's intervals with its successor on each ring.
+         * The node has joined once a round finds nothing missing on every ring
+         */
         private void join() {
             if (!started.get()) {
                 return;
@@ -112,6 +125,7 @@ public class Ghost {
 
             if (!busy.compareAndSet(false, true)) {
                 log.trace("Busy");
+                return;
             }
             try {
                 CombinedIntervals keyIntervals = keyIntervals();
@@ -122,6 +136,8 @@ public class Ghost {
                     Member target = view.getRing(i).successor(getNode(), m -> m.isLive());
                     if (target == null) {
                         log.debug("No target on ring: {}", i);
+                        // nothing to reconcile with
+                        zeros++;
                         continue;
                     }
                     assert !target.equals(getNode());
@@ -132,7 +148,7 @@ public class Ghost {
                     }
                     try {
                         try {
-                            List<DagEntry> entries = connection.intervals(keyIntervals.toIntervals(), have);
+                            List<DagEntry> entries = Ghost.reconcile(connection, keyIntervals.toIntervals(), have);
                             if (entries.isEmpty()) {
                                 zeros++;
                             }
@@ -155,8 +171,7 @@ public class Ghost {
         }
 
         public List<DagEntry> intervals(List<Interval> intervals, List<HashKey> have) {
-            return store.entriesIn(new CombinedIntervals(
-                    intervals.stream().map(e -> new KeyInterval(e)).collect(Collectors.toList())), have);
+            return store.entriesIn(combined(intervals), have);
         }
 
         public Void put(DagEntry value) {
@@ -164,15 +179,29 @@ public class Ghost {
             return null;
         }
 
+        /**
+         * Answer the IBLT of the keys held in the intervals, sized for the difference
+         * between the estimator and the keys held, or null if the difference is too
+         * large for an IBLT
+         */
+        public InvertibleBloomLookupTable reconcile(List<Interval> intervals, StrataEstimator estimator) {
+            return Ghost.reconcile(store.have(combined(intervals)), estimator);
+        }
+
         public List<DagEntry> satisfy(List<HashKey> want) {
             return store.getUpdates(want);
         }
 
-        public void start() {
+        /**
+         * Start the service, joining the cluster in rounds of the interval until
+         * joined
+         */
+        public void start(Duration interval, ScheduledExecutorService scheduler) {
             if (!started.compareAndSet(false, true)) {
                 return;
             }
             communications.register(view.getContext().getId(), service);
+            scheduleJoin(interval, scheduler);
         }
 
         public void stop() {
@@ -180,12 +209,78 @@ public class Ghost {
                 return;
             }
             communications.deregister(view.getContext().getId());
+            ScheduledFuture<?> currentJoin = futureJoin;
+            futureJoin = null;
+            if (currentJoin != null) {
+                currentJoin.cancel(false);
+            }
+        }
+
+        private CombinedIntervals combined(List<Interval> intervals) {
+            return new CombinedIntervals(intervals.stream().map(e -> new KeyInterval(e)).collect(Collectors.toList()));
+        }
+
+        private void scheduleJoin(Duration interval, ScheduledExecutorService scheduler) {
+            futureJoin = scheduler.schedule(() -> ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    join();
+                } catch (Throwable e) {
+                    log.error("unexpected error during join round", e);
+                }
+                if (started.get() && !joined()) {
+                    scheduleJoin(interval, scheduler);
+                }
+            }), interval.toMillis(), TimeUnit.MILLISECONDS);
         }
     }
 
     public static final int     JOIN_MESSAGE_CHANNEL = 3;
     private static final Logger log                  = LoggerFactory.getLogger(Ghost.class);
 
+    /**
+     * Answer the IBLT of the keys, sized for the estimated difference between the
+     * estimator and the keys, or null if the table would exceed
+     * {@link InvertibleBloomLookupTable#MAX_CELLS}, and so the message size limit
+     */
+    static InvertibleBloomLookupTable reconcile(List<HashKey> keys, StrataEstimator estimator) {
+        StrataEstimator local = new StrataEstimator(estimator.getSeed());
+        keys.forEach(k -> local.add(k));
+        int estimate = local.estimate(estimator);
+        int cells = InvertibleBloomLookupTable.cellsFor(estimate);
+        if (cells > InvertibleBloomLookupTable.MAX_CELLS) {
+            log.trace("Estimated difference: {} of {} keys is too large to reconcile", estimate, keys.size());
+            return null;
+        }
+        InvertibleBloomLookupTable iblt = new InvertibleBloomLookupTable(estimator.getSeed(), cells);
+        keys.forEach(k -> iblt.add(k));
+        log.trace("reconciling {} keys, estimated difference: {}", keys.size(), estimate);
+        return iblt;
+    }
+
+    /**
+     * Reconcile the keys held in the intervals with the peer using the IBLT of the
+     * difference, falling back to sending the entire have list if the peer answers
+     * no IBLT - it predates reconciliation, or the difference is too large - or
+     * the difference cannot be decoded
+     */
+    static List<DagEntry> reconcile(SpaceGhost peer, List<Interval> intervals, List<HashKey> have) {
+        int seed = Utils.entropy().nextInt();
+        StrataEstimator estimator = new StrataEstimator(seed);
+        have.forEach(k -> estimator.add(k));
+        InvertibleBloomLookupTable theirs = peer.reconcile(intervals, estimator);
+        if (theirs != null) {
+            InvertibleBloomLookupTable mine = new InvertibleBloomLookupTable(seed, theirs.cells());
+            have.forEach(k -> mine.add(k));
+            Difference difference = theirs.subtract(mine).decode();
+            if (difference != null) {
+                log.trace("reconciled with {} : {}", peer, difference);
+                return difference.local.isEmpty() ? Collections.emptyList() : peer.satisfy(difference.local);
+            }
+            log.debug("Unable to decode IBLT of {} cells from {}", theirs.cells(), peer);
+        }
+        return peer.intervals(intervals, have);
+    }
+
     private final CommonCommunications<GhostClientCommunications, Service> communications;
     private final AtomicBoolean                                            joined  = new AtomicBoolean(false);
     private final ConcurrentSkipListSet<Member>                            joining = new ConcurrentSkipListSet<>();
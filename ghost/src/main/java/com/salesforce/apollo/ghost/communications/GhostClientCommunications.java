@@ -22,7 +22,9 @@ import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
 import com.salesforce.apollo.fireflies.Participant;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable;
 import com.salesforce.apollo.protocols.SpaceGhost;
+import com.salesforce.apollo.protocols.StrataEstimator;
 
 /**
  * @author hal.hildebrand
@@ -67,6 +69,7 @@ public class GhostClientCommunications implements SpaceGhost {
     public List<DagEntry> intervals(List<Interval> intervals, List<HashKey> have) {
         Builder builder = Intervals.newBuilder();
         intervals.forEach(e -> builder.addIntervals(e));
+        have.forEach(e -> builder.addHave(e.toByteString()));
         DagEntries result = client.intervals(builder.build());
         return result.getEntriesList();
     }
@@ -76,4 +79,21 @@ public class GhostClientCommunications implements SpaceGhost {
         client.put(ADagEntry.newBuilder().setEntry(value).build());
     }
 
+    @Override
+    public InvertibleBloomLookupTable reconcile(List<Interval> intervals, StrataEstimator estimator) {
+        Builder builder = Intervals.newBuilder().setEstimator(estimator.toStrata());
+        // a member that predates reconciliation answers this with no entries
+        intervals.forEach(e -> builder.addReconciling(e));
+        DagEntries result = client.intervals(builder.build());
+        return result.hasIblt() ? new InvertibleBloomLookupTable(result.getIblt()) : null;
+    }
+
+    @Override
+    public List<DagEntry> satisfy(List<HashKey> want) {
+        Builder builder = Intervals.newBuilder();
+        want.forEach(e -> builder.addWant(e.toID()));
+        DagEntries result = client.intervals(builder.build());
+        return result.getEntriesList();
+    }
+
 }
@@ -20,6 +20,8 @@ import com.salesforce.apollo.comm.RoutableService;
 import com.salesforce.apollo.ghost.Ghost.Service;
 import com.salesforce.apollo.protocols.ClientIdentity;
 import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable;
+import com.salesforce.apollo.protocols.StrataEstimator;
 
 import io.grpc.stub.StreamObserver;
 
@@ -49,9 +51,20 @@ public class GhostServerCommunications extends GhostImplBase {
     public void intervals(Intervals request, StreamObserver<DagEntries> responseObserver) {
         router.evaluate(responseObserver, request.getContext(), s -> {
             Builder builder = DagEntries.newBuilder();
-            s.intervals(request.getIntervalsList(),
-                        request.getHaveList().stream().map(e -> new HashKey(e)).collect(Collectors.toList()))
-             .forEach(e -> builder.addEntries(e));
+            if (request.hasEstimator()) {
+                InvertibleBloomLookupTable iblt = s.reconcile(request.getReconcilingList(),
+                                                              new StrataEstimator(request.getEstimator()));
+                if (iblt != null) {
+                    builder.setIblt(iblt.toIblt());
+                }
+            } else if (request.getWantCount() > 0) {
+                s.satisfy(request.getWantList().stream().map(e -> new HashKey(e)).collect(Collectors.toList()))
+                 .forEach(e -> builder.addEntries(e));
+            } else {
+                s.intervals(request.getIntervalsList(),
+                            request.getHaveList().stream().map(e -> new HashKey(e)).collect(Collectors.toList()))
+                 .forEach(e -> builder.addEntries(e));
+            }
             responseObserver.onNext(builder.build());
             responseObserver.onCompleted();
         });
@@ -134,7 +134,7 @@ public class DagTest {
                                         .map(view -> new Ghost(new GhostParameters(), communicatons.next(), view,
                                                 new MemoryStore()))
                                         .collect(Collectors.toList());
-        ghosties.forEach(e -> e.getService().start());
+        ghosties.forEach(e -> e.getService().start(Duration.ofMillis(100), scheduler));
         assertEquals(ghosties.size(),
                      ghosties.parallelStream()
                              .map(g -> Utils.waitForCondition(15_000, () -> g.joined()))
@@ -190,7 +190,7 @@ public class DagTest {
 
         then = System.currentTimeMillis();
         testViews.forEach(e -> e.getService().start(Duration.ofMillis(1000), seeds, scheduler));
-        ghosties.forEach(e -> e.getService().start());
+        ghosties.forEach(e -> e.getService().start(Duration.ofMillis(100), scheduler));
         assertEquals(ghosties.size(),
                      ghosties.parallelStream()
                              .map(g -> Utils.waitForCondition(240_000, () -> g.joined()))
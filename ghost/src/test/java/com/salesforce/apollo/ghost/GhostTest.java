@@ -124,7 +124,7 @@ public class GhostTest {
                                     .map(view -> new Ghost(new GhostParameters(), communications.next(), view,
                                             new MemoryStore()))
                                     .collect(Collectors.toList());
-        ghosties.forEach(e -> e.getService().start());
+        ghosties.forEach(e -> e.getService().start(Duration.ofMillis(100), scheduler));
         assertEquals(ghosties.size(),
                      ghosties.parallelStream()
                              .map(g -> Utils.waitForCondition(150_000, () -> g.joined()))
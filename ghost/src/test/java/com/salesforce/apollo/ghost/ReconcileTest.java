@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.ghost;
+
+import static com.salesforce.apollo.protocols.Conversion.hashOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.ByteMessage;
+import com.salesfoce.apollo.proto.DagEntry;
+import com.salesfoce.apollo.proto.Interval;
+import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable;
+import com.salesforce.apollo.protocols.SpaceGhost;
+import com.salesforce.apollo.protocols.StrataEstimator;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ReconcileTest {
+
+    /**
+     * A peer answering from its store, as the Ghost service does - or as a member
+     * that predates reconciliation does
+     */
+    private static class Peer implements SpaceGhost {
+        private int               intervals;
+        private final boolean     reconciles;
+        private int               satisfied;
+        private final MemoryStore store = new MemoryStore();
+
+        private Peer(boolean reconciles) {
+            this.reconciles = reconciles;
+        }
+
+        @Override
+        public DagEntry get(HashKey entry) {
+            return store.get(entry);
+        }
+
+        @Override
+        public List<DagEntry> intervals(List<Interval> intervals, List<HashKey> have) {
+            this.intervals++;
+            return store.entriesIn(combined(intervals), have);
+        }
+
+        @Override
+        public void put(DagEntry value) {
+            store.put(new HashKey(hashOf(value)), value);
+        }
+
+        @Override
+        public InvertibleBloomLookupTable reconcile(List<Interval> intervals, StrataEstimator estimator) {
+            return reconciles ? Ghost.reconcile(store.have(combined(intervals)), estimator) : null;
+        }
+
+        @Override
+        public List<DagEntry> satisfy(List<HashKey> want) {
+            satisfied++;
+            return store.getUpdates(want);
+        }
+    }
+
+    private static CombinedIntervals combined(List<Interval> intervals) {
+        return new CombinedIntervals(intervals.stream().map(e -> new KeyInterval(e)).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void capped() {
+        Random entropy = new Random(0x1638);
+        StrataEstimator estimator = new StrataEstimator(entropy.nextInt());
+        assertNotNull(Ghost.reconcile(keys(entropy, 100), estimator));
+        // the difference is too large for an IBLT within the message size limit
+        assertNull(Ghost.reconcile(keys(entropy, 2 * InvertibleBloomLookupTable.MAX_CELLS), estimator));
+    }
+
+    @Test
+    public void divergent() {
+        Peer peer = new Peer(true);
+        MemoryStore local = new MemoryStore();
+        Set<HashKey> missing = diverge(peer, local);
+
+        List<DagEntry> entries = Ghost.reconcile(peer, intervals(), local.have(combined(intervals())));
+        assertEquals(missing, keys(entries));
+        assertEquals(1, peer.satisfied);
+        assertEquals(0, peer.intervals);
+
+        List<HashKey> have = local.have(combined(intervals()));
+        local.add(entries, have);
+        assertTrue(Ghost.reconcile(peer, intervals(), have).isEmpty());
+        assertEquals(1, peer.satisfied);
+        assertEquals(0, peer.intervals);
+    }
+
+    @Test
+    public void unsupported() {
+        Peer peer = new Peer(false);
+        MemoryStore local = new MemoryStore();
+        Set<HashKey> missing = diverge(peer, local);
+
+        List<DagEntry> entries = Ghost.reconcile(peer, intervals(), local.have(combined(intervals())));
+        assertEquals(missing, keys(entries));
+        assertEquals(0, peer.satisfied);
+        assertEquals(1, peer.intervals);
+    }
+
+    /**
+     * Store entries in common, and entries only the peer and only the local store
+     * hold
+     *
+     * @return the keys of the entries only the peer holds
+     */
+    private Set<HashKey> diverge(Peer peer, MemoryStore local) {
+        Set<HashKey> missing = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            DagEntry entry = entry("common: " + i);
+            peer.put(entry);
+            local.put(new HashKey(hashOf(entry)), entry);
+        }
+        for (int i = 0; i < 20; i++) {
+            DagEntry entry = entry("peer: " + i);
+            peer.put(entry);
+            missing.add(new HashKey(hashOf(entry)));
+        }
+        for (int i = 0; i < 30; i++) {
+            DagEntry entry = entry("local: " + i);
+            local.put(new HashKey(hashOf(entry)), entry);
+        }
+        return missing;
+    }
+
+    private DagEntry entry(String contents) {
+        return DagEntry.newBuilder()
+                       .setData(Any.pack(ByteMessage.newBuilder()
+                                                    .setContents(ByteString.copyFromUtf8(contents))
+                                                    .build()))
+                       .build();
+    }
+
+    private List<Interval> intervals() {
+        return Collections.singletonList(new KeyInterval(HashKey.ORIGIN, HashKey.LAST).toInterval());
+    }
+
+    private List<HashKey> keys(Random entropy, int count) {
+        List<HashKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            keys.add(new HashKey(bytes));
+        }
+        return keys;
+    }
+
+    private Set<HashKey> keys(List<DagEntry> entries) {
+        return entries.stream().map(e -> new HashKey(hashOf(e))).collect(Collectors.toSet());
+    }
+}
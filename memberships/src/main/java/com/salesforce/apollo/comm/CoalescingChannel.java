@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import com.salesfoce.apollo.proto.Batch;
+import com.salesfoce.apollo.proto.Call;
+import com.salesfoce.apollo.proto.EnvelopeGrpc;
+import com.salesfoce.apollo.proto.Replies;
+import com.salesfoce.apollo.proto.Reply;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.ConnectivityState;
+import io.grpc.Deadline;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Status;
+import io.grpc.stub.ClientCalls;
+
+/**
+ * A channel to a member that coalesces unary calls - from any service and
+ * context - into envelope calls, fanned out by the member's
+ * {@link EnvelopeServer}. A call issued while no other call is outstanding is
+ * sent directly, without delay. Calls issued while others are outstanding are
+ * held for at most the window, and sent together as soon as the outstanding
+ * calls complete, the window closes, or the batch reaches its count or byte
+ * limit. Requests are serialized by the calling thread, and batches are sent
+ * from the executor rather than the scheduler timing the window.
+ * <p>
+ * Each call keeps its deadline, which the envelope carries to the member, and a
+ * call cancelled or past its deadline before its batch is sent is not sent.
+ * The compression of the envelope is that of its first call requesting
+ * compression. An envelope carries the headers of the underlying channel
+ * alone, so a call issued with headers of its own is sent directly, as are
+ * streaming calls. Should the member not provide the envelope service, the
+ * channel falls back to direct calls
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class CoalescingChannel extends ManagedChannel {
+
+    private class Coalesced<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        private final AtomicBoolean                 completed = new AtomicBoolean();
+        private Deadline                            deadline;
+        private volatile ClientCall<ReqT, RespT>    direct;
+        private Metadata                            headers;
+        private Listener<RespT>                     listener;
+        private final MethodDescriptor<ReqT, RespT> method;
+        private final CallOptions                   options;
+        private ReqT                                request;
+        private int                                 requested;
+        private ByteString                          serialized;
+        private volatile ScheduledFuture<?>         timeout;
+
+        private Coalesced(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+            this.method = method;
+            this.options = options;
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            ClientCall<ReqT, RespT> call = direct;
+            if (call != null) {
+                call.cancel(message, cause);
+            } else {
+                complete(Status.CANCELLED.withDescription(message).withCause(cause), null);
+            }
+        }
+
+        @Override
+        public void halfClose() {
+            if (request == null) {
+                complete(Status.INTERNAL.withDescription("No request sent"), null);
+                return;
+            }
+            try {
+                serialized = serialize();
+            } catch (RuntimeException e) {
+                complete(Status.INTERNAL.withDescription("Unable to serialize request").withCause(e), null);
+                return;
+            }
+            enqueue(this);
+        }
+
+        @Override
+        public void request(int numMessages) {
+            requested += numMessages;
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            request = message;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            this.listener = responseListener;
+            this.headers = headers;
+            deadline = options.getDeadline();
+            Deadline inherited = Context.current().getDeadline();
+            if (deadline == null || (inherited != null && inherited.isBefore(deadline))) {
+                deadline = inherited;
+            }
+        }
+
+        private void complete(Status status, ByteString response) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            ScheduledFuture<?> current = timeout;
+            if (current != null) {
+                current.cancel(false);
+            }
+            Executor executor = options.getExecutor();
+            if (executor == null) {
+                notify(status, response);
+            } else {
+                executor.execute(() -> notify(status, response));
+            }
+        }
+
+        /**
+         * Issue the call directly on the underlying channel
+         */
+        private void direct() {
+            if (!completed.compareAndSet(false, true)) {
+                sent();
+                return;
+            }
+            ScheduledFuture<?> current = timeout;
+            if (current != null) {
+                current.cancel(false);
+            }
+            ClientCall<ReqT, RespT> call = delegate.newCall(method, options);
+            direct = call;
+            call.start(new SimpleForwardingClientCallListener<RespT>(listener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    try {
+                        super.onClose(status, trailers);
+                    } finally {
+                        sent();
+                    }
+                }
+            }, headers);
+            call.request(Math.max(1, requested));
+            call.sendMessage(request);
+            call.halfClose();
+        }
+
+        /**
+         * Hold the call for a batch, failing it should its deadline pass first
+         */
+        private void hold() {
+            if (deadline != null) {
+                timeout = scheduler.schedule(() -> executor.execute(() -> complete(Status.DEADLINE_EXCEEDED.withDescription("Deadline exceeded awaiting coalesced call"),
+                                                                                   null)),
+                                             deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * @return the call to send in an envelope, or null if the call has been
+         *         cancelled or its deadline has passed
+         */
+        private Call toCall() {
+            if (completed.get()) {
+                return null;
+            }
+            Call.Builder call = Call.newBuilder().setMethod(method.getFullMethodName()).setRequest(serialized);
+            if (deadline != null) {
+                long remaining = deadline.timeRemaining(TimeUnit.NANOSECONDS);
+                if (remaining <= 0) {
+                    complete(Status.DEADLINE_EXCEEDED.withDescription("Deadline exceeded awaiting coalesced call"),
+                             null);
+                    return null;
+                }
+                call.setTimeout(remaining);
+            }
+            return call.build();
+        }
+
+        /**
+         * Notify the listener of the call's completion, failing the call should its
+         * response not parse
+         */
+        private void notify(Status status, ByteString response) {
+            if (status.isOk()) {
+                RespT parsed;
+                try {
+                    parsed = method.parseResponse(response.newInput());
+                } catch (RuntimeException e) {
+                    listener.onClose(Status.INTERNAL.withDescription("Unable to parse response of "
+                            + method.getFullMethodName()).withCause(e), new Metadata());
+                    return;
+                }
+                listener.onHeaders(new Metadata());
+                listener.onMessage(parsed);
+            }
+            listener.onClose(status, new Metadata());
+        }
+
+        private ByteString serialize() {
+            if (request instanceof MessageLite) {
+                return ((MessageLite) request).toByteString();
+            }
+            try {
+                return ByteString.readFrom(method.streamRequest(request));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to serialize request of " + method.getFullMethodName(), e);
+            }
+        }
+    }
+
+    /**
+     * The default limit of the serialized requests of a batch, well below the
+     * default maximum inbound message size of a gRPC server
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingChannel.class);
+
+    private final ManagedChannel           delegate;
+    private final Executor                 executor;
+    private ScheduledFuture<?>             flush;
+    private int                            inFlight;
+    private final int                      maxBatch;
+    private final int                      maxBatchBytes;
+    private List<Coalesced<?, ?>>          pending      = new ArrayList<>();
+    private int                            pendingBytes = 0;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean               unsupported;
+    private final long                     window;
+
+    public CoalescingChannel(ManagedChannel delegate, Duration window, ScheduledExecutorService scheduler) {
+        this(delegate, window, scheduler, 64);
+    }
+
+    public CoalescingChannel(ManagedChannel delegate, Duration window, ScheduledExecutorService scheduler,
+            int maxBatch) {
+        this(delegate, window, scheduler, ForkJoinPool.commonPool(), maxBatch, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * @param scheduler     - times the window and the deadlines of held calls
+     * @param executor      - sends the batches held for the window
+     * @param maxBatch      - the maximum number of calls in an envelope
+     * @param maxBatchBytes - the maximum size of the serialized requests of an
+     *                      envelope. A larger request is sent directly
+     */
+    public CoalescingChannel(ManagedChannel delegate, Duration window, ScheduledExecutorService scheduler,
+            Executor executor, int maxBatch, int maxBatchBytes) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Max batch must be > 0: " + maxBatch);
+        }
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("Max batch bytes must be > 0: " + maxBatchBytes);
+        }
+        this.delegate = delegate;
+        this.window = Math.max(1, window.toNanos());
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @Override
+    public String authority() {
+        return delegate.authority();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public void enterIdle() {
+        delegate.enterIdle();
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        return delegate.getState(requestConnection);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(MethodDescriptor<RequestT, ResponseT> method,
+                                                                         CallOptions callOptions) {
+        if (unsupported || method.getType() != MethodType.UNARY
+                || method.getFullMethodName().equals(EnvelopeGrpc.getDeliverMethod().getFullMethodName())) {
+            return delegate.newCall(method, callOptions);
+        }
+        return new Coalesced<>(method, callOptions);
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        delegate.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        delegate.resetConnectBackoff();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        List<Coalesced<?, ?>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+        delegate.shutdown();
+        return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        List<Coalesced<?, ?>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        batch.forEach(c -> c.complete(Status.UNAVAILABLE.withDescription("Channel shutdown"), null));
+        delegate.shutdownNow();
+        return this;
+    }
+
+    /**
+     * Send the batch, which has been counted in flight
+     */
+    private void deliver(List<Coalesced<?, ?>> batch) {
+        if (unsupported) {
+            direct(batch);
+            return;
+        }
+        List<Coalesced<?, ?>> sending = new ArrayList<>(batch.size());
+        Batch.Builder builder = Batch.newBuilder();
+        Deadline deadline = null;
+        boolean unbounded = false;
+        String compressor = null;
+        for (Coalesced<?, ?> call : batch) {
+            Call c = call.toCall();
+            if (c == null) {
+                continue;
+            }
+            sending.add(call);
+            builder.addCalls(c);
+            Deadline d = call.deadline;
+            if (d == null) {
+                unbounded = true;
+            } else if (deadline == null || deadline.isBefore(d)) {
+                deadline = d;
+            }
+            if (compressor == null) {
+                compressor = call.options.getCompressor();
+            }
+        }
+        if (sending.isEmpty()) {
+            sent();
+            return;
+        }
+        if (sending.size() == 1) {
+            sending.get(0).direct();
+            return;
+        }
+        // the envelope lasts as long as its longest call, each call timing out on its own
+        CallOptions options = CallOptions.DEFAULT;
+        if (!unbounded) {
+            options = options.withDeadline(deadline);
+        }
+        if (compressor != null) {
+            options = options.withCompression(compressor);
+        }
+        ListenableFuture<Replies> replies = ClientCalls.futureUnaryCall(delegate.newCall(EnvelopeGrpc.getDeliverMethod(),
+                                                                                         options),
+                                                                        builder.build());
+        replies.addListener(() -> {
+            try {
+                demultiplex(sending, replies);
+            } finally {
+                sent();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void demultiplex(List<Coalesced<?, ?>> batch, ListenableFuture<Replies> future) {
+        Replies replies;
+        try {
+            replies = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.forEach(c -> c.complete(Status.CANCELLED.withCause(e), null));
+            return;
+        } catch (ExecutionException e) {
+            Status status = Status.fromThrowable(e.getCause());
+            if (status.getCode() == Status.Code.UNIMPLEMENTED) {
+                log.debug("Envelope service not provided by: {}, falling back to direct calls", authority());
+                unsupported = true;
+                synchronized (this) {
+                    inFlight += batch.size();
+                }
+                batch.forEach(c -> c.direct());
+            } else {
+                batch.forEach(c -> c.complete(status, null));
+            }
+            return;
+        }
+        if (replies.getRepliesCount() != batch.size()) {
+            Status status = Status.INTERNAL.withDescription("Expected " + batch.size() + " replies, received: "
+                    + replies.getRepliesCount());
+            batch.forEach(c -> c.complete(status, null));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Reply reply = replies.getReplies(i);
+            Status status = Status.fromCodeValue(reply.getStatus());
+            if (!reply.getDescription().isEmpty()) {
+                status = status.withDescription(reply.getDescription());
+            }
+            batch.get(i).complete(status, reply.getResponse());
+        }
+    }
+
+    /**
+     * Send each call of the batch, counted in flight as one, directly
+     */
+    private void direct(List<Coalesced<?, ?>> batch) {
+        synchronized (this) {
+            inFlight += batch.size() - 1;
+        }
+        batch.forEach(c -> c.direct());
+    }
+
+    private void enqueue(Coalesced<?, ?> call) {
+        int size = call.serialized.size();
+        List<Coalesced<?, ?>> batch = null;
+        boolean now = false;
+        synchronized (this) {
+            if (size >= maxBatchBytes || !call.headers.keys().isEmpty() || (inFlight == 0 && pending.isEmpty())) {
+                inFlight++;
+                now = true;
+            } else {
+                if (pendingBytes + size > maxBatchBytes) {
+                    batch = take();
+                }
+                pending.add(call);
+                pendingBytes += size;
+                call.hold();
+                if (batch == null && pending.size() >= maxBatch) {
+                    batch = take();
+                } else if (flush == null) {
+                    flush = scheduler.schedule(() -> executor.execute(() -> flush()), window,
+                                               TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        if (now) {
+            call.direct();
+        }
+        if (batch != null) {
+            deliver(batch);
+        }
+    }
+
+    private void flush() {
+        List<Coalesced<?, ?>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+    }
+
+    /**
+     * An exchange in flight has completed, flushing the held calls if none remain
+     * in flight
+     */
+    private void sent() {
+        boolean idle;
+        synchronized (this) {
+            inFlight--;
+            idle = inFlight == 0 && !pending.isEmpty();
+        }
+        if (idle) {
+            executor.execute(() -> flush());
+        }
+    }
+
+    /**
+     * @return the pending calls, counted in flight and canceling any scheduled
+     *         flush. Must be called while synchronized
+     */
+    private List<Coalesced<?, ?>> take() {
+        if (flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+        List<Coalesced<?, ?>> batch = pending;
+        if (!batch.isEmpty()) {
+            inFlight++;
+        }
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        return batch;
+    }
+}
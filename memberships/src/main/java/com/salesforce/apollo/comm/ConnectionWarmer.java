@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.apollo.membership.Context;
+import com.salesforce.apollo.membership.Context.MembershipListener;
+import com.salesforce.apollo.membership.Context.ViewDelta;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.membership.Ring;
+import com.salesforce.apollo.protocols.HashKey;
+
+/**
+ * Keeps the connections the node is about to use warm. On changes of the
+ * membership of the context, the connections to the node's successor and
+ * predecessor on each ring are established in advance of their first use, and
+ * they, along with the most borrowed connections of the cache, are pinned
+ * against idle eviction. Connections no longer warranted are unpinned, and left
+ * to the cache's sweep
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class ConnectionWarmer<T extends Member> implements MembershipListener<T> {
+    private static final Logger                   log       = LoggerFactory.getLogger(ConnectionWarmer.class);
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+                                                                Thread t = new Thread(r, "Connection warmer");
+                                                                t.setDaemon(true);
+                                                                return t;
+                                                            });
+
+    private final ServerConnectionCache cache;
+    private final Context<T>            context;
+    private final Duration              debounce;
+    private final T                     node;
+    private final AtomicBoolean         pending = new AtomicBoolean();
+    private final Set<HashKey>          pinned  = new HashSet<>();
+    private volatile ScheduledFuture<?> refresh;
+    private final AtomicBoolean         started = new AtomicBoolean();
+    private final int                   topN;
+
+    /**
+     * @param topN     - the number of most borrowed connections to pin
+     * @param debounce - the delay coalescing bursts of membership changes
+     */
+    public ConnectionWarmer(Context<T> context, T node, ServerConnectionCache cache, int topN,
+            Duration debounce) {
+        this.context = context;
+        this.node = node;
+        this.cache = cache;
+        this.topN = topN;
+        this.debounce = debounce;
+    }
+
+    @Override
+    public void changed(ViewDelta<T> delta) {
+        schedule();
+    }
+
+    /**
+     * Start warming, refreshing the most borrowed connections periodically as
+     * well as on changes of membership
+     */
+    public void start(Duration interval) {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        context.subscribe(this);
+        long millis = Math.max(1, interval.toMillis());
+        refresh = SCHEDULER.scheduleWithFixedDelay(() -> warm(), 0, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop warming, unpinning all connections pinned by the receiver
+     */
+    public void stop() {
+        if (!started.compareAndSet(true, false)) {
+            return;
+        }
+        context.deregister(this);
+        ScheduledFuture<?> current = refresh;
+        refresh = null;
+        if (current != null) {
+            current.cancel(false);
+        }
+        synchronized (pinned) {
+            pinned.forEach(id -> cache.unpin(id));
+            pinned.clear();
+        }
+    }
+
+    /**
+     * Warm and pin the connections to the current ring neighbors and the most
+     * borrowed peers, unpinning those no longer warranted. Each neighbor is
+     * pinned before it is warmed, so the sweep cannot close a warmed connection
+     * before it is pinned, and warming does not wait on connections being
+     * established
+     */
+    void warm() {
+        pending.set(false);
+        if (!started.get()) {
+            return;
+        }
+        try {
+            Map<HashKey, T> neighbors = new LinkedHashMap<>();
+            for (int i = 0; i < context.getRingCount(); i++) {
+                Ring<T> ring = context.ring(i);
+                neighbor(ring.successor(node), neighbors);
+                neighbor(ring.predecessor(node), neighbors);
+            }
+            List<HashKey> mostBorrowed = cache.mostBorrowed(topN);
+            synchronized (pinned) {
+                if (!started.get()) {
+                    return;
+                }
+                Set<HashKey> warranted = new HashSet<>();
+                for (T neighbor : neighbors.values()) {
+                    if (pinned.contains(neighbor.getId())) {
+                        if (cache.warm(neighbor, node)) {
+                            warranted.add(neighbor.getId());
+                        }
+                    } else if (cache.pinWarm(neighbor, node)) {
+                        pinned.add(neighbor.getId());
+                        warranted.add(neighbor.getId());
+                    }
+                }
+                for (HashKey id : mostBorrowed) {
+                    if (warranted.add(id) && pinned.add(id)) {
+                        cache.pin(id);
+                    }
+                }
+                pinned.removeIf(id -> {
+                    if (warranted.contains(id)) {
+                        return false;
+                    }
+                    cache.unpin(id);
+                    return true;
+                });
+            }
+        } catch (Throwable e) {
+            log.error("Error warming connections of {} in {}", node.getId(), context.getId(), e);
+        }
+    }
+
+    private void neighbor(T neighbor, Map<HashKey, T> neighbors) {
+        if (neighbor == null || neighbor.getId().equals(node.getId())) {
+            return;
+        }
+        neighbors.putIfAbsent(neighbor.getId(), neighbor);
+    }
+
+    private void schedule() {
+        if (started.get() && pending.compareAndSet(false, true)) {
+            SCHEDULER.schedule(() -> warm(), debounce.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import com.salesfoce.apollo.proto.Batch;
+import com.salesfoce.apollo.proto.Call;
+import com.salesfoce.apollo.proto.EnvelopeGrpc.EnvelopeImplBase;
+import com.salesfoce.apollo.proto.Replies;
+import com.salesfoce.apollo.proto.Reply;
+
+import io.grpc.Attributes;
+import io.grpc.BindableService;
+import io.grpc.Context;
+import io.grpc.Context.CancellableContext;
+import io.grpc.Contexts;
+import io.grpc.HandlerRegistry;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The server of the envelopes of a {@link CoalescingChannel}. Each coalesced
+ * call is dispatched to the handler of its method in the router's registry -
+ * and thus to the service bound to the call's context by the method's
+ * {@link RoutableService} - in the context of the envelope call. The calls are
+ * dispatched through the server's interceptors, with the headers and transport
+ * attributes of the envelope call, so that accounting and the identity of the
+ * caller see each coalesced call as if it were issued directly. Each call runs
+ * to its own deadline. The replies are returned in the order of the calls once
+ * all have completed
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class EnvelopeServer implements BindableService {
+
+    /**
+     * The server call of a coalesced call, capturing its reply
+     */
+    private static class LocalCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+        private final Attributes                    attributes;
+        private final Context                       context;
+        private final MethodDescriptor<ReqT, RespT> method;
+        private final CompletableFuture<Reply>      reply    = new CompletableFuture<>();
+        private volatile ByteString                 response = ByteString.EMPTY;
+
+        private LocalCall(MethodDescriptor<ReqT, RespT> method, Attributes attributes, Context context) {
+            this.method = method;
+            this.attributes = attributes;
+            this.context = context;
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            reply.complete(status.isOk() ? reply(status).toBuilder().setResponse(response).build() : reply(status));
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+            return method;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return context.isCancelled();
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            if (message instanceof MessageLite) {
+                response = ((MessageLite) message).toByteString();
+                return;
+            }
+            try {
+                response = ByteString.readFrom(method.streamResponse(message));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to serialize response of " + method.getFullMethodName(), e);
+            }
+        }
+    }
+
+    /**
+     * The headers and transport attributes of the envelope call
+     */
+    private static class Envelope {
+        private final Attributes attributes;
+        private final Metadata   headers;
+
+        private Envelope(Attributes attributes, Metadata headers) {
+            this.attributes = attributes;
+            this.headers = headers;
+        }
+    }
+
+    private static final Context.Key<Envelope>    ENVELOPE = Context.key("Envelope");
+    /**
+     * Cancels the coalesced calls at their deadlines
+     */
+    private static final ScheduledExecutorService TIMER    = Executors.newSingleThreadScheduledExecutor(r -> {
+                                                               Thread t = new Thread(r, "Envelope deadlines");
+                                                               t.setDaemon(true);
+                                                               return t;
+                                                           });
+
+    private static Reply reply(Status status) {
+        Reply.Builder builder = Reply.newBuilder().setStatus(status.getCode().value());
+        if (status.getDescription() != null) {
+            builder.setDescription(status.getDescription());
+        }
+        return builder.build();
+    }
+
+    private volatile List<ServerInterceptor> interceptors = Collections.emptyList();
+    private final HandlerRegistry            registry;
+    private final EnvelopeImplBase           service      = new EnvelopeImplBase() {
+                                                              @Override
+                                                              public void deliver(Batch request,
+                                                                                  StreamObserver<Replies> responseObserver) {
+                                                                  EnvelopeServer.this.deliver(request,
+                                                                                              responseObserver);
+                                                              }
+                                                          };
+
+    public EnvelopeServer(HandlerRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public ServerServiceDefinition bindService() {
+        // captures the headers and attributes of the envelope call
+        return ServerInterceptors.intercept(service, new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                return Contexts.interceptCall(Context.current()
+                                                     .withValue(ENVELOPE,
+                                                                new Envelope(call.getAttributes(), headers)),
+                                              call, headers, next);
+            }
+        });
+    }
+
+    public void deliver(Batch request, StreamObserver<Replies> responseObserver) {
+        Envelope envelope = ENVELOPE.get();
+        if (envelope == null) {
+            envelope = new Envelope(Attributes.EMPTY, new Metadata());
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Reply>[] replies = new CompletableFuture[request.getCallsCount()];
+        for (int i = 0; i < replies.length; i++) {
+            replies[i] = evaluate(request.getCalls(i), envelope);
+        }
+        CompletableFuture.allOf(replies).whenComplete((v, t) -> {
+            Replies.Builder builder = Replies.newBuilder();
+            for (CompletableFuture<Reply> reply : replies) {
+                builder.addReplies(reply.join());
+            }
+            responseObserver.onNext(builder.build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    /**
+     * Dispatch the coalesced calls through the interceptors, in the order added -
+     * the last intercepts first
+     */
+    public void setInterceptors(List<ServerInterceptor> interceptors) {
+        this.interceptors = new ArrayList<>(interceptors);
+    }
+
+    private <ReqT, RespT> CompletableFuture<Reply> dispatch(ServerMethodDefinition<ReqT, RespT> definition,
+                                                            Call request, Envelope envelope) {
+        MethodDescriptor<ReqT, RespT> method = definition.getMethodDescriptor();
+        CancellableContext context = request.getTimeout() > 0
+                ? Context.current().withDeadlineAfter(request.getTimeout(), TimeUnit.NANOSECONDS, TIMER)
+                : Context.current().withCancellation();
+        LocalCall<ReqT, RespT> call = new LocalCall<>(method, envelope.attributes, context);
+        context.addListener(c -> call.close(Contexts.statusFromCancelled(c), new Metadata()),
+                            MoreExecutors.directExecutor());
+        call.reply.whenComplete((r, t) -> context.cancel(null));
+        Context previous = context.attach();
+        try {
+            Metadata headers = new Metadata();
+            headers.merge(envelope.headers);
+            ServerCall.Listener<ReqT> listener = intercepted(definition.getServerCallHandler()).startCall(call,
+                                                                                                          headers);
+            listener.onMessage(method.parseRequest(request.getRequest().newInput()));
+            listener.onHalfClose();
+        } catch (Throwable e) {
+            call.close(Status.fromThrowable(e), new Metadata());
+        } finally {
+            context.detach(previous);
+        }
+        return call.reply;
+    }
+
+    private CompletableFuture<Reply> evaluate(Call call, Envelope envelope) {
+        ServerMethodDefinition<?, ?> definition = registry.lookupMethod(call.getMethod());
+        if (definition == null || definition.getMethodDescriptor().getType() != MethodType.UNARY) {
+            return CompletableFuture.completedFuture(reply(Status.UNIMPLEMENTED.withDescription("Unknown unary method: "
+                    + call.getMethod())));
+        }
+        return dispatch(definition, call, envelope);
+    }
+
+    private <ReqT, RespT> ServerCallHandler<ReqT, RespT> intercepted(ServerCallHandler<ReqT, RespT> handler) {
+        ServerCallHandler<ReqT, RespT> intercepted = handler;
+        for (ServerInterceptor interceptor : interceptors) {
+            ServerCallHandler<ReqT, RespT> next = intercepted;
+            intercepted = (call, headers) -> interceptor.interceptCall(call, headers, next);
+        }
+        return intercepted;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+
+/**
+ * A bounded lane for the execution of the inbound calls of a service, isolating
+ * the service's calls from those of other services. A lane runs at most its
+ * concurrency of calls, queueing at most its maximum of further calls, and
+ * sheds the calls beyond that.
+ * <p>
+ * Priority lanes, for the liveness critical services, have capacity reserved
+ * for them that bulk traffic cannot take: their threads are started with the
+ * lane and kept, and once their queue is full they add up to their reserve of
+ * further threads before shedding. The calls of a lane never run on the calling
+ * thread, so a saturated lane does not block the server's executor
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class ExecutionLane implements Executor {
+
+    public static class Builder {
+        private int         concurrency = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private Duration    keepAlive   = Duration.ofSeconds(30);
+        private int         maxQueued   = 1024;
+        private LaneMetrics metrics;
+        private boolean     perContext  = false;
+        private boolean     priority    = false;
+        private int         reserve     = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        public ExecutionLane build(String name) {
+            return new ExecutionLane(name, this);
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public Duration getKeepAlive() {
+            return keepAlive;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public LaneMetrics getMetrics() {
+            return metrics;
+        }
+
+        public boolean isPerContext() {
+            return perContext;
+        }
+
+        public int getReserve() {
+            return reserve;
+        }
+
+        public boolean isPriority() {
+            return priority;
+        }
+
+        public Builder setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public Builder setKeepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public Builder setMetrics(LaneMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param perContext - if true, each context of the service has its own lane
+         */
+        public Builder setPerContext(boolean perContext) {
+            this.perContext = perContext;
+            return this;
+        }
+
+        public Builder setPriority(boolean priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * @param reserve - the threads a priority lane adds, beyond its
+         *                concurrency, once its queue is full
+         */
+        public Builder setReserve(int reserve) {
+            this.reserve = reserve;
+            return this;
+        }
+    }
+
+    public interface LaneMetrics {
+
+        String LANE_DEPTH = "Lane Depth";
+        String LANE_SHED  = "Lane Shed";
+
+        /**
+         * @return the number of calls of the lane waiting for execution
+         */
+        Counter laneDepth(String lane);
+
+        /**
+         * @return the rate of the calls of the lane rejected due to saturation
+         */
+        Meter laneShed(String lane);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private final Counter            depth;
+    private final ThreadPoolExecutor executor;
+    private final String             name;
+    private final boolean            priority;
+    private final Meter              shedRate;
+    private final LongAdder          shed = new LongAdder();
+
+    public ExecutionLane(String name, Builder builder) {
+        if (builder.concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be > 0: " + builder.concurrency);
+        }
+        if (builder.maxQueued < 1) {
+            throw new IllegalArgumentException("Max queued must be > 0: " + builder.maxQueued);
+        }
+        if (builder.reserve < 0) {
+            throw new IllegalArgumentException("Reserve must be >= 0: " + builder.reserve);
+        }
+        this.name = name;
+        this.priority = builder.priority;
+        depth = builder.metrics == null ? null : builder.metrics.laneDepth(name);
+        shedRate = builder.metrics == null ? null : builder.metrics.laneShed(name);
+        AtomicInteger count = new AtomicInteger();
+        int threads = builder.concurrency + (priority ? builder.reserve : 0);
+        executor = new ThreadPoolExecutor(builder.concurrency, threads, Math.max(1, builder.keepAlive.toMillis()),
+                                          TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(builder.maxQueued), r -> {
+                                              Thread t = new Thread(r, "Lane[" + name + "]:" + count.incrementAndGet());
+                                              t.setDaemon(true);
+                                              return t;
+                                          });
+        if (priority) {
+            executor.prestartAllCoreThreads();
+        } else {
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Execute the command in the lane
+     *
+     * @throws RejectedExecutionException - if the lane is saturated, or shutdown
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (depth != null) {
+            depth.inc();
+        }
+        try {
+            executor.execute(() -> {
+                if (depth != null) {
+                    depth.dec();
+                }
+                command.run();
+            });
+        } catch (RejectedExecutionException e) {
+            if (depth != null) {
+                depth.dec();
+            }
+            shed.increment();
+            if (shedRate != null) {
+                shedRate.mark();
+            }
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of calls waiting for execution
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of calls shed by the lane
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public boolean isPriority() {
+        return priority;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Lane[" + name + "]";
+    }
+}
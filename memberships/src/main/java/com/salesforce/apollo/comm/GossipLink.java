@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The server end of a {@link GossipStream}. The frames of the stream are
+ * evaluated asynchronously - by the {@link RoutableService} of each frame's
+ * context, in its execution lane - and answered in the order received, however
+ * the evaluations complete. Inbound flow control is manual: at most the window
+ * of frames are outstanding, and a further frame is requested only as each is
+ * answered and the outbound stream is ready, so slow evaluation or a slow peer
+ * pushes back on the sender rather than queueing without bound
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class GossipLink<Frame> {
+
+    /**
+     * The evaluation of a frame, completed by the frame's answer - or, for a frame
+     * that is not answered, by completion
+     */
+    private class Reply implements StreamObserver<Frame> {
+        private volatile Frame      answer;
+        private final boolean       answered;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile boolean    done;
+
+        private Reply(boolean answered) {
+            this.answered = answered;
+        }
+
+        @Override
+        public void onCompleted() {
+            complete(answered ? fallback : null);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.trace("Error evaluating frame", t);
+            complete(answered ? fallback : null);
+        }
+
+        @Override
+        public void onNext(Frame value) {
+            complete(answered ? value : null);
+        }
+
+        private void complete(Frame frame) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            answer = frame;
+            done = true;
+            drain();
+        }
+    }
+
+    public static final int DEFAULT_WINDOW = 16;
+
+    private static final Logger log = LoggerFactory.getLogger(GossipLink.class);
+
+    private volatile boolean                      closed;
+    private volatile boolean                      completed;
+    private final Frame                           fallback;
+    private final ServerCallStreamObserver<Frame> outbound;
+    private final Queue<Reply>                    replies = new ConcurrentLinkedQueue<>();
+
+    public GossipLink(StreamObserver<Frame> responseObserver, Frame fallback) {
+        this(responseObserver, fallback, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Must be constructed by the service's stream method, before it returns
+     *
+     * @param fallback - the answer of a frame whose evaluation fails
+     * @param window   - the maximum number of frames outstanding
+     */
+    public GossipLink(StreamObserver<Frame> responseObserver, Frame fallback, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be > 0: " + window);
+        }
+        this.fallback = fallback;
+        outbound = (ServerCallStreamObserver<Frame>) responseObserver;
+        outbound.disableAutoRequest();
+        outbound.setOnReadyHandler(() -> drain());
+        outbound.setOnCancelHandler(() -> closed = true);
+        outbound.request(window);
+    }
+
+    /**
+     * @return the observer of the evaluation of a frame that is not answered
+     */
+    public StreamObserver<Frame> acknowledge() {
+        return reserve(false);
+    }
+
+    /**
+     * @return the observer of the evaluation of a frame, answered with the
+     *         evaluation's first value
+     */
+    public StreamObserver<Frame> answer() {
+        return reserve(true);
+    }
+
+    /**
+     * The peer has completed the stream, which is completed in turn once all
+     * outstanding frames are answered
+     */
+    public void completed() {
+        completed = true;
+        drain();
+    }
+
+    /**
+     * The stream has failed
+     */
+    public void failed() {
+        closed = true;
+    }
+
+    /**
+     * Send the answers of the evaluated frames at the head of the stream, in
+     * order, requesting a further frame for each
+     */
+    private synchronized void drain() {
+        Reply head;
+        while ((head = replies.peek()) != null && head.done) {
+            if (!closed && head.answer != null) {
+                if (!outbound.isReady()) {
+                    // resumed when ready
+                    return;
+                }
+                try {
+                    outbound.onNext(head.answer);
+                } catch (RuntimeException e) {
+                    log.trace("Unable to answer frame", e);
+                    closed = true;
+                }
+            }
+            replies.poll();
+            if (!closed) {
+                outbound.request(1);
+            }
+        }
+        if (completed && !closed && replies.isEmpty()) {
+            closed = true;
+            try {
+                outbound.onCompleted();
+            } catch (RuntimeException e) {
+                log.trace("Unable to complete stream", e);
+            }
+        }
+    }
+
+    private Reply reserve(boolean answered) {
+        Reply reply = new Reply(answered);
+        replies.add(reply);
+        return reply;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The client end of a long lived, bidirectional stream of gossip frames with a
+ * ring successor. Frames sent as requests are answered by the peer in the order
+ * sent, so the gossip phases of successive rounds pipeline on the one stream,
+ * under the stream's flow control, with no per round call setup. Once closed -
+ * by either end, or by failure - a stream is not reopened; its owner replaces
+ * it, or falls back to unary calls when the peer does not implement streaming.
+ * <p>
+ * As the answers arrive in order, a request unanswered within the timeout
+ * leaves the stream stuck, so the stream is cancelled, failing all outstanding
+ * requests with DEADLINE_EXCEEDED
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class GossipStream<Frame> implements StreamObserver<Frame> {
+    /**
+     * The default time within which each request must be answered
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Logger                   log   = LoggerFactory.getLogger(GossipStream.class);
+    /**
+     * Times out the requests of all streams
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+                                                            Thread t = new Thread(r, "Gossip stream timeouts");
+                                                            t.setDaemon(true);
+                                                            return t;
+                                                        });
+
+    private final AtomicBoolean                closed  = new AtomicBoolean();
+    private final Runnable                     onClose;
+    private final StreamObserver<Frame>        outbound;
+    private final Queue<SettableFuture<Frame>> pending = new ConcurrentLinkedQueue<>();
+    private volatile Status                    status;
+    private final long                         timeout;
+
+    /**
+     * @param open    - opens the stream, given the observer of the inbound frames,
+     *                returning the observer of the outbound frames
+     * @param onClose - run once, when the stream closes
+     */
+    public GossipStream(Function<StreamObserver<Frame>, StreamObserver<Frame>> open, Runnable onClose) {
+        this(open, onClose, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param open    - opens the stream, given the observer of the inbound frames,
+     *                returning the observer of the outbound frames
+     * @param onClose - run once, when the stream closes
+     * @param timeout - the time within which each request must be answered
+     */
+    public GossipStream(Function<StreamObserver<Frame>, StreamObserver<Frame>> open, Runnable onClose,
+            Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        this.onClose = onClose;
+        this.timeout = timeout.toNanos();
+        this.outbound = open.apply(this);
+    }
+
+    /**
+     * Close the stream, failing any outstanding requests
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                outbound.onCompleted();
+            } catch (Throwable e) {
+                log.trace("Error completing stream", e);
+            }
+        }
+        terminate(Status.CANCELLED.withDescription("Stream closed"));
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return true if the stream failed as the peer does not implement it
+     */
+    public boolean isUnimplemented() {
+        Status current = status;
+        return current != null && current.getCode() == Status.Code.UNIMPLEMENTED;
+    }
+
+    @Override
+    public void onCompleted() {
+        terminate(Status.UNAVAILABLE.withDescription("Stream completed by peer"));
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        terminate(Status.fromThrowable(t));
+    }
+
+    @Override
+    public void onNext(Frame frame) {
+        SettableFuture<Frame> reply = pending.poll();
+        if (reply == null) {
+            log.debug("Unsolicited frame received, closing stream");
+            close();
+            return;
+        }
+        reply.set(frame);
+    }
+
+    /**
+     * Send the frame, answered in order by the peer
+     *
+     * @return the future answer of the peer
+     */
+    public ListenableFuture<Frame> request(Frame frame) {
+        SettableFuture<Frame> reply = SettableFuture.create();
+        synchronized (this) {
+            if (closed.get()) {
+                reply.setException(failure());
+                return reply;
+            }
+            pending.add(reply);
+            outbound.onNext(frame);
+        }
+        ScheduledFuture<?> expiry = TIMER.schedule(() -> {
+            if (!reply.isDone()) {
+                expired();
+            }
+        }, timeout, TimeUnit.NANOSECONDS);
+        reply.addListener(() -> expiry.cancel(false), MoreExecutors.directExecutor());
+        return reply;
+    }
+
+    /**
+     * Send the frame, which the peer does not answer
+     */
+    public void send(Frame frame) {
+        synchronized (this) {
+            if (closed.get()) {
+                throw failure();
+            }
+            outbound.onNext(frame);
+        }
+    }
+
+    /**
+     * Cancel the stream, as a request has not been answered in time
+     */
+    private void expired() {
+        log.debug("Gossip stream request unanswered within: {}ms, cancelling stream",
+                  TimeUnit.NANOSECONDS.toMillis(timeout));
+        // terminated first, so the requests fail with the deadline, not the cancellation
+        if (!terminate(Status.DEADLINE_EXCEEDED.withDescription("Request unanswered within: "
+                + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms"))) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (outbound instanceof ClientCallStreamObserver) {
+                    ((ClientCallStreamObserver<Frame>) outbound).cancel("Request unanswered", null);
+                } else {
+                    outbound.onCompleted();
+                }
+            } catch (Throwable e) {
+                log.trace("Error cancelling stream", e);
+            }
+        }
+    }
+
+    private RuntimeException failure() {
+        Status current = status;
+        return (current == null ? Status.UNAVAILABLE.withDescription("Stream closed") : current).asRuntimeException();
+    }
+
+    /**
+     * @return true if the stream was terminated, false if already closed
+     */
+    private boolean terminate(Status terminal) {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        status = terminal;
+        for (SettableFuture<Frame> reply = pending.poll(); reply != null; reply = pending.poll()) {
+            reply.setException(terminal.asRuntimeException());
+        }
+        onClose.run();
+        return true;
+    }
+}
@@ -9,6 +9,7 @@ package com.salesforce.apollo.comm;
 import java.io.IOException;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -21,6 +22,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.salesforce.apollo.comm.ServerConnectionCache.ServerConnectionFactory;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.ClientIdentity;
 import com.salesforce.apollo.protocols.HashKey;
@@ -30,9 +32,10 @@ import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Contexts;
 import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
 import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
-import io.grpc.ForwardingServerCall;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
@@ -51,6 +54,28 @@ import io.grpc.util.MutableHandlerRegistry;
 public class LocalRouter extends Router {
 
     public static class LocalServerConnectionFactory implements ServerConnectionFactory {
+        private final TrafficAccounting accounting;
+        private final SimulatedNetwork  network;
+
+        public LocalServerConnectionFactory() {
+            this(null);
+        }
+
+        /**
+         * @param network - the simulated network of the connections, or null for
+         *                none
+         */
+        public LocalServerConnectionFactory(SimulatedNetwork network) {
+            this(network, null);
+        }
+
+        /**
+         * @param accounting - the accounting of the traffic issued, or null
+         */
+        public LocalServerConnectionFactory(SimulatedNetwork network, TrafficAccounting accounting) {
+            this.network = network;
+            this.accounting = accounting;
+        }
 
         @Override
         public ManagedChannel connectTo(Member to, Member from) {
@@ -69,10 +94,17 @@ public class LocalRouter extends Router {
                     };
                 }
             };
-            return InProcessChannelBuilder.forName(to.getId().b64Encoded())
-                                          .directExecutor()
-                                          .intercept(clientInterceptor)
-                                          .build();
+            InProcessChannelBuilder builder = InProcessChannelBuilder.forName(to.getId().b64Encoded())
+                                                                     .directExecutor()
+                                                                     .intercept(clientInterceptor);
+            if (network != null) {
+                builder.intercept(network.interceptor(from, to));
+            }
+            if (accounting != null) {
+                // outermost, accounting for the latency of the simulated network
+                builder.intercept(accounting.clientInterceptor(to.getId()));
+            }
+            return builder.build();
         }
     }
 
@@ -89,9 +121,9 @@ public class LocalRouter extends Router {
 
         @Override
         public X509Certificate getCert() {
-            X509Certificate x509Certificate = callCertificate.get();
+            X509Certificate x509Certificate = CALL_CERTIFICATE.get();
             if (x509Certificate == null) {
-                throw new IllegalStateException("Thread local call certificate is NULL");
+                throw new IllegalStateException("Call certificate is NULL");
             }
             return x509Certificate;
         }
@@ -112,11 +144,13 @@ public class LocalRouter extends Router {
 
     }
 
-    public static ThreadLocal<X509Certificate> callCertificate = new ThreadLocal<>();
-
-    public static final ThreadIdentity       LOCAL_IDENTITY = new ThreadIdentity();
-    public static final Metadata.Key<String> MEMBER_ID_KEY  = Metadata.Key.of("from.id",
-                                                                              Metadata.ASCII_STRING_MARSHALLER);
+    /**
+     * The certificate of the caller, in the context of the call
+     */
+    public static final Context.Key<X509Certificate> CALL_CERTIFICATE = Context.key("CallCertificate");
+    public static final ThreadIdentity               LOCAL_IDENTITY   = new ThreadIdentity();
+    public static final Metadata.Key<String>         MEMBER_ID_KEY    = Metadata.Key.of("from.id",
+                                                                                        Metadata.ASCII_STRING_MARSHALLER);
 
     private static final Logger               log           = LoggerFactory.getLogger(LocalRouter.class);
     private static final Map<HashKey, Member> serverMembers = new ConcurrentHashMap<>();
@@ -130,34 +164,51 @@ public class LocalRouter extends Router {
 
     public LocalRouter(Member member, ServerConnectionCache.Builder builder, MutableHandlerRegistry registry,
             Executor executor) {
-        super(builder.setFactory(new LocalServerConnectionFactory()).build(), registry);
+        this(member, builder, registry, executor, null);
+    }
+
+    /**
+     * @param network - the simulated network connecting the router to the other
+     *                local routers, or null for none
+     */
+    public LocalRouter(Member member, ServerConnectionCache.Builder builder, MutableHandlerRegistry registry,
+            Executor executor, SimulatedNetwork network) {
+        this(member, builder, registry, executor, network, new TrafficAccounting());
+    }
+
+    public LocalRouter(Member member, ServerConnectionCache.Builder builder, MutableHandlerRegistry registry,
+            Executor executor, SimulatedNetwork network, TrafficAccounting accounting) {
+        super(builder.setFactory(new LocalServerConnectionFactory(network, accounting)).build(), registry,
+                accounting);
         this.member = member;
 
-        server = InProcessServerBuilder.forName(member.getId().b64Encoded())
-                                       .executor(executor)
-                                       .intercept(new ServerInterceptor() {
-
-                                           @Override
-                                           public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
-                                                                                                        final Metadata requestHeaders,
-                                                                                                        ServerCallHandler<ReqT, RespT> next) {
-                                               String id = requestHeaders.get(MEMBER_ID_KEY);
-                                               if (id == null) {
-                                                   throw new IllegalStateException("No member ID in call");
-                                               }
-                                               Member member = serverMembers.get(new HashKey(id));
-                                               if (member == null) {
-                                                   throw new IllegalStateException("Invalid member ID in call: " + id);
-                                               }
-                                               callCertificate.set(member.getCertificate());
-                                               return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(
-                                                       call) {
-                                               }, requestHeaders);
-                                           }
-
-                                       })
-                                       .fallbackHandlerRegistry(registry)
-                                       .build();
+        ServerInterceptor identity = new ServerInterceptor() {
+
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         final Metadata requestHeaders,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                String id = requestHeaders.get(MEMBER_ID_KEY);
+                if (id == null) {
+                    throw new IllegalStateException("No member ID in call");
+                }
+                Member member = serverMembers.get(new HashKey(id));
+                if (member == null) {
+                    throw new IllegalStateException("Invalid member ID in call: " + id);
+                }
+                return Contexts.interceptCall(Context.current().withValue(CALL_CERTIFICATE, member.getCertificate()),
+                                              call, requestHeaders, next);
+            }
+
+        };
+        // the accounting within the interceptor establishing the identity of the caller
+        List<ServerInterceptor> interceptors = List.of(accounting.serverInterceptor(LOCAL_IDENTITY), identity);
+        InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(member.getId().b64Encoded())
+                                                                     .executor(executor)
+                                                                     .fallbackHandlerRegistry(registry);
+        interceptors.forEach(i -> serverBuilder.intercept(i));
+        server = serverBuilder.build();
+        interceptEnvelopes(interceptors);
     }
 
     @Override
@@ -10,12 +10,18 @@ import java.io.IOException;
 import java.util.concurrent.Executor;
 
 import com.salesforce.apollo.comm.ServerConnectionCache.ServerConnectionFactory;
+import com.salesforce.apollo.comm.grpc.CompressionPolicy;
 import com.salesforce.apollo.comm.grpc.MtlsClient;
 import com.salesforce.apollo.comm.grpc.MtlsServer;
+import com.salesforce.apollo.comm.grpc.ServerValidation;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.CompressionMetrics;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
 
 import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.util.MutableHandlerRegistry;
 
 /**
@@ -24,17 +30,40 @@ import io.grpc.util.MutableHandlerRegistry;
  */
 public class MtlsRouter extends Router {
 
+    /**
+     * Connects with a single client SslContext, rather than building the context
+     * anew for each channel the connection cache opens, so that reconnections
+     * resume their TLS sessions
+     */
     public static class MtlsServerConnectionFactory implements ServerConnectionFactory {
-        private final EndpointProvider epProvider;
+        private final TrafficAccounting accounting;
+        private final EndpointProvider  epProvider;
+        private final SslContext        sslContext;
+        private final ServerValidation  validation;
 
         public MtlsServerConnectionFactory(EndpointProvider epProvider) {
+            this(epProvider, null);
+        }
+
+        /**
+         * @param accounting - the accounting of the traffic issued, or null
+         */
+        public MtlsServerConnectionFactory(EndpointProvider epProvider, TrafficAccounting accounting) {
             this.epProvider = epProvider;
+            this.accounting = accounting;
+            sslContext = MtlsServer.forClient(epProvider.getClientAuth(), epProvider.getAlias(),
+                                              epProvider.getCertificate(), epProvider.getPrivateKey(),
+                                              epProvider.getValiator());
+            validation = new ServerValidation(epProvider.getValiator());
         }
 
         @Override
         public ManagedChannel connectTo(Member to, Member from) {
-            return new MtlsClient(epProvider.addressFor(to), epProvider.getClientAuth(), epProvider.getAlias(),
-                    epProvider.getCertificate(), epProvider.getPrivateKey(), epProvider.getValiator()).getChannel();
+            if (accounting == null) {
+                return new MtlsClient(epProvider.addressFor(to), sslContext, validation).getChannel();
+            }
+            return new MtlsClient(epProvider.addressFor(to), sslContext, validation,
+                    accounting.clientInterceptor(to.getId())).getChannel();
         }
     }
 
@@ -47,10 +76,31 @@ public class MtlsRouter extends Router {
 
     public MtlsRouter(ServerConnectionCache.Builder builder, EndpointProvider ep, MutableHandlerRegistry registry,
             Executor executor) {
-        super(builder.setFactory(new MtlsServerConnectionFactory(ep)).build(), registry);
+        this(builder, ep, registry, executor, new TrafficAccounting());
+    }
+
+    public MtlsRouter(ServerConnectionCache.Builder builder, EndpointProvider ep, MutableHandlerRegistry registry,
+            Executor executor, TrafficAccounting accounting) {
+        this(builder, ep, registry, executor, accounting, CompressionPolicy.newBuilder());
+    }
+
+    /**
+     * @param compression - the compression policy of the server's responses,
+     *                    metered by the connection cache's metrics if the policy
+     *                    has none of its own
+     */
+    public MtlsRouter(ServerConnectionCache.Builder builder, EndpointProvider ep, MutableHandlerRegistry registry,
+            Executor executor, TrafficAccounting accounting, CompressionPolicy.Builder compression) {
+        super(builder.setFactory(new MtlsServerConnectionFactory(ep, accounting)).build(), registry, accounting);
         epProvider = ep;
+        if (compression.getMetrics() == null && builder.getMetrics() instanceof CompressionMetrics) {
+            compression.setMetrics((CompressionMetrics) builder.getMetrics());
+        }
         this.server = new MtlsServer(epProvider.getBindAddress(), epProvider.getClientAuth(), epProvider.getAlias(),
-                epProvider.getCertificate(), epProvider.getPrivateKey(), epProvider.getValiator(), registry, executor);
+                epProvider.getCertificate(), epProvider.getPrivateKey(), epProvider.getValiator(), registry, executor,
+                builder.getMetrics() instanceof HandshakeMetrics ? (HandshakeMetrics) builder.getMetrics() : null,
+                compression.build(), accounting);
+        interceptEnvelopes(server.getInterceptors());
     }
 
     @Override
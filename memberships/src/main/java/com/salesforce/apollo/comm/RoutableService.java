@@ -8,6 +8,7 @@ package com.salesforce.apollo.comm;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -16,25 +17,72 @@ import org.slf4j.LoggerFactory;
 import com.salesfoce.apollo.proto.ID;
 import com.salesforce.apollo.protocols.HashKey;
 
+import io.grpc.Context;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 
 /**
+ * Routes the calls of a service to the instance bound to the call's context.
+ * The calls are evaluated in the service's execution lane - or the lane of the
+ * context, if the lanes are per context - and are rejected with
+ * RESOURCE_EXHAUSTED when the lane is saturated. A call in a lane is never
+ * evaluated on the server's executor, which all the services share. A priority
+ * lane has its own threads and a reserve of further threads that the lanes of
+ * bulk services cannot take, and so is saturated only once that reserve is
+ * exhausted as well
+ *
  * @author hal.hildebrand
  *
  */
 public class RoutableService<Service> {
     private static final Logger log = LoggerFactory.getLogger(RoutableService.class);
 
-    private final Map<HashKey, Service> services = new ConcurrentHashMap<>();
+    private final Map<HashKey, ExecutionLane> contextLanes = new ConcurrentHashMap<>();
+    private final ExecutionLane               lane;
+    private final ExecutionLane.Builder       lanes;
+    private final String                      name;
+    private final Map<HashKey, Service>       services     = new ConcurrentHashMap<>();
+
+    /**
+     * A routable service evaluating calls on the calling thread
+     */
+    public RoutableService() {
+        this(null, null);
+    }
+
+    /**
+     * @param name  - the name of the service's lanes
+     * @param lanes - the builder of the service's execution lanes, or null to
+     *              evaluate calls on the calling thread
+     */
+    public RoutableService(String name, ExecutionLane.Builder lanes) {
+        this.name = name;
+        this.lanes = lanes;
+        lane = lanes == null || lanes.isPerContext() ? null : lanes.build(name);
+    }
 
     public void bind(HashKey context, Service service) {
         services.put(context, service);
     }
 
+    /**
+     * Shutdown the execution lanes of the service
+     */
+    public void shutdown() {
+        if (lane != null) {
+            lane.shutdown();
+        }
+        contextLanes.values().forEach(l -> l.shutdown());
+        contextLanes.clear();
+    }
+
     public void unbind(HashKey context) {
         services.remove(context);
+        ExecutionLane removed = contextLanes.remove(context);
+        if (removed != null) {
+            removed.shutdown();
+        }
     }
 
     public void evaluate(StreamObserver<?> responseObserver, HashKey context, Consumer<Service> c) {
@@ -58,11 +106,42 @@ public class RoutableService<Service> {
                 log.trace("Error returning error", e);
             }
         } else {
-            c.accept(service);
+            ExecutionLane executor = laneFor(context);
+            if (executor == null) {
+                c.accept(service);
+                return;
+            }
+            // the call's context carries the identity of the caller
+            Runnable task = Context.current().wrap(() -> {
+                try {
+                    c.accept(service);
+                } catch (Throwable e) {
+                    log.debug("Error evaluating call in {}", executor, e);
+                    try {
+                        responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+                    } catch (Throwable t) {
+                        log.trace("Error returning error", t);
+                    }
+                }
+            });
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.trace("Shedding call, {} is saturated", executor);
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription(executor + " is saturated")
+                                                                  .asRuntimeException());
+            }
         }
     }
 
     public void evaluate(StreamObserver<?> responseObserver, ID id, Consumer<Service> c) {
-        evaluate(responseObserver, id.getItselfCount() == 0 ? null : new HashKey(id), c);
+        evaluate(responseObserver, HashKey.isEmpty(id) ? null : new HashKey(id), c);
+    }
+
+    private ExecutionLane laneFor(HashKey context) {
+        if (lanes == null || !lanes.isPerContext()) {
+            return lane;
+        }
+        return contextLanes.computeIfAbsent(context, k -> lanes.build(name + "/" + k));
     }
 }
@@ -6,6 +6,8 @@
  */
 package com.salesforce.apollo.comm;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
@@ -14,12 +16,16 @@ import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.salesforce.apollo.comm.ExecutionLane.LaneMetrics;
 import com.salesforce.apollo.comm.ServerConnectionCache.CreateClientCommunications;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting;
+import com.salesforce.apollo.membership.Context;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.ClientIdentity;
 import com.salesforce.apollo.protocols.HashKey;
 
 import io.grpc.BindableService;
+import io.grpc.ServerInterceptor;
 import io.grpc.util.MutableHandlerRegistry;
 
 /**
@@ -51,18 +57,33 @@ abstract public class Router {
         }
     }
 
-    private final static Logger log = LoggerFactory.getLogger(Router.class);
+    private static final Duration WARM_DEBOUNCE = Duration.ofMillis(100);
+    private static final int      WARM_TOP_N    = 8;
+    private final static Logger   log           = LoggerFactory.getLogger(Router.class);
 
+    private final TrafficAccounting                 accounting;
     private final ServerConnectionCache             cache;
+    private final EnvelopeServer                    envelope;
     private final MutableHandlerRegistry            registry;
     private final Map<Class<?>, RoutableService<?>> services = new ConcurrentHashMap<>();
 
     public Router(ServerConnectionCache cache, MutableHandlerRegistry registry) {
+        this(cache, registry, new TrafficAccounting());
+    }
+
+    /**
+     * @param accounting - the accounting of the router's traffic
+     */
+    public Router(ServerConnectionCache cache, MutableHandlerRegistry registry, TrafficAccounting accounting) {
+        this.accounting = accounting;
         this.cache = cache;
         this.registry = registry;
+        envelope = new EnvelopeServer(registry);
+        registry.addService(envelope);
     }
 
     public void close() {
+        services.values().forEach(s -> s.shutdown());
         cache.close();
     }
 
@@ -70,10 +91,26 @@ abstract public class Router {
                                                                           Service service,
                                                                           Function<RoutableService<Service>, BindableService> factory,
                                                                           CreateClientCommunications<Client> createFunction) {
+        return create(member, context, service, factory, createFunction, ExecutionLane.newBuilder());
+    }
+
+    /**
+     * @param lanes - the builder of the execution lanes of the service's inbound
+     *              calls, shared by all the contexts of the service's class
+     */
+    public <Client, Service> CommonCommunications<Client, Service> create(Member member, HashKey context,
+                                                                          Service service,
+                                                                          Function<RoutableService<Service>, BindableService> factory,
+                                                                          CreateClientCommunications<Client> createFunction,
+                                                                          ExecutionLane.Builder lanes) {
+        if (lanes.getMetrics() == null && cache.getMetrics() instanceof LaneMetrics) {
+            lanes.setMetrics((LaneMetrics) cache.getMetrics());
+        }
         @SuppressWarnings("unchecked")
         RoutableService<Service> routing = (RoutableService<Service>) services.computeIfAbsent(service.getClass(),
                                                                                                c -> {
-                                                                                                   RoutableService<Service> route = new RoutableService<Service>();
+                                                                                                   RoutableService<Service> route = new RoutableService<Service>(c.getName(),
+                                                                                                                                                                 lanes);
                                                                                                    BindableService bindableService = factory.apply(route);
                                                                                                    registry.addService(bindableService);
                                                                                                    return route;
@@ -83,9 +120,32 @@ abstract public class Router {
         return new CommonCommunications<Client, Service>(routing, createFunction);
     }
 
+    /**
+     * @return the accounting of the traffic issued and served by the router
+     */
+    public TrafficAccounting getAccounting() {
+        return accounting;
+    }
+
     abstract public ClientIdentity getClientIdentityProvider();
 
+    /**
+     * Dispatch the calls coalesced into envelopes through the interceptors of the
+     * router's server, in the order added
+     */
+    protected void interceptEnvelopes(List<ServerInterceptor> interceptors) {
+        envelope.setInterceptors(interceptors);
+    }
+
     public void start() {
 
     }
+
+    /**
+     * @return a warmer of the router's connections to the node's neighbors in the
+     *         context
+     */
+    public <T extends Member> ConnectionWarmer<T> warmer(Context<T> context, T node) {
+        return new ConnectionWarmer<T>(context, node, cache, WARM_TOP_N, WARM_DEBOUNCE);
+    }
 }
@@ -6,17 +6,25 @@
  */
 package com.salesforce.apollo.comm;
 
+import java.lang.ref.WeakReference;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +38,7 @@ import com.salesforce.apollo.protocols.HashKey;
 import io.grpc.ManagedChannel;
 
 /**
- * 
+ *
  * Privides a safe mechanism for caching expensive connections to a server. We
  * use MTLS, so we want to make good use of the ManagedChannels. Fireflies, by
  * its nature, will keep some subset of connections open for gossip use, based
@@ -50,7 +58,16 @@ import io.grpc.ManagedChannel;
  * count. ManagedChannels may also have a minimum idle duration, to prevent
  * cache thrashing. When this duration is > 0, the connection will not be
  * closed, potentially overshooting target cache counts
- * 
+ * <p>
+ * The cache does not lock. Borrow counts are maintained per connection with
+ * CAS, channels are created outside of any lock by the first borrower while
+ * concurrent borrowers of the same member join its pending connection, and
+ * idle connections are closed by a periodic sweep rather than on release
+ * <p>
+ * Connections may be warmed - established, with their transport connecting, in
+ * advance of their first borrow - and pinned against the sweep of idle
+ * connections
+ *
  * @author hal.hildebrand
  *
  */
@@ -64,10 +81,12 @@ public class ServerConnectionCache {
     public class ManagedServerConnection implements Comparable<ManagedServerConnection> {
         public final ManagedChannel channel;
         public final HashKey        id;
-        private volatile int        borrowed   = 0;
-        private final Instant       created    = Instant.now(clock);
-        private volatile Instant    lastUsed   = Instant.now(clock);
-        private volatile int        usageCount = 0;
+        private final AtomicInteger borrowed     = new AtomicInteger();
+        private final Instant       created      = Instant.now(clock);
+        private volatile Instant    lastUsed     = Instant.now(clock);
+        private double              recentUsage;
+        private long                recentUpdate = clock.millis();
+        private final AtomicInteger usageCount   = new AtomicInteger();
 
         public ManagedServerConnection(HashKey id, ManagedChannel channel) {
             this.id = id;
@@ -76,7 +95,7 @@ public class ServerConnectionCache {
 
         @Override
         public int compareTo(ManagedServerConnection o) {
-            return Integer.compare(usageCount, o.usageCount);
+            return Integer.compare(usageCount.get(), o.usageCount.get());
         }
 
         @Override
@@ -105,36 +124,101 @@ public class ServerConnectionCache {
         }
 
         private boolean decrementBorrow() {
-            borrowed = borrowed - 1;
-            if (borrowed == 0) {
-                lastUsed = Instant.now(clock);
-                return true;
+            while (true) {
+                int current = borrowed.get();
+                if (current <= 0) {
+                    log.warn("Releasing unborrowed connection: {}", id);
+                    return false;
+                }
+                if (borrowed.compareAndSet(current, current - 1)) {
+                    if (current == 1) {
+                        lastUsed = Instant.now(clock);
+                        return true;
+                    }
+                    return false;
+                }
             }
-            return false;
         }
 
-        private boolean incrementBorrow() {
-            borrowed = borrowed + 1;
-            usageCount = usageCount + 1;
-            return borrowed == 1;
+        /**
+         * @return the borrow count after incrementing, or CLOSED if the
+         *         connection has been closed
+         */
+        private int incrementBorrow() {
+            while (true) {
+                int current = borrowed.get();
+                if (current == CLOSED) {
+                    return CLOSED;
+                }
+                if (borrowed.compareAndSet(current, current + 1)) {
+                    usageCount.incrementAndGet();
+                    used();
+                    return current + 1;
+                }
+            }
+        }
+
+        private boolean isClosed() {
+            return borrowed.get() == CLOSED;
+        }
+
+        private boolean isIdle() {
+            return borrowed.get() == 0;
+        }
+
+        /**
+         * Mark the connection as closed if it is idle and closeable. Once marked,
+         * no further borrows of the connection succeed
+         */
+        private boolean tryClose() {
+            return isCloseable() && borrowed.compareAndSet(0, CLOSED);
+        }
+
+        /**
+         * @return the usage of the connection, decayed with the usage half life
+         */
+        private synchronized double recentUsage() {
+            long now = clock.millis();
+            recentUsage = recentUsage * Math.pow(0.5, (double) (now - recentUpdate) / USAGE_HALF_LIFE.toMillis());
+            recentUpdate = now;
+            return recentUsage;
+        }
+
+        private synchronized void used() {
+            recentUsage = recentUsage() + 1;
         }
     }
 
     public static class Builder {
-        private Clock                        clock   = Clock.systemUTC();
-        private ServerConnectionFactory      factory = null;
+        private Clock                        clock            = Clock.systemUTC();
+        private Duration                     coalescingWindow = Duration.ZERO;
+        private ServerConnectionFactory      factory          = null;
         private ServerConnectionCacheMetrics metrics;
-        private Duration                     minIdle = Duration.ofMillis(100);
-        private int                          target  = 0;
+        private Duration                     minIdle          = Duration.ofMillis(100);
+        private ScheduledExecutorService     scheduler;
+        private Duration                     sweepInterval    = Duration.ofMillis(500);
+        private int                          target           = 0;
 
         public ServerConnectionCache build() {
-            return new ServerConnectionCache(factory, target, minIdle, clock, metrics);
+            ScheduledExecutorService timer = scheduler == null ? SWEEPER : scheduler;
+            ServerConnectionFactory connector = factory;
+            if (factory != null && !coalescingWindow.isZero() && !coalescingWindow.isNegative()) {
+                connector = (to, from) -> {
+                    ManagedChannel channel = factory.connectTo(to, from);
+                    return channel == null ? null : new CoalescingChannel(channel, coalescingWindow, timer);
+                };
+            }
+            return new ServerConnectionCache(connector, target, minIdle, clock, metrics, sweepInterval, timer);
         }
 
         public Clock getClock() {
             return clock;
         }
 
+        public Duration getCoalescingWindow() {
+            return coalescingWindow;
+        }
+
         public ServerConnectionFactory getFactory() {
             return factory;
         }
@@ -147,6 +231,14 @@ public class ServerConnectionCache {
             return minIdle;
         }
 
+        public ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        public Duration getSweepInterval() {
+            return sweepInterval;
+        }
+
         public int getTarget() {
             return target;
         }
@@ -156,6 +248,17 @@ public class ServerConnectionCache {
             return this;
         }
 
+        /**
+         * Coalesce the unary calls to a member issued within the window into a
+         * single envelope call. Zero, the default, disables coalescing
+         *
+         * @see CoalescingChannel
+         */
+        public Builder setCoalescingWindow(Duration coalescingWindow) {
+            this.coalescingWindow = coalescingWindow;
+            return this;
+        }
+
         public Builder setFactory(ServerConnectionFactory factory) {
             this.factory = factory;
             return this;
@@ -171,6 +274,21 @@ public class ServerConnectionCache {
             return this;
         }
 
+        /**
+         * The scheduler running the idle connection sweep and timing the window of
+         * coalesced calls, which are sent from the common pool. If not set, a
+         * shared daemon scheduler is used
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder setSweepInterval(Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+            return this;
+        }
+
         public Builder setTarget(int target) {
             this.target = target;
             return this;
@@ -203,45 +321,101 @@ public class ServerConnectionCache {
         ManagedChannel connectTo(Member to, Member from);
     }
 
-    private final static Logger log = LoggerFactory.getLogger(ServerConnectionCache.class);
+    /**
+     * The periodic sweep of a cache, holding the cache weakly so that a cache
+     * that is dropped without being closed does not leave its sweep scheduled
+     * forever. The sweep cancels itself once the cache has been collected
+     */
+    private static class Sweep implements Runnable {
+        private final WeakReference<ServerConnectionCache> cache;
+        private volatile ScheduledFuture<?>                scheduled;
+
+        private Sweep(ServerConnectionCache cache) {
+            this.cache = new WeakReference<>(cache);
+        }
+
+        @Override
+        public void run() {
+            ServerConnectionCache current = cache.get();
+            if (current != null) {
+                current.sweep();
+                return;
+            }
+            ScheduledFuture<?> futureSweep = scheduled;
+            if (futureSweep != null) {
+                futureSweep.cancel(false);
+            }
+        }
+    }
+
+    private static final int                      CLOSED           = -1;
+    private final static Logger                   log              = LoggerFactory.getLogger(ServerConnectionCache.class);
+    private static final ScheduledExecutorService SWEEPER          = Executors.newSingleThreadScheduledExecutor(r -> {
+                                                                       Thread t = new Thread(r,
+                                                                               "Connection cache sweeper");
+                                                                       t.setDaemon(true);
+                                                                       return t;
+                                                                   });
+    /**
+     * The half life of the recent usage of connections, ranking the most borrowed
+     */
+    private static final Duration                 USAGE_HALF_LIFE  = Duration.ofSeconds(30);
 
     public static Builder newBuilder() {
         return new Builder();
     }
 
-    private final Map<HashKey, ManagedServerConnection>  cache = new HashMap<>();
-    private final Clock                                  clock;
-    private final ServerConnectionFactory                factory;
-    private final ReadWriteLock                          lock  = new ReentrantReadWriteLock(true);
-    private final ServerConnectionCacheMetrics           metrics;
-    private final Duration                               minIdle;
-    private final PriorityQueue<ManagedServerConnection> queue = new PriorityQueue<>();
-    private final int                                    target;
+    /**
+     * @return the connection of the future if it has been successfully
+     *         established, otherwise null
+     */
+    private static ManagedServerConnection established(CompletableFuture<ManagedServerConnection> pending) {
+        return pending.isDone() && !pending.isCompletedExceptionally() ? pending.join() : null;
+    }
+
+    private final ConcurrentMap<HashKey, CompletableFuture<ManagedServerConnection>> cache = new ConcurrentHashMap<>();
+    private final Clock                                                              clock;
+    private final ServerConnectionFactory                                            factory;
+    private final ServerConnectionCacheMetrics                                       metrics;
+    private final Duration                                                           minIdle;
+    private final ConcurrentMap<HashKey, Integer>                                    pinned  = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?>                                                 sweeper;
+    private final int                                                                target;
 
     public ServerConnectionCache(ServerConnectionFactory factory, int target, Duration minIdle, Clock clock,
             ServerConnectionCacheMetrics metrics) {
+        this(factory, target, minIdle, clock, metrics, Duration.ofMillis(500), SWEEPER);
+    }
+
+    public ServerConnectionCache(ServerConnectionFactory factory, int target, Duration minIdle, Clock clock,
+            ServerConnectionCacheMetrics metrics, Duration sweepInterval, ScheduledExecutorService scheduler) {
         this.factory = factory;
         this.target = target;
         this.minIdle = minIdle;
         this.clock = clock;
         this.metrics = metrics;
+        long interval = Math.max(1, sweepInterval.toMillis());
+        Sweep sweep = new Sweep(this);
+        sweeper = scheduler.scheduleWithFixedDelay(sweep, interval, interval, TimeUnit.MILLISECONDS);
+        sweep.scheduled = sweeper;
     }
 
     public <T> T borrow(Member to, Member from, CreateClientCommunications<T> createFunction) {
-        return lock(() -> {
-            if (cache.size() >= target) {
-                log.debug("Cache target open connections exceeded: {}, opening from: {} to {}", target, from.getId(),
-                          to.getId());
-            }
-            ManagedServerConnection connection = cache.computeIfAbsent(to.getId(), member -> {
-                ManagedServerConnection conn = new ManagedServerConnection(to.getId(), factory.connectTo(to, from));
-                if (metrics != null) {
-                    metrics.createConnection().inc();
-                    metrics.openConnections().inc();
-                    metrics.createConnectionRate().mark();
+        while (true) {
+            CompletableFuture<ManagedServerConnection> pending = cache.get(to.getId());
+            ManagedServerConnection connection;
+            if (pending == null) {
+                CompletableFuture<ManagedServerConnection> connecting = new CompletableFuture<>();
+                pending = cache.putIfAbsent(to.getId(), connecting);
+                if (pending == null) {
+                    pending = connecting;
+                    connection = connect(to, from, connecting);
+                } else {
+                    connection = join(pending);
                 }
-                return conn;
-            });
+            } else {
+                connection = join(pending);
+            }
             if (connection == null) {
                 log.warn("Failed to open channel to {} from {}", to.getId(), from.getId());
                 if (metrics != null) {
@@ -250,103 +424,290 @@ public class ServerConnectionCache {
                 }
                 return null;
             }
-            if (connection.incrementBorrow()) {
+            int borrowed = connection.incrementBorrow();
+            if (borrowed == CLOSED) {
+                // lost the race with the sweeper, the connection is closed
+                cache.remove(to.getId(), pending);
+                continue;
+            }
+            if (borrowed == 1) {
                 log.debug("Opened channel to {}, last used: {}, from: {}", connection.id, connection.lastUsed,
                           from.getId());
                 if (metrics != null) {
                     metrics.borrowRate().mark();
                 }
-                queue.remove(connection);
             }
-            log.trace("Opened channel to {}, borrowed: {}, usage: {}", connection.id, connection.borrowed,
-                      connection.usageCount);
+            log.trace("Opened channel to {}, borrowed: {}, usage: {}", connection.id, borrowed,
+                      connection.usageCount.get());
             return createFunction.create(to, from, connection);
-        });
+        }
     }
 
     public void close() {
-        lock(() -> {
-            log.info("Closing connection cache: {}", this);
-            cache.values().forEach(conn -> {
-                try {
-                    conn.channel.shutdownNow();
-                    if (metrics != null) {
-                        metrics.channelOpenDuration().update(Duration.between(conn.created, Instant.now(clock)));
-                        metrics.openConnections().dec();
-                    }
-                } catch (Throwable e) {
-                    log.debug("Error closing {}", conn.id);
+        log.info("Closing connection cache: {}", this);
+        sweeper.cancel(false);
+        cache.values().forEach(pending -> {
+            ManagedServerConnection conn = established(pending);
+            if (conn == null) {
+                return;
+            }
+            try {
+                conn.channel.shutdownNow();
+                if (metrics != null) {
+                    metrics.channelOpenDuration().update(Duration.between(conn.created, Instant.now(clock)));
+                    metrics.openConnections().dec();
                 }
-            });
-            cache.clear();
-            queue.clear();
-            return null;
+            } catch (Throwable e) {
+                log.debug("Error closing {}", conn.id);
+            }
         });
+        cache.clear();
     }
 
     public int getIdleCount() {
-        return lock(() -> queue.size());
+        int idle = 0;
+        for (CompletableFuture<ManagedServerConnection> pending : cache.values()) {
+            ManagedServerConnection conn = established(pending);
+            if (conn != null && conn.isIdle()) {
+                idle++;
+            }
+        }
+        return idle;
     }
 
     public int getInUseCount() {
-        return lock(() -> cache.size() - queue.size());
+        return getOpenCount() - getIdleCount();
+    }
+
+    public ServerConnectionCacheMetrics getMetrics() {
+        return metrics;
     }
 
     public int getOpenCount() {
-        return lock(() -> cache.size());
+        return cache.size();
     }
 
-    public void release(ManagedServerConnection connection) {
-        lock(() -> {
-            if (connection.decrementBorrow()) {
-                log.debug("Releasing connection: {}", connection.id);
-                queue.add(connection);
-                if (metrics != null) {
-                    metrics.releaseRate().mark();
+    public boolean isPinned(HashKey id) {
+        return pinned.containsKey(id);
+    }
+
+    /**
+     * @return the ids of the n open connections with the highest recent usage,
+     *         most used first. Usage decays with a half life, so peers that are no
+     *         longer borrowed drop out of the ranking
+     */
+    public List<HashKey> mostBorrowed(int n) {
+        List<ManagedServerConnection> used = new ArrayList<>();
+        Map<ManagedServerConnection, Double> usage = new HashMap<>();
+        for (CompletableFuture<ManagedServerConnection> pending : cache.values()) {
+            ManagedServerConnection conn = established(pending);
+            if (conn != null) {
+                double recent = conn.recentUsage();
+                if (recent > 0) {
+                    used.add(conn);
+                    usage.put(conn, recent);
                 }
-                manageConnections();
             }
-            return null;
-        });
+        }
+        used.sort(Comparator.comparingDouble((ManagedServerConnection conn) -> usage.get(conn)).reversed());
+        List<HashKey> most = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, used.size()); i++) {
+            most.add(used.get(i).id);
+        }
+        return most;
+    }
 
+    /**
+     * Pin the connection to the member against idle eviction. Pins are counted,
+     * each pin is undone by an unpin
+     */
+    public void pin(HashKey id) {
+        pinned.merge(id, 1, (a, b) -> a + b);
     }
 
-    private boolean close(ManagedServerConnection connection) {
-        if (connection.isCloseable()) {
-            try {
-                connection.channel.shutdownNow();
-            } catch (Throwable t) {
-                log.debug("Error closing {}", connection.id);
-            }
-            log.debug("{} is closed", connection.id);
-            cache.remove(connection.id);
-            if (metrics != null) {
-                metrics.openConnections().dec();
-                metrics.closeConnectionRate().mark();
-                metrics.channelOpenDuration().update(Duration.between(connection.created, Instant.now(clock)));
-            }
+    /**
+     * Pin the connection to the member, then warm it. As the pin precedes the
+     * warming, the connection cannot be swept between the two
+     *
+     * @return true if the connection is warmed and pinned, false if the
+     *         connection could not be established, leaving it unpinned
+     */
+    public boolean pinWarm(Member to, Member from) {
+        pin(to.getId());
+        if (warm(to, from)) {
             return true;
         }
+        unpin(to.getId());
         return false;
     }
 
-    private <T> T lock(Supplier<T> supplier) {
-        final Lock l = lock.writeLock();
-        l.lock();
+    public void release(ManagedServerConnection connection) {
+        if (connection.decrementBorrow()) {
+            log.debug("Releasing connection: {}", connection.id);
+            if (metrics != null) {
+                metrics.releaseRate().mark();
+            }
+        }
+    }
+
+    public void unpin(HashKey id) {
+        pinned.computeIfPresent(id, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Establish the connection to the member, if not already open, and have its
+     * channel connect the transport in advance of the first borrow. Does not wait
+     * on a connection being established by another thread, which is warmed once
+     * established
+     *
+     * @return true if the connection is established or being established
+     */
+    public boolean warm(Member to, Member from) {
+        while (true) {
+            CompletableFuture<ManagedServerConnection> pending = cache.get(to.getId());
+            if (pending == null) {
+                CompletableFuture<ManagedServerConnection> connecting = new CompletableFuture<>();
+                pending = cache.putIfAbsent(to.getId(), connecting);
+                if (pending == null) {
+                    ManagedServerConnection connection;
+                    try {
+                        connection = connect(to, from, connecting);
+                    } catch (RuntimeException e) {
+                        log.debug("Unable to warm connection to {} from {}", to.getId(), from.getId(), e);
+                        return false;
+                    }
+                    return connection != null && connect(connection);
+                }
+            }
+            if (!pending.isDone()) {
+                pending.thenAccept(connection -> {
+                    if (connection != null) {
+                        connect(connection);
+                    }
+                });
+                return true;
+            }
+            ManagedServerConnection connection = established(pending);
+            if (connection == null) {
+                cache.remove(to.getId(), pending);
+                return false;
+            }
+            if (connection.isClosed()) {
+                // swept, establish anew
+                cache.remove(to.getId(), pending);
+                continue;
+            }
+            log.trace("Warmed channel to {} from {}", to.getId(), from.getId());
+            return connect(connection);
+        }
+    }
+
+    /**
+     * Close idle connections, least used first, until the open connections are
+     * within the target. Pinned connections are not closed
+     */
+    void sweep() {
         try {
-            return supplier.get();
-        } finally {
-            l.unlock();
+            int open = 0;
+            PriorityQueue<ManagedServerConnection> idle = new PriorityQueue<>();
+            for (CompletableFuture<ManagedServerConnection> pending : cache.values()) {
+                ManagedServerConnection conn = established(pending);
+                if (conn != null) {
+                    open++;
+                    if (conn.isIdle() && !pinned.containsKey(conn.id)) {
+                        idle.add(conn);
+                    }
+                }
+            }
+            while (open > target && !idle.isEmpty()) {
+                if (close(idle.poll())) {
+                    open--;
+                }
+            }
+        } catch (Throwable e) {
+            log.error("Error sweeping idle connections", e);
         }
     }
 
-    private void manageConnections() {
-//        log.info("Managing connections: " + cache.size() + " idle: " + queue.size());
-        Iterator<ManagedServerConnection> connections = queue.iterator();
-        while (connections.hasNext() && cache.size() > target) {
-            if (close(connections.next())) {
-                connections.remove();
+    private boolean close(ManagedServerConnection connection) {
+        boolean[] closed = new boolean[1];
+        // serialized with the pinning of the connection
+        pinned.compute(connection.id, (id, pins) -> {
+            if (pins == null) {
+                closed[0] = connection.tryClose();
             }
+            return pins;
+        });
+        if (!closed[0]) {
+            return false;
+        }
+        cache.computeIfPresent(connection.id, (id, pending) -> established(pending) == connection ? null : pending);
+        try {
+            connection.channel.shutdownNow();
+        } catch (Throwable t) {
+            log.debug("Error closing {}", connection.id);
+        }
+        log.debug("{} is closed", connection.id);
+        if (metrics != null) {
+            metrics.openConnections().dec();
+            metrics.closeConnectionRate().mark();
+            metrics.channelOpenDuration().update(Duration.between(connection.created, Instant.now(clock)));
+        }
+        return true;
+    }
+
+    /**
+     * Have the connection's channel connect its transport
+     *
+     * @return true
+     */
+    private boolean connect(ManagedServerConnection connection) {
+        try {
+            connection.channel.getState(true);
+        } catch (UnsupportedOperationException e) {
+            // channels that do not track connectivity connect on first use
+        }
+        return true;
+    }
+
+    /**
+     * Establish the channel for the pending connection, outside of any lock
+     */
+    private ManagedServerConnection connect(Member to, Member from,
+                                            CompletableFuture<ManagedServerConnection> pending) {
+        if (cache.size() > target) {
+            log.debug("Cache target open connections exceeded: {}, opening from: {} to {}", target, from.getId(),
+                      to.getId());
+        }
+        ManagedChannel channel;
+        try {
+            channel = factory.connectTo(to, from);
+        } catch (RuntimeException | Error e) {
+            cache.remove(to.getId(), pending);
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        if (channel == null) {
+            cache.remove(to.getId(), pending);
+            pending.complete(null);
+            return null;
+        }
+        ManagedServerConnection connection = new ManagedServerConnection(to.getId(), channel);
+        if (metrics != null) {
+            metrics.createConnection().inc();
+            metrics.openConnections().inc();
+            metrics.createConnectionRate().mark();
+        }
+        pending.complete(connection);
+        return connection;
+    }
+
+    private ManagedServerConnection join(CompletableFuture<ManagedServerConnection> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            log.debug("Pending connection failed", e.getCause());
+            return null;
         }
     }
 }
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.MessageLite;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * A simulated network for the in process transport of the {@link LocalRouter}.
+ * Each directed link between members is a serial pipe, with a latency drawn
+ * from a normal distribution - the link's latency plus its jitter as standard
+ * deviation - a bandwidth cap, and a packet loss probability. Messages sent on
+ * a link are delivered in order, each after its transmission time at the link's
+ * bandwidth plus its sampled latency. A lost message fails its call with
+ * UNAVAILABLE, as does any call between partitioned members.
+ * <p>
+ * Every link draws its samples from its own random stream, seeded from the
+ * network's seed and the link's members, so the latencies and losses sampled
+ * for a link's messages are reproducible from run to run. Thread scheduling is
+ * not eliminated: the samples are drawn in the order the link's messages are
+ * sent, and the delays also depend on the times the messages are sent, through
+ * the link's bandwidth and in order delivery. A trace is only reproducible when
+ * the order of the sends on each link is fixed.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class SimulatedNetwork {
+
+    public static class Builder {
+        private LinkModel                defaultLink = LinkModel.newBuilder().build();
+        private ScheduledExecutorService scheduler;
+        private long                     seed        = 0x1638;
+
+        public SimulatedNetwork build() {
+            return new SimulatedNetwork(this);
+        }
+
+        public LinkModel getDefaultLink() {
+            return defaultLink;
+        }
+
+        public ScheduledExecutorService getScheduler() {
+            return scheduler;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * The model of every link not otherwise set
+         */
+        public Builder setDefaultLink(LinkModel defaultLink) {
+            this.defaultLink = defaultLink;
+            return this;
+        }
+
+        /**
+         * The single threaded scheduler delivering the simulated network's messages.
+         * If not set, the network creates its own
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    public static class LinkModel {
+        public static class Builder {
+            private long     bandwidth = 0;
+            private Duration jitter    = Duration.ZERO;
+            private Duration latency   = Duration.ZERO;
+            private double   loss      = 0.0;
+
+            public LinkModel build() {
+                return new LinkModel(latency, jitter, bandwidth, loss);
+            }
+
+            public long getBandwidth() {
+                return bandwidth;
+            }
+
+            public Duration getJitter() {
+                return jitter;
+            }
+
+            public Duration getLatency() {
+                return latency;
+            }
+
+            public double getLoss() {
+                return loss;
+            }
+
+            /**
+             * @param bandwidth - bytes per second, 0 for unlimited
+             */
+            public Builder setBandwidth(long bandwidth) {
+                this.bandwidth = bandwidth;
+                return this;
+            }
+
+            /**
+             * @param jitter - the standard deviation of the link latency
+             */
+            public Builder setJitter(Duration jitter) {
+                this.jitter = jitter;
+                return this;
+            }
+
+            /**
+             * @param latency - the mean one way latency of the link
+             */
+            public Builder setLatency(Duration latency) {
+                this.latency = latency;
+                return this;
+            }
+
+            /**
+             * @param loss - the probability of a message being lost
+             */
+            public Builder setLoss(double loss) {
+                this.loss = loss;
+                return this;
+            }
+        }
+
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public final long   bandwidth;
+        public final long   jitter;
+        public final long   latency;
+        public final double loss;
+
+        public LinkModel(Duration latency, Duration jitter, long bandwidth, double loss) {
+            if (bandwidth < 0) {
+                throw new IllegalArgumentException("Bandwidth must be >= 0: " + bandwidth);
+            }
+            if (loss < 0.0 || loss > 1.0) {
+                throw new IllegalArgumentException("Loss must be a probability: " + loss);
+            }
+            this.latency = latency.toNanos();
+            this.jitter = jitter.toNanos();
+            this.bandwidth = bandwidth;
+            this.loss = loss;
+        }
+    }
+
+    /**
+     * The state of a directed link
+     */
+    private static class Link {
+        private static class Delivery {
+            private final Runnable action;
+            private final long     time;
+
+            private Delivery(long time, Runnable action) {
+                this.time = time;
+                this.action = action;
+            }
+        }
+
+        private final Queue<Delivery> deliveries = new ArrayDeque<>();
+        private long                  lastDelivery;
+        private final LinkModel       model;
+        private long                  nextFree;
+        private final Random          random;
+
+        private Link(LinkModel model, long seed) {
+            this.model = model;
+            this.random = new Random(seed);
+        }
+
+        /**
+         * Run the due deliveries of the link, in the order sent
+         */
+        private void drain() {
+            while (true) {
+                Delivery delivery;
+                synchronized (this) {
+                    delivery = deliveries.peek();
+                    if (delivery == null || delivery.time - System.nanoTime() > 0) {
+                        return;
+                    }
+                    deliveries.poll();
+                }
+                delivery.action.run();
+            }
+        }
+
+        /**
+         * Queue the delivery of the message of the given size
+         *
+         * @return the delay until the delivery, or -1 if the message is lost
+         */
+        private synchronized long send(int bytes, Runnable action) {
+            long now = System.nanoTime();
+            long delay = transmit(now, bytes);
+            if (delay >= 0) {
+                deliveries.add(new Delivery(now + delay, action));
+            }
+            return delay;
+        }
+
+        /**
+         * @return the delay until the delivery of the message of the given size, or
+         *         -1 if the message is lost
+         */
+        private synchronized long transmit(long now, int bytes) {
+            if (model.loss > 0.0 && random.nextDouble() < model.loss) {
+                return -1;
+            }
+            long start = Math.max(now, nextFree);
+            long transmission = model.bandwidth == 0 ? 0
+                                                     : (long) ((double) bytes * TimeUnit.SECONDS.toNanos(1)
+                                                             / model.bandwidth);
+            nextFree = start + transmission;
+            long latency = model.latency;
+            if (model.jitter > 0) {
+                latency = Math.max(0, latency + (long) (random.nextGaussian() * model.jitter));
+            }
+            // messages on the link arrive in the order sent
+            long delivery = Math.max(lastDelivery, nextFree + latency);
+            lastDelivery = delivery;
+            return delivery - now;
+        }
+    }
+
+    /**
+     * The call of a link, delaying its messages in both directions. All operations
+     * of the underlying call are performed by the network's scheduler
+     */
+    private class SimulatedCall<ReqT, RespT> extends SimpleForwardingClientCall<ReqT, RespT> {
+        private final Executor   executor;
+        private final HashKey    from;
+        private volatile boolean lost;
+        private final HashKey    to;
+
+        private SimulatedCall(ClientCall<ReqT, RespT> delegate, HashKey from, HashKey to, CallOptions options) {
+            super(delegate);
+            this.from = from;
+            this.to = to;
+            Executor callExecutor = options.getExecutor();
+            executor = callExecutor == null ? r -> r.run() : callExecutor;
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            if (!lost) {
+                scheduler.execute(() -> super.cancel(message, cause));
+            }
+        }
+
+        @Override
+        public void halfClose() {
+            after(from, to, 0, () -> super.halfClose());
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            after(from, to, sizeOf(message), () -> super.sendMessage(message));
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            if (partitioned(from, to)) {
+                lost = true;
+                executor.execute(() -> responseListener.onClose(Status.UNAVAILABLE.withDescription("Partitioned from: "
+                        + to), new Metadata()));
+                return;
+            }
+            Listener<RespT> listener = new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    Runnable close = () -> executor.execute(() -> {
+                        super.onClose(lost ? Status.UNAVAILABLE.withDescription("Lost by simulated network")
+                                           : status,
+                                      trailers);
+                    });
+                    if (lost) {
+                        close.run();
+                    } else {
+                        after(to, from, 0, close);
+                    }
+                }
+
+                @Override
+                public void onHeaders(Metadata headers) {
+                    after(to, from, 0, () -> executor.execute(() -> super.onHeaders(headers)));
+                }
+
+                @Override
+                public void onMessage(RespT message) {
+                    after(to, from, sizeOf(message), () -> executor.execute(() -> super.onMessage(message)));
+                }
+            };
+            scheduler.execute(() -> super.start(listener, headers));
+        }
+
+        @Override
+        public void request(int numMessages) {
+            if (!lost) {
+                scheduler.execute(() -> super.request(numMessages));
+            }
+        }
+
+        /**
+         * Run the action after the message's delay on the link, or lose the call
+         */
+        private void after(HashKey sender, HashKey receiver, int bytes, Runnable action) {
+            if (lost) {
+                return;
+            }
+            Link link = link(sender, receiver);
+            long delay = link.send(bytes, action);
+            if (delay < 0) {
+                lost = true;
+                scheduler.execute(() -> super.cancel("Lost by simulated network", null));
+                return;
+            }
+            scheduler.schedule(() -> link.drain(), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private static int sizeOf(Object message) {
+        return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : 0;
+    }
+
+    private final LinkModel                             defaultLink;
+    private final Map<HashKey, Map<HashKey, Link>>      links      = new ConcurrentHashMap<>();
+    private final Map<HashKey, Map<HashKey, LinkModel>> models     = new ConcurrentHashMap<>();
+    private final boolean                               ownsScheduler;
+    private final Map<HashKey, Integer>                 partitions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService              scheduler;
+    private final long                                  seed;
+
+    private SimulatedNetwork(Builder builder) {
+        defaultLink = builder.defaultLink;
+        seed = builder.seed;
+        ownsScheduler = builder.scheduler == null;
+        scheduler = builder.scheduler != null ? builder.scheduler
+                                              : Executors.newSingleThreadScheduledExecutor(r -> {
+                                                  Thread t = new Thread(r, "Simulated network");
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              });
+    }
+
+    /**
+     * Shut down the network's scheduler, if created by the network. Undelivered
+     * messages are discarded
+     */
+    public void close() {
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Heal all partitions
+     */
+    public void heal() {
+        partitions.clear();
+    }
+
+    /**
+     * @return the interceptor simulating the links between the members
+     */
+    public ClientInterceptor interceptor(Member from, Member to) {
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                return new SimulatedCall<>(next.newCall(method, callOptions), from.getId(), to.getId(),
+                        callOptions);
+            }
+        };
+    }
+
+    /**
+     * Partition the members into the groups. Members in different groups - or in
+     * no group at all - cannot communicate
+     */
+    @SafeVarargs
+    public final void partition(Collection<HashKey>... groups) {
+        partitions.clear();
+        for (int i = 0; i < groups.length; i++) {
+            for (HashKey member : groups[i]) {
+                partitions.put(member, i);
+            }
+        }
+    }
+
+    /**
+     * Model the directed link between the members, replacing the default. Must be
+     * set before the link is first used
+     */
+    public void setLink(HashKey from, HashKey to, LinkModel model) {
+        models.computeIfAbsent(from, k -> new ConcurrentHashMap<>()).put(to, model);
+    }
+
+    /**
+     * @return the delay of the message of the given size on the link, or -1 if
+     *         lost
+     */
+    long transmit(HashKey from, HashKey to, int bytes) {
+        return transmit(from, to, System.nanoTime(), bytes);
+    }
+
+    /**
+     * @return the delay of the message of the given size sent on the link at the
+     *         given time, or -1 if lost
+     */
+    long transmit(HashKey from, HashKey to, long now, int bytes) {
+        return link(from, to).transmit(now, bytes);
+    }
+
+    /**
+     * @return the seed of the link's random stream
+     */
+    long seedOf(HashKey from, HashKey to) {
+        return seed ^ (31L * from.hashCode() + to.hashCode());
+    }
+
+    private Link link(HashKey from, HashKey to) {
+        return links.computeIfAbsent(from, k -> new ConcurrentHashMap<>()).computeIfAbsent(to, k -> {
+            Map<HashKey, LinkModel> modeled = models.get(from);
+            LinkModel model = modeled == null ? null : modeled.get(to);
+            return new Link(model == null ? defaultLink : model, seedOf(from, to));
+        });
+    }
+
+    private boolean partitioned(HashKey from, HashKey to) {
+        if (partitions.isEmpty()) {
+            return false;
+        }
+        Integer a = partitions.get(from);
+        return a == null || !a.equals(partitions.get(to));
+    }
+}
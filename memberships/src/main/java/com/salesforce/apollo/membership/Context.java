@@ -6,17 +6,23 @@
  */
 package com.salesforce.apollo.membership;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -35,6 +41,21 @@ import com.salesforce.apollo.protocols.HashKey;
  * each ring has a different ring order of the same membership set. Hashes for
  * Context level operators include the ID of the ring. Hashes computed for each
  * member, per ring include the ID of the enclosing Context.
+ * <p>
+ * Hashes are computed as selected by the RingHashing of the context, either
+ * over the original formatted strings of the ids and ring index, or over a
+ * binary encoding - a domain tag separating member and context hashes, the
+ * context id, the member id and the ring index - in a reused per thread
+ * buffer. Member hashes are held for the life of the member, and the context
+ * hashes of the rings are computed once, with the context.
+ * <p>
+ * Registered listeners are notified of each change of membership
+ * synchronously, by the thread making the change. Subscribed listeners instead
+ * receive the changes in batches: changes accumulate, coalesced to the latest
+ * state of each member, and are published as an immutable ViewDelta with a
+ * monotonically increasing epoch. Each context dispatches its deltas in order,
+ * one at a time, on a pool shared by all contexts, so a slow subscriber of one
+ * context does not delay the deltas of another.
  * 
  * @author hal.hildebrand
  *
@@ -60,8 +81,30 @@ public class Context<T extends Member> {
         }
     }
 
+    /**
+     * The hashing of ring positions. The hashings place members differently on
+     * the rings, and members only agree on their successors and predecessors if
+     * they hash alike, so unlike the ID encoding this cannot be rolled out member
+     * by member: a cluster switches to BINARY all at once
+     */
+    public enum RingHashing {
+        BINARY, FORMATTED;
+    }
+
     public interface MembershipListener<T> {
 
+        /**
+         * A batch of membership changes. By default, adapted to the per member
+         * operations
+         * 
+         * @param delta
+         */
+        default void changed(ViewDelta<T> delta) {
+            delta.getFailed().forEach(m -> fail(m));
+            delta.getRemoved().forEach(m -> fail(m));
+            delta.getRecovered().forEach(m -> recover(m));
+        }
+
         /**
          * A member has failed
          * 
@@ -79,6 +122,70 @@ public class Context<T extends Member> {
         };
     }
 
+    /**
+     * An immutable batch of membership changes of a context
+     */
+    public static class ViewDelta<T> {
+        private final long    epoch;
+        private final List<T> failed;
+        private final List<T> joined;
+        private final List<T> recovered;
+        private final List<T> removed;
+
+        public ViewDelta(long epoch, List<T> joined, List<T> failed, List<T> recovered) {
+            this(epoch, joined, failed, recovered, Collections.emptyList());
+        }
+
+        public ViewDelta(long epoch, List<T> joined, List<T> failed, List<T> recovered, List<T> removed) {
+            this.epoch = epoch;
+            this.joined = Collections.unmodifiableList(new ArrayList<>(joined));
+            this.failed = Collections.unmodifiableList(new ArrayList<>(failed));
+            this.recovered = Collections.unmodifiableList(new ArrayList<>(recovered));
+            this.removed = Collections.unmodifiableList(new ArrayList<>(removed));
+        }
+
+        /**
+         * @return the epoch of the view produced by the delta
+         */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        /**
+         * @return the members now offline
+         */
+        public List<T> getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the members new to the context, whether now active or offline
+         */
+        public List<T> getJoined() {
+            return joined;
+        }
+
+        /**
+         * @return the members now active
+         */
+        public List<T> getRecovered() {
+            return recovered;
+        }
+
+        /**
+         * @return the members no longer in the context
+         */
+        public List<T> getRemoved() {
+            return removed;
+        }
+
+        @Override
+        public String toString() {
+            return "ViewDelta [epoch=" + epoch + ", joined=" + joined.size() + ", failed=" + failed.size()
+                    + ", recovered=" + recovered.size() + ", removed=" + removed.size() + "]";
+        }
+    }
+
     public static final ThreadLocal<MessageDigest> DIGEST_CACHE = ThreadLocal.withInitial(() -> {
         try {
             return MessageDigest.getInstance(Context.SHA_256);
@@ -87,10 +194,28 @@ public class Context<T extends Member> {
         }
     });
 
-    public static final String SHA_256 = "sha-256";
+    public static final String RING_HASHING_PROPERTY = "apollo.ring.hashing";
+    public static final String SHA_256               = "sha-256";
 
-    private static final String CONTEXT_HASH_TEMPLATE = "%s-%s";
-    private static final String RING_HASH_TEMPLATE    = "%s-%s-%s";
+    private static final byte                    CONTEXT_DOMAIN        = 2;
+    private static final String                  CONTEXT_HASH_TEMPLATE = "%s-%s";
+    private static final ThreadLocal<byte[]>     DIGESTS               = ThreadLocal.withInitial(() -> new byte[HashKey.BYTE_SIZE]);
+    private static final Executor                DISPATCHER            = Executors.newCachedThreadPool(r -> {
+                                                                    Thread t = new Thread(r, "Membership dispatch");
+                                                                    t.setDaemon(true);
+                                                                    return t;
+                                                                });
+    private static final ThreadLocal<ByteBuffer> ENCODINGS             = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1
+            + 2 * HashKey.BYTE_SIZE + Integer.BYTES));
+    private static final byte                    RING_DOMAIN           = 1;
+    private static final String                  RING_HASH_TEMPLATE    = "%s-%s-%s";
+
+    private static volatile RingHashing ringHashing = RingHashing.valueOf(System.getProperty(RING_HASHING_PROPERTY,
+                                                                                             RingHashing.FORMATTED.name()));
+
+    public static RingHashing getRingHashing() {
+        return ringHashing;
+    }
 
     /**
      * @return the minimum t such that the probability of more than t out of 2t+1
@@ -107,14 +232,31 @@ public class Context<T extends Member> {
         throw new IllegalArgumentException("Cannot compute number if rings from pByz=" + pByz);
     }
 
-    private final Map<HashKey, T> active = new ConcurrentHashMap<>();
+    /**
+     * Set the ring hashing of contexts subsequently created
+     */
+    public static void setRingHashing(RingHashing hashing) {
+        ringHashing = hashing;
+    }
+
+    private final Map<HashKey, T> active      = new ConcurrentHashMap<>();
+    private final MemberIndex<T>  activeIndex = new MemberIndex<>();
 
+    private final HashKey[]                     contextHashes;
+    private boolean                             dispatching;
+    private final AtomicLong                    epoch               = new AtomicLong();
     private BiFunction<T, Integer, HashKey>     hasher              = (m, ring) -> hashFor(m, ring);
     private final Map<HashKey, HashKey[]>       hashes              = new ConcurrentHashMap<>();
+    private final RingHashing                   hashing             = ringHashing;
     private final HashKey                       id;
     private Logger                              log                 = LoggerFactory.getLogger(Context.class);
     private final List<MembershipListener<T>>   membershipListeners = new CopyOnWriteArrayList<>();
     private final ConcurrentHashMap<HashKey, T> offline             = new ConcurrentHashMap<>();
+    private final Map<HashKey, T>               pendingActive       = new LinkedHashMap<>();
+    private final Map<HashKey, T>               pendingJoined       = new LinkedHashMap<>();
+    private final Map<HashKey, T>               pendingOffline      = new LinkedHashMap<>();
+    private final Map<HashKey, T>               pendingRemoved      = new LinkedHashMap<>();
+    private final List<MembershipListener<T>>   subscribers         = new CopyOnWriteArrayList<>();
 
     private final Ring<T>[] rings;
 
@@ -129,14 +271,22 @@ public class Context<T extends Member> {
         for (int i = 0; i < r; i++) {
             rings[i] = new Ring<T>(i, hasher);
         }
+        // context level locations are independent of the operator's key
+        contextHashes = hashesOf(CONTEXT_DOMAIN, HashKey.ORIGIN);
     }
 
     /**
      * Mark a member as active in the context
      */
     public void activate(T m) {
-        active.computeIfAbsent(m.getId(), id -> m);
-        offline.remove(m.getId());
+        boolean joined;
+        // the active members and their index change together
+        synchronized (activeIndex) {
+            joined = !active.containsKey(m.getId()) && !offline.containsKey(m.getId());
+            active.computeIfAbsent(m.getId(), id -> m);
+            activeIndex.add(m);
+            offline.remove(m.getId());
+        }
         for (Ring<T> ring : rings) {
             ring.insert(m);
         }
@@ -147,10 +297,20 @@ public class Context<T extends Member> {
                 log.error("error recoving member in listener: " + l, e);
             }
         });
+        publish(m, true, joined);
+    }
+
+    /**
+     * Mark the members as active in the context, first computing their ring
+     * hashes in bulk
+     */
+    public void activate(Collection<T> members) {
+        members.parallelStream().forEach(m -> hashesOf(m));
+        members.forEach(m -> activate(m));
     }
 
     public boolean activateIfOffline(HashKey memberID) {
-        T offlined = offline.remove(memberID);
+        T offlined = offline.get(memberID);
         if (offlined == null) {
             return false;
         }
@@ -170,13 +330,31 @@ public class Context<T extends Member> {
         return active.size() + offline.size();
     }
 
+    /**
+     * Clear the membership of the context - its active and offline members, the
+     * index the active members are sampled from and the rings - without notifying
+     * listeners or subscribers
+     */
     public void clear() {
+        synchronized (activeIndex) {
+            active.clear();
+            offline.clear();
+            activeIndex.clear();
+        }
         for (Ring<T> ring : rings) {
             ring.clear();
         }
         hashes.clear();
     }
 
+    /**
+     * Remove the listener, whether registered or subscribed
+     */
+    public void deregister(MembershipListener<T> listener) {
+        membershipListeners.remove(listener);
+        subscribers.remove(listener);
+    }
+
     /**
      * Answer the aproximate diameter of the receiver, assuming the rings were built
      * with FF parameters, with the rings forming random graph connections segments.
@@ -221,6 +399,13 @@ public class Context<T extends Member> {
         return active.get(memberID);
     }
 
+    /**
+     * @return the epoch of the last ViewDelta published to subscribers
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
     public HashKey getId() {
         return id;
     }
@@ -263,8 +448,13 @@ public class Context<T extends Member> {
      * Take a member offline
      */
     public void offline(T m) {
-        active.remove(m.getId());
-        offline.computeIfAbsent(m.getId(), id -> m);
+        boolean joined;
+        synchronized (activeIndex) {
+            joined = !active.containsKey(m.getId()) && !offline.containsKey(m.getId());
+            active.remove(m.getId());
+            activeIndex.remove(m.getId());
+            offline.computeIfAbsent(m.getId(), id -> m);
+        }
         for (Ring<T> ring : rings) {
             ring.delete(m);
         }
@@ -275,10 +465,11 @@ public class Context<T extends Member> {
                 log.error("error sending fail to listener: " + l, e);
             }
         });
+        publish(m, false, joined);
     }
 
     public boolean offlineIfActive(HashKey memberID) {
-        T activated = active.remove(memberID);
+        T activated = active.get(memberID);
         if (activated == null) {
             return false;
         }
@@ -313,18 +504,34 @@ public class Context<T extends Member> {
     }
 
     /**
-     * remove a member from the receiving Context
+     * remove a member from the receiving Context. Registered listeners are
+     * notified that an active member has failed, and subscribers that the member
+     * is removed
      */
     public void remove(T m) {
-        HashKey[] s = hashes.remove(m.getId());
-        if (s == null) {
-            return;
+        boolean wasActive;
+        synchronized (activeIndex) {
+            wasActive = active.remove(m.getId()) != null;
+            if (!wasActive && offline.remove(m.getId()) == null) {
+                return;
+            }
+            activeIndex.remove(m.getId());
+        }
+        for (Ring<T> ring : rings) {
+            ring.delete(m);
         }
-        active.remove(m.getId());
-        offline.remove(m.getId());
-        for (int i = 0; i < s.length; i++) {
-            rings[i].delete(m);
+        // after the rings, which hash the member to delete it
+        hashes.remove(m.getId());
+        if (wasActive) {
+            membershipListeners.stream().forEach(l -> {
+                try {
+                    l.fail(m);
+                } catch (Throwable e) {
+                    log.error("error sending fail to listener: " + l, e);
+                }
+            });
         }
+        publishRemoval(m);
     }
 
     /**
@@ -346,16 +553,25 @@ public class Context<T extends Member> {
 
     /**
      * Answer a random sample of at least range size from the active members of the
-     * context
+     * context. The sample is drawn from an indexed view of the active members, in
+     * time proportional to the range rather than the membership
      * 
      * @param range    - the desired range
      * @param entropy  - source o randomness
-     * @param excluded - the member to exclude from sample
+     * @param excluded - the id of the member to exclude from sample
      * @return a random sample set of the view's live members. May be limited by the
      *         number of active members.
      */
     public <N extends T> List<T> sample(int range, BitsStreamGenerator entropy, HashKey excluded) {
-        return rings[entropy.nextInt(rings.length)].stream().collect(new ReservoirSampler<T>(excluded, range, entropy));
+        return activeIndex.sample(range, entropy, excluded);
+    }
+
+    /**
+     * Subscribe the listener to batches of membership changes, delivered in order
+     * by the context's dispatch
+     */
+    public void subscribe(MembershipListener<T> listener) {
+        subscribers.add(listener);
     }
 
     /**
@@ -402,26 +618,142 @@ public class Context<T extends Member> {
     }
 
     HashKey hashFor(T m, int index) {
-        HashKey[] hSet = hashes.computeIfAbsent(m.getId(), k -> {
-            HashKey[] s = new HashKey[rings.length];
-            MessageDigest md = DIGEST_CACHE.get();
+        return hashesOf(m)[index];
+    }
+
+    /**
+     * The location of context level operators on the ring. As with the original
+     * formatted hash, this depends only upon the context and ring - not the key -
+     * so it is computed once
+     */
+    private HashKey contextHash(HashKey key, int ring) {
+        return contextHashes[ring];
+    }
+
+    private HashKey[] hashesOf(byte domain, HashKey key) {
+        HashKey[] s = new HashKey[rings.length];
+        MessageDigest md = DIGEST_CACHE.get();
+        if (hashing == RingHashing.FORMATTED) {
             for (int ring = 0; ring < rings.length; ring++) {
                 md.reset();
-                md.update(String.format(RING_HASH_TEMPLATE, id, m.getId(), ring).getBytes());
+                md.update((domain == RING_DOMAIN ? String.format(RING_HASH_TEMPLATE, id, key, ring)
+                        : String.format(CONTEXT_HASH_TEMPLATE, id, ring)).getBytes());
                 s[ring] = new HashKey(md.digest());
             }
             return s;
-        });
-        if (hSet == null) {
-            throw new IllegalArgumentException("T " + m.getId() + " is not part of this group " + id);
         }
-        return hSet[index];
+        ByteBuffer encoding = ENCODINGS.get();
+        ByteBuffer digest = ByteBuffer.wrap(DIGESTS.get());
+        for (int ring = 0; ring < rings.length; ring++) {
+            encoding.clear();
+            encoding.put(domain);
+            id.write(encoding);
+            key.write(encoding);
+            encoding.putInt(ring);
+            md.reset();
+            md.update(encoding.array(), 0, encoding.position());
+            try {
+                md.digest(digest.array(), 0, HashKey.BYTE_SIZE);
+            } catch (DigestException e) {
+                throw new IllegalStateException("Unable to hash: " + key, e);
+            }
+            long[] limbs = new long[HashKey.LONG_SIZE];
+            for (int i = 0; i < limbs.length; i++) {
+                limbs[i] = digest.getLong(i * Long.BYTES);
+            }
+            s[ring] = new HashKey(limbs);
+        }
+        return s;
     }
 
-    private HashKey contextHash(HashKey key, int ring) {
-        MessageDigest md = DIGEST_CACHE.get();
-        md.reset();
-        md.update(String.format(CONTEXT_HASH_TEMPLATE, id, ring).getBytes());
-        return new HashKey(md.digest());
+    /**
+     * Publish the accumulated changes to the subscribers as a single delta, until
+     * no changes remain. The context's dispatch is not rescheduled until this
+     * completes, so its deltas are delivered in order, one at a time
+     */
+    private void dispatch() {
+        while (true) {
+            ViewDelta<T> delta;
+            synchronized (pendingActive) {
+                if (pendingActive.isEmpty() && pendingOffline.isEmpty() && pendingRemoved.isEmpty()) {
+                    dispatching = false;
+                    return;
+                }
+                delta = new ViewDelta<>(epoch.incrementAndGet(), new ArrayList<>(pendingJoined.values()),
+                        new ArrayList<>(pendingOffline.values()), new ArrayList<>(pendingActive.values()),
+                        new ArrayList<>(pendingRemoved.values()));
+                pendingActive.clear();
+                pendingJoined.clear();
+                pendingOffline.clear();
+                pendingRemoved.clear();
+            }
+            for (MembershipListener<T> l : subscribers) {
+                try {
+                    l.changed(delta);
+                } catch (Throwable e) {
+                    log.error("error publishing delta to listener: " + l, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the member on each ring
+     */
+    private HashKey[] hashesOf(T m) {
+        return hashes.computeIfAbsent(m.getId(), k -> hashesOf(RING_DOMAIN, k));
+    }
+
+    /**
+     * Accumulate the member's change for the next delta, coalesced with any
+     * pending change of the member
+     */
+    private void publish(T m, boolean activated, boolean joined) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        synchronized (pendingActive) {
+            if (activated) {
+                pendingOffline.remove(m.getId());
+                pendingActive.put(m.getId(), m);
+            } else {
+                pendingActive.remove(m.getId());
+                pendingOffline.put(m.getId(), m);
+            }
+            // a member removed and added back within the delta is not new to subscribers
+            if (joined && pendingRemoved.remove(m.getId()) == null) {
+                pendingJoined.put(m.getId(), m);
+            }
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Accumulate the member's removal for the next delta. A member that joined
+     * within the delta is simply dropped from it
+     */
+    private void publishRemoval(T m) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        synchronized (pendingActive) {
+            pendingActive.remove(m.getId());
+            pendingOffline.remove(m.getId());
+            if (pendingJoined.remove(m.getId()) == null) {
+                pendingRemoved.put(m.getId(), m);
+            }
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Schedule the context's dispatch, unless already scheduled or running. Called
+     * holding the pending changes
+     */
+    private void scheduleDispatch() {
+        if (!dispatching) {
+            dispatching = true;
+            DISPATCHER.execute(() -> dispatch());
+        }
     }
 }
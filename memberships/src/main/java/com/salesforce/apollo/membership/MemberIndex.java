@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.membership;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.math3.random.BitsStreamGenerator;
+
+import com.salesforce.apollo.protocols.HashKey;
+
+/**
+ * A randomly indexable set of members. Members are added and removed in
+ * constant time, the removed member's slot filled by the last member, and a
+ * uniform sample of k distinct members is drawn in O(k) by a partial
+ * Fisher-Yates shuffle over virtual swaps, leaving the index itself untouched
+ *
+ * @author hal.hildebrand
+ *
+ */
+class MemberIndex<T extends Member> {
+    private final ReadWriteLock         lock      = new ReentrantReadWriteLock();
+    private final List<T>               members   = new ArrayList<>();
+    private final Map<HashKey, Integer> positions = new HashMap<>();
+
+    /**
+     * @return true if the member was added, false if already present
+     */
+    boolean add(T member) {
+        lock.writeLock().lock();
+        try {
+            if (positions.putIfAbsent(member.getId(), members.size()) != null) {
+                return false;
+            }
+            members.add(member);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            members.clear();
+            positions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the member was removed, false if not present
+     */
+    boolean remove(HashKey id) {
+        lock.writeLock().lock();
+        try {
+            Integer position = positions.remove(id);
+            if (position == null) {
+                return false;
+            }
+            T last = members.remove(members.size() - 1);
+            if (position < members.size()) {
+                members.set(position, last);
+                positions.put(last.getId(), position);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param k        - the sample size
+     * @param entropy  - the source of randomness
+     * @param excluded - the id of the member excluded from the sample, may be null
+     * @return a uniformly chosen sample of min(k, size) distinct members, less
+     *         the excluded member
+     */
+    List<T> sample(int k, BitsStreamGenerator entropy, HashKey excluded) {
+        lock.readLock().lock();
+        try {
+            int n = members.size();
+            // slots displaced by the virtual swaps of the shuffle
+            Map<Integer, Integer> swapped = new HashMap<>();
+            Integer exclude = excluded == null ? null : positions.get(excluded);
+            if (exclude != null) {
+                n--;
+                swapped.put(exclude, n);
+            }
+            int size = Math.min(k, n);
+            if (size <= 0) {
+                return Collections.emptyList();
+            }
+            List<T> sample = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int r = i + entropy.nextInt(n - i);
+                int chosen = swapped.getOrDefault(r, r);
+                swapped.put(r, swapped.getOrDefault(i, i));
+                sample.add(members.get(chosen));
+            }
+            return sample;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return members.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -27,14 +27,140 @@ import com.salesforce.apollo.protocols.HashKey;
 /**
  * A ring of members. Also, too, addressable functions by HashKey, for ring
  * operations to obtain members.
+ * <p>
+ * Point lookups - successor, predecessor, rank and indexed access - are served
+ * from an immutable routing table snapshot of the ring: the sorted hashes of
+ * the members, flattened into a long[], along with the members in ring order.
+ * The position of a hash in the snapshot is its order statistic, so rank and
+ * select are binary searches or array indexing rather than walks of the ring.
+ * The snapshot is discarded on membership change, rebuilt on the next lookup
+ * and published through a volatile reference, so lookups are lock free.
  * 
  * @author hal.hildebrand
  * @since 220
  */
 public class Ring<T extends Member> implements Iterable<T> {
+
+    /**
+     * An immutable snapshot of the ring, in ring order
+     */
+    private static class RoutingTable<T> {
+        private final long[]   keys;
+        private final Object[] members;
+
+        private RoutingTable(ConcurrentNavigableMap<HashKey, T> ring) {
+            members = new Object[ring.size()];
+            keys = new long[members.length * HashKey.LONG_SIZE];
+            int i = 0;
+            for (Map.Entry<HashKey, T> entry : ring.entrySet()) {
+                System.arraycopy(entry.getKey().longs(), 0, keys, i * HashKey.LONG_SIZE, HashKey.LONG_SIZE);
+                members[i++] = entry.getValue();
+            }
+        }
+
+        /**
+         * @return the index of the first key not less than the location
+         */
+        private int ceiling(long[] location) {
+            return search(location, false);
+        }
+
+        private int compare(int index, long[] location) {
+            int offset = index * HashKey.LONG_SIZE;
+            for (int i = 0; i < HashKey.LONG_SIZE; i++) {
+                int compare = Long.compareUnsigned(keys[offset + i], location[i]);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(int index) {
+            return (T) members[index];
+        }
+
+        /**
+         * @return the index of the first key greater than the location
+         */
+        private int higher(long[] location) {
+            return search(location, true);
+        }
+
+        private T predecessor(HashKey location, Predicate<T> predicate) {
+            int n = members.length;
+            if (n == 0) {
+                return null;
+            }
+            long[] l = location.longs();
+            int ceiling = ceiling(l);
+            int exact = ceiling < n && compare(ceiling, l) == 0 ? ceiling : -1;
+            for (int i = 1; i <= n; i++) {
+                int index = Math.floorMod(ceiling - i, n);
+                if (index != exact && predicate.test(get(index))) {
+                    return get(index);
+                }
+            }
+            return null;
+        }
+
+        private int rank(HashKey item, HashKey dest) {
+            int from = higher(item.longs());
+            int to = ceiling(dest.longs());
+            if (item.compareTo(dest) < 0) {
+                return to - from;
+            }
+            return members.length - from + to;
+        }
+
+        private int search(long[] location, boolean strict) {
+            int low = 0;
+            int high = members.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int compare = compare(mid, location);
+                if (compare < 0 || (strict && compare == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private T successor(HashKey location, int k) {
+            int n = members.length;
+            if (n == 0) {
+                return null;
+            }
+            long[] l = location.longs();
+            int higher = higher(l);
+            return get((int) ((higher + (long) k - 1) % n));
+        }
+
+        private T successor(HashKey location, Predicate<T> predicate) {
+            int n = members.length;
+            if (n == 0) {
+                return null;
+            }
+            long[] l = location.longs();
+            int ceiling = ceiling(l);
+            int exact = ceiling < n && compare(ceiling, l) == 0 ? ceiling : -1;
+            for (int i = 0; i < n; i++) {
+                int index = (ceiling + i) % n;
+                if (index != exact && predicate.test(get(index))) {
+                    return get(index);
+                }
+            }
+            return null;
+        }
+    }
+
     private final BiFunction<T, Integer, HashKey>    hasher;
     private final int                                index;
     private final ConcurrentNavigableMap<HashKey, T> ring = new ConcurrentSkipListMap<>();
+    private volatile RoutingTable<T>                 table;
 
     public Ring() {
         this(0, (m, r) -> m.getId());
@@ -124,16 +250,19 @@ public class Ring<T extends Member> implements Iterable<T> {
         };
     }
 
-    public void clear() {
+    public synchronized void clear() {
         ring.clear();
+        table = null;
     }
 
     public boolean contains(T member) {
         return ring.containsKey(member.getId());
     }
 
-    public void delete(T m) {
-        ring.remove(hash(m));
+    public synchronized void delete(T m) {
+        if (ring.remove(hash(m)) != null) {
+            table = null;
+        }
     }
 
     public Set<HashKey> difference(Ring<T> r) {
@@ -147,14 +276,11 @@ public class Ring<T extends Member> implements Iterable<T> {
         if (m < 0) {
             throw new IllegalArgumentException("Must be greater than 0: " + m);
         }
-        int index = m % ring.size();
-        for (Member member : ring.values()) {
-            if (index == 0) {
-                return member;
-            }
-            index--;
+        RoutingTable<T> current = table();
+        if (current.members.length == 0) {
+            throw new NoSuchElementException("empty ring");
         }
-        throw new NoSuchElementException("empty ring");
+        return current.get(m % current.members.length);
     }
 
     public int getIndex() {
@@ -174,9 +300,13 @@ public class Ring<T extends Member> implements Iterable<T> {
         return hasher.apply(m, index);
     }
 
-    public T insert(T m) {
+    public synchronized T insert(T m) {
         LoggerFactory.getLogger(getClass()).trace("Adding: {} to ring: {}", m, index);
-        return ring.put(hash(m), m);
+        T previous = ring.put(hash(m), m);
+        if (previous != m) {
+            table = null;
+        }
+        return previous;
     }
 
     /**
@@ -227,17 +357,7 @@ public class Ring<T extends Member> implements Iterable<T> {
      *         is never evaluated.
      */
     public T predecessor(HashKey location, Predicate<T> predicate) {
-        for (T member : ring.headMap(location, false).descendingMap().values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
-        }
-        for (T member : ring.tailMap(location, false).descendingMap().values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
-        }
-        return null;
+        return table().predecessor(location, predicate);
     }
 
     /**
@@ -255,19 +375,7 @@ public class Ring<T extends Member> implements Iterable<T> {
      *         is never evaluated.
      */
     public T predecessor(T m, Predicate<T> predicate) {
-        HashKey itemHash = hash(m);
-
-        for (T member : ring.headMap(itemHash, false).descendingMap().values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
-        }
-        for (T member : ring.tailMap(itemHash, false).descendingMap().values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
-        }
-        return null;
+        return predecessor(hash(m), predicate);
     }
 
     /**
@@ -335,10 +443,7 @@ public class Ring<T extends Member> implements Iterable<T> {
      * @return the number of items between item and dest
      */
     public int rank(HashKey item, HashKey dest) {
-        if (item.compareTo(dest) < 0) {
-            return ring.subMap(item, false, dest, false).size();
-        }
-        return ring.tailMap(item, false).size() + ring.headMap(dest, false).size();
+        return table().rank(item, dest);
     }
 
     /**
@@ -427,18 +532,20 @@ public class Ring<T extends Member> implements Iterable<T> {
      *         never evaluated..
      */
     public T successor(HashKey hash, Predicate<T> predicate) {
+        return table().successor(hash, predicate);
+    }
 
-        for (T member : ring.tailMap(hash, false).values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
-        }
-        for (T member : ring.headMap(hash, false).values()) {
-            if (predicate.test(member)) {
-                return member;
-            }
+    /**
+     * @param location - the location to start on the ring
+     * @param k        - the distance, 1 being the immediate successor
+     * @return the kth successor of the location, wrapping around the ring, or
+     *         null if the ring is empty
+     */
+    public T successor(HashKey location, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Must be greater than 0: " + k);
         }
-        return null;
+        return table().successor(location, k);
     }
 
     /**
@@ -449,6 +556,15 @@ public class Ring<T extends Member> implements Iterable<T> {
         return successor(m, e -> true);
     }
 
+    /**
+     * @param m - the member
+     * @param k - the distance, 1 being the immediate successor
+     * @return the kth successor of the member, wrapping around the ring
+     */
+    public T successor(T m, int k) {
+        return successor(hash(m), k);
+    }
+
     /**
      * @param m         - the member
      * @param predicate - the test predicate
@@ -552,4 +668,21 @@ public class Ring<T extends Member> implements Iterable<T> {
             }
         };
     }
+
+    /**
+     * @return the current routing table, rebuilding it if the ring has changed
+     */
+    private RoutingTable<T> table() {
+        RoutingTable<T> current = table;
+        if (current == null) {
+            synchronized (this) {
+                current = table;
+                if (current == null) {
+                    current = new RoutingTable<>(ring);
+                    table = current;
+                }
+            }
+        }
+        return current;
+    }
 }
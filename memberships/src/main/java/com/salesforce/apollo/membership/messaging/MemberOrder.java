@@ -8,14 +8,16 @@ package com.salesforce.apollo.membership.messaging;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
 
 import org.slf4j.Logger;
@@ -28,41 +30,82 @@ import com.salesforce.apollo.membership.messaging.Messenger.MessageHandler.Msg;
 import com.salesforce.apollo.protocols.HashKey;
 
 /**
+ * Delivers the messages of each member in the order of their sequence numbers.
+ * <p>
+ * Each member's channel holds its messages in a reorder window, a ring of slots
+ * indexed by sequence number modulo the window size, claimed with CAS. The
+ * rare message too far ahead of the window waits in an overflow queue until the
+ * window advances. A channel is drained by one thread at a time, and a drain
+ * claimed by another thread is rechecked by the draining thread on release, so
+ * no message is stranded. The drained runs are handed off in order to a single
+ * delivering thread at a time, so the processor is never invoked concurrently.
+ * There is no global lock.
+ *
  * @author hal.hildebrand
  *
  */
 public class MemberOrder {
     public class ActiveChannel implements Channel {
-        private volatile int             flushTarget        = -1;
-        private final HashKey            id;
-        private volatile int             lastSequenceNumber = -1;
-        private final PriorityQueue<Msg> queue;
+        private final AtomicBoolean             draining           = new AtomicBoolean();
+        private final AtomicInteger             flushTarget        = new AtomicInteger(-1);
+        private final AtomicInteger             horizon            = new AtomicInteger(-1);
+        private final HashKey                   id;
+        private final AtomicInteger             lastSequenceNumber = new AtomicInteger(-1);
+        private final Queue<Msg>                overflow           = new ConcurrentLinkedQueue<>();
+        private final AtomicReferenceArray<Msg> window             = new AtomicReferenceArray<>(WINDOW);
 
         public ActiveChannel(HashKey id) {
             this.id = id;
-            queue = new PriorityQueue<Msg>((a, b) -> {
-                return Integer.compare(a.sequenceNumber, b.sequenceNumber);
-            });
         }
 
         @Override
         public void clear() {
-            lastSequenceNumber = -1;
-            queue.clear();
+            lastSequenceNumber.set(-1);
+            horizon.set(-1);
+            flushTarget.set(-1);
+            overflow.clear();
+            for (int i = 0; i < WINDOW; i++) {
+                window.set(i, null);
+            }
         }
 
         @Override
-        public void enqueue(Msg msg, int round) {
-            final int last = lastSequenceNumber;
-            if (msg.sequenceNumber > last) {
-                final int currentFlushTarget = flushTarget;
-                if (currentFlushTarget < 0) {
-                    flushTarget = round + ttl;
+        public void drain(int round) {
+            do {
+                if (!draining.compareAndSet(false, true)) {
+                    return;
                 }
-                queue.add(msg);
-            } else {
-                log.trace("discarding previously seen: {}", msg.sequenceNumber);
-            }
+                try {
+                    List<Msg> drained = new ArrayList<>();
+                    boolean placed = true;
+                    while (placed) {
+                        Msg message;
+                        while ((message = next(round)) != null) {
+                            drained.add(message);
+                        }
+                        placed = false;
+                        for (int i = overflow.size(); i > 0; i--) {
+                            Msg held = overflow.poll();
+                            if (held == null) {
+                                break;
+                            }
+                            placed |= place(held);
+                        }
+                    }
+                    if (!drained.isEmpty()) {
+                        delivery.add(drained);
+                    }
+                } finally {
+                    draining.set(false);
+                }
+            } while (deliverable(round));
+        }
+
+        @Override
+        public void enqueue(Msg msg, int round) {
+            horizon.accumulateAndGet(msg.sequenceNumber, Math::max);
+            flushTarget.compareAndSet(-1, round + ttl);
+            place(msg);
         }
 
         @Override
@@ -70,32 +113,85 @@ public class MemberOrder {
             return id;
         }
 
-        @Override
-        public Msg next(int round) {
-            Msg message = queue.peek();
-            final int current = lastSequenceNumber;
-            final int currentFlushTarget = flushTarget;
-            while (message != null) {
-                if (message.sequenceNumber == current + 1 || ((currentFlushTarget > 0 && currentFlushTarget < round)
-                        && message.sequenceNumber > current)) {
-                    flushTarget = -1;
-                    message = queue.remove();
-                    lastSequenceNumber = message.sequenceNumber;
-                    log.trace("next msg: {} from: {} on: {}", message.sequenceNumber, message.from, member);
+        /**
+         * @return true if the next message is in the window, a held message now fits
+         *         the window, or the channel is flushing past a gap
+         */
+        private boolean deliverable(int round) {
+            int last = lastSequenceNumber.get();
+            int next = last + 1;
+            Msg message = window.get(next & (WINDOW - 1));
+            if ((message != null && message.sequenceNumber == next) || (flushing(round) && horizon.get() >= next)) {
+                return true;
+            }
+            // held after the draining thread swept the overflow
+            return overflow.stream().anyMatch(m -> m.sequenceNumber - last <= WINDOW);
+        }
+
+        private boolean flushing(int round) {
+            int target = flushTarget.get();
+            return target > 0 && target < round;
+        }
+
+        /**
+         * @return the next message in sequence, or the next message following a
+         *         gap once the channel has waited ttl rounds to flush
+         */
+        private Msg next(int round) {
+            final int last = lastSequenceNumber.get();
+            final boolean flushing = flushing(round);
+            for (int next = last + 1; next <= last + WINDOW; next++) {
+                int index = next & (WINDOW - 1);
+                Msg message = window.get(index);
+                if (message != null && message.sequenceNumber == next) {
+                    window.compareAndSet(index, message, null);
+                    lastSequenceNumber.compareAndSet(last, next);
+                    flushTarget.set(horizon.get() > next ? round + ttl : -1);
+                    log.trace("next msg: {} from: {} on: {}", next, message.from, member);
                     return message;
-                } else if (message.sequenceNumber <= current) {
-                    log.trace("discarding previously seen: {} <= {} on: {}", message.sequenceNumber, current, member);
-                    queue.poll();
-                    message = queue.peek();
-                } else {
-                    log.trace("No Msg, next: {} head: {} flushTarget: {} on: {}", current, message.sequenceNumber,
-                              currentFlushTarget, member);
+                }
+                if (!flushing) {
+                    log.trace("No Msg, next: {} flushTarget: {} on: {}", next, flushTarget.get(), member);
                     return null;
                 }
             }
+            // flushed through an empty window
+            if (overflow.isEmpty()) {
+                flushTarget.set(-1);
+            } else {
+                lastSequenceNumber.compareAndSet(last, last + WINDOW);
+            }
             return null;
         }
 
+        /**
+         * Place the message in its slot of the window, or in the overflow if it is
+         * too far ahead of the window
+         *
+         * @return true if the message was placed in the window
+         */
+        private boolean place(Msg msg) {
+            while (true) {
+                final int last = lastSequenceNumber.get();
+                if (msg.sequenceNumber <= last) {
+                    log.trace("discarding previously seen: {} <= {} on: {}", msg.sequenceNumber, last, member);
+                    return false;
+                }
+                if (msg.sequenceNumber - last > WINDOW) {
+                    overflow.add(msg);
+                    return false;
+                }
+                int index = msg.sequenceNumber & (WINDOW - 1);
+                Msg current = window.get(index);
+                if (current != null && current.sequenceNumber == msg.sequenceNumber) {
+                    return false;
+                }
+                // the slot is empty, or holds a message the channel has flushed past
+                if (window.compareAndSet(index, current, msg)) {
+                    return true;
+                }
+            }
+        }
     }
 
     public interface Channel {
@@ -103,75 +199,75 @@ public class MemberOrder {
         default void clear() {
         }
 
+        /**
+         * Hand off the messages that are ready for delivery
+         */
+        default void drain(int round) {
+        }
+
         default void enqueue(Msg msg, int round) {
         }
 
         HashKey getId();
 
-        default Msg next(int round) {
-            return null;
-        }
-
     }
 
-    private static Logger                        log      = LoggerFactory.getLogger(MemberOrder.class);
-    private final Map<HashKey, Channel>          channels = new HashMap<>();
+    /**
+     * The size of each channel's reorder window, a power of 2
+     */
+    public static final int WINDOW = 256;
+
+    private static Logger log = LoggerFactory.getLogger(MemberOrder.class);
+
+    private final Map<HashKey, Channel>          channels   = new ConcurrentHashMap<>();
     private final Context<Member>                context;
-    private final Lock                           lock     = new ReentrantLock(true);
+    private final AtomicBoolean                  delivering = new AtomicBoolean();
+    private final Queue<List<Msg>>               delivery   = new ConcurrentLinkedQueue<>();
+    private final Member                         member;
     private final BiConsumer<HashKey, List<Msg>> processor;
-    private final AtomicBoolean                  started  = new AtomicBoolean();
-    private final int                            ttl;
+    private final AtomicBoolean                  started    = new AtomicBoolean();
     private final int                            tick;
-    private final Member                         member;
+    private final int                            ttl;
 
     @SuppressWarnings("unchecked")
     public MemberOrder(BiConsumer<HashKey, List<Msg>> processor, Messenger messenger) {
+        this(processor, (Context<Member>) messenger.getContext(), messenger.getMember());
+        messenger.registerHandler((id, messages) -> process(messages, messenger.getRound()));
+        messenger.register(round -> tick(round));
+    }
+
+    /**
+     * Ordering driven directly by process() and tick(), rather than by a messenger
+     */
+    MemberOrder(BiConsumer<HashKey, List<Msg>> processor, Context<Member> context, Member member) {
         this.processor = processor;
-        this.context = (Context<Member>) messenger.getContext();
-        this.member = messenger.getMember();
+        this.context = context;
+        this.member = member;
         ttl = context.timeToLive();
         tick = Math.max(2, context.toleranceLevel() / 2);
         context.allMembers().forEach(m -> channels.put(m.getId(), new ActiveChannel(m.getId())));
 
-        messenger.registerHandler((id, messages) -> process(messages, messenger.getRound()));
-        messenger.register(round -> tick(round));
+        // synchronously, so a member's channel exists once the member is active
         context.register(new MembershipListener<Member>() {
 
             @Override
             public void fail(Member member) {
-                if (!started.get()) {
-                    return;
-                }
-                final Lock write = lock;
-                write.lock();
-                try {
-                    Channel channel = channels.put(member.getId(), new Channel() {
-                        @Override
-                        public HashKey getId() {
-                            return member.getId();
-                        }
-                    });
-                    if (channel == null) {
-                        log.trace("Unknown member failed: {}", member.getId());
+                Channel channel = channels.put(member.getId(), new Channel() {
+                    @Override
+                    public HashKey getId() {
+                        return member.getId();
                     }
-                    channel.clear();
-                } finally {
-                    write.unlock();
+                });
+                if (channel == null) {
+                    log.trace("Unknown member failed: {}", member.getId());
+                    return;
                 }
+                channel.clear();
             }
 
             @Override
             public void recover(Member member) {
-                if (!started.get()) {
-                    return;
-                }
-                final Lock write = lock;
-                write.lock();
-                try {
-                    channels.put(member.getId(), new ActiveChannel(member.getId()));
-                } finally {
-                    write.unlock();
-                }
+                activeChannel(member.getId());
             }
         });
     }
@@ -180,20 +276,27 @@ public class MemberOrder {
         if (!started.get()) {
             return;
         }
-        final Lock write = lock;
-        write.lock();
         log.trace("processing {}", msgs);
-        try {
-            msgs.forEach(m -> {
-                if (!started.get()) {
-                    return;
-                }
-                process(m, round);
-            });
-            processHead(round);
-        } finally {
-            write.unlock();
+        Set<Channel> received = new HashSet<>();
+        for (Msg m : msgs) {
+            if (!started.get()) {
+                return;
+            }
+            Channel channel = channels.get(m.from.getId());
+            if (channel == null && context.getActiveMember(m.from.getId()) != null) {
+                // active, but the context has yet to notify this of the member
+                channel = activeChannel(m.from.getId());
+            }
+            if (channel == null) {
+                log.trace("Message received on: {} from {} which is not a consortium member", member,
+                          m.from.getId());
+                continue;
+            }
+            channel.enqueue(m, round);
+            received.add(channel);
         }
+        received.forEach(channel -> channel.drain(round));
+        deliver();
     }
 
     public void start() {
@@ -212,68 +315,50 @@ public class MemberOrder {
         if (round % tick != 0) {
             return;
         }
-        final Lock write = lock;
-        write.lock();
-        try {
-            flush(round);
-        } finally {
-            write.unlock();
-        }
+        flush(round);
     }
 
-    private void deliver(List<Msg> msgs) {
-        try {
-            processor.accept(context.getId(), msgs);
-        } catch (Throwable e) {
-            log.error("Error processing messages  on: {}", member, e);
-        }
+    /**
+     * @return the active channel of the member, created if the member's channel is
+     *         absent or inactive
+     */
+    private Channel activeChannel(HashKey id) {
+        return channels.compute(id, (k, channel) -> channel instanceof ActiveChannel ? channel
+                : new ActiveChannel(k));
     }
 
-    private void flush(int round) {
-        List<Msg> flushed = new ArrayList<>();
-        int lastFlushed = -1;
-        while (flushed.size() - lastFlushed > 0) {
-            if (!started.get()) {
-                return;
-            }
-            lastFlushed = flushed.size();
-            for (Entry<HashKey, Channel> e : channels.entrySet()) {
-                Msg message = e.getValue().next(round);
-                if (message != null) {
-                    flushed.add(message);
+    /**
+     * Deliver the drained runs of messages in the order they were handed off,
+     * from a single thread at a time
+     */
+    private void deliver() {
+        while (!delivery.isEmpty() && delivering.compareAndSet(false, true)) {
+            try {
+                List<Msg> msgs = new ArrayList<>();
+                List<Msg> drained;
+                while ((drained = delivery.poll()) != null) {
+                    msgs.addAll(drained);
                 }
+                if (!started.get()) {
+                    return;
+                }
+                log.trace("Delivering: {} messages on: {}", msgs.size(), member);
+                processor.accept(context.getId(), msgs);
+            } catch (Throwable e) {
+                log.error("Error processing messages  on: {}", member, e);
+            } finally {
+                delivering.set(false);
             }
         }
-        if (flushed.size() != 0) {
-            log.trace("Flushed: {} messages on: {}", flushed.size(), member);
-            deliver(flushed);
-        }
-    }
-
-    private void process(Msg m, int round) {
-        Channel channel = channels.get(m.from.getId());
-        if (channel == null) {
-            log.trace("Message received on: {} from {} which is not a consortium member", member, m.from.getId());
-            return;
-        }
-        channel.enqueue(m, round);
     }
 
-    // Deliever all messages in sequence that are available
-    private void processHead(int round) {
-        List<Msg> delivered = new ArrayList<>();
-        channels.forEach((id, channel) -> {
+    private void flush(int round) {
+        for (Channel channel : channels.values()) {
             if (!started.get()) {
                 return;
             }
-            Msg message = channel.next(round);
-            if (message != null) {
-                delivered.add(message);
-            }
-        });
-        if (delivered.size() > 0) {
-            log.trace("Delivering: {} messages on: {}", delivered.size(), member);
-            deliver(delivered);
+            channel.drain(round);
         }
+        deliver();
     }
 }
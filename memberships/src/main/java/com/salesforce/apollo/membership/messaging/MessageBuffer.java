@@ -10,38 +10,163 @@ import java.nio.ByteBuffer;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiPredicate;
-import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.Biff;
 import com.salesfoce.apollo.proto.Message;
 import com.salesfoce.apollo.proto.Messages;
 import com.salesfoce.apollo.proto.Messages.Builder;
 import com.salesfoce.apollo.proto.Push;
 import com.salesforce.apollo.membership.Member;
 import com.salesforce.apollo.protocols.BloomFilter;
+import com.salesforce.apollo.protocols.CompositeBuffer;
 import com.salesforce.apollo.protocols.Conversion;
-import com.salesforce.apollo.protocols.HashFunction;
 import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.Utils;
 
 /**
+ * The buffer of gossiped messages.
+ * <p>
+ * Each message is held immutable, as received or published, with its age kept
+ * out of band as the gossip round of its birth. Messages are organized in
+ * buckets by birth round, so aging every message is the advance of the round,
+ * and expiry is the removal of the single bucket that has become too old. The
+ * capacity of the buffer is enforced by evicting from the oldest buckets
+ * first. The age is stamped into a message only when it is sent, sharing the
+ * content of the held message, and the stamp is reused for the round.
+ * <p>
+ * The digest of the buffer's messages - a bloom filter of their ids - is the
+ * union of a bounded number of segment filters, each covering a range of
+ * consecutive buckets, maintained incrementally as messages are added along
+ * with its serialized form. As bloom filters do not support removal, the filter
+ * of a segment that messages leave is rebuilt from the segment's remaining
+ * messages, and the digest is then the union of the segment filters once more,
+ * rehashing only the messages of the rebuilt segments. The digests are rebuilt
+ * with fresh entropy every reseed interval rounds, for the diversity of their
+ * false positives.
+ * 
  * @author hal.hildebrand
  * @since 220
  */
 public class MessageBuffer {
+    private static class Buffered {
+        private int           birth;
+        private final HashKey id;
+        private final Message message;
+        private Message       stamped;
+
+        private Buffered(HashKey id, Message message, int birth) {
+            this.id = id;
+            this.message = message;
+            this.birth = birth;
+        }
+    }
+
+    /**
+     * An incrementally maintained digest of the buffer, the union of the filters
+     * of its segments - each a range of consecutive buckets
+     */
+    private class Digest {
+        private final boolean[]     dirty;
+        private final BloomFilter[] filters;
+        private final double        p;
+        private boolean             rebuild;
+        private Biff                serialized;
+        private final BloomFilter   union;
+
+        private Digest(double p, boolean blocked) {
+            this.p = p;
+            int seed = Utils.entropy().nextInt();
+            filters = new BloomFilter[Math.min(SEGMENTS, buckets.length)];
+            dirty = new boolean[filters.length];
+            union = BloomFilter.create(seed, bufferSize, p, blocked);
+            for (int i = 0; i < filters.length; i++) {
+                filters[i] = BloomFilter.create(seed, bufferSize, p, blocked);
+            }
+            state.values().forEach(buffered -> {
+                filters[segment(slot(buffered.birth))].add(buffered.id);
+                union.add(buffered.id);
+            });
+        }
+
+        private void add(Buffered buffered) {
+            filters[segment(slot(buffered.birth))].add(buffered.id);
+            union.add(buffered.id);
+            serialized = null;
+        }
+
+        /**
+         * Messages have left the bucket of the birth round
+         */
+        private void removed(int birth) {
+            dirty[segment(slot(birth))] = true;
+            rebuild = true;
+        }
+
+        /**
+         * @return the segment of the bucket's slot
+         */
+        private int segment(int slot) {
+            return (int) ((long) slot * filters.length / buckets.length);
+        }
+
+        private Biff serialized() {
+            if (rebuild) {
+                for (int i = 0; i < filters.length; i++) {
+                    if (dirty[i]) {
+                        filters[i].clear();
+                    }
+                }
+                for (int slot = 0; slot < buckets.length; slot++) {
+                    int segment = segment(slot);
+                    if (dirty[segment]) {
+                        BloomFilter filter = filters[segment];
+                        buckets[slot].forEach(buffered -> filter.add(buffered.id));
+                    }
+                }
+                Arrays.fill(dirty, false);
+                union.clear();
+                for (BloomFilter filter : filters) {
+                    union.or(filter);
+                }
+                rebuild = false;
+                serialized = null;
+            }
+            if (serialized == null) {
+                serialized = union.toBff();
+            }
+            return serialized;
+        }
+    }
+
+    /**
+     * The default number of rounds between reseeding the digests. A false
+     * positive of a digest withholds the message from the buffer until the digest
+     * is reseeded, so the digests are reseeded every round
+     */
+    public static final int DEFAULT_RESEED_INTERVAL = 1;
+
+    /**
+     * The maximum number of segment filters of a digest, bounding its size and
+     * maintenance however many rounds a message lives
+     */
+    private static final int SEGMENTS = 8;
+
     private final static Logger log = LoggerFactory.getLogger(MessageBuffer.class);
 
     public static byte[] sign(HashKey hash, Signature signature) {
@@ -63,60 +188,74 @@ public class MessageBuffer {
         }
     }
 
-    private static Queue<Entry<HashKey, Message>> findNHighest(Collection<Entry<HashKey, Message>> msgs, int n) {
-        Queue<Entry<HashKey, Message>> nthHighest = new PriorityQueue<Entry<HashKey, Message>>(
-                (a, b) -> Integer.compare(a.getValue().getAge(), b.getValue().getAge()));
-
-        for (Entry<HashKey, Message> each : msgs) {
-            nthHighest.add(each);
-            if (nthHighest.size() > n) {
-                nthHighest.poll();
-            }
-        }
-        return nthHighest;
-    }
-
     private static HashKey idOf(int sequenceNumber, HashKey from, Any content) {
         ByteBuffer header = ByteBuffer.allocate(32 + 4);
         from.write(header);
         header.putInt(sequenceNumber);
         header.flip();
-        List<ByteBuffer> buffers = new ArrayList<>();
-        buffers.add(header);
-        buffers.addAll(content.toByteString().asReadOnlyByteBufferList());
-
-        return new HashKey(Conversion.hashOf(buffers));
+        return new HashKey(Conversion.hashOf(CompositeBuffer.newBuilder()
+                                                            .add(header)
+                                                            .add(content.toByteString())
+                                                            .build()));
     }
 
     private static HashKey idOf(Message message) {
         return idOf(message.getSequenceNumber(), new HashKey(message.getSource()), message.getContent());
     }
 
-    private final int                   bufferSize;
-    private final AtomicInteger         lastSequenceNumber = new AtomicInteger();
-    private final Map<HashKey, Message> state              = new ConcurrentHashMap<>();
-    private int                         tooOld;
+    private final Set<Buffered>[]        buckets;
+    private final int                    bufferSize;
+    private final Digest[]               digests            = new Digest[2];
+    private final AtomicInteger          lastSequenceNumber = new AtomicInteger();
+    private final int                    reseedInterval;
+    private int                          round;
+    private final Map<HashKey, Buffered> state              = new ConcurrentHashMap<>();
+    private int                          tooOld;
 
     public MessageBuffer(int bufferSize, int tooOld) {
+        this(bufferSize, tooOld, DEFAULT_RESEED_INTERVAL);
+    }
+
+    /**
+     * @param reseedInterval - the number of rounds between reseeding the digests
+     */
+    @SuppressWarnings("unchecked")
+    public MessageBuffer(int bufferSize, int tooOld, int reseedInterval) {
         this.bufferSize = bufferSize;
         this.tooOld = tooOld;
+        this.reseedInterval = Math.max(1, reseedInterval);
+        // ages 0 through tooOld + 1, the last sent once before expiring
+        buckets = new Set[tooOld + 2];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LinkedHashSet<>();
+        }
     }
 
-    public void clear() {
+    public synchronized void clear() {
         state.clear();
+        for (Set<Buffered> bucket : buckets) {
+            bucket.clear();
+        }
+        invalidateDigests();
     }
 
-    public void gc() {
+    public synchronized void gc() {
         log.trace("Compacting buffer");
-        purgeTheAged();
         removeOutOfDate();
         log.trace("Buffer free after compact: " + (bufferSize - state.size()));
     }
 
-    public BloomFilter getBff(int seed, double p) {
-        BloomFilter bff = new BloomFilter(new HashFunction(seed, bufferSize, p));
-        state.keySet().forEach(h -> bff.add(h));
-        return bff;
+    /**
+     * @return the serialized digest of the buffer's messages
+     */
+    public synchronized Biff getDigests(double p, boolean blocked) {
+        int index = blocked ? 1 : 0;
+        Digest digest = digests[index];
+        if (digest == null || digest.p != p) {
+            digest = new Digest(p, blocked);
+            digests[index] = digest;
+        }
+        return digest.serialized();
     }
 
     /**
@@ -127,26 +266,64 @@ public class MessageBuffer {
      * @return the list of new messages for this buffer
      */
     public List<Message> merge(List<Message> updates, BiPredicate<HashKey, Message> validator) {
-        List<Message> merged = updates.parallelStream().filter(message -> {
+        return merge(updates, validator, r -> r.run()).join();
+    }
+
+    /**
+     * Merge the updates. Updates of messages already buffered only merge their
+     * age, and are not validated. The remaining updates are validated on the
+     * executor, and are merged once all are validated, without blocking the
+     * caller
+     * 
+     * @param updates
+     * @param validator
+     * @param validation - the executor validating the updates
+     * @return the future list of new messages for this buffer
+     */
+    public CompletableFuture<List<Message>> merge(List<Message> updates, BiPredicate<HashKey, Message> validator,
+                                                  Executor validation) {
+        List<HashKey> hashes = new ArrayList<>();
+        List<Message> pending = new ArrayList<>();
+        List<CompletableFuture<Boolean>> validated = new ArrayList<>();
+        for (Message message : updates) {
             HashKey hash = idOf(message);
-            if (!validator.test(hash, message)) {
-                log.error("Cannot validate message: {}", hash);
-                return false;
+            if (state.containsKey(hash)) {
+                merge(hash, message);
+                continue;
+            }
+            hashes.add(hash);
+            pending.add(message);
+            validated.add(CompletableFuture.supplyAsync(() -> validator.test(hash, message), validation));
+        }
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return CompletableFuture.allOf(validated.toArray(new CompletableFuture[validated.size()])).handle((v, t) -> {
+            List<Message> merged = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                HashKey hash = hashes.get(i);
+                CompletableFuture<Boolean> valid = validated.get(i);
+                if (valid.isCompletedExceptionally() || !valid.join()) {
+                    log.error("Cannot validate message: {}", hash);
+                    continue;
+                }
+                if (merge(hash, pending.get(i))) {
+                    merged.add(pending.get(i));
+                }
             }
-            return merge(hash, message);
-        }).collect(Collectors.toList());
-        gc();
-        return merged;
+            gc();
+            return merged;
+        });
     }
 
-    public Messages process(BloomFilter bff, int seed, double p) {
+    public synchronized Messages process(BloomFilter bff, double p) {
         Builder builder = Messages.newBuilder();
-        state.entrySet().forEach(entry -> {
-            if (!bff.contains(entry.getKey())) {
-                builder.addUpdates(entry.getValue());
+        state.values().forEach(buffered -> {
+            if (!bff.contains(buffered.id)) {
+                builder.addUpdates(stamp(buffered));
             }
         });
-        builder.setBff(getBff(seed, p).toBff());
+        builder.setBff(getDigests(p, bff.isBlocked()));
         Messages gossip = builder.build();
         log.trace("updates: {}", gossip.getUpdatesCount());
         return gossip;
@@ -164,23 +341,68 @@ public class MessageBuffer {
     public Message publish(Any msg, Member from, Signature signature) {
         int sequenceNumber = lastSequenceNumber.getAndIncrement();
         HashKey id = idOf(sequenceNumber, from.getId(), msg);
-        Message update = state.computeIfAbsent(id, k -> createUpdate(msg, sequenceNumber, from.getId(),
-                                                                     sign(k, signature)));
-        gc();
+        Message update = createUpdate(msg, sequenceNumber, from.getId(), sign(id, signature));
+        synchronized (this) {
+            Buffered buffered = state.get(id);
+            if (buffered == null) {
+                insert(id, update, 0);
+            } else {
+                update = buffered.message;
+            }
+            removeOutOfDate();
+        }
         log.trace("broadcasting: {}:{} on: {}", id, sequenceNumber, from);
         return update;
     }
 
+    /**
+     * Age the buffered messages by a round, adding those not contained in the
+     * bloom filter to the builder, then expire the messages that have become too
+     * old
+     */
     public void updatesFor(BloomFilter bff, Push.Builder builder) {
-        state.entrySet()
+        updatesFor(bff, builder, true);
+    }
+
+    /**
+     * Add the buffered messages not contained in the bloom filter to the builder.
+     * If age is true, the messages are first aged by a round, and those that have
+     * become too old are then expired, otherwise the updates are those of the
+     * current round - as for the further exchanges of a round that gossips with
+     * several members
+     */
+    public synchronized void updatesFor(BloomFilter bff, Push.Builder builder, boolean age) {
+        if (age) {
+            round++;
+            if (round % reseedInterval == 0) {
+                invalidateDigests();
+            }
+        }
+        state.values()
              .stream()
-             .peek(entry -> entry.setValue(Message.newBuilder(entry.getValue())
-                                                  .setAge(entry.getValue().getAge() + 1)
-                                                  .build()))
-             .filter(entry -> !bff.contains(entry.getKey()))
-             .map(entry -> entry.getValue())
-             .forEach(e -> builder.addUpdates(e));
-        purgeTheAged();
+             .filter(buffered -> !bff.contains(buffered.id))
+             .forEach(buffered -> builder.addUpdates(stamp(buffered)));
+        if (!age) {
+            return;
+        }
+        Set<Buffered> expired = bucket(round - (tooOld + 1));
+        if (expired.isEmpty()) {
+            return;
+        }
+        expired.forEach(buffered -> {
+            log.trace("removing aged: {}:{}", buffered.id, tooOld + 1);
+            state.remove(buffered.id);
+        });
+        expired.clear();
+        removed(round - (tooOld + 1));
+    }
+
+    private int ageOf(Buffered buffered) {
+        return round - buffered.birth;
+    }
+
+    private Set<Buffered> bucket(int birth) {
+        return buckets[slot(birth)];
     }
 
     private Message createUpdate(Any msg, int sequenceNumber, HashKey from, byte[] signature) {
@@ -193,46 +415,108 @@ public class MessageBuffer {
                       .build();
     }
 
-    private boolean merge(HashKey hash, Message update) {
-        if (update.getAge() > tooOld + 1) {
+    private void insert(HashKey id, Message message, int age) {
+        Buffered buffered = new Buffered(id, message, round - age);
+        state.put(id, buffered);
+        bucket(buffered.birth).add(buffered);
+        for (Digest digest : digests) {
+            if (digest != null) {
+                digest.add(buffered);
+            }
+        }
+    }
+
+    private void invalidateDigests() {
+        Arrays.fill(digests, null);
+    }
+
+    private synchronized boolean merge(HashKey hash, Message update) {
+        int age = update.getAge();
+        if (age > tooOld + 1) {
             log.trace("dropped as too old: {}:{}", hash, update.getSequenceNumber());
             return false;
         }
-        AtomicBoolean updated = new AtomicBoolean(false);
-        state.compute(hash, (k, v) -> {
-            if (v == null) {
-                updated.set(true);
-                log.trace("added: {}:{}", hash, update.getSequenceNumber());
-                return update;
+        Buffered buffered = state.get(hash);
+        if (buffered == null) {
+            log.trace("added: {}:{}", hash, update.getSequenceNumber());
+            if (age <= tooOld) {
+                insert(hash, update, age);
             }
-            if (v.getAge() == update.getAge()) {
-                return update;
+            return true;
+        }
+        int current = ageOf(buffered);
+        if (age > current) {
+            log.trace("merged: {} age: {} prev: {}", hash, age, current);
+            bucket(buffered.birth).remove(buffered);
+            if (age > tooOld) {
+                state.remove(hash);
+                removed(buffered.birth);
+                return false;
             }
-            int age = Math.max(v.getAge(), update.getAge());
-            log.trace("merged: {} age: {} prev: {}", hash, age, v.getAge());
-            return Message.newBuilder(v).setAge(age).build();
-        });
-        return updated.get();
-    }
-
-    private void purgeTheAged() {
-        state.entrySet()
-             .stream()
-             .filter(e -> e.getValue().getAge() > tooOld)
-             .peek(e -> log.trace("removing aged: {}:{}", e.getKey(), e.getValue().getAge()))
-             .forEach(e -> state.remove(e.getKey()));
+            // the filter of the previous bucket is rebuilt without the message
+            removed(buffered.birth);
+            buffered.birth = round - age;
+            buffered.stamped = null;
+            bucket(buffered.birth).add(buffered);
+            for (Digest digest : digests) {
+                if (digest != null) {
+                    digest.add(buffered);
+                }
+            }
+        }
+        return false;
     }
 
+    /**
+     * Evict the overflow of the buffer, oldest first
+     */
     private void removeOutOfDate() {
-        if (state.size() <= bufferSize) {
+        int count = state.size() - bufferSize;
+        if (count <= 0) {
             return;
         }
-
-        int count = state.size() - bufferSize;
         log.trace("removing overflow count: {}", count);
-        findNHighest(state.entrySet(), count).forEach(e -> {
-            log.trace("removing overflow: {}:{}", e.getKey(), e.getValue().getAge());
-            state.remove(e.getKey());
-        });
+        for (int age = buckets.length - 1; age >= 0 && count > 0; age--) {
+            Iterator<Buffered> oldest = bucket(round - age).iterator();
+            if (oldest.hasNext()) {
+                removed(round - age);
+            }
+            while (oldest.hasNext() && count > 0) {
+                Buffered buffered = oldest.next();
+                log.trace("removing overflow: {}:{}", buffered.id, age);
+                oldest.remove();
+                state.remove(buffered.id);
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Messages have left the bucket of the birth round
+     */
+    private void removed(int birth) {
+        for (Digest digest : digests) {
+            if (digest != null) {
+                digest.removed(birth);
+            }
+        }
+    }
+
+    private int slot(int birth) {
+        return Math.floorMod(birth, buckets.length);
+    }
+
+    /**
+     * @return the buffered message, stamped with its current age
+     */
+    private Message stamp(Buffered buffered) {
+        int age = ageOf(buffered);
+        Message stamped = buffered.stamped;
+        if (stamped == null || stamped.getAge() != age) {
+            stamped = buffered.message.getAge() == age ? buffered.message
+                    : Message.newBuilder(buffered.message).setAge(age).build();
+            buffered.stamped = stamped;
+        }
+        return stamped;
     }
 }
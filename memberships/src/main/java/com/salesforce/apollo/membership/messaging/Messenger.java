@@ -11,11 +11,19 @@ import static com.salesforce.apollo.membership.messaging.comms.MessagingClientCo
 import java.security.Signature;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -26,13 +34,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.Biff;
 import com.salesfoce.apollo.proto.Message;
 import com.salesfoce.apollo.proto.MessageBff;
+import com.salesfoce.apollo.proto.MessagingFrame;
 import com.salesfoce.apollo.proto.Messages;
 import com.salesfoce.apollo.proto.Push;
 import com.salesfoce.apollo.proto.Push.Builder;
+import com.salesforce.apollo.comm.ConnectionWarmer;
+import com.salesforce.apollo.comm.ExecutionLane;
+import com.salesforce.apollo.comm.GossipStream;
 import com.salesforce.apollo.comm.Router;
 import com.salesforce.apollo.comm.Router.CommonCommunications;
 import com.salesforce.apollo.membership.Context;
@@ -51,6 +67,19 @@ import com.salesforce.apollo.protocols.Utils;
  */
 public class Messenger {
 
+    /**
+     * A gossip exchange with the successor on a ring
+     */
+    private static class Exchange {
+        private final MessagingClientCommunications link;
+        private final int                           ring;
+
+        private Exchange(MessagingClientCommunications link, int ring) {
+            this.link = link;
+            this.ring = ring;
+        }
+    }
+
     @FunctionalInterface
     public interface MessageHandler {
         class Msg {
@@ -76,12 +105,19 @@ public class Messenger {
     public static class Parameters {
         public static class Builder implements Cloneable {
 
-            private int              bufferSize        = 1000;
-            private double           falsePositiveRate = 0.25;
+            private boolean          blockedBloomFilters = false;
+            private int              bufferSize          = 1000;
+            private double           falsePositiveRate   = 0.25;
+            private int              fanout              = 1;
+            private int              maxInFlight         = 3;
             private MessagingMetrics metrics;
+            private int              reseedInterval      = MessageBuffer.DEFAULT_RESEED_INTERVAL;
+            private boolean          streaming           = true;
+            private ExecutionLane    verification;
 
             public Parameters build() {
-                return new Parameters(falsePositiveRate, bufferSize, metrics);
+                return new Parameters(falsePositiveRate, bufferSize, metrics, blockedBloomFilters, streaming, fanout,
+                        maxInFlight, reseedInterval, verification);
             }
 
             @Override
@@ -97,14 +133,47 @@ public class Messenger {
                 return bufferSize;
             }
 
+            public boolean isBlockedBloomFilters() {
+                return blockedBloomFilters;
+            }
+
+            public boolean isStreaming() {
+                return streaming;
+            }
+
+            /**
+             * Initiate gossip with register blocked bloom filters. Only enable when all
+             * members understand them
+             */
+            public Builder setBlockedBloomFilters(boolean blockedBloomFilters) {
+                this.blockedBloomFilters = blockedBloomFilters;
+                return this;
+            }
+
             public double getFalsePositiveRate() {
                 return falsePositiveRate;
             }
 
+            public int getFanout() {
+                return fanout;
+            }
+
+            public int getMaxInFlight() {
+                return maxInFlight;
+            }
+
             public MessagingMetrics getMetrics() {
                 return metrics;
             }
 
+            public int getReseedInterval() {
+                return reseedInterval;
+            }
+
+            public ExecutionLane getVerification() {
+                return verification;
+            }
+
             public Builder setBufferSize(int bufferSize) {
                 this.bufferSize = bufferSize;
                 return this;
@@ -115,25 +184,121 @@ public class Messenger {
                 return this;
             }
 
+            /**
+             * Gossip with the successors on this many rings concurrently in each round,
+             * rather than a single successor. Members that are the successor on several
+             * rings are gossiped with once
+             */
+            public Builder setFanout(int fanout) {
+                this.fanout = fanout;
+                return this;
+            }
+
+            /**
+             * The maximum number of a round's gossip exchanges that are in flight at once
+             */
+            public Builder setMaxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
             public Builder setMetrics(MessagingMetrics metrics) {
                 this.metrics = metrics;
                 return this;
             }
 
+            /**
+             * The number of rounds between rebuilding the digests of the message buffer
+             * with fresh entropy, for the diversity of their false positives. As a false
+             * positive persists until the digests are reseeded, higher false positive
+             * rates want shorter intervals
+             */
+            public Builder setReseedInterval(int reseedInterval) {
+                this.reseedInterval = reseedInterval;
+                return this;
+            }
+
+            /**
+             * Gossip with each ring successor over a long lived stream, falling back
+             * to unary calls for members that do not support streaming
+             */
+            public Builder setStreaming(boolean streaming) {
+                this.streaming = streaming;
+                return this;
+            }
+
+            /**
+             * The lane verifying the signatures of received messages, which may be shared
+             * by several messengers. If not set, each messenger has its own lane
+             */
+            public Builder setVerification(ExecutionLane verification) {
+                this.verification = verification;
+                return this;
+            }
+
         }
 
         public static Builder newBuilder() {
             return new Builder();
         }
 
+        public final boolean          blockedBloomFilters;
         public final int              bufferSize;
         public final double           falsePositiveRate;
+        public final int              fanout;
+        public final int              maxInFlight;
         public final MessagingMetrics metrics;
+        public final int              reseedInterval;
+        public final boolean          streaming;
+        public final ExecutionLane    verification;
 
         public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics) {
+            this(falsePositiveRate, bufferSize, metrics, false);
+        }
+
+        public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics,
+                boolean blockedBloomFilters) {
+            this(falsePositiveRate, bufferSize, metrics, blockedBloomFilters, true);
+        }
+
+        public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics,
+                boolean blockedBloomFilters, boolean streaming) {
+            this(falsePositiveRate, bufferSize, metrics, blockedBloomFilters, streaming, 1, 1);
+        }
+
+        public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics,
+                boolean blockedBloomFilters, boolean streaming, int fanout, int maxInFlight) {
+            this(falsePositiveRate, bufferSize, metrics, blockedBloomFilters, streaming, fanout, maxInFlight,
+                    MessageBuffer.DEFAULT_RESEED_INTERVAL);
+        }
+
+        public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics,
+                boolean blockedBloomFilters, boolean streaming, int fanout, int maxInFlight, int reseedInterval) {
+            this(falsePositiveRate, bufferSize, metrics, blockedBloomFilters, streaming, fanout, maxInFlight,
+                    reseedInterval, null);
+        }
+
+        public Parameters(double falsePositiveRate, int bufferSize, MessagingMetrics metrics,
+                boolean blockedBloomFilters, boolean streaming, int fanout, int maxInFlight, int reseedInterval,
+                ExecutionLane verification) {
+            if (fanout < 1) {
+                throw new IllegalArgumentException("fanout must be at least 1: " + fanout);
+            }
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+            }
+            if (reseedInterval < 1) {
+                throw new IllegalArgumentException("reseedInterval must be at least 1: " + reseedInterval);
+            }
             this.falsePositiveRate = falsePositiveRate;
             this.metrics = metrics;
             this.bufferSize = bufferSize;
+            this.blockedBloomFilters = blockedBloomFilters;
+            this.streaming = streaming;
+            this.fanout = fanout;
+            this.maxInFlight = maxInFlight;
+            this.reseedInterval = reseedInterval;
+            this.verification = verification;
         }
     }
 
@@ -145,8 +310,7 @@ public class Messenger {
                           context.getId(), member, from, inbound.getRing(), predecessor);
                 return Messages.getDefaultInstance();
             }
-            return buffer.process(new BloomFilter(inbound.getDigests()), Utils.entropy().nextInt(),
-                                  parameters.falsePositiveRate);
+            return buffer.process(BloomFilter.from(inbound.getDigests()), parameters.falsePositiveRate);
         }
 
         public void update(Push push, HashKey from) {
@@ -162,6 +326,8 @@ public class Messenger {
 
     public static final Logger log = LoggerFactory.getLogger(Messenger.class);
 
+    private static final int MAX_POOLED_VERIFIERS = 4;
+
     private final MessageBuffer                                                buffer;
     private final List<MessageHandler>                                         channelHandlers = new CopyOnWriteArrayList<>();
     private final CommonCommunications<MessagingClientCommunications, Service> comm;
@@ -173,6 +339,12 @@ public class Messenger {
     private final List<Consumer<Integer>>                                      roundListeners  = new CopyOnWriteArrayList<>();
     private final Supplier<Signature>                                          signature;
     private final AtomicBoolean                                                started         = new AtomicBoolean();
+    private final Map<HashKey, GossipStream<MessagingFrame>>                   streams         = new ConcurrentHashMap<>();
+    private final Set<HashKey>                                                 unary           = ConcurrentHashMap.newKeySet();
+    private final Cache<HashKey, ByteString>                                   verified;
+    private final ExecutionLane                                                verification;
+    private final Map<HashKey, Queue<Signature>>                               verifiers       = new ConcurrentHashMap<>();
+    private final ConnectionWarmer<Member>                                     warmer;
     private final Executor                                                     executor;
 
     @SuppressWarnings("unchecked")
@@ -182,11 +354,15 @@ public class Messenger {
         this.signature = signature;
         this.parameters = parameters;
         this.context = (Context<Member>) context;
-        this.buffer = new MessageBuffer(parameters.bufferSize, context.timeToLive());
+        this.buffer = new MessageBuffer(parameters.bufferSize, context.timeToLive(), parameters.reseedInterval);
+        this.verified = CacheBuilder.newBuilder().maximumSize(2 * parameters.bufferSize).build();
         this.comm = communications.create(member, context.getId(), new Service(),
                                           r -> new MessagingServerCommunications(
                                                   communications.getClientIdentityProvider(), parameters.metrics, r),
                                           getCreate(parameters.metrics));
+        this.warmer = communications.warmer(this.context, member);
+        this.verification = parameters.verification != null ? parameters.verification
+                : ExecutionLane.newBuilder().build("Message verification[" + member.getId() + "]");
         AtomicInteger seq = new AtomicInteger();
         this.executor = Executors.newCachedThreadPool(r -> {
             Thread t = new Thread(r, "Messenger[" + member.getId() + "] - " + seq.incrementAndGet());
@@ -206,72 +382,60 @@ public class Messenger {
         return round.get();
     }
 
+    /**
+     * Gossip with the successors on the next fanout rings. The round's exchanges
+     * share the outbound digest, and no more than maxInFlight of them are
+     * outstanding at once. The buffer is aged once per round, by the first reply,
+     * and the next round is scheduled when all the exchanges complete
+     */
     public void oneRound(Duration duration, ScheduledExecutorService scheduler) {
         if (!started.get()) {
             return;
         }
-        MessagingClientCommunications link = nextRing();
-        int ring = lastRing;
-        if (link == null) {
-            log.debug("No members to message gossip with on ring: {}", ring);
+        List<Exchange> exchanges = nextRings(parameters.fanout);
+        if (exchanges.isEmpty()) {
+            log.debug("No members to message gossip with on ring: {}", lastRing);
             return;
         }
 
         executor.execute(() -> {
             if (!started.get()) {
+                exchanges.forEach(exchange -> exchange.link.release());
                 return;
             }
             int gossipRound = round.incrementAndGet();
-            log.trace("message gossiping[{}] from {} with {} on {}", gossipRound, member, link.getMember(), ring);
-            ListenableFuture<Messages> futureSailor;
-
-            try {
-                futureSailor = link.gossip(MessageBff.newBuilder()
-                                                     .setContext(context.getId().toID())
-                                                     .setRing(ring)
-                                                     .setDigests(buffer.getBff(Utils.entropy().nextInt(),
-                                                                               parameters.falsePositiveRate)
-                                                                       .toBff())
-                                                     .build());
-            } catch (Throwable e) {
-                log.debug("error gossiping with {}", link.getMember(), e);
-                return;
-            }
-            futureSailor.addListener(() -> {
-                try {
-                    Messages gossip;
-                    try {
-                        gossip = futureSailor.get();
-                    } catch (InterruptedException e) {
-                        log.debug("error gossiping with {}", link.getMember(), e);
-                        return;
-                    } catch (ExecutionException e) {
-                        log.debug("error gossiping with {}", link.getMember(), e.getCause());
-                        return;
+            Biff digests = buffer.getDigests(parameters.falsePositiveRate, parameters.blockedBloomFilters);
+            Queue<Exchange> pending = new ConcurrentLinkedQueue<>(exchanges);
+            AtomicInteger remaining = new AtomicInteger(exchanges.size());
+            AtomicBoolean aged = new AtomicBoolean();
+            Runnable completion = new Runnable() {
+                @Override
+                public void run() {
+                    Exchange next = pending.poll();
+                    if (next != null) {
+                        gossip(next, gossipRound, digests, aged, this);
                     }
-                    process(gossip.getUpdatesList());
-                    Builder pushBuilder = Push.newBuilder().setContext(context.getId().toID()).setRing(ring);
-                    buffer.updatesFor(new BloomFilter(gossip.getBff()), pushBuilder);
-                    try {
-                        link.update(pushBuilder.build());
-                    } catch (Throwable e) {
-                        log.debug("error updating {}", link.getMember(), e);
-                    }
-                } finally {
-                    link.release();
-                    if (started.get()) {
-                        roundListeners.forEach(l -> {
-                            try {
-                                l.accept(gossipRound);
-                            } catch (Throwable e) {
-                                log.error("error sending round() to listener: " + l, e);
-                            }
-                        });
-                        scheduler.schedule(() -> oneRound(duration, scheduler), duration.toMillis(),
-                                           TimeUnit.MILLISECONDS);
+                    if (remaining.decrementAndGet() != 0 || !started.get()) {
+                        return;
                     }
+                    roundListeners.forEach(l -> {
+                        try {
+                            l.accept(gossipRound);
+                        } catch (Throwable e) {
+                            log.error("error sending round() to listener: " + l, e);
+                        }
+                    });
+                    scheduler.schedule(() -> oneRound(duration, scheduler), duration.toMillis(),
+                                       TimeUnit.MILLISECONDS);
                 }
-            }, executor);
+            };
+            for (int i = 0; i < parameters.maxInFlight; i++) {
+                Exchange exchange = pending.poll();
+                if (exchange == null) {
+                    break;
+                }
+                gossip(exchange, gossipRound, digests, aged, completion);
+            }
         });
     }
 
@@ -297,6 +461,7 @@ public class Messenger {
         Duration initialDelay = duration.plusMillis(Utils.entropy().nextInt((int) (duration.toMillis() / 2)));
         log.info("Starting Messenger[{}] for {}", context.getId(), member);
         comm.register(context.getId(), new Service());
+        warmer.start(duration);
         scheduler.schedule(() -> oneRound(duration, scheduler), initialDelay.toMillis(), TimeUnit.MILLISECONDS);
     }
 
@@ -309,16 +474,65 @@ public class Messenger {
         lastRing = -1;
         round.set(0);
         comm.deregister(context.getId());
+        warmer.stop();
+        streams.values().forEach(s -> s.close());
+        streams.clear();
+        unary.clear();
+        verified.invalidateAll();
+        verifiers.clear();
     }
 
-    private MessagingClientCommunications linkFor(Integer ring) {
-        Member successor = context.ring(ring).successor(member);
-        if (successor == null) {
-            log.debug("No successor to node on ring: {} members: {}", ring, context.ring(ring).size());
-            return null;
+    private void gossip(Exchange exchange, int gossipRound, Biff digests, AtomicBoolean aged, Runnable completion) {
+        MessagingClientCommunications link = exchange.link;
+        log.trace("message gossiping[{}] from {} with {} on {}", gossipRound, member, link.getMember(),
+                  exchange.ring);
+        ListenableFuture<Messages> futureSailor;
+        try {
+            futureSailor = link.gossip(MessageBff.newBuilder()
+                                                 .setContext(context.getId().toID())
+                                                 .setRing(exchange.ring)
+                                                 .setDigests(digests)
+                                                 .build());
+        } catch (Throwable e) {
+            log.debug("error gossiping with {}", link.getMember(), e);
+            link.release();
+            completion.run();
+            return;
         }
+        futureSailor.addListener(() -> {
+            try {
+                Messages gossip;
+                try {
+                    gossip = futureSailor.get();
+                } catch (InterruptedException e) {
+                    log.debug("error gossiping with {}", link.getMember(), e);
+                    return;
+                } catch (ExecutionException e) {
+                    log.debug("error gossiping with {}", link.getMember(), e.getCause());
+                    return;
+                }
+                process(gossip.getUpdatesList());
+                Builder pushBuilder = Push.newBuilder().setContext(context.getId().toID()).setRing(exchange.ring);
+                buffer.updatesFor(BloomFilter.from(gossip.getBff()), pushBuilder, aged.compareAndSet(false, true));
+                try {
+                    link.update(pushBuilder.build());
+                } catch (Throwable e) {
+                    log.debug("error updating {}", link.getMember(), e);
+                }
+            } finally {
+                link.release();
+                completion.run();
+            }
+        }, executor);
+    }
+
+    private MessagingClientCommunications linkFor(Member successor) {
         try {
-            return comm.apply(successor, member);
+            MessagingClientCommunications link = comm.apply(successor, member);
+            if (link != null && parameters.streaming) {
+                link.useStream(streamTo(successor));
+            }
+            return link;
         } catch (Throwable e) {
             log.debug("error opening connection to {}: {}", successor.getId(),
                       (e.getCause() != null ? e.getCause() : e).getMessage());
@@ -326,28 +540,84 @@ public class Messenger {
         return null;
     }
 
-    private MessagingClientCommunications nextRing() {
-        MessagingClientCommunications link = null;
-        int last = lastRing;
+    /**
+     * @return the exchanges with the successors of up to fanout rings following
+     *         the last ring gossiped on, each successor appearing once
+     */
+    private List<Exchange> nextRings(int fanout) {
+        pruneStreams();
+        List<Exchange> exchanges = new ArrayList<>(fanout);
+        Set<HashKey> successors = new HashSet<>();
         int rings = context.getRingCount();
-        int current = (last + 1) % rings;
-        for (int i = 0; i < rings; i++) {
-            link = linkFor(current);
+        int current = lastRing;
+        for (int i = 0; i < rings && exchanges.size() < fanout; i++) {
+            current = (current + 1) % rings;
+            Member successor = context.ring(current).successor(member);
+            if (successor == null) {
+                log.debug("No successor to node on ring: {} members: {}", current, context.ring(current).size());
+                continue;
+            }
+            if (!successors.add(successor.getId())) {
+                continue;
+            }
+            MessagingClientCommunications link = linkFor(successor);
             if (link != null) {
-                break;
+                exchanges.add(new Exchange(link, current));
             }
-            current = (current + 1) % rings;
         }
         lastRing = current;
-        return link;
+        return exchanges;
     }
 
+    /**
+     * Close the gossip streams of members that are no longer ring successors
+     */
+    private void pruneStreams() {
+        if (streams.isEmpty()) {
+            return;
+        }
+        Set<HashKey> successors = new HashSet<>();
+        for (int ring = 0; ring < context.getRingCount(); ring++) {
+            Member successor = context.ring(ring).successor(member);
+            if (successor != null) {
+                successors.add(successor.getId());
+            }
+        }
+        streams.entrySet().removeIf(e -> {
+            if (successors.contains(e.getKey())) {
+                return false;
+            }
+            e.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * Merge the updates, delivering the new messages to the handlers once their
+     * signatures are verified
+     */
     private void process(List<Message> updates) {
         if (updates.size() == 0) {
             return;
         }
+        buffer.merge(updates, (hash, message) -> validate(hash, message), r -> {
+            try {
+                verification.execute(r);
+            } catch (RejectedExecutionException e) {
+                r.run();
+            }
+        }).whenComplete((merged, t) -> {
+            if (t != null) {
+                log.error("Error merging updates on: {}", member, t);
+                return;
+            }
+            deliver(merged, updates.size());
+        });
+    }
+
+    private void deliver(List<Message> merged, int updates) {
         List<Msg> newMessages = new ArrayList<>();
-        buffer.merge(updates, (hash, message) -> validate(hash, message)).stream().map(m -> {
+        merged.stream().map(m -> {
             HashKey id = new HashKey(m.getSource());
             if (member.getId().equals(id)) {
                 log.trace("Ignoriing message from self");
@@ -364,32 +634,76 @@ public class Messenger {
             newMessages.add(msg);
         });
         if (newMessages.isEmpty()) {
-            log.trace("No updates processed out of: {}", updates.size());
+            log.trace("No updates processed out of: {}", updates);
             return;
         }
-        log.trace("processed {} updates", updates.size());
-        if (!newMessages.isEmpty()) {
-            channelHandlers.forEach(handler -> {
-                try {
-                    handler.message(context.getId(), newMessages);
-                } catch (Throwable e) {
-                    log.error("Error in message handler on: {}", member, e);
-                }
-            });
+        log.trace("processed {} updates", updates);
+        channelHandlers.forEach(handler -> {
+            try {
+                handler.message(context.getId(), newMessages);
+            } catch (Throwable e) {
+                log.error("Error in message handler on: {}", member, e);
+            }
+        });
+    }
+
+    /**
+     * @return the open gossip stream to the successor, or null if the successor
+     *         does not support streaming
+     */
+    private GossipStream<MessagingFrame> streamTo(Member successor) {
+        HashKey id = successor.getId();
+        if (unary.contains(id)) {
+            return null;
+        }
+        GossipStream<MessagingFrame> stream = streams.get(id);
+        if (stream != null && !stream.isClosed()) {
+            return stream;
         }
+        if (stream != null) {
+            streams.remove(id, stream);
+            if (stream.isUnimplemented()) {
+                log.debug("Member: {} does not support gossip streams, falling back to unary calls", id);
+                unary.add(id);
+                return null;
+            }
+        }
+        MessagingClientCommunications connection = comm.apply(successor, member);
+        if (connection == null) {
+            return null;
+        }
+        stream = connection.openStream();
+        streams.put(id, stream);
+        return stream;
     }
 
+    /**
+     * Validate the message's signature, unless the message has already been
+     * verified with the same signature
+     */
     private boolean validate(HashKey hash, Message message) {
+        if (message.getSignature().equals(verified.getIfPresent(hash))) {
+            return true;
+        }
         HashKey memberID = new HashKey(message.getSource());
         Member member = context.getMember(memberID);
         if (member == null) {
             log.debug("Non existent member: " + memberID);
             return false;
         }
-        if (!MessageBuffer.validate(hash, message, member.forVerification(Conversion.DEFAULT_SIGNATURE_ALGORITHM))) {
+        Queue<Signature> pool = verifiers.computeIfAbsent(memberID,
+                                                          id -> new ArrayBlockingQueue<>(MAX_POOLED_VERIFIERS));
+        Signature verifier = pool.poll();
+        if (verifier == null) {
+            verifier = member.forVerification(Conversion.DEFAULT_SIGNATURE_ALGORITHM);
+        }
+        if (!MessageBuffer.validate(hash, message, verifier)) {
+            // the verifier's state is unknown after a failure, so is not pooled
             log.trace("Did not validate message {} from {}", message, memberID);
             return false;
         }
+        pool.offer(verifier);
+        verified.put(hash, message.getSignature());
         return true;
     }
 }
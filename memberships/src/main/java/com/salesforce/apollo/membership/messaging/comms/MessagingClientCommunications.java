@@ -9,12 +9,16 @@ package com.salesforce.apollo.membership.messaging.comms;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.salesfoce.apollo.proto.MessageBff;
 import com.salesfoce.apollo.proto.Messages;
+import com.salesfoce.apollo.proto.MessagingFrame;
 import com.salesfoce.apollo.proto.MessagingGrpc;
 import com.salesfoce.apollo.proto.MessagingGrpc.MessagingFutureStub;
 import com.salesfoce.apollo.proto.Push;
+import com.salesforce.apollo.comm.GossipStream;
 import com.salesforce.apollo.comm.ServerConnectionCache.CreateClientCommunications;
 import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
 import com.salesforce.apollo.membership.Member;
@@ -32,10 +36,11 @@ public class MessagingClientCommunications implements Messaging {
 
     }
 
-    private final ManagedServerConnection channel;
-    private final MessagingFutureStub     client;
-    private final Member                  member;
-    private final MessagingMetrics        metrics;
+    private final ManagedServerConnection         channel;
+    private final MessagingFutureStub             client;
+    private final Member                          member;
+    private final MessagingMetrics                metrics;
+    private volatile GossipStream<MessagingFrame> stream;
 
     public MessagingClientCommunications(ManagedServerConnection channel, Member member, MessagingMetrics metrics) {
         this.member = member;
@@ -48,6 +53,14 @@ public class MessagingClientCommunications implements Messaging {
         return member;
     }
 
+    /**
+     * Open a gossip stream on this connection, which remains borrowed until the
+     * stream closes
+     */
+    public GossipStream<MessagingFrame> openStream() {
+        return new GossipStream<>(inbound -> MessagingGrpc.newStub(channel.channel).link(inbound), () -> release());
+    }
+
     public void release() {
         channel.release();
     }
@@ -61,9 +74,23 @@ public class MessagingClientCommunications implements Messaging {
         return String.format("->[%s]", member);
     }
 
+    /**
+     * Gossip over the stream, rather than unary calls, while it remains open
+     */
+    public void useStream(GossipStream<MessagingFrame> stream) {
+        this.stream = stream;
+    }
+
     @Override
     public ListenableFuture<Messages> gossip(MessageBff request) {
-        ListenableFuture<Messages> result = client.gossip(request);
+        GossipStream<MessagingFrame> current = stream;
+        ListenableFuture<Messages> result;
+        if (current != null && !current.isClosed()) {
+            result = Futures.transform(current.request(MessagingFrame.newBuilder().setGossip(request).build()),
+                                       frame -> frame.getMessages(), MoreExecutors.directExecutor());
+        } else {
+            result = client.gossip(request);
+        }
         result.addListener(() -> {
             if (metrics != null) {
                 Messages messages;
@@ -84,7 +111,12 @@ public class MessagingClientCommunications implements Messaging {
 
     @Override
     public void update(Push push) {
-        client.update(push);
+        GossipStream<MessagingFrame> current = stream;
+        if (current != null && !current.isClosed()) {
+            current.send(MessagingFrame.newBuilder().setUpdate(push).build());
+        } else {
+            client.update(push);
+        }
         if (metrics != null) {
             metrics.outboundBandwidth().mark(push.getSerializedSize());
             metrics.outboundUpdate().update(push.getSerializedSize());
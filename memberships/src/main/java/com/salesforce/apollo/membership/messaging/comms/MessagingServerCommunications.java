@@ -6,15 +6,21 @@
  */
 package com.salesforce.apollo.membership.messaging.comms;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.salesfoce.apollo.proto.MessageBff;
 import com.salesfoce.apollo.proto.Messages;
+import com.salesfoce.apollo.proto.MessagingFrame;
 import com.salesfoce.apollo.proto.MessagingGrpc.MessagingImplBase;
 import com.salesfoce.apollo.proto.Null;
 import com.salesfoce.apollo.proto.Push;
+import com.salesforce.apollo.comm.GossipLink;
 import com.salesforce.apollo.comm.RoutableService;
 import com.salesforce.apollo.membership.messaging.MessagingMetrics;
 import com.salesforce.apollo.membership.messaging.Messenger.Service;
 import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.HashKey;
 
 import io.grpc.stub.StreamObserver;
 
@@ -23,6 +29,8 @@ import io.grpc.stub.StreamObserver;
  *
  */
 public class MessagingServerCommunications extends MessagingImplBase {
+    private static final Logger log = LoggerFactory.getLogger(MessagingServerCommunications.class);
+
     @Override
     public void gossip(MessageBff request, StreamObserver<Messages> responseObserver) {
         routing.evaluate(responseObserver, request.getContext(), s -> {
@@ -39,6 +47,72 @@ public class MessagingServerCommunications extends MessagingImplBase {
         });
     }
 
+    /**
+     * The gossip stream of a predecessor. Frames are routed by their context and
+     * evaluated in the service's execution lane, and every gossip frame is
+     * answered in order - with empty messages if the context is unknown, or the
+     * evaluation fails or is shed - to keep the answers in the order of the
+     * requests
+     */
+    @Override
+    public StreamObserver<MessagingFrame> link(StreamObserver<MessagingFrame> responseObserver) {
+        HashKey from = identity.getFrom();
+        GossipLink<MessagingFrame> link = new GossipLink<>(responseObserver,
+                MessagingFrame.newBuilder().setMessages(Messages.getDefaultInstance()).build());
+        return new StreamObserver<MessagingFrame>() {
+            @Override
+            public void onCompleted() {
+                link.completed();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.trace("Gossip stream from: {} failed", from, t);
+                link.failed();
+            }
+
+            @Override
+            public void onNext(MessagingFrame frame) {
+                switch (frame.getFrameCase()) {
+                case GOSSIP:
+                    gossip(frame.getGossip(), link.answer());
+                    break;
+                case UPDATE:
+                    update(frame.getUpdate(), link.acknowledge());
+                    break;
+                default:
+                    log.trace("Unexpected frame: {} from: {}", frame.getFrameCase(), from);
+                }
+            }
+
+            private void gossip(MessageBff request, StreamObserver<MessagingFrame> reply) {
+                routing.evaluate(reply, request.getContext(), s -> {
+                    Messages response = s.gossip(request, from);
+                    reply.onNext(MessagingFrame.newBuilder().setMessages(response).build());
+                    if (metrics != null) {
+                        metrics.inboundGossipRate().mark();
+                        metrics.inboundBandwidth().mark(request.getSerializedSize());
+                        metrics.outboundBandwidth().mark(response.getSerializedSize());
+                        metrics.inboundGossip().update(request.getSerializedSize());
+                        metrics.gossipReply().update(response.getSerializedSize());
+                    }
+                });
+            }
+
+            private void update(Push request, StreamObserver<MessagingFrame> ack) {
+                routing.evaluate(ack, request.getContext(), s -> {
+                    s.update(request, from);
+                    ack.onCompleted();
+                    if (metrics != null) {
+                        metrics.inboundUpdateRate().mark();
+                        metrics.inboundBandwidth().mark(request.getSerializedSize());
+                        metrics.inboundUpdate().update(request.getSerializedSize());
+                    }
+                });
+            }
+        };
+    }
+
     @Override
     public void update(Push request, StreamObserver<Null> responseObserver) {
         routing.evaluate(responseObserver, request.getContext(), s -> {
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheFutureStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.DagNodes;
+import com.salesfoce.apollo.proto.EnvelopeGrpc;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesfoce.apollo.proto.SuppliedDagNodes;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.CallOptions;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import io.grpc.util.MutableHandlerRegistry;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class CoalescingChannelTest {
+
+    private static final Metadata.Key<String> CALLER = Metadata.Key.of("caller", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> USER   = Metadata.Key.of("user", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static HashKey context(int i) {
+        byte[] hash = new byte[32];
+        hash[31] = (byte) i;
+        return new HashKey(hash);
+    }
+
+    private final Map<String, AtomicInteger>                      calls    = new ConcurrentHashMap<>();
+    private CoalescingChannel                                     channel;
+    private final BlockingQueue<StreamObserver<SuppliedDagNodes>> held     = new LinkedBlockingQueue<>();
+    private MutableHandlerRegistry                                registry;
+    private ScheduledExecutorService                              scheduler;
+    private Server                                                server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+        scheduler.shutdownNow();
+    }
+
+    @BeforeEach
+    public void before() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        registry = new MutableHandlerRegistry();
+        RoutableService<String> routing = new RoutableService<>();
+        routing.bind(context(1), "one");
+        routing.bind(context(2), "two");
+        registry.addService(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                routing.evaluate(responseObserver, request.getContext(), s -> {
+                    responseObserver.onNext(QueryResult.newBuilder().addWanted(ByteString.copyFromUtf8(s)).build());
+                    responseObserver.onCompleted();
+                });
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                if (new HashKey(request.getContext()).equals(context(4))) {
+                    // held until the test replies
+                    held.add(responseObserver);
+                    return;
+                }
+                routing.evaluate(responseObserver, request.getContext(), s -> {
+                    responseObserver.onNext(SuppliedDagNodes.newBuilder()
+                                                            .addEntries(ByteString.copyFromUtf8(s + " dag"))
+                                                            .build());
+                    responseObserver.onCompleted();
+                });
+            }
+        });
+        server = InProcessServerBuilder.forName("coalescing").intercept(new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                calls.computeIfAbsent(call.getMethodDescriptor().getFullMethodName(), m -> new AtomicInteger())
+                     .incrementAndGet();
+                return next.startCall(call, headers);
+            }
+        }).fallbackHandlerRegistry(registry).build().start();
+        channel = new CoalescingChannel(InProcessChannelBuilder.forName("coalescing")
+                                                               .intercept(MetadataUtils.newAttachHeadersInterceptor(headers()))
+                                                               .build(),
+                Duration.ofMillis(50), scheduler);
+    }
+
+    @Test
+    public void byteLimit() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        Query query = Query.newBuilder().setContext(context(1).toID()).build();
+        channel.shutdownNow();
+        channel = new CoalescingChannel(InProcessChannelBuilder.forName("coalescing").build(), Duration.ofMillis(50),
+                scheduler, ForkJoinPool.commonPool(), 64, 2 * query.getSerializedSize());
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        List<ListenableFuture<QueryResult>> queries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queries.add(client.query(query));
+        }
+        for (ListenableFuture<QueryResult> result : queries) {
+            assertEquals("one", result.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        }
+        // the first two fill an envelope, the third is alone
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+        assertEquals(1, calls.get(AvalancheGrpc.getQueryMethod().getFullMethodName()).get());
+        release(first);
+    }
+
+    @Test
+    public void callerHeaders() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        List<String> received = new CopyOnWriteArrayList<>();
+        registry.addService(ServerInterceptors.intercept(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                responseObserver.onNext(QueryResult.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                held.add(responseObserver);
+            }
+        }, new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                received.add(headers.get(USER));
+                return next.startCall(call, headers);
+            }
+        }));
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        Metadata user = new Metadata();
+        user.put(USER, "user");
+        AvalancheFutureStub withHeaders = client.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(user));
+        ListenableFuture<QueryResult> one = withHeaders.query(Query.getDefaultInstance());
+        ListenableFuture<QueryResult> two = withHeaders.query(Query.getDefaultInstance());
+        one.get(10, TimeUnit.SECONDS);
+        two.get(10, TimeUnit.SECONDS);
+
+        // sent directly, rather than in an envelope that would drop their headers
+        assertEquals(2, calls.get(AvalancheGrpc.getQueryMethod().getFullMethodName()).get());
+        assertNull(calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()));
+        assertEquals(List.of("user", "user"), received.subList(1, received.size()));
+        release(first);
+    }
+
+    @Test
+    public void cancelledAndExpired() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        channel.shutdownNow();
+        channel = new CoalescingChannel(InProcessChannelBuilder.forName("coalescing").build(), Duration.ofHours(1),
+                scheduler);
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        ListenableFuture<QueryResult> expired = client.withDeadlineAfter(10, TimeUnit.MILLISECONDS)
+                                                      .query(Query.newBuilder().setContext(context(1).toID()).build());
+        ListenableFuture<QueryResult> cancelled = client.query(Query.newBuilder()
+                                                                    .setContext(context(2).toID())
+                                                                    .build());
+        ListenableFuture<QueryResult> sent = client.query(Query.newBuilder().setContext(context(1).toID()).build());
+        cancelled.cancel(true);
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, status(expired));
+
+        release(first);
+        assertEquals("one", sent.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        // only the live call is sent, directly as it is alone
+        assertEquals(1, calls.get(AvalancheGrpc.getQueryMethod().getFullMethodName()).get());
+        assertNull(calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()));
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        // a call issued alone is sent directly, and the calls issued while it is
+        // outstanding coalesce
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        ListenableFuture<QueryResult> one = client.query(Query.newBuilder().setContext(context(1).toID()).build());
+        ListenableFuture<SuppliedDagNodes> two = client.requestDag(DagNodes.newBuilder()
+                                                                           .setContext(context(2).toID())
+                                                                           .build());
+        ListenableFuture<QueryResult> oneAgain = client.query(Query.newBuilder()
+                                                                   .setContext(context(1).toID())
+                                                                   .build());
+        ListenableFuture<QueryResult> unknown = client.query(Query.newBuilder().setContext(context(3).toID()).build());
+
+        assertEquals("one", one.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals("two dag", two.get(10, TimeUnit.SECONDS).getEntries(0).toStringUtf8());
+        assertEquals("one", oneAgain.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        try {
+            unknown.get(10, TimeUnit.SECONDS);
+            fail("Expected NOT_FOUND");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StatusRuntimeException);
+            assertEquals(Status.Code.NOT_FOUND, ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+        assertEquals(1, calls.get(AvalancheGrpc.getRequestDagMethod().getFullMethodName()).get());
+        assertEquals(2, calls.size());
+        release(first);
+
+        // blocking stubs included
+        QueryResult result = AvalancheGrpc.newBlockingStub(channel)
+                                          .query(Query.newBuilder().setContext(context(2).toID()).build());
+        assertEquals("two", result.getWanted(0).toStringUtf8());
+        assertEquals(1, calls.get(AvalancheGrpc.getQueryMethod().getFullMethodName()).get());
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+    }
+
+    @Test
+    public void completion() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        channel.shutdownNow();
+        channel = new CoalescingChannel(InProcessChannelBuilder.forName("coalescing").build(), Duration.ofHours(1),
+                scheduler);
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        ListenableFuture<QueryResult> one = client.query(Query.newBuilder().setContext(context(1).toID()).build());
+        ListenableFuture<QueryResult> two = client.query(Query.newBuilder().setContext(context(2).toID()).build());
+        release(first);
+
+        // sent once the outstanding call completes, rather than at the close of the
+        // window
+        assertEquals("one", one.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals("two", two.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+    }
+
+    @Test
+    public void fallback() throws Exception {
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        ListenableFuture<QueryResult> one = client.query(Query.newBuilder().setContext(context(1).toID()).build());
+        ListenableFuture<QueryResult> two = client.query(Query.newBuilder().setContext(context(2).toID()).build());
+
+        assertEquals("one", one.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals("two", two.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals(2, calls.get(AvalancheGrpc.getQueryMethod().getFullMethodName()).get());
+        release(first);
+    }
+
+    @Test
+    public void unparsed() throws Exception {
+        registry.addService(new EnvelopeServer(registry));
+        MethodDescriptor<Query, QueryResult> query = AvalancheGrpc.getQueryMethod();
+        Marshaller<QueryResult> failing = new Marshaller<QueryResult>() {
+            @Override
+            public QueryResult parse(InputStream stream) {
+                throw new IllegalStateException("unparsed");
+            }
+
+            @Override
+            public InputStream stream(QueryResult value) {
+                return query.getResponseMarshaller().stream(value);
+            }
+        };
+        MethodDescriptor<Query, QueryResult> unparsed = query.toBuilder(query.getRequestMarshaller(), failing)
+                                                             .build();
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        Query request = Query.newBuilder().setContext(context(1).toID()).build();
+        ListenableFuture<QueryResult> one = ClientCalls.futureUnaryCall(channel.newCall(unparsed,
+                                                                                        CallOptions.DEFAULT),
+                                                                        request);
+        ListenableFuture<QueryResult> two = ClientCalls.futureUnaryCall(channel.newCall(unparsed,
+                                                                                        CallOptions.DEFAULT),
+                                                                        request);
+        // the coalesced calls complete, failed, rather than never
+        assertEquals(Status.Code.INTERNAL, status(one));
+        assertEquals(Status.Code.INTERNAL, status(two));
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+        release(first);
+    }
+
+    @Test
+    public void intercepted() throws Exception {
+        List<String> intercepted = new CopyOnWriteArrayList<>();
+        EnvelopeServer envelope = new EnvelopeServer(registry);
+        envelope.setInterceptors(List.of(new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                intercepted.add(call.getMethodDescriptor().getFullMethodName() + " " + headers.get(CALLER));
+                return next.startCall(call, headers);
+            }
+        }));
+        registry.addService(envelope);
+        AvalancheFutureStub client = AvalancheGrpc.newFutureStub(channel);
+        ListenableFuture<SuppliedDagNodes> first = hold(client);
+
+        ListenableFuture<QueryResult> one = client.query(Query.newBuilder().setContext(context(1).toID()).build());
+        ListenableFuture<QueryResult> two = client.query(Query.newBuilder().setContext(context(2).toID()).build());
+        assertEquals("one", one.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals("two", two.get(10, TimeUnit.SECONDS).getWanted(0).toStringUtf8());
+        assertEquals(1, calls.get(EnvelopeGrpc.getDeliverMethod().getFullMethodName()).get());
+
+        // each coalesced call passes the interceptors, with the envelope's headers
+        String query = AvalancheGrpc.getQueryMethod().getFullMethodName() + " caller";
+        assertEquals(List.of(query, query), intercepted);
+        release(first);
+    }
+
+    private Metadata headers() {
+        Metadata headers = new Metadata();
+        headers.put(CALLER, "caller");
+        return headers;
+    }
+
+    /**
+     * @return the held call, issued alone and outstanding until released
+     */
+    private ListenableFuture<SuppliedDagNodes> hold(AvalancheFutureStub client) throws InterruptedException {
+        ListenableFuture<SuppliedDagNodes> first = client.requestDag(DagNodes.newBuilder()
+                                                                             .setContext(context(4).toID())
+                                                                             .build());
+        StreamObserver<SuppliedDagNodes> observer = held.poll(10, TimeUnit.SECONDS);
+        assertNotNull(observer);
+        held.add(observer);
+        return first;
+    }
+
+    private void release(ListenableFuture<SuppliedDagNodes> first) throws Exception {
+        StreamObserver<SuppliedDagNodes> observer = held.take();
+        observer.onNext(SuppliedDagNodes.getDefaultInstance());
+        observer.onCompleted();
+        first.get(10, TimeUnit.SECONDS);
+    }
+
+    private Status.Code status(ListenableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StatusRuntimeException);
+            return ((StatusRuntimeException) e.getCause()).getStatus().getCode();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.apollo.membership.Context;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ConnectionWarmerTest {
+
+    private static Member member(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) (i * 13);
+        hash[31] = (byte) i;
+        return new Member(new HashKey(hash), generate());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void warming() throws Exception {
+        Context<Member> context = new Context<>(new HashKey(new byte[] { 7 }), 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Member m = member(i);
+            members.add(m);
+            context.activate(m);
+        }
+        Member node = members.get(0);
+        ServerConnectionCache cache = ServerConnectionCache.newBuilder()
+                                                           .setTarget(0)
+                                                           .setMinIdle(Duration.ZERO)
+                                                           .setSweepInterval(Duration.ofHours(1))
+                                                           .setFactory((to, f) -> InProcessChannelBuilder.forName(to.getId()
+                                                                                                                    .b64Encoded())
+                                                                                                         .build())
+                                                           .build();
+        ConnectionWarmer<Member> warmer = new ConnectionWarmer<>(context, node, cache, 0, Duration.ofMillis(1));
+        try {
+            warmer.start(Duration.ofHours(1));
+            Set<HashKey> neighbors = neighbors(context, node);
+            waitFor(() -> neighbors.stream().allMatch(id -> cache.isPinned(id)));
+            assertEquals(neighbors.size(), cache.getOpenCount());
+
+            // pinned connections survive the sweep
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(neighbors.size(), cache.getOpenCount());
+
+            // membership changes move the pins to the new neighbors
+            Member successor = context.ring(0).successor(node);
+            context.offline(successor);
+            Set<HashKey> current = neighbors(context, node);
+            waitFor(() -> current.stream().allMatch(id -> cache.isPinned(id)));
+            if (!current.contains(successor.getId())) {
+                waitFor(() -> !cache.isPinned(successor.getId()));
+            }
+
+            warmer.stop();
+            members.forEach(m -> assertFalse(cache.isPinned(m.getId())));
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(0, cache.getOpenCount());
+        } finally {
+            warmer.stop();
+            cache.close();
+        }
+    }
+
+    private Set<HashKey> neighbors(Context<Member> context, Member node) {
+        Set<HashKey> neighbors = new HashSet<>();
+        for (int i = 0; i < context.getRingCount(); i++) {
+            neighbors.add(context.ring(i).successor(node).getId());
+            neighbors.add(context.ring(i).predecessor(node).getId());
+        }
+        return neighbors;
+    }
+}
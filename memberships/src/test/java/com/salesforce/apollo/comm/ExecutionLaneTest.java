@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.salesforce.apollo.comm.ExecutionLane.LaneMetrics;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ExecutionLaneTest {
+
+    private static class Observer implements StreamObserver<Object> {
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error.set(t);
+        }
+
+        @Override
+        public void onNext(Object value) {
+        }
+    }
+
+    private static final HashKey CONTEXT = new HashKey(new byte[] { 1 });
+
+    @Test
+    public void priority() throws Exception {
+        RoutableService<String> routing = new RoutableService<>("priority", ExecutionLane.newBuilder()
+                                                                                           .setConcurrency(1)
+                                                                                           .setMaxQueued(1)
+                                                                                           .setReserve(1)
+                                                                                           .setPriority(true));
+        routing.bind(CONTEXT, "service");
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch reserved = new CountDownLatch(1);
+        AtomicReference<Thread> ran = new AtomicReference<>();
+        try {
+            routing.evaluate(new Observer(), CONTEXT, s -> {
+                blocked.countDown();
+                await(release);
+            });
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            routing.evaluate(new Observer(), CONTEXT, s -> {
+            });
+
+            // the queue is full, the call runs on a reserved thread of the lane
+            Observer observer = new Observer();
+            routing.evaluate(observer, CONTEXT, s -> {
+                ran.set(Thread.currentThread());
+                reserved.countDown();
+                await(release);
+            });
+            assertTrue(reserved.await(10, TimeUnit.SECONDS));
+            assertNotSame(Thread.currentThread(), ran.get());
+            assertTrue(ran.get().getName().startsWith("Lane[priority]"));
+            assertNull(observer.error.get());
+
+            // the reserve is exhausted, the call is shed rather than blocking the caller
+            Observer shed = new Observer();
+            routing.evaluate(shed, CONTEXT, s -> {
+            });
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(shed.error.get()).getCode());
+        } finally {
+            release.countDown();
+            routing.shutdown();
+        }
+    }
+
+    @Test
+    public void shedding() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        LaneMetrics metrics = new LaneMetrics() {
+            @Override
+            public Counter laneDepth(String lane) {
+                return registry.counter(MetricRegistry.name(LANE_DEPTH, lane));
+            }
+
+            @Override
+            public Meter laneShed(String lane) {
+                return registry.meter(MetricRegistry.name(LANE_SHED, lane));
+            }
+        };
+        RoutableService<String> routing = new RoutableService<>("bulk", ExecutionLane.newBuilder()
+                                                                                     .setConcurrency(1)
+                                                                                     .setMaxQueued(1)
+                                                                                     .setMetrics(metrics));
+        routing.bind(CONTEXT, "service");
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch queued = new CountDownLatch(1);
+        try {
+            routing.evaluate(new Observer(), CONTEXT, s -> {
+                blocked.countDown();
+                await(release);
+            });
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            routing.evaluate(new Observer(), CONTEXT, s -> queued.countDown());
+            assertEquals(1, registry.counter(MetricRegistry.name(LaneMetrics.LANE_DEPTH, "bulk")).getCount());
+
+            Observer shed = new Observer();
+            routing.evaluate(shed, CONTEXT, s -> {
+            });
+            assertNotNull(shed.error.get());
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(shed.error.get()).getCode());
+            assertEquals(1, registry.meter(MetricRegistry.name(LaneMetrics.LANE_SHED, "bulk")).getCount());
+
+            release.countDown();
+            assertTrue(queued.await(10, TimeUnit.SECONDS));
+            assertEquals(0, registry.counter(MetricRegistry.name(LaneMetrics.LANE_DEPTH, "bulk")).getCount());
+        } finally {
+            release.countDown();
+            routing.shutdown();
+        }
+    }
+
+    @Test
+    public void callContext() throws Exception {
+        Context.Key<String> key = Context.key("test");
+        RoutableService<String> routing = new RoutableService<>("context", ExecutionLane.newBuilder()
+                                                                                        .setPerContext(true));
+        routing.bind(CONTEXT, "service");
+        AtomicReference<String> value = new AtomicReference<>();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Observer failed = new Observer();
+        try {
+            Context.current().withValue(key, "caller").run(() -> routing.evaluate(new Observer(), CONTEXT, s -> {
+                value.set(key.get());
+                thread.set(Thread.currentThread());
+                done.countDown();
+            }));
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("caller", value.get());
+            assertTrue(thread.get().getName().contains(CONTEXT.toString()));
+
+            // failures of the evaluation close the call
+            routing.evaluate(failed, CONTEXT, s -> {
+                throw new IllegalStateException("boom");
+            });
+            for (int i = 0; i < 100 && failed.error.get() == null; i++) {
+                Thread.sleep(10);
+            }
+            assertNotNull(failed.error.get());
+        } finally {
+            routing.shutdown();
+        }
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
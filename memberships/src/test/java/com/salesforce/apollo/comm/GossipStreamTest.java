@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.salesfoce.apollo.proto.Biff;
+import com.salesfoce.apollo.proto.MessageBff;
+import com.salesfoce.apollo.proto.Messages;
+import com.salesfoce.apollo.proto.MessagingFrame;
+import com.salesfoce.apollo.proto.MessagingGrpc;
+import com.salesfoce.apollo.proto.MessagingGrpc.MessagingImplBase;
+import com.salesfoce.apollo.proto.Push;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class GossipStreamTest {
+
+    private ManagedChannel channel;
+    private Server         server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void linked() throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        BlockingDeque<StreamObserver<MessagingFrame>> held = new LinkedBlockingDeque<>();
+        Map<StreamObserver<MessagingFrame>, Integer> seeds = new ConcurrentHashMap<>();
+        MessagingFrame fallback = MessagingFrame.newBuilder()
+                                                .setMessages(Messages.newBuilder()
+                                                                     .setBff(Biff.newBuilder().setSeed(-1)))
+                                                .build();
+        start(new MessagingImplBase() {
+            @Override
+            public StreamObserver<MessagingFrame> link(StreamObserver<MessagingFrame> responseObserver) {
+                GossipLink<MessagingFrame> link = new GossipLink<>(responseObserver, fallback, 2);
+                return new StreamObserver<MessagingFrame>() {
+                    @Override
+                    public void onCompleted() {
+                        link.completed();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        link.failed();
+                    }
+
+                    @Override
+                    public void onNext(MessagingFrame frame) {
+                        received.incrementAndGet();
+                        StreamObserver<MessagingFrame> reply = link.answer();
+                        seeds.put(reply, frame.getGossip().getDigests().getSeed());
+                        held.add(reply);
+                    }
+                };
+            }
+        });
+        GossipStream<MessagingFrame> stream = new GossipStream<>(inbound -> MessagingGrpc.newStub(channel)
+                                                                                         .link(inbound),
+                () -> {
+                });
+
+        List<ListenableFuture<MessagingFrame>> replies = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            replies.add(stream.request(gossip(i)));
+        }
+
+        // only the window of frames is delivered while unanswered
+        for (int answered = 0; answered < 10; answered += 2) {
+            StreamObserver<MessagingFrame> first = held.poll(10, TimeUnit.SECONDS);
+            StreamObserver<MessagingFrame> second = held.poll(10, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertNotNull(second);
+            Thread.sleep(100);
+            assertEquals(answered + 2, received.get());
+            assertTrue(held.isEmpty());
+
+            // completed out of order, answered in order
+            answer(second, seeds.get(second));
+            assertFalse(replies.get(answered + 1).isDone());
+            if (answered == 4) {
+                first.onError(new IllegalStateException("failed evaluation"));
+            } else {
+                answer(first, seeds.get(first));
+            }
+            assertEquals(answered == 4 ? -1 : answered,
+                         replies.get(answered).get(10, TimeUnit.SECONDS).getMessages().getBff().getSeed());
+            assertEquals(answered + 1,
+                         replies.get(answered + 1).get(10, TimeUnit.SECONDS).getMessages().getBff().getSeed());
+        }
+        assertFalse(stream.isClosed());
+        stream.close();
+    }
+
+    @Test
+    public void pipelined() throws Exception {
+        AtomicInteger updates = new AtomicInteger();
+        CountDownLatch updated = new CountDownLatch(1);
+        start(new MessagingImplBase() {
+            @Override
+            public StreamObserver<MessagingFrame> link(StreamObserver<MessagingFrame> responseObserver) {
+                return new StreamObserver<MessagingFrame>() {
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onNext(MessagingFrame frame) {
+                        if (frame.hasUpdate()) {
+                            updates.incrementAndGet();
+                            updated.countDown();
+                            return;
+                        }
+                        // answer with the seed of the request
+                        responseObserver.onNext(MessagingFrame.newBuilder()
+                                                              .setMessages(Messages.newBuilder()
+                                                                                   .setBff(frame.getGossip()
+                                                                                                .getDigests()))
+                                                              .build());
+                    }
+                };
+            }
+        });
+        AtomicInteger closed = new AtomicInteger();
+        GossipStream<MessagingFrame> stream = new GossipStream<>(inbound -> MessagingGrpc.newStub(channel)
+                                                                                         .link(inbound),
+                () -> closed.incrementAndGet());
+
+        List<ListenableFuture<MessagingFrame>> replies = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            replies.add(stream.request(gossip(i)));
+        }
+        stream.send(MessagingFrame.newBuilder().setUpdate(Push.getDefaultInstance()).build());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, replies.get(i).get(10, TimeUnit.SECONDS).getMessages().getBff().getSeed());
+        }
+        assertTrue(updated.await(10, TimeUnit.SECONDS));
+        assertEquals(1, updates.get());
+        assertFalse(stream.isClosed());
+
+        stream.close();
+        assertTrue(stream.isClosed());
+        assertFalse(stream.isUnimplemented());
+        stream.close();
+        assertEquals(1, closed.get());
+        try {
+            stream.request(gossip(11)).get(10, TimeUnit.SECONDS);
+            fail("Stream is closed");
+        } catch (ExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        start(new MessagingImplBase() {
+            @Override
+            public StreamObserver<MessagingFrame> link(StreamObserver<MessagingFrame> responseObserver) {
+                // never answers
+                return new StreamObserver<MessagingFrame>() {
+                    @Override
+                    public void onCompleted() {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onNext(MessagingFrame value) {
+                    }
+                };
+            }
+        });
+        AtomicInteger closed = new AtomicInteger();
+        GossipStream<MessagingFrame> stream = new GossipStream<>(inbound -> MessagingGrpc.newStub(channel)
+                                                                                         .link(inbound),
+                () -> closed.incrementAndGet(), Duration.ofMillis(200));
+        ListenableFuture<MessagingFrame> first = stream.request(gossip(0));
+        ListenableFuture<MessagingFrame> second = stream.request(gossip(1));
+        for (ListenableFuture<MessagingFrame> reply : List.of(first, second)) {
+            try {
+                reply.get(10, TimeUnit.SECONDS);
+                fail("Request is unanswered");
+            } catch (ExecutionException e) {
+                assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(e.getCause()).getCode());
+            }
+        }
+        assertTrue(stream.isClosed());
+        assertFalse(stream.isUnimplemented());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void unimplemented() throws Exception {
+        start(new MessagingImplBase() {
+        });
+        AtomicInteger closed = new AtomicInteger();
+        GossipStream<MessagingFrame> stream = new GossipStream<>(inbound -> MessagingGrpc.newStub(channel)
+                                                                                         .link(inbound),
+                () -> closed.incrementAndGet());
+        try {
+            stream.request(gossip(0)).get(10, TimeUnit.SECONDS);
+            fail("Stream is not implemented");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertTrue(stream.isClosed());
+        assertTrue(stream.isUnimplemented());
+        assertEquals(1, closed.get());
+    }
+
+    private void answer(StreamObserver<MessagingFrame> reply, int seed) {
+        reply.onNext(MessagingFrame.newBuilder()
+                                   .setMessages(Messages.newBuilder().setBff(Biff.newBuilder().setSeed(seed)))
+                                   .build());
+    }
+
+    private MessagingFrame gossip(int i) {
+        return MessagingFrame.newBuilder()
+                             .setGossip(MessageBff.newBuilder()
+                                                  .setRing(i)
+                                                  .setDigests(Biff.newBuilder().setSeed(i)))
+                             .build();
+    }
+
+    private void start(MessagingImplBase service) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static com.salesforce.apollo.test.pregen.PregenPopulation.getCa;
+import static com.salesforce.apollo.test.pregen.PregenPopulation.getMember;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheBlockingStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.DagNodes;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesfoce.apollo.proto.SuppliedDagNodes;
+import com.salesforce.apollo.comm.MtlsRouter.MtlsServerConnectionFactory;
+import com.salesforce.apollo.comm.ServerConnectionCache.ServerConnectionCacheMetrics;
+import com.salesforce.apollo.comm.grpc.CompressionPolicy;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.CertificateValidator;
+import com.salesforce.apollo.protocols.CompressionMetrics;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
+import com.salesforce.apollo.protocols.Utils;
+
+import io.github.olivierlemasle.ca.CertificateWithPrivateKey;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.netty.handler.ssl.ClientAuth;
+import io.grpc.stub.StreamObserver;
+import io.grpc.util.MutableHandlerRegistry;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class MtlsRouterTest {
+
+    private static class Metrics implements ServerConnectionCacheMetrics, HandshakeMetrics, CompressionMetrics {
+        private final MetricRegistry registry = new MetricRegistry();
+
+        @Override
+        public Meter borrowRate() {
+            return registry.meter("borrow");
+        }
+
+        @Override
+        public Timer channelOpenDuration() {
+            return registry.timer("channel open");
+        }
+
+        @Override
+        public Meter closeConnectionRate() {
+            return registry.meter("close");
+        }
+
+        @Override
+        public Counter createConnection() {
+            return registry.counter("create");
+        }
+
+        @Override
+        public Timer compressionCpu() {
+            return registry.timer(COMPRESSION_CPU);
+        }
+
+        @Override
+        public Histogram compressionRatio() {
+            return registry.histogram(COMPRESSION_RATIO);
+        }
+
+        @Override
+        public Meter createConnectionRate() {
+            return registry.meter("create rate");
+        }
+
+        @Override
+        public Meter failedConnectionRate() {
+            return registry.meter("failed");
+        }
+
+        @Override
+        public Counter failedOpenConnection() {
+            return registry.counter("failed open");
+        }
+
+        @Override
+        public Meter fullHandshakes() {
+            return registry.meter(FULL_HANDSHAKES);
+        }
+
+        @Override
+        public Timer handshakeDuration() {
+            return registry.timer(HANDSHAKE_DURATION);
+        }
+
+        @Override
+        public Counter openConnections() {
+            return registry.counter("open");
+        }
+
+        @Override
+        public Meter releaseRate() {
+            return registry.meter("release");
+        }
+
+        @Override
+        public Meter resumedHandshakes() {
+            return registry.meter(RESUMED_HANDSHAKES);
+        }
+    }
+
+    /**
+     * Validates the signature of the CA, as the pregenerated certificates have
+     * expired
+     */
+    private static final CertificateValidator VALIDATOR = new CertificateValidator() {
+        @Override
+        public void validateClient(X509Certificate[] chain) throws CertificateException {
+            validateServer(chain);
+        }
+
+        @Override
+        public void validateServer(X509Certificate[] chain) throws CertificateException {
+            try {
+                chain[0].verify(getCa().getX509Certificate().getPublicKey());
+            } catch (GeneralSecurityException e) {
+                throw new CertificateException("Invalid cert: " + chain[0].getSubjectDN(), e);
+            }
+        }
+    };
+
+    private static EndpointProvider endpoint(CertificateWithPrivateKey cert, SocketAddress server) {
+        return new EndpointProvider() {
+
+            @Override
+            public SocketAddress addressFor(Member to) {
+                return server;
+            }
+
+            @Override
+            public String getAlias() {
+                return "node";
+            }
+
+            @Override
+            public SocketAddress getBindAddress() {
+                return server;
+            }
+
+            @Override
+            public X509Certificate getCertificate() {
+                return cert.getX509Certificate();
+            }
+
+            @Override
+            public ClientAuth getClientAuth() {
+                return ClientAuth.REQUIRE;
+            }
+
+            @Override
+            public PrivateKey getPrivateKey() {
+                return cert.getPrivateKey();
+            }
+
+            @Override
+            public CertificateValidator getValiator() {
+                return VALIDATOR;
+            }
+        };
+    }
+
+    @Test
+    public void compression() throws Exception {
+        SocketAddress address = new InetSocketAddress("localhost", Utils.allocatePort());
+        CertificateWithPrivateKey serverCert = getMember(1);
+        CertificateWithPrivateKey clientCert = getMember(2);
+        Member server = new Member(serverCert.getX509Certificate());
+        Member client = new Member(clientCert.getX509Certificate());
+        Metrics metrics = new Metrics();
+        MutableHandlerRegistry registry = new MutableHandlerRegistry();
+        registry.addService(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                responseObserver.onNext(QueryResult.newBuilder()
+                                                   .addWanted(ByteString.copyFrom(new byte[4096]))
+                                                   .build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                responseObserver.onNext(SuppliedDagNodes.newBuilder()
+                                                        .addEntries(ByteString.copyFrom(new byte[4096]))
+                                                        .build());
+                responseObserver.onCompleted();
+            }
+        });
+        MtlsRouter router = new MtlsRouter(ServerConnectionCache.newBuilder().setMetrics(metrics),
+                endpoint(serverCert, address), registry, ForkJoinPool.commonPool(), new TrafficAccounting(),
+                CompressionPolicy.newBuilder().disable(AvalancheGrpc.getQueryMethod()));
+        router.start();
+        try {
+            MtlsServerConnectionFactory factory = new MtlsServerConnectionFactory(endpoint(clientCert, address));
+            ManagedChannel channel = factory.connectTo(server, client);
+            try {
+                AvalancheBlockingStub stub = AvalancheGrpc.newBlockingStub(channel);
+                stub.query(Query.getDefaultInstance());
+                assertEquals(0, metrics.compressionRatio().getCount());
+                stub.requestDag(DagNodes.getDefaultInstance());
+                assertEquals(1, metrics.compressionRatio().getCount());
+            } finally {
+                channel.shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            router.close();
+        }
+    }
+
+    @Test
+    public void resumed() throws Exception {
+        SocketAddress address = new InetSocketAddress("localhost", Utils.allocatePort());
+        CertificateWithPrivateKey serverCert = getMember(1);
+        CertificateWithPrivateKey clientCert = getMember(2);
+        Member server = new Member(serverCert.getX509Certificate());
+        Member client = new Member(clientCert.getX509Certificate());
+        Metrics metrics = new Metrics();
+        MtlsRouter router = new MtlsRouter(ServerConnectionCache.newBuilder().setMetrics(metrics),
+                endpoint(serverCert, address), ForkJoinPool.commonPool());
+        router.start();
+        try {
+            MtlsServerConnectionFactory factory = new MtlsServerConnectionFactory(endpoint(clientCert, address));
+            for (int i = 0; i < 2; i++) {
+                ManagedChannel channel = factory.connectTo(server, client);
+                try {
+                    // the handshake completes, though the service is not bound
+                    StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                                                            () -> AvalancheGrpc.newBlockingStub(channel)
+                                                                               .query(Query.getDefaultInstance()));
+                    assertEquals(Status.Code.UNIMPLEMENTED, e.getStatus().getCode());
+                } finally {
+                    channel.shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+                }
+            }
+            for (int i = 0; i < 100 && metrics.handshakeDuration().getCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, metrics.fullHandshakes().getCount());
+            assertEquals(1, metrics.resumedHandshakes().getCount());
+        } finally {
+            router.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.apollo.comm.ServerConnectionCache.ManagedServerConnection;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.inprocess.InProcessChannelBuilder;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ServerConnectionCacheTest {
+
+    private static class TestClock extends Clock {
+        private volatile long millis = System.currentTimeMillis();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        void advance(Duration duration) {
+            millis += duration.toMillis();
+        }
+    }
+
+    private static Member member(int i) {
+        byte[] hash = new byte[32];
+        hash[31] = (byte) i;
+        return new Member(new HashKey(hash), generate());
+    }
+
+    @Test
+    public void asynchronousConnect() throws Exception {
+        Member from = member(0);
+        Member slow = member(1);
+        Member fast = member(2);
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicInteger connects = new AtomicInteger();
+        ServerConnectionCache cache = ServerConnectionCache.newBuilder().setTarget(10).setFactory((to, f) -> {
+            connects.incrementAndGet();
+            if (to.equals(slow)) {
+                connecting.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return InProcessChannelBuilder.forName(to.getId().b64Encoded()).build();
+        }).build();
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ManagedServerConnection>> borrows = new ArrayList<>();
+            borrows.add(exec.submit(() -> cache.borrow(slow, from, (t, f, c) -> c)));
+            assertTrue(connecting.await(10, TimeUnit.SECONDS));
+            borrows.add(exec.submit(() -> cache.borrow(slow, from, (t, f, c) -> c)));
+
+            // a slow connect to one member does not block borrows of others
+            ManagedServerConnection other = exec.submit(() -> cache.borrow(fast, from, (t, f, c) -> c))
+                                                .get(10, TimeUnit.SECONDS);
+            assertNotNull(other);
+            other.release();
+
+            proceed.countDown();
+            ManagedServerConnection first = borrows.get(0).get(10, TimeUnit.SECONDS);
+            assertSame(first, borrows.get(1).get(10, TimeUnit.SECONDS));
+            assertEquals(2, connects.get());
+            assertEquals(2, cache.getOpenCount());
+            assertEquals(1, cache.getInUseCount());
+            first.release();
+            first.release();
+            assertEquals(2, cache.getIdleCount());
+        } finally {
+            exec.shutdownNow();
+            cache.close();
+        }
+    }
+
+    @Test
+    public void abandoned() throws Exception {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        try {
+            ServerConnectionCache.newBuilder()
+                                 .setScheduler(scheduler)
+                                 .setSweepInterval(Duration.ofMillis(1))
+                                 .setFactory((to, f) -> InProcessChannelBuilder.forName(to.getId().b64Encoded()).build())
+                                 .build();
+            assertEquals(1, scheduler.getQueue().size());
+            // the sweep of a cache that is never closed ends once the cache is collected
+            for (int i = 0; i < 100 && !scheduler.getQueue().isEmpty(); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertTrue(scheduler.getQueue().isEmpty());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void decayedRanking() throws Exception {
+        Member from = member(0);
+        Member a = member(1);
+        Member b = member(2);
+        TestClock clock = new TestClock();
+        ServerConnectionCache cache = ServerConnectionCache.newBuilder()
+                                                           .setClock(clock)
+                                                           .setSweepInterval(Duration.ofHours(1))
+                                                           .setFactory((to, f) -> InProcessChannelBuilder.forName(to.getId()
+                                                                                                                    .b64Encoded())
+                                                                                                         .build())
+                                                           .build();
+        try {
+            for (int i = 0; i < 10; i++) {
+                cache.borrow(a, from, (t, f, c) -> c).release();
+            }
+            assertEquals(List.of(a.getId()), cache.mostBorrowed(1));
+
+            // the heavy use of long ago is outranked by the light use of now
+            clock.advance(Duration.ofMinutes(10));
+            for (int i = 0; i < 2; i++) {
+                cache.borrow(b, from, (t, f, c) -> c).release();
+            }
+            assertEquals(List.of(b.getId(), a.getId()), cache.mostBorrowed(2));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void pinWarm() throws Exception {
+        Member from = member(0);
+        Member to = member(1);
+        ServerConnectionCache cache = ServerConnectionCache.newBuilder()
+                                                           .setTarget(0)
+                                                           .setMinIdle(Duration.ZERO)
+                                                           .setSweepInterval(Duration.ofHours(1))
+                                                           .setFactory((t, f) -> InProcessChannelBuilder.forName(t.getId()
+                                                                                                                   .b64Encoded())
+                                                                                                        .build())
+                                                           .build();
+        try {
+            assertTrue(cache.warm(to, from));
+            ManagedServerConnection warmed = cache.borrow(to, from, (t, f, c) -> c);
+            warmed.release();
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(0, cache.getOpenCount());
+
+            // the swept connection is established anew, and pinned against the sweep
+            assertTrue(cache.pinWarm(to, from));
+            assertEquals(1, cache.getOpenCount());
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(1, cache.getOpenCount());
+            ManagedServerConnection pinned = cache.borrow(to, from, (t, f, c) -> c);
+            assertNotSame(warmed, pinned);
+            pinned.release();
+
+            cache.unpin(to.getId());
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(0, cache.getOpenCount());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void sweep() throws Exception {
+        Member from = member(0);
+        ServerConnectionCache cache = ServerConnectionCache.newBuilder()
+                                                           .setTarget(2)
+                                                           .setMinIdle(Duration.ZERO)
+                                                           .setSweepInterval(Duration.ofHours(1))
+                                                           .setFactory((to, f) -> InProcessChannelBuilder.forName(to.getId()
+                                                                                                                    .b64Encoded())
+                                                                                                         .build())
+                                                           .build();
+        try {
+            List<ManagedServerConnection> borrowed = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                borrowed.add(cache.borrow(member(i), from, (t, f, c) -> c));
+            }
+            ManagedServerConnection busy = cache.borrow(member(5), from, (t, f, c) -> c);
+            busy.release();
+            assertEquals(5, cache.getOpenCount());
+
+            borrowed.forEach(c -> c.release());
+            Thread.sleep(10);
+            cache.sweep();
+            assertEquals(2, cache.getOpenCount());
+            assertEquals(2, cache.getIdleCount());
+            // the most used connection survives
+            assertSame(borrowed.get(4), cache.borrow(member(5), from, (t, f, c) -> c));
+
+            // closed connections are reestablished on demand
+            ManagedServerConnection reopened = cache.borrow(member(1), from, (t, f, c) -> c);
+            assertNotNull(reopened);
+            assertTrue(reopened != borrowed.get(0));
+            assertEquals(3, cache.getOpenCount());
+        } finally {
+            cache.close();
+        }
+    }
+}
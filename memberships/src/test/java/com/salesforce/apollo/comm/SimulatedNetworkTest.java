@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheBlockingStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.ID;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesforce.apollo.comm.SimulatedNetwork.LinkModel;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class SimulatedNetworkTest {
+
+    private static Member member(int i) {
+        byte[] hash = new byte[32];
+        hash[31] = (byte) i;
+        return new Member(new HashKey(hash), generate());
+    }
+
+    private ManagedChannel   channel;
+    private SimulatedNetwork network;
+    private Server           server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+        if (network != null) {
+            network.close();
+        }
+    }
+
+    @Test
+    public void bandwidth() throws Exception {
+        Member a = member(1);
+        Member b = member(2);
+        SimulatedNetwork network = SimulatedNetwork.newBuilder()
+                                                   .setDefaultLink(LinkModel.newBuilder()
+                                                                            .setBandwidth(100_000)
+                                                                            .build())
+                                                   .build();
+        AvalancheBlockingStub client = start(network, a, b);
+        long start = System.nanoTime();
+        // 20k response at 100k bytes/sec
+        client.query(Query.newBuilder().addWanted(ID.getDefaultInstance()).build());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 190);
+    }
+
+    @Test
+    public void latency() throws Exception {
+        Member a = member(1);
+        Member b = member(2);
+        SimulatedNetwork network = SimulatedNetwork.newBuilder()
+                                                   .setDefaultLink(LinkModel.newBuilder()
+                                                                            .setLatency(Duration.ofMillis(50))
+                                                                            .build())
+                                                   .build();
+        AvalancheBlockingStub client = start(network, a, b);
+        long start = System.nanoTime();
+        assertEquals(1, client.query(Query.getDefaultInstance()).getWantedCount());
+        // a round trip
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 100);
+    }
+
+    @Test
+    public void loss() throws Exception {
+        Member a = member(1);
+        Member b = member(2);
+        SimulatedNetwork network = SimulatedNetwork.newBuilder().build();
+        network.setLink(a.getId(), b.getId(), LinkModel.newBuilder().setLoss(1.0).build());
+        AvalancheBlockingStub client = start(network, a, b);
+        try {
+            client.query(Query.getDefaultInstance());
+            fail("Should have been lost");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void partition() throws Exception {
+        Member a = member(1);
+        Member b = member(2);
+        SimulatedNetwork network = SimulatedNetwork.newBuilder().build();
+        AvalancheBlockingStub client = start(network, a, b);
+        network.partition(Collections.singletonList(a.getId()), Collections.singletonList(b.getId()));
+        try {
+            client.query(Query.getDefaultInstance());
+            fail("Should have been partitioned");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        network.heal();
+        assertEquals(1, client.query(Query.getDefaultInstance()).getWantedCount());
+    }
+
+    @Test
+    public void reproducible() {
+        Member a = member(1);
+        Member b = member(2);
+        LinkModel model = LinkModel.newBuilder()
+                                   .setLatency(Duration.ofSeconds(10))
+                                   .setJitter(Duration.ofSeconds(1))
+                                   .setLoss(0.1)
+                                   .build();
+        SimulatedNetwork network = SimulatedNetwork.newBuilder().setSeed(42).setDefaultLink(model).build();
+        try {
+            List<Long> delays = delays(network, a, b);
+
+            // sent far enough apart that in order delivery never holds a message back
+            Random expected = new Random(network.seedOf(a.getId(), b.getId()));
+            for (int i = 0; i < delays.size(); i++) {
+                if (expected.nextDouble() < 0.1) {
+                    assertEquals(-1L, delays.get(i), "message: " + i);
+                } else {
+                    long latency = Math.max(0, Duration.ofSeconds(10).toNanos()
+                            + (long) (expected.nextGaussian() * Duration.ofSeconds(1).toNanos()));
+                    assertEquals(latency, delays.get(i), "message: " + i);
+                }
+            }
+            assertTrue(delays.stream().anyMatch(d -> d < 0));
+
+            SimulatedNetwork other = SimulatedNetwork.newBuilder().setSeed(43).setDefaultLink(model).build();
+            assertNotEquals(delays, delays(other, a, b));
+            other.close();
+        } finally {
+            network.close();
+        }
+    }
+
+    @Test
+    public void serial() {
+        Member a = member(1);
+        Member b = member(2);
+        SimulatedNetwork network = SimulatedNetwork.newBuilder()
+                                                   .setDefaultLink(LinkModel.newBuilder()
+                                                                            .setLatency(Duration.ofMillis(10))
+                                                                            .setBandwidth(1_000)
+                                                                            .build())
+                                                   .build();
+        try {
+            // 100 bytes at 1k bytes/sec, queued behind the previous messages
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Duration.ofMillis(100 * (i + 1) + 10).toNanos(),
+                             network.transmit(a.getId(), b.getId(), 0, 100));
+            }
+        } finally {
+            network.close();
+        }
+    }
+
+    private List<Long> delays(SimulatedNetwork network, Member a, Member b) {
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            delays.add(network.transmit(a.getId(), b.getId(), i * Duration.ofMinutes(1).toNanos(), 0));
+        }
+        return delays;
+    }
+
+    private AvalancheBlockingStub start(SimulatedNetwork network, Member from, Member to) throws Exception {
+        this.network = network;
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).addService(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                int size = request.getWantedCount() == 0 ? 16 : 20_000;
+                responseObserver.onNext(QueryResult.newBuilder().addWanted(ByteString.copyFrom(new byte[size])).build());
+                responseObserver.onCompleted();
+            }
+        }).build().start();
+        channel = InProcessChannelBuilder.forName(name)
+                                         .directExecutor()
+                                         .intercept(network.interceptor(from, to))
+                                         .build();
+        return AvalancheGrpc.newBlockingStub(channel);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.membership;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.stat.inference.ChiSquareTest;
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.apollo.membership.Context.MembershipListener;
+import com.salesforce.apollo.membership.Context.RingHashing;
+import com.salesforce.apollo.membership.Context.ViewDelta;
+import com.salesforce.apollo.protocols.HashKey;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class ContextTest {
+
+    private static Member member(int i) {
+        byte[] hash = new byte[32];
+        hash[30] = (byte) (i >> 8);
+        hash[31] = (byte) i;
+        return new Member(new HashKey(hash), generate());
+    }
+
+    @Test
+    public void cleared() {
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            members.add(member(i));
+        }
+        context.activate(members);
+        assertTrue(context.offlineIfActive(members.get(0).getId()));
+        assertFalse(context.offlineIfActive(members.get(0).getId()));
+        assertTrue(context.activateIfOffline(members.get(0).getId()));
+
+        MersenneTwister entropy = new MersenneTwister(0x1638);
+        assertEquals(10, context.sample(20, entropy, null).size());
+        assertTrue(context.offlineIfActive(members.get(1).getId()));
+        context.clear();
+        assertTrue(context.sample(20, entropy, null).isEmpty());
+        assertTrue(context.getActive().isEmpty());
+        assertTrue(context.getOffline().isEmpty());
+        assertEquals(0, context.cardinality());
+        assertNull(context.getMember(members.get(0).getId()));
+    }
+
+    @Test
+    public void deltas() throws Exception {
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            members.add(member(i));
+        }
+        List<ViewDelta<Member>> deltas = new CopyOnWriteArrayList<>();
+        Set<Member> recovered = ConcurrentHashMap.newKeySet();
+        context.subscribe(new MembershipListener<Member>() {
+            @Override
+            public void changed(ViewDelta<Member> delta) {
+                deltas.add(delta);
+            }
+        });
+        // the per member operations, adapted
+        context.subscribe(new MembershipListener<Member>() {
+            @Override
+            public void fail(Member member) {
+                recovered.remove(member);
+            }
+
+            @Override
+            public void recover(Member member) {
+                recovered.add(member);
+            }
+        });
+
+        context.activate(members);
+        for (int i = 0; i < 5; i++) {
+            context.offline(members.get(i));
+        }
+        context.activate(members.get(0));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        // until the delta of the final epoch is dispatched
+        while ((deltas.isEmpty() || deltas.get(deltas.size() - 1).getEpoch() != context.getEpoch()
+                || recovered.size() != 16) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(deltas.isEmpty());
+        assertEquals(deltas.get(deltas.size() - 1).getEpoch(), context.getEpoch());
+        assertEquals(16, recovered.size());
+
+        Map<Member, Boolean> state = new HashMap<>();
+        Set<Member> joined = new HashSet<>();
+        long epoch = 0;
+        for (ViewDelta<Member> delta : deltas) {
+            assertTrue(delta.getEpoch() > epoch);
+            epoch = delta.getEpoch();
+            joined.addAll(delta.getJoined());
+            delta.getFailed().forEach(m -> state.put(m, false));
+            delta.getRecovered().forEach(m -> state.put(m, true));
+        }
+        assertEquals(new HashSet<>(members), joined);
+        for (Member m : members) {
+            assertEquals(context.isActive(m), state.get(m));
+        }
+    }
+
+    @Test
+    public void dispatchedPerContext() throws Exception {
+        Context<Member> blocked = new Context<>(HashKey.ORIGIN, 3);
+        Context<Member> context = new Context<>(HashKey.LAST, 3);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        blocked.subscribe(new MembershipListener<Member>() {
+            @Override
+            public void changed(ViewDelta<Member> delta) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        context.subscribe(new MembershipListener<Member>() {
+            @Override
+            public void changed(ViewDelta<Member> delta) {
+                changed.countDown();
+            }
+        });
+        try {
+            blocked.activate(member(0));
+            context.activate(member(1));
+            // a slow subscriber of one context does not delay the deltas of another
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void hashing() {
+        Context<Member> bulk = new Context<>(HashKey.ORIGIN, 3);
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            members.add(member(i));
+        }
+        bulk.activate(members);
+        members.forEach(m -> context.activate(m));
+
+        MersenneTwister entropy = new MersenneTwister(0x1638);
+        for (int i = 0; i < 50; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            HashKey key = new HashKey(bytes);
+            List<Member> successors = context.successors(key);
+            assertEquals(3, successors.size());
+            assertEquals(successors, bulk.successors(key));
+            assertEquals(context.predecessors(key), bulk.predecessors(key));
+        }
+
+        for (int ring = 0; ring < 3; ring++) {
+            assertEquals(context.hashFor(members.get(0), ring), bulk.hashFor(members.get(0), ring));
+        }
+        assertNotEquals(context.hashFor(members.get(0), 0), context.hashFor(members.get(0), 1));
+        assertNotEquals(context.hashFor(members.get(0), 0),
+                        new Context<Member>(HashKey.LAST, 3).hashFor(members.get(0), 0));
+    }
+
+    @Test
+    public void removal() throws Exception {
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            members.add(member(i));
+        }
+        context.activate(members);
+        context.offline(members.get(1));
+
+        List<Member> failed = new CopyOnWriteArrayList<>();
+        context.register(new MembershipListener<Member>() {
+            @Override
+            public void fail(Member member) {
+                failed.add(member);
+            }
+        });
+        List<ViewDelta<Member>> deltas = new CopyOnWriteArrayList<>();
+        CountDownLatch dispatching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        context.subscribe(new MembershipListener<Member>() {
+            @Override
+            public void changed(ViewDelta<Member> delta) {
+                deltas.add(delta);
+                dispatching.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        context.remove(members.get(0));
+        assertTrue(dispatching.await(10, TimeUnit.SECONDS));
+        // the following changes accumulate in the next delta
+        context.remove(members.get(1));
+        context.remove(members.get(1));
+        Member fleeting = member(6);
+        context.activate(fleeting);
+        context.remove(fleeting);
+        release.countDown();
+
+        // only the active members are failed
+        assertEquals(Arrays.asList(members.get(0), fleeting), failed);
+        assertEquals(3, context.cardinality());
+        assertFalse(context.successors(members.get(0).getId()).contains(members.get(0)));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (deltas.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, deltas.size());
+        assertEquals(Collections.singletonList(members.get(0)), deltas.get(0).getRemoved());
+        assertEquals(Collections.singletonList(members.get(1)), deltas.get(1).getRemoved());
+        // a member added and removed within a delta is never published
+        assertTrue(deltas.get(1).getJoined().isEmpty());
+        assertTrue(deltas.get(1).getRecovered().isEmpty());
+    }
+
+    @Test
+    public void ringHashing() throws Exception {
+        assertEquals(RingHashing.FORMATTED, Context.getRingHashing());
+        Member member = member(7);
+        Context<Member> formatted = new Context<>(HashKey.LAST, 3);
+        Context<Member> binary;
+        try {
+            Context.setRingHashing(RingHashing.BINARY);
+            binary = new Context<>(HashKey.LAST, 3);
+        } finally {
+            Context.setRingHashing(RingHashing.FORMATTED);
+        }
+        MessageDigest md = MessageDigest.getInstance(Context.SHA_256);
+        for (int ring = 0; ring < 3; ring++) {
+            // the original hashing, compatible with existing members
+            HashKey legacy = new HashKey(md.digest(String.format("%s-%s-%s", HashKey.LAST, member.getId(), ring)
+                                                         .getBytes()));
+            assertEquals(legacy, formatted.hashFor(member, ring));
+            assertNotEquals(legacy, binary.hashFor(member, ring));
+        }
+    }
+
+    @Test
+    public void membershipChanges() {
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 3);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Member m = member(i);
+            members.add(m);
+            context.activate(m);
+        }
+        context.offline(members.get(0));
+        context.offline(members.get(19));
+        context.offline(members.get(7));
+        context.remove(members.get(12));
+        context.activate(members.get(7));
+        context.activate(members.get(7));
+
+        MersenneTwister entropy = new MersenneTwister(0x1638);
+        List<Member> sample = context.sample(100, entropy, members.get(3).getId());
+        assertEquals(context.getActive().size() - 1, sample.size());
+        assertEquals(sample.size(), new HashSet<>(sample).size());
+        assertFalse(sample.contains(members.get(3)));
+        for (Member m : sample) {
+            assertTrue(context.isActive(m));
+        }
+        assertEquals(5, context.sample(5, entropy, null).size());
+    }
+
+    @Test
+    public void uniformity() {
+        int cardinality = 10;
+        int k = 3;
+        int draws = 20_000;
+        Context<Member> context = new Context<>(HashKey.ORIGIN, 1);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < cardinality; i++) {
+            Member m = member(i);
+            members.add(m);
+            context.activate(m);
+        }
+        // exercise the swap removal of the index
+        context.offline(members.get(2));
+        context.activate(members.get(2));
+        HashKey excluded = members.get(5).getId();
+
+        MersenneTwister entropy = new MersenneTwister(0x1638);
+        Map<Member, Long> counts = new HashMap<>();
+        for (int i = 0; i < draws; i++) {
+            List<Member> sample = context.sample(k, entropy, excluded);
+            assertEquals(k, sample.size());
+            assertEquals(k, new HashSet<>(sample).size());
+            sample.forEach(m -> counts.merge(m, 1L, Long::sum));
+        }
+        assertFalse(counts.containsKey(members.get(5)));
+
+        double[] expected = new double[cardinality - 1];
+        long[] observed = new long[cardinality - 1];
+        int i = 0;
+        for (Member m : members) {
+            if (m.getId().equals(excluded)) {
+                continue;
+            }
+            expected[i] = ((double) draws * k) / (cardinality - 1);
+            observed[i++] = counts.getOrDefault(m, 0L);
+        }
+        assertFalse(new ChiSquareTest().chiSquareTest(expected, observed, 0.001), "sample is not uniform");
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.membership;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.salesforce.apollo.protocols.HashKey;
+
+/**
+ * Ring rank and select: the routing table of the Ring vs walks of the skip
+ * list the Ring is built from
+ *
+ * @author hal.hildebrand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RingBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "10000" })
+    public int cardinality;
+
+    private int                                           next;
+    private List<Member>                                  members;
+    private Ring<Member>                                  ring;
+    private final ConcurrentNavigableMap<HashKey, Member> skipList = new ConcurrentSkipListMap<>();
+
+    @Benchmark
+    public Member get() {
+        return ring.get(nextIndex());
+    }
+
+    @Benchmark
+    public int rank() {
+        return ring.rank(members.get(nextIndex()), members.get(nextIndex()));
+    }
+
+    @Setup
+    public void setup() {
+        X509Certificate certificate = generate();
+        Random entropy = new Random(0x1638);
+        members = new ArrayList<>();
+        ring = new Ring<>();
+        for (int i = 0; i < cardinality; i++) {
+            byte[] id = new byte[32];
+            entropy.nextBytes(id);
+            Member m = new Member(new HashKey(id), certificate);
+            members.add(m);
+            ring.insert(m);
+            skipList.put(m.getId(), m);
+        }
+    }
+
+    @Benchmark
+    public Member skipListGet() {
+        int index = nextIndex();
+        for (Member member : skipList.values()) {
+            if (index == 0) {
+                return member;
+            }
+            index--;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public int skipListRank() {
+        HashKey item = members.get(nextIndex()).getId();
+        HashKey dest = members.get(nextIndex()).getId();
+        if (item.compareTo(dest) < 0) {
+            return skipList.subMap(item, false, dest, false).size();
+        }
+        return skipList.tailMap(item, false).size() + skipList.headMap(dest, false).size();
+    }
+
+    @Benchmark
+    public Member successor() {
+        return ring.successor(members.get(nextIndex()), 16);
+    }
+
+    private int nextIndex() {
+        next = (next + 7919) % cardinality;
+        return next;
+    }
+}
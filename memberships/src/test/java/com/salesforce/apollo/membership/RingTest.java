@@ -9,6 +9,7 @@ package com.salesforce.apollo.membership;
 import static com.salesforce.apollo.membership.TestCertUtils.generate;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -150,6 +151,60 @@ public class RingTest {
         assertEquals(6, ring.rank(members.get(0), members.get(7)));
     }
 
+    @Test
+    public void kthSuccessor() {
+        for (int i = 0; i < members.size(); i++) {
+            for (int k = 1; k <= 2 * members.size(); k++) {
+                assertEquals(members.get((i + k) % members.size()), ring.successor(members.get(i), k));
+            }
+        }
+        Random entropy = new Random(0x1638);
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            HashKey location = new HashKey(bytes);
+            int higher = (int) members.stream().filter(m -> context.hashFor(m, 0).compareTo(location) <= 0).count();
+            for (int k = 1; k <= members.size(); k++) {
+                assertEquals(members.get((higher + k - 1) % members.size()), ring.successor(location, k));
+                assertEquals(k - 1, ring.rank(location, ring.successor(location, k)));
+            }
+        }
+    }
+
+    @Test
+    public void routingTable() {
+        Random entropy = new Random(0x1638);
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            HashKey location = new HashKey(bytes);
+            Member successor = members.stream()
+                                      .filter(m -> context.hashFor(m, 0).compareTo(location) > 0)
+                                      .findFirst()
+                                      .orElse(members.get(0));
+            Member predecessor = members.stream()
+                                        .filter(m -> context.hashFor(m, 0).compareTo(location) < 0)
+                                        .reduce((a, b) -> b)
+                                        .orElse(members.get(members.size() - 1));
+            assertEquals(successor, ring.successor(location));
+            assertEquals(predecessor, ring.predecessor(location));
+        }
+
+        // filtered, and the member at the location is never answered
+        Member excluded = members.get(5);
+        assertEquals(members.get(7), ring.successor(members.get(5), m -> !m.equals(members.get(6))));
+        assertEquals(members.get(3), ring.predecessor(members.get(5), m -> !m.equals(members.get(4))));
+        assertNull(ring.successor(excluded, m -> m.equals(excluded)));
+
+        // the table follows membership changes
+        context.offline(members.get(6));
+        assertEquals(members.get(7), ring.successor(members.get(5)));
+        assertEquals(members.get(7), ring.get(6));
+        context.activate(members.get(6));
+        assertEquals(members.get(6), ring.successor(members.get(5)));
+        assertEquals(members.get(6), ring.get(6 + members.size()));
+    }
+
     @Test
     public void successor() {
         assertEquals(5, members.indexOf(ring.successor(members.get(4))));
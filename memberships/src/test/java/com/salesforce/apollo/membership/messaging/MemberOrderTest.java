@@ -8,6 +8,7 @@ package com.salesforce.apollo.membership.messaging;
 
 import static com.salesforce.apollo.test.pregen.PregenPopulation.getMember;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.security.InvalidKeyException;
@@ -16,13 +17,21 @@ import java.security.Signature;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -31,6 +40,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
 import com.salesfoce.apollo.proto.ByteMessage;
 import com.salesforce.apollo.comm.LocalRouter;
@@ -118,6 +128,172 @@ public class MemberOrderTest {
         communications.forEach(e -> e.close());
     }
 
+    @Test
+    public void activated() {
+        List<Member> members = members(4);
+        Context<Member> context = new Context<Member>(HashKey.ORIGIN, 3);
+        context.activate(members.subList(0, 3));
+        List<Msg> delivered = new CopyOnWriteArrayList<>();
+        MemberOrder order = new MemberOrder((cid, msgs) -> delivered.addAll(msgs), context, members.get(0));
+        order.start();
+
+        // ordered as soon as the member is active
+        Member joining = members.get(3);
+        context.activate(joining);
+        order.process(Collections.singletonList(msg(joining, 0)), 0);
+        assertEquals(1, delivered.size());
+
+        // and no longer once removed
+        context.remove(joining);
+        order.process(Collections.singletonList(msg(joining, 1)), 0);
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void flushed() {
+        List<Member> members = members(4);
+        Context<Member> context = new Context<Member>(HashKey.ORIGIN, 3);
+        context.activate(members);
+        List<Msg> delivered = new CopyOnWriteArrayList<>();
+        MemberOrder order = new MemberOrder((cid, msgs) -> delivered.addAll(msgs), context, members.get(0));
+        order.start();
+        int ttl = context.timeToLive();
+
+        Member from = members.get(1);
+        order.process(Arrays.asList(msg(from, 0), msg(from, 1), msg(from, 3), msg(from, 4)), 0);
+        assertEquals(Arrays.asList(0, 1), sequenceNumbers(delivered));
+
+        // the gap is held open for ttl rounds
+        for (int round = 1; round <= ttl; round++) {
+            order.tick(round);
+        }
+        assertEquals(Arrays.asList(0, 1), sequenceNumbers(delivered));
+
+        // then flushed past
+        order.tick(ttl + 1);
+        order.tick(ttl + 2);
+        assertEquals(Arrays.asList(0, 1, 3, 4), sequenceNumbers(delivered));
+
+        // and the late message discarded
+        order.process(Collections.singletonList(msg(from, 2)), ttl + 2);
+        order.process(Collections.singletonList(msg(from, 5)), ttl + 2);
+        assertEquals(Arrays.asList(0, 1, 3, 4, 5), sequenceNumbers(delivered));
+    }
+
+    @Test
+    public void outOfOrder() throws Exception {
+        List<Member> members = members(5);
+        Context<Member> context = new Context<Member>(HashKey.ORIGIN, 3);
+        context.activate(members);
+        Map<HashKey, List<Integer>> delivered = new ConcurrentHashMap<>();
+        MemberOrder order = new MemberOrder((cid, msgs) -> msgs.forEach(m -> delivered.computeIfAbsent(m.from.getId(),
+                                                                                                       k -> new CopyOnWriteArrayList<>())
+                                                                                      .add(m.sequenceNumber)),
+                context, members.get(0));
+        order.start();
+
+        // far more than the window, so many arrive too far ahead and overflow
+        int count = 4 * MemberOrder.WINDOW;
+        List<Msg> msgs = new ArrayList<>();
+        for (Member from : members.subList(1, members.size())) {
+            for (int i = 0; i < count; i++) {
+                msgs.add(msg(from, i));
+            }
+        }
+        Collections.shuffle(msgs, new Random(0x1638));
+
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> processed = new ArrayList<>();
+            for (int i = 0; i < msgs.size(); i += 10) {
+                List<Msg> batch = msgs.subList(i, Math.min(i + 10, msgs.size()));
+                processed.add(exec.submit(() -> order.process(batch, 0)));
+            }
+            for (Future<?> f : processed) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            exec.shutdown();
+        }
+
+        List<Integer> expected = IntStream.range(0, count).boxed().collect(Collectors.toList());
+        for (Member from : members.subList(1, members.size())) {
+            assertEquals(expected, delivered.get(from.getId()));
+        }
+    }
+
+    @Test
+    public void overflow() {
+        List<Member> members = members(2);
+        Context<Member> context = new Context<Member>(HashKey.ORIGIN, 3);
+        context.activate(members);
+        List<Msg> delivered = new CopyOnWriteArrayList<>();
+        MemberOrder order = new MemberOrder((cid, msgs) -> delivered.addAll(msgs), context, members.get(0));
+        order.start();
+
+        // beyond the window, then beyond twice the window
+        Member from = members.get(1);
+        List<Msg> ahead = new ArrayList<>();
+        for (int i = MemberOrder.WINDOW + 44; i < 3 * MemberOrder.WINDOW; i++) {
+            ahead.add(msg(from, i));
+        }
+        order.process(ahead, 0);
+        assertTrue(delivered.isEmpty());
+
+        List<Msg> behind = new ArrayList<>();
+        for (int i = 0; i < MemberOrder.WINDOW + 44; i++) {
+            behind.add(msg(from, i));
+        }
+        order.process(behind, 0);
+        assertEquals(IntStream.range(0, 3 * MemberOrder.WINDOW).boxed().collect(Collectors.toList()),
+                     sequenceNumbers(delivered));
+    }
+
+    @Test
+    public void serialProcessor() throws Exception {
+        List<Member> members = members(9);
+        Context<Member> context = new Context<Member>(HashKey.ORIGIN, 3);
+        context.activate(members);
+        AtomicInteger processing = new AtomicInteger();
+        AtomicBoolean concurrent = new AtomicBoolean();
+        AtomicInteger delivered = new AtomicInteger();
+        MemberOrder order = new MemberOrder((cid, msgs) -> {
+            if (processing.incrementAndGet() > 1) {
+                concurrent.set(true);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                delivered.addAndGet(msgs.size());
+                processing.decrementAndGet();
+            }
+        }, context, members.get(0));
+        order.start();
+
+        // each sender on its own thread, so channels drain and deliver concurrently
+        int count = 200;
+        ExecutorService exec = Executors.newFixedThreadPool(members.size() - 1);
+        try {
+            List<Future<?>> processed = new ArrayList<>();
+            for (Member from : members.subList(1, members.size())) {
+                processed.add(exec.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        order.process(Collections.singletonList(msg(from, i)), 0);
+                    }
+                }));
+            }
+            for (Future<?> f : processed) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertFalse(concurrent.get(), "processor invoked concurrently");
+        assertEquals((members.size() - 1) * count, delivered.get());
+    }
+
     @Test
     public void smoke() {
         List<X509Certificate> seeds = new ArrayList<>();
@@ -289,6 +465,25 @@ public class MemberOrderTest {
 
     }
 
+    private List<Member> members(int count) {
+        return certs.values()
+                    .stream()
+                    .limit(count)
+                    .map(cert -> cert.getX509Certificate())
+                    .map(cert -> new Member(Member.getMemberId(cert), cert))
+                    .collect(Collectors.toList());
+    }
+
+    private Msg msg(Member from, int sequenceNumber) {
+        return new Msg(from, sequenceNumber, Any.pack(ByteMessage.newBuilder()
+                                                                 .setContents(ByteString.copyFromUtf8("" + sequenceNumber))
+                                                                 .build()));
+    }
+
+    private List<Integer> sequenceNumbers(List<Msg> msgs) {
+        return msgs.stream().map(m -> m.sequenceNumber).collect(Collectors.toList());
+    }
+
     private Signature forSigning(Member member) {
         Signature signature;
         try {
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.membership.messaging;
+
+import static com.salesforce.apollo.membership.TestCertUtils.generate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.Biff;
+import com.salesfoce.apollo.proto.ByteMessage;
+import com.salesfoce.apollo.proto.Message;
+import com.salesfoce.apollo.proto.Push;
+import com.salesforce.apollo.membership.Member;
+import com.salesforce.apollo.protocols.BloomFilter;
+import com.salesforce.apollo.protocols.Conversion;
+import com.salesforce.apollo.protocols.HashKey;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class MessageBufferTest {
+    private static KeyPair keyPair;
+    private static Member  member;
+
+    @BeforeAll
+    public static void beforeClass() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keyPair = generator.generateKeyPair();
+        member = new Member(HashKey.ORIGIN, generate());
+    }
+
+    private static Any content(int i) {
+        return Any.pack(ByteMessage.newBuilder().setContents(ByteString.copyFromUtf8("Hello " + i)).build());
+    }
+
+    @Test
+    public void aging() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(100, 3);
+        Message published = buffer.publish(content(0), member, signature());
+        assertEquals(0, published.getAge());
+
+        for (int round = 1; round <= 4; round++) {
+            List<Message> updates = updates(buffer);
+            assertEquals(1, updates.size(), "round: " + round);
+            Message update = updates.get(0);
+            assertEquals(round, update.getAge());
+            // the content is shared, not copied
+            assertSame(published.getContent(), update.getContent());
+        }
+        // expired once older than the tolerance
+        assertEquals(0, updates(buffer).size());
+    }
+
+    @Test
+    public void capacity() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(3, 10);
+        Message oldest = buffer.publish(content(0), member, signature());
+        updates(buffer);
+        updates(buffer);
+        buffer.publish(content(1), member, signature());
+        updates(buffer);
+        for (int i = 2; i < 5; i++) {
+            buffer.publish(content(i), member, signature());
+        }
+        List<Message> updates = updates(buffer);
+        assertEquals(3, updates.size());
+        updates.forEach(m -> assertTrue(m.getAge() < 2, "evicted the wrong message: " + m.getAge()));
+        assertTrue(updates.stream().noneMatch(m -> m.getContent().equals(oldest.getContent())));
+    }
+
+    @Test
+    public void digests() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(100, 5, 4);
+        Biff empty = buffer.getDigests(0.000125, false);
+        assertSame(empty, buffer.getDigests(0.000125, false));
+        assertEquals(0, BloomFilter.from(empty).getEstimatedPopulation(), 0.1);
+
+        buffer.publish(content(0), member, signature());
+        buffer.publish(content(1), member, signature());
+        Biff digests = buffer.getDigests(0.000125, false);
+        assertNotSame(empty, digests);
+        assertEquals(empty.getSeed(), digests.getSeed());
+        assertSame(digests, buffer.getDigests(0.000125, false));
+        // the digest covers every buffered message
+        assertEquals(0, buffer.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+        assertEquals(2, buffer.process(BloomFilter.from(empty), 0.000125).getUpdatesCount());
+
+        // unchanged by aging, until reseeded
+        updates(buffer);
+        updates(buffer);
+        updates(buffer);
+        assertSame(digests, buffer.getDigests(0.000125, false));
+        updates(buffer);
+        Biff reseeded = buffer.getDigests(0.000125, false);
+        assertNotSame(digests, reseeded);
+
+        assertEquals(0, buffer.process(BloomFilter.from(reseeded), 0.000125).getUpdatesCount());
+        assertEquals(2, buffer.process(BloomFilter.from(empty), 0.000125).getUpdatesCount());
+
+        // rebuilt as messages expire
+        updates(buffer);
+        updates(buffer);
+        assertEquals(0, BloomFilter.from(buffer.getDigests(0.000125, false)).getEstimatedPopulation(), 0.1);
+    }
+
+    @Test
+    public void digestRemoval() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(3, 3, 100);
+        Message expiring = buffer.publish(content(0), member, signature());
+        Biff digests = buffer.getDigests(0.000125, false);
+        updates(buffer);
+        updates(buffer);
+        Message evicting = buffer.publish(content(1), member, signature());
+        buffer.publish(content(2), member, signature());
+
+        // holds only the removed messages
+        MessageBuffer removed = new MessageBuffer(100, 10);
+        removed.merge(List.of(expiring, evicting), (h, m) -> true);
+
+        // expiry clears the bucket of the expired message, without reseeding
+        updates(buffer);
+        updates(buffer);
+        Biff expired = buffer.getDigests(0.000125, false);
+        assertEquals(digests.getSeed(), expired.getSeed());
+        assertEquals(0, buffer.process(BloomFilter.from(expired), 0.000125).getUpdatesCount());
+        assertEquals(1, removed.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+        assertEquals(1, removed.process(BloomFilter.from(expired), 0.000125).getUpdatesCount());
+
+        // eviction rebuilds the bucket of the evicted message, without reseeding
+        buffer.publish(content(3), member, signature());
+        buffer.publish(content(4), member, signature());
+        Biff evicted = buffer.getDigests(0.000125, false);
+        assertEquals(digests.getSeed(), evicted.getSeed());
+        assertEquals(0, buffer.process(BloomFilter.from(evicted), 0.000125).getUpdatesCount());
+        assertEquals(3, buffer.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+        assertEquals(2, removed.process(BloomFilter.from(evicted), 0.000125).getUpdatesCount());
+    }
+
+    @Test
+    public void digestMerge() throws Exception {
+        MessageBuffer source = new MessageBuffer(100, 5);
+        Message published = source.publish(content(0), member, signature());
+        MessageBuffer buffer = new MessageBuffer(100, 5, 100);
+        buffer.merge(Collections.singletonList(published), (h, m) -> true);
+        buffer.getDigests(0.000125, false);
+
+        // moved to an older bucket, then expired from it
+        buffer.merge(Collections.singletonList(Message.newBuilder(published).setAge(3).build()), (h, m) -> true);
+        updates(buffer);
+        updates(buffer);
+        updates(buffer);
+        assertEquals(0, updates(buffer).size());
+        assertEquals(0, BloomFilter.from(buffer.getDigests(0.000125, false)).getEstimatedPopulation(), 0.1);
+    }
+
+    @Test
+    public void digestSegments() throws Exception {
+        MessageBuffer buffer = new MessageBuffer(100, 50, 1000);
+        Biff initial = buffer.getDigests(0.000125, false);
+        List<Message> published = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            published.add(buffer.publish(content(i), member, signature()));
+            updates(buffer);
+        }
+        // the first messages have expired from their segments
+        MessageBuffer expired = new MessageBuffer(100, 100);
+        expired.merge(published.subList(0, 10), (h, m) -> true);
+        MessageBuffer held = new MessageBuffer(100, 100);
+        held.merge(published.subList(10, published.size()), (h, m) -> true);
+
+        Biff digests = buffer.getDigests(0.000125, false);
+        assertEquals(initial.getSeed(), digests.getSeed());
+        assertEquals(0, buffer.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+        assertEquals(0, held.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+        assertEquals(10, expired.process(BloomFilter.from(digests), 0.000125).getUpdatesCount());
+    }
+
+    @Test
+    public void merge() throws Exception {
+        MessageBuffer source = new MessageBuffer(100, 5);
+        Message published = source.publish(content(0), member, signature());
+        Message aged = Message.newBuilder(published).setAge(3).build();
+
+        MessageBuffer buffer = new MessageBuffer(100, 5);
+        assertEquals(1, buffer.merge(Collections.singletonList(published), (h, m) -> true).size());
+        // already known, but older than held
+        assertEquals(0, buffer.merge(Collections.singletonList(aged), (h, m) -> true).size());
+        assertEquals(4, updates(buffer).get(0).getAge());
+        // younger than held
+        assertEquals(0, buffer.merge(Collections.singletonList(published), (h, m) -> true).size());
+        assertEquals(5, updates(buffer).get(0).getAge());
+
+        // too old to be held
+        MessageBuffer other = new MessageBuffer(100, 5);
+        assertEquals(0, other.merge(Collections.singletonList(Message.newBuilder(published).setAge(7).build()),
+                                    (h, m) -> true)
+                             .size());
+        assertEquals(0, other.merge(Collections.singletonList(published), (h, m) -> false).size());
+        assertEquals(0, updates(other).size());
+    }
+
+    @Test
+    public void validation() throws Exception {
+        MessageBuffer source = new MessageBuffer(100, 5);
+        List<Message> published = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            published.add(source.publish(content(i), member, signature()));
+        }
+        AtomicInteger validations = new AtomicInteger();
+        CountDownLatch released = new CountDownLatch(1);
+        ExecutorService validation = Executors.newFixedThreadPool(2);
+        try {
+            MessageBuffer buffer = new MessageBuffer(100, 5);
+            CompletableFuture<List<Message>> merging = buffer.merge(published, (h, m) -> {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                validations.incrementAndGet();
+                return m.getSequenceNumber() % 2 == 0;
+            }, validation);
+            // the caller is not blocked by validation
+            assertFalse(merging.isDone());
+            released.countDown();
+            assertEquals(5, merging.get(10, TimeUnit.SECONDS).size());
+            assertEquals(10, validations.get());
+
+            // buffered messages are not validated again
+            assertEquals(5, buffer.merge(published, (h, m) -> {
+                validations.incrementAndGet();
+                return true;
+            }, validation).get(10, TimeUnit.SECONDS).size());
+            assertEquals(15, validations.get());
+        } finally {
+            validation.shutdownNow();
+        }
+    }
+
+    private Signature signature() throws Exception {
+        Signature signature = Signature.getInstance(Conversion.DEFAULT_SIGNATURE_ALGORITHM);
+        signature.initSign(keyPair.getPrivate());
+        return signature;
+    }
+
+    private List<Message> updates(MessageBuffer buffer) {
+        Push.Builder builder = Push.newBuilder();
+        buffer.updatesFor(BloomFilter.create(0, 100, 0.000125, false), builder);
+        return builder.getUpdatesList();
+    }
+}
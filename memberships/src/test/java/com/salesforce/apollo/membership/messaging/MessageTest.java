@@ -35,6 +35,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.salesfoce.apollo.proto.ByteMessage;
@@ -197,6 +198,88 @@ public class MessageTest {
         System.out.println();
     }
 
+    /**
+     * Measure the dissemination of single messages gossiping with one successor
+     * per round against gossiping with the successors of several rings
+     */
+    @Test
+    public void fanout() throws Exception {
+        for (int fanout : new int[] { 1, 3 }) {
+            MetricRegistry registry = new MetricRegistry();
+            MessagingMetrics metrics = new MessagingMetricsImpl(registry);
+            List<Member> members = certs.values()
+                                        .stream()
+                                        .limit(50)
+                                        .map(cert -> cert.getX509Certificate())
+                                        .map(cert -> new Member(Member.getMemberId(cert), cert))
+                                        .collect(Collectors.toList());
+            Context<Member> context = new Context<Member>(HashKey.ORIGIN, 9);
+            members.forEach(m -> context.activate(m));
+            Parameters fanned = Parameters.newBuilder()
+                                          .setBufferSize(100)
+                                          .setFanout(fanout)
+                                          .setMetrics(metrics)
+                                          .build();
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(10);
+            messengers = members.stream().map(node -> {
+                LocalRouter comms = new LocalRouter(node, ServerConnectionCache.newBuilder().setTarget(30),
+                        Executors.newFixedThreadPool(3));
+                communications.add(comms);
+                comms.start();
+                return new Messenger(node, () -> forSigning(node), context, comms, fanned);
+            }).collect(Collectors.toList());
+
+            AtomicInteger current = new AtomicInteger(-1);
+            List<Receiver> receivers = new ArrayList<>();
+            for (Messenger view : messengers) {
+                Receiver receiver = new Receiver(messengers.size(), current) {
+                    @Override
+                    public void message(HashKey ctx, List<Msg> messages) {
+                        messages.forEach(message -> {
+                            if (counted.add(message.from)) {
+                                round.countDown();
+                            }
+                        });
+                    }
+                };
+                view.registerHandler(receiver);
+                receivers.add(receiver);
+            }
+            messengers.forEach(view -> view.start(Duration.ofMillis(100), scheduler));
+
+            int samples = 5;
+            long messages = 0;
+            int rounds = 0;
+            for (int i = 0; i < samples; i++) {
+                Messenger source = messengers.get(i);
+                CountDownLatch disseminated = new CountDownLatch(messengers.size() - 1);
+                receivers.forEach(r -> {
+                    r.reset();
+                    r.setRound(disseminated);
+                });
+                long sent = messageCount(metrics);
+                int start = source.getRound();
+                source.publish(ByteMessage.newBuilder().setContents(ByteString.copyFromUtf8("Hello " + i)).build());
+                assertTrue(disseminated.await(20, TimeUnit.SECONDS),
+                           "Did not disseminate with fanout: " + fanout + " waiting for: " + disseminated.getCount());
+                messages += messageCount(metrics) - sent;
+                rounds += source.getRound() - start;
+            }
+            long totalRounds = messengers.stream().mapToLong(m -> m.getRound()).sum();
+            System.out.println(String.format("fanout: %s rounds to dissemination: %.1f messages to dissemination: %.1f bytes per round: %.1f",
+                                             fanout, (double) rounds / samples, (double) messages / samples,
+                                             (double) metrics.outboundBandwidth().getCount() / totalRounds));
+            after();
+            communications.clear();
+            messengers = null;
+            scheduler.shutdownNow();
+        }
+    }
+
+    private long messageCount(MessagingMetrics metrics) {
+        return metrics.outboundGossipRate().getCount() + metrics.outboundUpdateRate().getCount();
+    }
+
     private Signature forSigning(Member member) {
         Signature signature;
         try {
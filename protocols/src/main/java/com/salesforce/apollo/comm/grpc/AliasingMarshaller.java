@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.google.protobuf.UnsafeByteOperations;
+
+import io.grpc.BindableService;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.MethodDescriptor.PrototypeMarshaller;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.lite.ProtoLiteUtils;
+
+/**
+ * A protobuf marshaller for messages with large bytes fields - DAG entries,
+ * transactions, blocks. The default marshaller copies the message out of the
+ * transport into a shared buffer, and then copies each bytes field out of that
+ * buffer again. This marshaller copies the message once, into a buffer of its
+ * own, and parses with aliasing, so that the bytes fields of the message are
+ * views of that buffer rather than copies. Messages are serialized as by the
+ * default marshaller, which writes the bytes fields directly to the transport.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class AliasingMarshaller<T extends MessageLite> implements PrototypeMarshaller<T> {
+
+    private static final Map<MethodDescriptor<?, ?>, MethodDescriptor<?, ?>> ALIASED = new ConcurrentHashMap<>();
+
+    /**
+     * @return the service, with the requests of the methods parsed with aliasing
+     */
+    public static BindableService alias(BindableService service, MethodDescriptor<?, ?>... methods) {
+        ServerServiceDefinition definition = alias(service.bindService(), methods);
+        return () -> definition;
+    }
+
+    /**
+     * @return the service definition, with the requests of the methods parsed with
+     *         aliasing
+     */
+    public static ServerServiceDefinition alias(ServerServiceDefinition definition,
+                                                MethodDescriptor<?, ?>... methods) {
+        Set<String> aliased = names(methods);
+        ServiceDescriptor descriptor = definition.getServiceDescriptor();
+        ServiceDescriptor.Builder serviceBuilder = ServiceDescriptor.newBuilder(descriptor.getName())
+                                                                    .setSchemaDescriptor(descriptor.getSchemaDescriptor());
+        List<ServerMethodDefinition<?, ?>> bound = new ArrayList<>();
+        for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+            ServerMethodDefinition<?, ?> rebound = aliased.contains(method.getMethodDescriptor().getFullMethodName())
+                    ? aliased(method)
+                    : method;
+            serviceBuilder.addMethod(rebound.getMethodDescriptor());
+            bound.add(rebound);
+        }
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(serviceBuilder.build());
+        bound.forEach(m -> builder.addMethod(m));
+        return builder.build();
+    }
+
+    /**
+     * @return the method, with its requests and responses parsed with aliasing
+     */
+    @SuppressWarnings("unchecked")
+    public static <ReqT, RespT> MethodDescriptor<ReqT, RespT> aliased(MethodDescriptor<ReqT, RespT> method) {
+        return (MethodDescriptor<ReqT, RespT>) ALIASED.computeIfAbsent(method,
+                                                                       m -> method.toBuilder(aliased(method.getRequestMarshaller()),
+                                                                                             aliased(method.getResponseMarshaller()))
+                                                                                  .build());
+    }
+
+    /**
+     * @return the interceptor parsing the responses of the client's calls of the
+     *         methods with aliasing
+     */
+    public static ClientInterceptor clientInterceptor(MethodDescriptor<?, ?>... methods) {
+        Set<String> aliased = names(methods);
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                return next.newCall(aliased.contains(method.getFullMethodName()) ? aliased(method) : method,
+                                    callOptions);
+            }
+        };
+    }
+
+    public static <T extends MessageLite> AliasingMarshaller<T> of(T prototype) {
+        return new AliasingMarshaller<>(prototype);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Marshaller<T> aliased(Marshaller<T> marshaller) {
+        if (marshaller instanceof AliasingMarshaller || !(marshaller instanceof PrototypeMarshaller)) {
+            return marshaller;
+        }
+        Object prototype = ((PrototypeMarshaller<T>) marshaller).getMessagePrototype();
+        if (!(prototype instanceof MessageLite)) {
+            return marshaller;
+        }
+        return (Marshaller<T>) of((MessageLite) prototype);
+    }
+
+    private static <ReqT, RespT> ServerMethodDefinition<ReqT, RespT> aliased(ServerMethodDefinition<ReqT, RespT> method) {
+        return ServerMethodDefinition.create(aliased(method.getMethodDescriptor()), method.getServerCallHandler());
+    }
+
+    private static Set<String> names(MethodDescriptor<?, ?>... methods) {
+        Set<String> names = new HashSet<>();
+        Arrays.stream(methods).forEach(m -> names.add(m.getFullMethodName()));
+        return names;
+    }
+
+    private final Marshaller<T> delegate;
+    private final Parser<T>     parser;
+    private final T             prototype;
+
+    @SuppressWarnings("unchecked")
+    public AliasingMarshaller(T prototype) {
+        this.prototype = prototype;
+        this.parser = (Parser<T>) prototype.getParserForType();
+        this.delegate = ProtoLiteUtils.marshaller(prototype);
+    }
+
+    @Override
+    public T getMessagePrototype() {
+        return prototype;
+    }
+
+    @Override
+    public Class<T> getMessageClass() {
+        @SuppressWarnings("unchecked")
+        Class<T> clazz = (Class<T>) prototype.getClass();
+        return clazz;
+    }
+
+    @Override
+    public T parse(InputStream stream) {
+        try {
+            // the buffer is exclusively the message's, so the bytes fields may alias it
+            CodedInputStream input = UnsafeByteOperations.unsafeWrap(read(stream)).newCodedInput();
+            input.enableAliasing(true);
+            input.setSizeLimit(Integer.MAX_VALUE);
+            T message = parser.parseFrom(input, ExtensionRegistryLite.getEmptyRegistry());
+            input.checkLastTagWas(0);
+            return message;
+        } catch (InvalidProtocolBufferException e) {
+            throw Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException();
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Unable to read message").withCause(e).asRuntimeException();
+        }
+    }
+
+    @Override
+    public InputStream stream(T value) {
+        return delegate.stream(value);
+    }
+
+    private byte[] read(InputStream stream) throws IOException {
+        if (stream instanceof KnownLength) {
+            int size = stream.available();
+            byte[] buffer = new byte[size];
+            ByteStreams.readFully(stream, buffer);
+            if (stream.read() == -1) {
+                return buffer;
+            }
+            throw new IOException("Message longer than its known length: " + size);
+        }
+        return ByteStreams.toByteArray(stream);
+    }
+}
@@ -34,7 +34,7 @@ public interface BaseServerCommunications<T> {
     }
 
     default void evaluate(StreamObserver<?> responseObserver, ID id, Consumer<T> c, T s, Map<HashKey, T> services) {
-        evaluate(responseObserver, id.getItselfCount() == 0 ? null : new HashKey(id), c, s, services);
+        evaluate(responseObserver, HashKey.isEmpty(id) ? null : new HashKey(id), c, s, services);
     }
 
     default X509Certificate getCert() {
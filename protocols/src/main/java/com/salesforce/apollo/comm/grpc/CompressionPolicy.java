@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.MessageLite;
+import com.salesforce.apollo.protocols.CompressionMetrics;
+
+import io.grpc.Codec;
+import io.grpc.Compressor;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * The per method compression policy for server responses, replacing gzip of
+ * every response.
+ * <p>
+ * Responses smaller than the threshold are not compressed, nor are the
+ * responses of disabled services and methods. The codec is the first of the
+ * preferred encodings the client accepts. Each method's compression ratio is
+ * tracked, and a method whose responses do not compress below the maximum
+ * ratio - hashes, signatures, already compressed content - is then only
+ * compressed as an occasional probe of whether that is still true.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class CompressionPolicy {
+    public static class Builder {
+        private final Set<String>  disabled      = new HashSet<>();
+        private double             maxRatio      = 0.9;
+        private CompressionMetrics metrics;
+        private List<String>       preferred     = Arrays.asList(FastDeflateCodec.ENCODING, GZIP);
+        private int                probeInterval = 64;
+        private int                threshold     = 512;
+
+        public CompressionPolicy build() {
+            return new CompressionPolicy(this);
+        }
+
+        /**
+         * Disable compression of the method's responses
+         */
+        public Builder disable(MethodDescriptor<?, ?> method) {
+            disabled.add(method.getFullMethodName());
+            return this;
+        }
+
+        /**
+         * Disable compression of the responses of all the methods of the service
+         */
+        public Builder disableService(String serviceName) {
+            disabled.add(serviceName);
+            return this;
+        }
+
+        public Set<String> getDisabled() {
+            return disabled;
+        }
+
+        public double getMaxRatio() {
+            return maxRatio;
+        }
+
+        public CompressionMetrics getMetrics() {
+            return metrics;
+        }
+
+        public List<String> getPreferred() {
+            return preferred;
+        }
+
+        public int getProbeInterval() {
+            return probeInterval;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public Builder setMaxRatio(double maxRatio) {
+            this.maxRatio = maxRatio;
+            return this;
+        }
+
+        public Builder setMetrics(CompressionMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param preferred - the message encodings, in order of preference
+         */
+        public Builder setPreferred(List<String> preferred) {
+            this.preferred = preferred;
+            return this;
+        }
+
+        public Builder setProbeInterval(int probeInterval) {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        public Builder setThreshold(int threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+    }
+
+    private class CompressionInterceptor implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                     ServerCallHandler<ReqT, RespT> next) {
+            MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+            if (disabled.contains(method.getFullMethodName()) || disabled.contains(method.getServiceName())) {
+                return next.startCall(call, headers);
+            }
+            String encoding = encodingFor(headers.get(ACCEPT_ENCODING));
+            if (encoding == null) {
+                return next.startCall(call, headers);
+            }
+            call.setCompression(encoding);
+            MethodRatio ratio = ratios.computeIfAbsent(method.getFullMethodName(), m -> new MethodRatio());
+            return next.startCall(new SimpleForwardingServerCall<ReqT, RespT>(call) {
+                @Override
+                public void sendMessage(RespT message) {
+                    boolean compress = ratio.compress(message);
+                    setMessageCompression(compress);
+                    if (!compress) {
+                        super.sendMessage(message);
+                        return;
+                    }
+                    // responses are compressed synchronously, on this thread
+                    CURRENT.set(ratio);
+                    try {
+                        super.sendMessage(message);
+                    } finally {
+                        CURRENT.remove();
+                    }
+                }
+            }, headers);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+    }
+
+    private class MeteredCodec implements Compressor {
+        private final Codec codec;
+
+        private MeteredCodec(Codec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            long start = cpuTime();
+            CountingOutputStream compressed = new CountingOutputStream(os);
+            OutputStream compressing = codec.compress(compressed);
+            MethodRatio ratio = CURRENT.get();
+            return new CountingOutputStream(compressing) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (metrics != null) {
+                        metrics.compressionCpu().update(cpuTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                    if (count == 0) {
+                        return;
+                    }
+                    double observed = (double) compressed.count / count;
+                    if (metrics != null) {
+                        metrics.compressionRatio().update(Math.round(observed * 100));
+                    }
+                    if (ratio != null) {
+                        ratio.observe(observed);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String getMessageEncoding() {
+            return codec.getMessageEncoding();
+        }
+    }
+
+    /**
+     * The running compression ratio of a method's responses
+     */
+    private class MethodRatio {
+        private final AtomicInteger skipped = new AtomicInteger();
+        private volatile double     ratio   = 0.0;
+
+        private boolean compress(Object message) {
+            if (message instanceof MessageLite && ((MessageLite) message).getSerializedSize() < threshold) {
+                return false;
+            }
+            if (ratio <= maxRatio) {
+                return true;
+            }
+            return skipped.incrementAndGet() % probeInterval == 0;
+        }
+
+        private void observe(double observed) {
+            ratio = ratio == 0.0 ? observed : ratio * 0.75 + observed * 0.25;
+        }
+    }
+
+    public static final String GZIP = "gzip";
+
+    private static final Metadata.Key<String>     ACCEPT_ENCODING = Metadata.Key.of("grpc-accept-encoding",
+                                                                                    Metadata.ASCII_STRING_MARSHALLER);
+    private static final ThreadLocal<MethodRatio> CURRENT         = new ThreadLocal<>();
+    private static final DecompressorRegistry     DECOMPRESSORS   = DecompressorRegistry.getDefaultInstance()
+                                                                                        .with(FastDeflateCodec.SINGLETON,
+                                                                                              true);
+    private static final ThreadMXBean             THREADS         = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @return the decompressors of the supported encodings, advertised by
+     *         clients as acceptable response encodings
+     */
+    public static DecompressorRegistry decompressors() {
+        return DECOMPRESSORS;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private final CompressorRegistry       compressors = CompressorRegistry.newEmptyInstance();
+    private final Set<String>              disabled;
+    private final double                   maxRatio;
+    private final CompressionMetrics       metrics;
+    private final List<String>             preferred;
+    private final int                      probeInterval;
+    private final Map<String, MethodRatio> ratios      = new ConcurrentHashMap<>();
+    private final int                      threshold;
+
+    private CompressionPolicy(Builder builder) {
+        disabled = Collections.unmodifiableSet(new HashSet<>(builder.disabled));
+        maxRatio = builder.maxRatio;
+        metrics = builder.metrics;
+        preferred = Collections.unmodifiableList(new ArrayList<>(builder.preferred));
+        probeInterval = Math.max(1, builder.probeInterval);
+        threshold = builder.threshold;
+        compressors.register(new MeteredCodec(new Codec.Gzip()));
+        compressors.register(new MeteredCodec(FastDeflateCodec.SINGLETON));
+    }
+
+    /**
+     * @return the metered compressors of the policy, for the server
+     */
+    public CompressorRegistry compressors() {
+        return compressors;
+    }
+
+    /**
+     * @return the server interceptor applying the policy
+     */
+    public ServerInterceptor interceptor() {
+        return new CompressionInterceptor();
+    }
+
+    /**
+     * @return the first preferred encoding accepted by the client, or null if
+     *         none
+     */
+    String encodingFor(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        List<String> accepted = new ArrayList<>();
+        for (String encoding : acceptEncoding.split(",")) {
+            accepted.add(encoding.trim());
+        }
+        for (String encoding : preferred) {
+            if (accepted.contains(encoding) && compressors.lookupCompressor(encoding) != null) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+}
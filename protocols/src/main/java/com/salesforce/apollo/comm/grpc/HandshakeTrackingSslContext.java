@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.ByteString;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
+
+import io.grpc.Attributes;
+import io.grpc.Grpc;
+import io.grpc.ServerTransportFilter;
+import io.grpc.netty.shaded.io.netty.handler.ssl.DelegatingSslContext;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
+
+/**
+ * A server SslContext that tracks the start of each TLS handshake. When the
+ * transport of the handshake becomes ready, the handshake is recorded as full
+ * or resumed - a resumed handshake presents a session id this server has
+ * already seen - along with its latency. The server decides whether a session
+ * is resumed, so the server's view suffices for both ends of the connection.
+ * <p>
+ * Handshakes in progress are keyed by the session of their engine, which the
+ * OpenSSL engine fixes at creation, so each completion is found in constant
+ * time. The handshakes of engines that replace their session are counted, but
+ * not timed
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class HandshakeTrackingSslContext extends DelegatingSslContext {
+    private final Cache<SSLSession, Long>    handshaking = CacheBuilder.newBuilder()
+                                                                       .weakKeys()
+                                                                       .expireAfterWrite(1, TimeUnit.MINUTES)
+                                                                       .build();
+    private final HandshakeMetrics           metrics;
+    private final Cache<ByteString, Boolean> sessions;
+
+    public HandshakeTrackingSslContext(SslContext context, HandshakeMetrics metrics) {
+        super(context);
+        this.metrics = metrics;
+        sessions = CacheBuilder.newBuilder()
+                               .maximumSize(Math.max(1, context.sessionCacheSize()))
+                               .expireAfterWrite(Math.max(1, context.sessionTimeout()), TimeUnit.SECONDS)
+                               .build();
+    }
+
+    /**
+     * @return the transport filter recording the handshakes of ready transports
+     */
+    public ServerTransportFilter transportFilter() {
+        return new ServerTransportFilter() {
+            @Override
+            public Attributes transportReady(Attributes transportAttrs) {
+                SSLSession session = transportAttrs.get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+                if (session != null) {
+                    completed(session);
+                }
+                return transportAttrs;
+            }
+        };
+    }
+
+    @Override
+    protected void initEngine(SSLEngine engine) {
+        handshaking.put(engine.getSession(), System.nanoTime());
+    }
+
+    private void completed(SSLSession session) {
+        Long started = handshaking.asMap().remove(session);
+        if (started != null) {
+            metrics.handshakeDuration().update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        ByteString id = ByteString.copyFrom(session.getId());
+        if (!id.isEmpty() && sessions.asMap().putIfAbsent(id, Boolean.TRUE) != null) {
+            metrics.resumedHandshakes().mark();
+        } else {
+            metrics.fullHandshakes().mark();
+        }
+    }
+}
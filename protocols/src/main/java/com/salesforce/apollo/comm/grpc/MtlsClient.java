@@ -14,10 +14,12 @@ import java.security.cert.X509Certificate;
 
 import com.salesforce.apollo.protocols.CertificateValidator;
 
+import io.grpc.ClientInterceptor;
 import io.grpc.ManagedChannel;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
 import io.grpc.netty.shaded.io.netty.handler.ssl.ClientAuth;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 
 /**
  * @author hal.hildebrand
@@ -29,12 +31,23 @@ public class MtlsClient {
 
     public MtlsClient(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
             PrivateKey privateKey, CertificateValidator validator) {
+        this(address, forClient(clientAuth, alias, certificate, privateKey, validator),
+                new ServerValidation(validator));
+    }
 
+    /**
+     * @param sslContext   - the client context, shared between clients so that TLS
+     *                     sessions may be resumed
+     * @param interceptors - the interceptors of the client's calls, which should
+     *                     include the {@link ServerValidation} of resumed sessions
+     */
+    public MtlsClient(SocketAddress address, SslContext sslContext, ClientInterceptor... interceptors) {
         channel = NettyChannelBuilder.forAddress(address)
-                                     .sslContext(forClient(clientAuth, alias, certificate, privateKey, validator))
+                                     .intercept(interceptors)
+                                     .sslContext(sslContext)
+                                     .decompressorRegistry(CompressionPolicy.decompressors())
                                      .withOption(ChannelOption.TCP_NODELAY, true)
                                      .build();
-
     }
 
     public ManagedChannel getChannel() {
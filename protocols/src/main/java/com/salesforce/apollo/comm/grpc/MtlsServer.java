@@ -22,9 +22,11 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -47,9 +49,11 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.salesforce.apollo.protocols.CertificateValidator;
 import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
 import com.salesforce.apollo.protocols.HashKey;
 import com.salesforce.apollo.protocols.Utils;
 
+import io.grpc.Attributes;
 import io.grpc.BindableService;
 import io.grpc.Context;
 import io.grpc.Contexts;
@@ -59,12 +63,15 @@ import io.grpc.Server;
 import io.grpc.ServerCall;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerInterceptor;
+import io.grpc.ServerTransportFilter;
+import io.grpc.Status;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import io.grpc.netty.shaded.io.netty.channel.ChannelOption;
 import io.grpc.netty.shaded.io.netty.handler.ssl.ClientAuth;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslContextBuilder;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslProvider;
 import io.grpc.util.MutableHandlerRegistry;
 
 /**
@@ -72,23 +79,6 @@ import io.grpc.util.MutableHandlerRegistry;
  *
  */
 public class MtlsServer implements ClientIdentity {
-    /**
-     * Currently grpc-java doesn't return compressed responses, even if the client
-     * has sent a compressed payload. This turns on gzip compression for all
-     * responses.
-     */
-    public static class EnableCompressionInterceptor implements ServerInterceptor {
-        public final static EnableCompressionInterceptor SINGLETON = new EnableCompressionInterceptor();
-
-        @Override
-        public <ReqT, RespT> io.grpc.ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
-                                                                             Metadata headers,
-                                                                             ServerCallHandler<ReqT, RespT> next) {
-            call.setCompression("gzip");
-            return next.startCall(call, headers);
-        }
-    }
-
     public static class NodeKeyManagerFactory extends KeyManagerFactory {
 
         public NodeKeyManagerFactory(String alias, X509Certificate certificate, PrivateKey privateKey) {
@@ -215,6 +205,11 @@ public class MtlsServer implements ClientIdentity {
         @Override
         public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
                                                                      ServerCallHandler<ReqT, RespT> next) {
+            if (Boolean.FALSE.equals(call.getAttributes().get(PEER_VALID))) {
+                call.close(Status.UNAUTHENTICATED.withDescription("Invalid peer certificate"), new Metadata());
+                return new ServerCall.Listener<ReqT>() {
+                };
+            }
             SSLSession sslSession = call.getAttributes().get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
             if (sslSession == null) {
                 return next.startCall(call, headers);
@@ -224,6 +219,45 @@ public class MtlsServer implements ClientIdentity {
         }
     }
 
+    /**
+     * Validates the peer certificates of each transport anew. A resumed TLS
+     * session skips the trust manager, so without this a peer would be trusted on
+     * the strength of a validation up to the session timeout old
+     */
+    private static class PeerValidation extends ServerTransportFilter {
+        private final CertificateValidator validator;
+
+        private PeerValidation(CertificateValidator validator) {
+            this.validator = validator;
+        }
+
+        @Override
+        public Attributes transportReady(Attributes transportAttrs) {
+            SSLSession session = transportAttrs.get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+            if (session == null) {
+                return transportAttrs;
+            }
+            Certificate[] certificates;
+            try {
+                certificates = session.getPeerCertificates();
+            } catch (SSLPeerUnverifiedException e) {
+                return transportAttrs;
+            }
+            X509Certificate[] chain = new X509Certificate[certificates.length];
+            for (int i = 0; i < certificates.length; i++) {
+                chain[i] = (X509Certificate) certificates[i];
+            }
+            boolean valid;
+            try {
+                validator.validateClient(chain);
+                valid = true;
+            } catch (CertificateException e) {
+                valid = false;
+            }
+            return transportAttrs.toBuilder().set(PEER_VALID, valid).build();
+        }
+    }
+
     private static class Trust extends X509ExtendedTrustManager {
         private final CertificateValidator validator;
 
@@ -272,25 +306,43 @@ public class MtlsServer implements ClientIdentity {
 
     }
 
-    private static final List<String> CIPHERS  = new ArrayList<>();
-    private static final Provider     PROVIDER = new BouncyCastleProvider();
-    private static final String       TL_SV1_2 = "TLSv1.2";
+    private static final List<String>            CIPHERS            = new ArrayList<>();
+    /**
+     * Whether the peer certificates of the transport are valid
+     */
+    private static final Attributes.Key<Boolean> PEER_VALID         = Attributes.Key.create("PeerValid");
+    private static final Provider                PROVIDER           = new BouncyCastleProvider();
+    /**
+     * TLS sessions cached for resumption, on both client and server
+     */
+    private static final long                    SESSION_CACHE_SIZE = 4096;
+    private static final long                    SESSION_TIMEOUT    = TimeUnit.HOURS.toSeconds(1);
+    private static final String                  TL_SV1_2           = "TLSv1.2";
 
     static {
         CIPHERS.add("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
         Security.addProvider(PROVIDER);
     }
 
+    /**
+     * Clients should share a single context, which caches their TLS sessions for
+     * resumption. The OpenSSL client engine of the bundled Netty keeps no session
+     * cache, so the context is built on the JDK provider, whose engine does. A
+     * resumed session skips the validation of the server, so the channels of the
+     * context validate each transport anew with {@link ServerValidation}
+     */
     public static SslContext forClient(ClientAuth clientAuth, String alias, X509Certificate certificate,
                                        PrivateKey privateKey, CertificateValidator validator) {
         SslContextBuilder builder = SslContextBuilder.forClient()
                                                      .keyManager(new NodeKeyManagerFactory(alias, certificate,
                                                              privateKey));
-        GrpcSslContexts.configure(builder);
+        GrpcSslContexts.configure(builder, SslProvider.JDK);
         builder.protocols(TL_SV1_2)
                .ciphers(CIPHERS)
                .trustManager(new NodeTrustManagerFactory(validator))
-               .clientAuth(clientAuth);
+               .clientAuth(clientAuth)
+               .sessionCacheSize(SESSION_CACHE_SIZE)
+               .sessionTimeout(SESSION_TIMEOUT);
         try {
             return builder.build();
         } catch (SSLException e) {
@@ -307,7 +359,9 @@ public class MtlsServer implements ClientIdentity {
         builder.protocols(TL_SV1_2)
                .ciphers(CIPHERS)
                .trustManager(new NodeTrustManagerFactory(validator))
-               .clientAuth(clientAuth);
+               .clientAuth(clientAuth)
+               .sessionCacheSize(SESSION_CACHE_SIZE)
+               .sessionTimeout(SESSION_TIMEOUT);
         try {
             return builder.build();
         } catch (SSLException e) {
@@ -325,6 +379,7 @@ public class MtlsServer implements ClientIdentity {
                                                                                                                                                                   }
                                                                                                                                                               });
     private final TlsInterceptor                         interceptor      = new TlsInterceptor();
+    private final List<ServerInterceptor>                interceptors;
     private final MutableHandlerRegistry                 registry;
     private final Server                                 server;
 
@@ -332,15 +387,50 @@ public class MtlsServer implements ClientIdentity {
 
     public MtlsServer(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
             PrivateKey privateKey, CertificateValidator validator, MutableHandlerRegistry registry, Executor executor) {
+        this(address, clientAuth, alias, certificate, privateKey, validator, registry, executor, null,
+                CompressionPolicy.newBuilder().build());
+    }
+
+    public MtlsServer(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
+            PrivateKey privateKey, CertificateValidator validator, MutableHandlerRegistry registry, Executor executor,
+            HandshakeMetrics metrics, CompressionPolicy compression) {
+        this(address, clientAuth, alias, certificate, privateKey, validator, registry, executor, metrics, compression,
+                null);
+    }
+
+    /**
+     * @param accounting - the accounting of the traffic served, or null
+     */
+    public MtlsServer(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
+            PrivateKey privateKey, CertificateValidator validator, MutableHandlerRegistry registry, Executor executor,
+            HandshakeMetrics metrics, CompressionPolicy compression, TrafficAccounting accounting) {
         this.registry = registry;
 
+        SslContext sslContext = forServer(clientAuth, alias, certificate, privateKey, validator);
+        HandshakeTrackingSslContext tracking = null;
+        if (metrics != null) {
+            tracking = new HandshakeTrackingSslContext(sslContext, metrics);
+            sslContext = tracking;
+        }
         NettyServerBuilder builder = NettyServerBuilder.forAddress(address)
-                                                       .sslContext(forServer(clientAuth, alias, certificate, privateKey,
-                                                                             validator))
+                                                       .sslContext(sslContext)
                                                        .fallbackHandlerRegistry(registry)
-                                                       .withChildOption(ChannelOption.TCP_NODELAY, true)
-                                                       .intercept(interceptor)
-                                                       .intercept(EnableCompressionInterceptor.SINGLETON);
+                                                       .withChildOption(ChannelOption.TCP_NODELAY, true);
+        List<ServerInterceptor> chain = new ArrayList<>();
+        if (accounting != null) {
+            // within the TLS interceptor, which establishes the identity of the caller
+            chain.add(accounting.serverInterceptor(this));
+        }
+        chain.add(interceptor);
+        chain.add(compression.interceptor());
+        interceptors = Collections.unmodifiableList(chain);
+        interceptors.forEach(i -> builder.intercept(i));
+        builder.compressorRegistry(compression.compressors())
+               .decompressorRegistry(CompressionPolicy.decompressors());
+        builder.addTransportFilter(new PeerValidation(validator));
+        if (tracking != null) {
+            builder.addTransportFilter(tracking.transportFilter());
+        }
         builder.executor(executor);
         server = builder.build();
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -378,6 +468,14 @@ public class MtlsServer implements ClientIdentity {
         }
     }
 
+    /**
+     * @return the interceptors of the server's calls, in the order added - the
+     *         last intercepts first
+     */
+    public List<ServerInterceptor> getInterceptors() {
+        return interceptors;
+    }
+
     public void start() throws IOException {
         server.start();
     }
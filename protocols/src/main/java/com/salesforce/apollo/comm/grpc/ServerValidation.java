@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import com.google.common.cache.CacheBuilder;
+import com.salesforce.apollo.protocols.CertificateValidator;
+
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * The client's counterpart of the server's validation of each transport. A
+ * resumed TLS session skips the trust manager, so the server certificates of
+ * each transport are validated anew - once, when the transport first answers
+ * a call - and the calls of a transport whose server is no longer valid fail
+ * as UNAUTHENTICATED
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class ServerValidation implements ClientInterceptor {
+
+    private class Validating<ReqT, RespT> extends SimpleForwardingClientCall<ReqT, RespT> {
+        private volatile boolean rejected;
+        private volatile boolean validated;
+
+        private Validating(ClientCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (rejected || !validate()) {
+                        super.onClose(Status.UNAUTHENTICATED.withDescription("Invalid server certificate"),
+                                      new Metadata());
+                        return;
+                    }
+                    super.onClose(status, trailers);
+                }
+
+                @Override
+                public void onHeaders(Metadata headers) {
+                    if (validate()) {
+                        super.onHeaders(headers);
+                    }
+                }
+
+                @Override
+                public void onMessage(RespT message) {
+                    if (!rejected) {
+                        super.onMessage(message);
+                    }
+                }
+            }, headers);
+        }
+
+        /**
+         * @return true if the server of the call's transport is valid, cancelling
+         *         the call if not
+         */
+        private boolean validate() {
+            if (validated) {
+                return true;
+            }
+            if (rejected) {
+                return false;
+            }
+            if (valid(getAttributes())) {
+                validated = true;
+                return true;
+            }
+            rejected = true;
+            cancel("Invalid server certificate", null);
+            return false;
+        }
+    }
+
+    private final Map<Attributes, Boolean> transports = CacheBuilder.newBuilder()
+                                                                     .weakKeys()
+                                                                     .<Attributes, Boolean>build()
+                                                                     .asMap();
+    private final CertificateValidator     validator;
+
+    public ServerValidation(CertificateValidator validator) {
+        this.validator = validator;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        return new Validating<>(next.newCall(method, callOptions));
+    }
+
+    /**
+     * @return true if the server certificates of the transport are valid. The
+     *         attributes are those of the transport, so each transport is
+     *         validated once
+     */
+    private boolean valid(Attributes transportAttrs) {
+        SSLSession session = transportAttrs.get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+        if (session == null) {
+            return true;
+        }
+        return transports.computeIfAbsent(transportAttrs, k -> {
+            Certificate[] certificates;
+            try {
+                certificates = session.getPeerCertificates();
+            } catch (SSLPeerUnverifiedException e) {
+                return false;
+            }
+            X509Certificate[] chain = new X509Certificate[certificates.length];
+            for (int i = 0; i < certificates.length; i++) {
+                chain[i] = (X509Certificate) certificates[i];
+            }
+            try {
+                validator.validateServer(chain);
+                return true;
+            } catch (CertificateException e) {
+                return false;
+            }
+        });
+    }
+}
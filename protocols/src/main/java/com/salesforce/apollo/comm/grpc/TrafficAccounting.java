@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
+import com.salesfoce.apollo.proto.ID;
+import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.HashKey;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Accounting of the traffic of calls by peer member, service, method, context
+ * and direction: the serialized bytes and messages in and out, the number of
+ * calls and a histogram of call latency. Served calls are measured from their
+ * start until closed, issued calls for their round trip.
+ * <p>
+ * The cardinality of the accounts is bounded by tracking only the heaviest
+ * hitters, by bytes, with the Space-Saving algorithm: when full, a new account
+ * replaces the lightest, inheriting its weight as the bound on its error. The
+ * lightest account is found with a min heap of the accounts' weights. As
+ * weights only grow, the heap is keyed by stale lower bounds, refreshed lazily
+ * when an account reaches the top with a weight that has grown since
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class TrafficAccounting {
+
+    public static class Key {
+        public final HashKey context;
+        public final HashKey member;
+        /**
+         * The full method name, qualified by its service
+         */
+        public final String  method;
+        public final boolean served;
+
+        public Key(HashKey member, String method, HashKey context, boolean served) {
+            this.member = member;
+            this.method = method;
+            this.context = context;
+            this.served = served;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return served == other.served && Objects.equals(member, other.member) && method.equals(other.method)
+                    && Objects.equals(context, other.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(member, method, context, served);
+        }
+
+        @Override
+        public String toString() {
+            return (served ? "<- " : "-> ") + member + " " + method + " " + context;
+        }
+    }
+
+    public static class Traffic {
+        private static final int BUCKETS = 32;
+
+        private final LongAdder       bytesIn     = new LongAdder();
+        private final LongAdder       bytesOut    = new LongAdder();
+        private final LongAdder       calls       = new LongAdder();
+        private final long            error;
+        private volatile boolean      evicted;
+        private final AtomicLongArray latency     = new AtomicLongArray(BUCKETS);
+        private final LongAdder       messagesIn  = new LongAdder();
+        private final LongAdder       messagesOut = new LongAdder();
+
+        private Traffic(long error) {
+            this.error = error;
+        }
+
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return the upper bound of the overestimate of the account's weight
+         */
+        public long getError() {
+            return error;
+        }
+
+        public long getMessagesIn() {
+            return messagesIn.sum();
+        }
+
+        public long getMessagesOut() {
+            return messagesOut.sum();
+        }
+
+        /**
+         * @return the upper bound, in microseconds, of the latency bucket containing
+         *         the quantile
+         */
+        public long latency(double quantile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += latency.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latency.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        /**
+         * @return the weight of the account, bytes in and out plus the error
+         */
+        public long weight() {
+            return error + bytesIn.sum() + bytesOut.sum();
+        }
+
+        private void completed(long nanos) {
+            calls.increment();
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+            latency.incrementAndGet(bucket);
+        }
+
+        private void received(Object message) {
+            messagesIn.increment();
+            bytesIn.add(sizeOf(message));
+        }
+
+        private void sent(Object message) {
+            messagesOut.increment();
+            bytesOut.add(sizeOf(message));
+        }
+    }
+
+    /**
+     * The accounting of a single call, keyed by its first request
+     */
+    private class Accountant {
+        private volatile Key     key;
+        private final HashKey    member;
+        private final String     method;
+        private final boolean    served;
+        private final long       start = System.nanoTime();
+        private volatile Traffic traffic;
+
+        private Accountant(HashKey member, MethodDescriptor<?, ?> method, boolean served) {
+            this.member = member;
+            this.method = method.getFullMethodName();
+            this.served = served;
+        }
+
+        private void closed() {
+            Traffic current = traffic;
+            if (current != null) {
+                current.completed(System.nanoTime() - start);
+            }
+        }
+
+        private void received(Object message) {
+            trafficFor(message).received(message);
+        }
+
+        private void sent(Object message) {
+            trafficFor(message).sent(message);
+        }
+
+        /**
+         * @return the call's account, looked up again if evicted since last used
+         */
+        private Traffic trafficFor(Object message) {
+            Traffic current = traffic;
+            if (current == null || current.evicted) {
+                Key k = key;
+                if (k == null) {
+                    k = new Key(member, method, contextOf(message), served);
+                    key = k;
+                }
+                current = traffic(k);
+                traffic = current;
+            }
+            return current;
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Map<Descriptor, Optional<FieldDescriptor>> CONTEXT_FIELDS = new ConcurrentHashMap<>();
+
+    /**
+     * @return the context of the message, from its context ID field, or null
+     */
+    static HashKey contextOf(Object message) {
+        if (!(message instanceof Message)) {
+            return null;
+        }
+        Message msg = (Message) message;
+        FieldDescriptor field = CONTEXT_FIELDS.computeIfAbsent(msg.getDescriptorForType(), d -> {
+            FieldDescriptor f = d.findFieldByName("context");
+            return Optional.ofNullable(f != null && f.getType() == FieldDescriptor.Type.MESSAGE
+                    && f.getMessageType().equals(ID.getDescriptor()) && !f.isRepeated() ? f : null);
+        }).orElse(null);
+        if (field == null || !msg.hasField(field)) {
+            return null;
+        }
+        ID id = (ID) msg.getField(field);
+        return HashKey.isEmpty(id) ? null : new HashKey(id);
+    }
+
+    private static int sizeOf(Object message) {
+        return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : 0;
+    }
+
+    /**
+     * An account's entry in the heap, keyed by the account's weight when last
+     * ranked
+     */
+    private static class Ranked {
+        private final Key     key;
+        private final Traffic traffic;
+        private final long    weight;
+
+        private Ranked(Key key, Traffic traffic, long weight) {
+            this.key = key;
+            this.traffic = traffic;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<Key, Traffic>     accounts = new ConcurrentHashMap<>();
+    private final int                   capacity;
+    private final LongAdder             evicted  = new LongAdder();
+    private final PriorityQueue<Ranked> lightest = new PriorityQueue<>(Comparator.comparingLong(r -> r.weight));
+
+    public TrafficAccounting() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - the maximum number of accounts tracked
+     */
+    public TrafficAccounting(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the interceptor accounting the calls issued to the member
+     */
+    public ClientInterceptor clientInterceptor(HashKey member) {
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                Accountant accountant = new Accountant(member, method, false);
+                return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+                    @Override
+                    public void sendMessage(ReqT message) {
+                        accountant.sent(message);
+                        super.sendMessage(message);
+                    }
+
+                    @Override
+                    public void start(Listener<RespT> responseListener, Metadata headers) {
+                        super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+                            @Override
+                            public void onClose(Status status, Metadata trailers) {
+                                accountant.closed();
+                                super.onClose(status, trailers);
+                            }
+
+                            @Override
+                            public void onMessage(RespT message) {
+                                accountant.received(message);
+                                super.onMessage(message);
+                            }
+                        }, headers);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the traffic accounts, heaviest first, as a table
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-10s %-10s %-10s %-10s %-10s %-10s %-10s %-10s %-10s %s%n", "bytes in",
+                                     "bytes out", "msgs in", "msgs out", "calls", "p50 us", "p99 us", "error",
+                                     "direction", "member method context"));
+        for (Entry<Key, Traffic> entry : top(capacity)) {
+            Traffic t = entry.getValue();
+            Key k = entry.getKey();
+            builder.append(String.format("%-10d %-10d %-10d %-10d %-10d %-10d %-10d %-10d %-10s %s %s %s%n",
+                                         t.getBytesIn(), t.getBytesOut(), t.getMessagesIn(), t.getMessagesOut(),
+                                         t.getCalls(), t.latency(0.5), t.latency(0.99), t.getError(),
+                                         k.served ? "served" : "issued", k.member, k.method, k.context));
+        }
+        builder.append(String.format("evicted accounts: %d%n", evicted.sum()));
+        return builder.toString();
+    }
+
+    /**
+     * @return the number of accounts evicted by heavier hitters
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * @return the interceptor accounting the calls served, from the members
+     *         identified by the client identity
+     */
+    public ServerInterceptor serverInterceptor(ClientIdentity identity) {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                HashKey from;
+                try {
+                    from = identity.getFrom();
+                } catch (RuntimeException e) {
+                    from = null;
+                }
+                Accountant accountant = new Accountant(from, call.getMethodDescriptor(), true);
+                return new SimpleForwardingServerCallListener<ReqT>(next.startCall(new SimpleForwardingServerCall<ReqT, RespT>(
+                        call) {
+                    @Override
+                    public void close(Status status, Metadata trailers) {
+                        accountant.closed();
+                        super.close(status, trailers);
+                    }
+
+                    @Override
+                    public void sendMessage(RespT message) {
+                        accountant.sent(message);
+                        super.sendMessage(message);
+                    }
+                }, headers)) {
+                    @Override
+                    public void onMessage(ReqT message) {
+                        accountant.received(message);
+                        super.onMessage(message);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the n heaviest traffic accounts, heaviest first
+     */
+    public List<Entry<Key, Traffic>> top(int n) {
+        List<Entry<Key, Traffic>> entries = new ArrayList<>(accounts.entrySet());
+        entries.sort(Comparator.comparingLong((Entry<Key, Traffic> e) -> e.getValue().weight()).reversed());
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    /**
+     * @return the account of the key, replacing the lightest account if full
+     */
+    private Traffic traffic(Key key) {
+        Traffic traffic = accounts.get(key);
+        if (traffic != null) {
+            return traffic;
+        }
+        synchronized (this) {
+            traffic = accounts.get(key);
+            if (traffic != null) {
+                return traffic;
+            }
+            long floor = 0;
+            if (accounts.size() >= capacity) {
+                floor = evictLightest();
+            }
+            traffic = new Traffic(floor);
+            accounts.put(key, traffic);
+            lightest.add(new Ranked(key, traffic, traffic.weight()));
+            return traffic;
+        }
+    }
+
+    /**
+     * Evict the lightest account. An account whose weight has grown since it was
+     * ranked is ranked again, until the top of the heap holds a current weight -
+     * which, as weights only grow, is the minimum
+     *
+     * @return the weight of the evicted account
+     */
+    private long evictLightest() {
+        while (true) {
+            Ranked top = lightest.poll();
+            long weight = top.traffic.weight();
+            if (weight > top.weight) {
+                lightest.add(new Ranked(top.key, top.traffic, weight));
+                continue;
+            }
+            accounts.remove(top.key);
+            top.traffic.evicted = true;
+            evicted.increment();
+            return weight;
+        }
+    }
+}
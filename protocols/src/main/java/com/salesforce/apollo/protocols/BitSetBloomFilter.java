@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.util.BitSet;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.salesfoce.apollo.proto.Biff;
+import com.salesfoce.apollo.proto.Biff.Builder;
+
+/**
+ * The classic Bloom filter, probing across the entire bit set
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class BitSetBloomFilter extends BloomFilter {
+
+    private final BitSet       bits;
+    private final HashFunction h;
+
+    public BitSetBloomFilter(int seed, long n, double p) {
+        this(new HashFunction(seed, n, p));
+    }
+
+    public BitSetBloomFilter(Biff bff) {
+        bits = BitSet.valueOf(bff.getBits().asReadOnlyByteBuffer());
+        h = new HashFunction(bff.getSeed(), bff.getM(), bff.getK());
+    }
+
+    public BitSetBloomFilter(HashFunction h) {
+        this.h = h;
+        bits = new BitSet(h.getM());
+    }
+
+    public BitSetBloomFilter(HashFunction h, BitSet bits) {
+        this.h = h;
+        this.bits = bits;
+    }
+
+    @Override
+    public void add(HashKey element) {
+        h.put(element, bits);
+    }
+
+    @Override
+    public void clear() {
+        bits.clear();
+    }
+
+    @Override
+    public boolean contains(HashKey element) {
+        return h.mightContain(element, bits);
+    }
+
+    @Override
+    public double getEstimatedPopulation() {
+        return population(bits.cardinality(), h.getK(), h.getM());
+    }
+
+    @Override
+    public boolean isBlocked() {
+        return false;
+    }
+
+    @Override
+    public void or(BloomFilter other) {
+        if (!(other instanceof BitSetBloomFilter)) {
+            throw new IllegalArgumentException("Not a classic bloom filter: " + other);
+        }
+        BitSetBloomFilter classic = (BitSetBloomFilter) other;
+        if (classic.h.getSeed() != h.getSeed() || classic.h.getM() != h.getM() || classic.h.getK() != h.getK()) {
+            throw new IllegalArgumentException("Incompatible bloom filter");
+        }
+        bits.or(classic.bits);
+    }
+
+    @Override
+    public Biff toBff() {
+        Builder builder = Biff.newBuilder()
+                              .setSeed(h.getSeed())
+                              .setM(h.getM())
+                              .setK(h.getK())
+                              .setBits(UnsafeByteOperations.unsafeWrap(bits.toByteArray()));
+        return builder.build();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.salesfoce.apollo.proto.Biff;
+import com.salesforce.apollo.protocols.HashFunction.Hasher;
+
+/**
+ * A register blocked Bloom filter. Each element selects one 64 byte block - a
+ * single cache line - and all k probes for the element fall within that block.
+ * <p>
+ * The 64 bit words of the filter are held in a little endian buffer, which is
+ * also the serialized form of the filter. Serialization wraps the buffer
+ * without copying and deserialization reads directly from the received bytes.
+ * The filter is copied on write once it has been shared through a Biff.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class BlockedBloomFilter extends BloomFilter {
+    public static final int BLOCK_BITS = 512;
+
+    private static final int BLOCK_BYTES     = BLOCK_BITS / Byte.SIZE;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+
+    private static ByteBuffer allocate(int blocks) {
+        return ByteBuffer.wrap(new byte[blocks * BLOCK_BYTES]).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer bits;
+    private final int  blocks;
+    private final int  k;
+    private final int  seed;
+    private ByteString serialized;
+
+    public BlockedBloomFilter(Biff bff) {
+        if (bff.getK() >= 0) {
+            throw new IllegalArgumentException("Not a blocked bloom filter, k: " + bff.getK());
+        }
+        if (bff.getM() <= 0 || bff.getM() % BLOCK_BITS != 0) {
+            throw new IllegalArgumentException("Invalid blocked bloom filter size: " + bff.getM());
+        }
+        blocks = bff.getM() / BLOCK_BITS;
+        if (bff.getBits().size() != blocks * BLOCK_BYTES) {
+            throw new IllegalArgumentException("Invalid blocked bloom filter bits, expected: "
+                    + blocks * BLOCK_BYTES + " bytes but was: " + bff.getBits().size());
+        }
+        k = -bff.getK();
+        seed = bff.getSeed();
+        serialized = bff.getBits();
+        bits = serialized.asReadOnlyByteBuffer().slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BlockedBloomFilter(int seed, long n, double p) {
+        HashFunction h = new HashFunction(seed, n, p);
+        this.seed = seed;
+        this.k = h.getK();
+        this.blocks = Math.max(1, (h.getM() + BLOCK_BITS - 1) / BLOCK_BITS);
+        this.bits = allocate(blocks);
+    }
+
+    @Override
+    public void add(HashKey element) {
+        writable();
+        Hasher hasher = new Hasher(element, seed);
+        int block = block(hasher);
+        long step = step(hasher);
+        long combined = hasher.getH2();
+        for (int i = 0; i < k; i++) {
+            int bit = (int) (combined >>> 55);
+            int index = (block + (bit >>> 6)) * Long.BYTES;
+            bits.putLong(index, bits.getLong(index) | (1L << bit));
+            combined += step;
+        }
+    }
+
+    @Override
+    public void clear() {
+        bits = allocate(blocks);
+        serialized = null;
+    }
+
+    @Override
+    public boolean contains(HashKey element) {
+        Hasher hasher = new Hasher(element, seed);
+        int block = block(hasher);
+        long step = step(hasher);
+        long combined = hasher.getH2();
+        for (int i = 0; i < k; i++) {
+            int bit = (int) (combined >>> 55);
+            if ((bits.getLong((block + (bit >>> 6)) * Long.BYTES) & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += step;
+        }
+        return true;
+    }
+
+    @Override
+    public double getEstimatedPopulation() {
+        int oneBits = 0;
+        for (int i = 0; i < blocks * WORDS_PER_BLOCK; i++) {
+            oneBits += Long.bitCount(bits.getLong(i * Long.BYTES));
+        }
+        return population(oneBits, k, blocks * BLOCK_BITS);
+    }
+
+    @Override
+    public boolean isBlocked() {
+        return true;
+    }
+
+    @Override
+    public void or(BloomFilter other) {
+        if (!(other instanceof BlockedBloomFilter)) {
+            throw new IllegalArgumentException("Not a blocked bloom filter: " + other);
+        }
+        BlockedBloomFilter blocked = (BlockedBloomFilter) other;
+        if (blocked.seed != seed || blocked.blocks != blocks || blocked.k != k) {
+            throw new IllegalArgumentException("Incompatible bloom filter");
+        }
+        writable();
+        for (int i = 0; i < blocks * WORDS_PER_BLOCK; i++) {
+            int index = i * Long.BYTES;
+            bits.putLong(index, bits.getLong(index) | blocked.bits.getLong(index));
+        }
+    }
+
+    @Override
+    public Biff toBff() {
+        if (serialized == null) {
+            serialized = UnsafeByteOperations.unsafeWrap(bits.array());
+        }
+        return Biff.newBuilder().setSeed(seed).setM(blocks * BLOCK_BITS).setK(-k).setBits(serialized).build();
+    }
+
+    /**
+     * @return the index of the first word of the element's block
+     */
+    private int block(Hasher hasher) {
+        return (int) Long.remainderUnsigned(hasher.getH1(), blocks) * WORDS_PER_BLOCK;
+    }
+
+    private long step(Hasher hasher) {
+        return Long.rotateLeft(hasher.getH1(), 32) | 1;
+    }
+
+    /**
+     * Copy the bits if they are shared with a serialized form
+     */
+    private void writable() {
+        if (serialized == null) {
+            return;
+        }
+        ByteBuffer copy = allocate(blocks);
+        copy.put(bits.duplicate().clear());
+        bits = copy;
+        serialized = null;
+    }
+}
@@ -6,56 +6,35 @@
  */
 package com.salesforce.apollo.protocols;
 
-import java.util.BitSet;
-
-import com.google.protobuf.ByteString;
 import com.salesfoce.apollo.proto.Biff;
-import com.salesfoce.apollo.proto.Biff.Builder;
 
 /**
  * @author hal.hildebrand
  *
  */
-public class BloomFilter {
-
-    static double population(BitSet bitSet, int k, int m) {
-        int oneBits = bitSet.cardinality();
-        return -m / ((double) k) * Math.log(1 - oneBits / ((double) m));
-    }
-
-    private final BitSet       bits;
-    private final HashFunction h;
+abstract public class BloomFilter {
 
-    public BloomFilter(int seed, long n, double p) {
-        this(new HashFunction(seed, n, p));
+    /**
+     * @return a new, empty filter sized for n elements at the false positive rate
+     *         p
+     */
+    public static BloomFilter create(int seed, long n, double p, boolean blocked) {
+        return blocked ? new BlockedBloomFilter(seed, n, p) : new BitSetBloomFilter(seed, n, p);
     }
 
-    public BloomFilter(Biff bff) {
-        bits = BitSet.valueOf(bff.getBits().toByteArray());
-        h = new HashFunction(bff.getSeed(), bff.getM(), bff.getK());
+    public static BloomFilter from(Biff bff) {
+        return bff.getK() < 0 ? new BlockedBloomFilter(bff) : new BitSetBloomFilter(bff);
     }
 
-    public BloomFilter(HashFunction h) {
-        this.h = h;
-        bits = new BitSet(h.getM());
+    static double population(int oneBits, int k, int m) {
+        return -m / ((double) k) * Math.log(1 - oneBits / ((double) m));
     }
 
-    public BloomFilter(HashFunction h, BitSet bits) {
-        this.h = h;
-        this.bits = bits;
-    }
+    public abstract void add(HashKey element);
 
-    public void add(HashKey element) {
-        h.put(element, bits);
-    }
+    public abstract void clear();
 
-    public void clear() {
-        bits.clear();
-    }
-
-    public boolean contains(HashKey element) {
-        return h.mightContain(element, bits);
-    }
+    public abstract boolean contains(HashKey element);
 
     /**
      * Estimates the current population of the Bloom filter (see:
@@ -64,16 +43,18 @@ public class BloomFilter {
      *
      * @return the estimated amount of elements in the filter
      */
-    public double getEstimatedPopulation() {
-        return population(bits, h.getK(), h.getM());
-    }
+    public abstract double getEstimatedPopulation();
 
-    public Biff toBff() {
-        Builder builder = Biff.newBuilder()
-                              .setSeed(h.getSeed())
-                              .setM(h.getM())
-                              .setK(h.getK())
-                              .setBits(ByteString.copyFrom(bits.toByteArray()));
-        return builder.build();
-    }
+    /**
+     * @return true if this is a register blocked filter
+     */
+    public abstract boolean isBlocked();
+
+    /**
+     * Add the elements of the other filter, which must have the same seed, size
+     * and number of hashes as this filter
+     */
+    public abstract void or(BloomFilter other);
+
+    public abstract Biff toBff();
 }
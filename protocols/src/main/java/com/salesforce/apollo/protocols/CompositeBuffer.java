@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * A read only scatter/gather view over a sequence of ByteBuffer and ByteString
+ * segments. Consumers - digests and compressors - are fed segment by segment,
+ * without an InputStream adapter or copying the segments into an intermediate
+ * array.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public final class CompositeBuffer {
+    public static class Builder {
+        private final List<ByteBuffer> segments = new ArrayList<>();
+
+        public Builder add(byte b) {
+            return add(new byte[] { b });
+        }
+
+        public Builder add(byte[] bytes) {
+            return add(ByteBuffer.wrap(bytes));
+        }
+
+        /**
+         * Add the remaining bytes of the buffer. The buffer's position is not
+         * modified, nor are subsequent changes to its position reflected in this
+         * composite
+         */
+        public Builder add(ByteBuffer buffer) {
+            if (buffer.hasRemaining()) {
+                segments.add(buffer.asReadOnlyBuffer());
+            }
+            return this;
+        }
+
+        public Builder add(ByteString byteString) {
+            for (ByteBuffer segment : byteString.asReadOnlyByteBufferList()) {
+                add(segment);
+            }
+            return this;
+        }
+
+        public Builder addAll(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                add(buffer);
+            }
+            return this;
+        }
+
+        public CompositeBuffer build() {
+            return new CompositeBuffer(segments.toArray(new ByteBuffer[segments.size()]));
+        }
+    }
+
+    public static final CompositeBuffer EMPTY = new CompositeBuffer(new ByteBuffer[0]);
+
+    private static final int DEFLATE_CHUNK = 8 * 1024;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static CompositeBuffer of(ByteBuffer... buffers) {
+        return newBuilder().addAll(Arrays.asList(buffers)).build();
+    }
+
+    public static CompositeBuffer of(ByteString... byteStrings) {
+        Builder builder = newBuilder();
+        for (ByteString bs : byteStrings) {
+            builder.add(bs);
+        }
+        return builder.build();
+    }
+
+    public static CompositeBuffer of(List<ByteBuffer> buffers) {
+        return newBuilder().addAll(buffers).build();
+    }
+
+    private final ByteBuffer[] segments;
+    private final long         size;
+
+    private CompositeBuffer(ByteBuffer[] segments) {
+        this.segments = segments;
+        long total = 0;
+        for (ByteBuffer segment : segments) {
+            total += segment.remaining();
+        }
+        size = total;
+    }
+
+    /**
+     * Compress the contents with the supplied deflater, which is finished but
+     * not ended by this method. The output is in the deflater's format, and may
+     * be read with the corresponding Inflater (or an InflaterInputStream)
+     */
+    public ByteString deflate(Deflater deflater) {
+        ByteString.Output output = ByteString.newOutput();
+        byte[] chunk = new byte[DEFLATE_CHUNK];
+        for (ByteBuffer segment : segments) {
+            deflater.setInput(segment.duplicate());
+            while (!deflater.needsInput()) {
+                output.write(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            output.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return output.toByteString();
+    }
+
+    /**
+     * Apply the action to a read only duplicate of each segment, in order
+     */
+    public void forEachSegment(Consumer<ByteBuffer> action) {
+        for (ByteBuffer segment : segments) {
+            action.accept(segment.duplicate());
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public ByteBuffer segment(int index) {
+        return segments[index].duplicate();
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return read only duplicates of the segments
+     */
+    public List<ByteBuffer> segments() {
+        if (segments.length == 0) {
+            return Collections.emptyList();
+        }
+        List<ByteBuffer> duplicates = new ArrayList<>(segments.length);
+        forEachSegment(s -> duplicates.add(s));
+        return duplicates;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return a ByteString of the contents, aliasing rather than copying the
+     *         segments
+     */
+    public ByteString toByteString() {
+        ByteString result = ByteString.EMPTY;
+        for (ByteBuffer segment : segments) {
+            result = result.concat(UnsafeByteOperations.unsafeWrap(segment.duplicate()));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeBuffer[segments=" + segments.length + ", size=" + size + "]";
+    }
+
+    public void update(MessageDigest digest) {
+        for (ByteBuffer segment : segments) {
+            digest.update(segment.duplicate());
+        }
+    }
+}
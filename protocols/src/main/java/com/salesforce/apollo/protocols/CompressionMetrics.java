@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+/**
+ * Message compression metrics
+ *
+ * @author hal.hildebrand
+ *
+ */
+public interface CompressionMetrics {
+
+    String COMPRESSION_CPU   = "Compression CPU Time";
+    String COMPRESSION_RATIO = "Compression Ratio";
+
+    /**
+     * @return the CPU time spent compressing messages
+     */
+    Timer compressionCpu();
+
+    /**
+     * @return the compressed size of messages, as a percentage of their
+     *         uncompressed size
+     */
+    Histogram compressionRatio();
+
+}
@@ -6,11 +6,8 @@
  */
 package com.salesforce.apollo.protocols;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.UUID;
 
@@ -23,16 +20,12 @@ import com.salesfoce.apollo.proto.DagEntry;
  * @since 220
  */
 public final class Conversion {
-    public static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA256withRSA";
-    public static final String SHA_256                     = "sha-256";
-
-    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
-        try {
-            return MessageDigest.getInstance(SHA_256);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("Unable to retrieve " + SHA_256 + " Message Digest instance", e);
-        }
-    });
+    public static final String   DEFAULT_SIGNATURE_ALGORITHM = "SHA256withRSA";
+    public static final String   SHA_256                     = "sha-256";
+    /**
+     * The digest used for all content hashes shared with other nodes
+     */
+    public static final Digester DEFAULT_DIGESTER            = new JcaDigester(SHA_256);
 
     public static byte[] bytes(UUID itself) {
         ByteBuffer buff = ByteBuffer.wrap(new byte[16]);
@@ -46,22 +39,19 @@ public final class Conversion {
      * @return the hash value of the entry
      */
     public static byte[] hashOf(byte[]... bytes) {
-        MessageDigest md = MESSAGE_DIGEST.get();
-        md.reset();
-        for (byte[] entry : bytes) {
-            md.update(entry);
-        }
-        return md.digest();
+        return DEFAULT_DIGESTER.digest(bytes);
     }
 
     public static byte[] hashOf(ByteBuffer... buffers) {
-        InputStream is = BbBackedInputStream.aggregate(buffers);
-        return hashOf(is);
+        return DEFAULT_DIGESTER.digest(buffers);
     }
 
     public static byte[] hashOf(ByteString... byteString) {
-        InputStream is = BbBackedInputStream.aggregate(byteString);
-        return hashOf(is);
+        return DEFAULT_DIGESTER.digest(byteString);
+    }
+
+    public static byte[] hashOf(CompositeBuffer buffer) {
+        return DEFAULT_DIGESTER.digest(buffer);
     }
 
     /**
@@ -73,22 +63,11 @@ public final class Conversion {
     }
 
     public static byte[] hashOf(InputStream is) {
-        MessageDigest md = MESSAGE_DIGEST.get();
-        md.reset();
-        byte[] buf = new byte[md.getDigestLength()];
-        try {
-            for (int read = is.read(buf); read >= 0; read = is.read(buf)) {
-                md.update(buf, 0, read);
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException("Error reading from buffers, cannot generate hash", e);
-        }
-        return md.digest();
+        return DEFAULT_DIGESTER.digest(is);
     }
 
     public static byte[] hashOf(List<ByteBuffer> buffers) {
-        InputStream is = BbBackedInputStream.aggregate(buffers);
-        return hashOf(is);
+        return DEFAULT_DIGESTER.digest(buffers);
     }
 
     public static DagEntry manifestDag(ByteString data) {
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * The SPI for content digests. Implementations consume buffers and byte strings
+ * directly, segment by segment, rather than through an InputStream adapter.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public interface Digester {
+
+    String algorithm();
+
+    byte[] digest(byte[]... bytes);
+
+    default byte[] digest(ByteBuffer... buffers) {
+        return digest(Arrays.asList(buffers));
+    }
+
+    /**
+     * Digest the byte strings without copying their contents
+     */
+    byte[] digest(ByteString... byteStrings);
+
+    /**
+     * Digest the segments of the composite buffer, in order
+     */
+    default byte[] digest(CompositeBuffer buffer) {
+        return digest(buffer.segments());
+    }
+
+    byte[] digest(InputStream is);
+
+    /**
+     * Digest the remaining bytes of the buffers. The positions of the supplied
+     * buffers are not modified
+     */
+    byte[] digest(List<ByteBuffer> buffers);
+
+    int digestLength();
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+/**
+ * TLS handshake metrics, full versus resumed sessions
+ *
+ * @author hal.hildebrand
+ *
+ */
+public interface HandshakeMetrics {
+
+    String FULL_HANDSHAKES    = "Full TLS Handshakes";
+    String HANDSHAKE_DURATION = "TLS Handshake Duration";
+    String RESUMED_HANDSHAKES = "Resumed TLS Handshakes";
+
+    Meter fullHandshakes();
+
+    Timer handshakeDuration();
+
+    Meter resumedHandshakes();
+
+}
@@ -23,12 +23,25 @@ import com.salesfoce.apollo.proto.ID.Builder;
  * @since 220
  */
 public class HashKey implements Comparable<HashKey> {
+    /**
+     * The wire encoding used when writing IDs. Readers always accept both
+     * encodings, so a cluster is migrated by first deploying readers and then
+     * switching the writers to FIXED
+     */
+    public enum IdEncoding {
+        FIXED, VARINT;
+    }
+
+    public static final String  ID_ENCODING_PROPERTY = "apollo.id.encoding";
     public static final int     BYTE_SIZE;
     public static final HashKey LAST;
     public static final int     LONG_SIZE = 4;
     public static final HashKey ORIGIN;
     private final static char[] hexArray  = "0123456789ABCDEF".toCharArray();
 
+    private static volatile IdEncoding idEncoding = IdEncoding.valueOf(System.getProperty(ID_ENCODING_PROPERTY,
+                                                                                          IdEncoding.VARINT.name()));
+
     static {
         BYTE_SIZE = LONG_SIZE * 8;
         long[] o = new long[LONG_SIZE];
@@ -57,6 +70,21 @@ public class HashKey implements Comparable<HashKey> {
         return new String(hexChars);
     }
 
+    public static IdEncoding getIdEncoding() {
+        return idEncoding;
+    }
+
+    /**
+     * @return true if the ID has no value in either encoding
+     */
+    public static boolean isEmpty(ID id) {
+        return id.getItselfCount() == 0 && id.getFixedCount() == 0;
+    }
+
+    public static void setIdEncoding(IdEncoding encoding) {
+        idEncoding = encoding;
+    }
+
     public static int compare(byte[] o1, byte[] o2) {
         if (o1 == null) {
             return o2 == null ? 0 : -1;
@@ -111,8 +139,17 @@ public class HashKey implements Comparable<HashKey> {
      */
     public HashKey(ID description) {
         itself = new long[4];
-        for (int i = 0; i < 4; i++) {
-            itself[i] = description.getItself(i);
+        if (description.getFixedCount() == LONG_SIZE) {
+            for (int i = 0; i < 4; i++) {
+                itself[i] = description.getFixed(i);
+            }
+        } else if (description.getItselfCount() == LONG_SIZE) {
+            for (int i = 0; i < 4; i++) {
+                itself[i] = description.getItself(i);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid ID, itself: " + description.getItselfCount() + " fixed: "
+                    + description.getFixedCount());
         }
     }
 
@@ -209,9 +246,24 @@ public class HashKey implements Comparable<HashKey> {
     }
 
     public ID toID() {
+        return toID(idEncoding);
+    }
+
+    public ID toID(IdEncoding encoding) {
         Builder builder = ID.newBuilder();
-        for (long i : itself) {
-            builder.addItself(i);
+        switch (encoding) {
+        case FIXED:
+            for (long i : itself) {
+                builder.addFixed(i);
+            }
+            break;
+        case VARINT:
+            for (long i : itself) {
+                builder.addItself(i);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown encoding: " + encoding);
         }
         return builder.build();
     }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.salesfoce.apollo.proto.Iblt;
+import com.salesforce.apollo.protocols.HashFunction.Hasher;
+
+/**
+ * An Invertible Bloom Lookup Table of HashKeys (Goodrich, Mitzenmacher). The
+ * difference of two tables of the same seed and size, built from sets A and B,
+ * decodes to A - B and B - A when the symmetric difference is small relative to
+ * the size of the table. Thus two parties can reconcile their sets in space
+ * proportional to the difference, not the size, of their sets.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class InvertibleBloomLookupTable {
+    /**
+     * The decoded difference of two tables
+     */
+    public static class Difference {
+        /**
+         * The keys present only in the table subtracted from
+         */
+        public final List<HashKey> local  = new ArrayList<>();
+        /**
+         * The keys present only in the subtracted table
+         */
+        public final List<HashKey> remote = new ArrayList<>();
+
+        public int size() {
+            return local.size() + remote.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Difference [local=" + local.size() + ", remote=" + remote.size() + "]";
+        }
+    }
+
+    public static final int HASH_COUNT = 3;
+
+    /**
+     * The most bytes of a serialized cell: its count and hash and key sums
+     */
+    public static final int MAX_CELL_SIZE = 5 + Long.BYTES * (1 + HashKey.LONG_SIZE);
+
+    /**
+     * The most cells of a table, which serializes to at most 1MB - well under the
+     * default 4MB maximum gRPC message
+     */
+    public static final int MAX_CELLS = (1 << 20) / MAX_CELL_SIZE / HASH_COUNT * HASH_COUNT;
+
+    private static final long GOLDEN    = 0x9E3779B97F4A7C15L;
+    private static final int  MIN_CELLS = 8 * HASH_COUNT;
+
+    /**
+     * @return the number of cells sufficient to decode, whp, a difference of the
+     *         estimated size
+     */
+    public static int cellsFor(int estimatedDifference) {
+        int cells = Math.max(MIN_CELLS, estimatedDifference * 2);
+        return cells + (HASH_COUNT - cells % HASH_COUNT) % HASH_COUNT;
+    }
+
+    static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private final int[]  counts;
+    private final long[] hashSums;
+    private final long[] keySums;
+    private final int    seed;
+
+    public InvertibleBloomLookupTable(Iblt iblt) {
+        int cells = iblt.getCountsCount();
+        if (cells == 0 || cells % HASH_COUNT != 0 || iblt.getHashSumsCount() != cells
+                || iblt.getKeySumsCount() != cells * HashKey.LONG_SIZE) {
+            throw new IllegalArgumentException("Invalid IBLT, cells: " + cells + " hash sums: "
+                    + iblt.getHashSumsCount() + " key sums: " + iblt.getKeySumsCount());
+        }
+        seed = iblt.getSeed();
+        counts = new int[cells];
+        hashSums = new long[cells];
+        keySums = new long[cells * HashKey.LONG_SIZE];
+        for (int i = 0; i < cells; i++) {
+            counts[i] = iblt.getCounts(i);
+            hashSums[i] = iblt.getHashSums(i);
+        }
+        for (int i = 0; i < keySums.length; i++) {
+            keySums[i] = iblt.getKeySums(i);
+        }
+    }
+
+    public InvertibleBloomLookupTable(int seed, int cells) {
+        if (cells <= 0 || cells % HASH_COUNT != 0) {
+            throw new IllegalArgumentException("Cells must be a positive multiple of " + HASH_COUNT + ": " + cells);
+        }
+        this.seed = seed;
+        counts = new int[cells];
+        hashSums = new long[cells];
+        keySums = new long[cells * HashKey.LONG_SIZE];
+    }
+
+    private InvertibleBloomLookupTable(int seed, int[] counts, long[] hashSums, long[] keySums) {
+        this.seed = seed;
+        this.counts = counts;
+        this.hashSums = hashSums;
+        this.keySums = keySums;
+    }
+
+    public void add(HashKey key) {
+        toggle(key.longs(), 1);
+    }
+
+    public int cells() {
+        return counts.length;
+    }
+
+    /**
+     * @return the decoded difference, or null if the table could not be
+     *         completely decoded
+     */
+    public Difference decode() {
+        InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(seed, counts.clone(), hashSums.clone(),
+                keySums.clone());
+        Difference difference = new Difference();
+        Deque<Integer> pure = new ArrayDeque<>();
+        for (int i = 0; i < table.counts.length; i++) {
+            if (table.isPure(i)) {
+                pure.add(i);
+            }
+        }
+        int[] indexes = new int[HASH_COUNT];
+        while (!pure.isEmpty()) {
+            int cell = pure.poll();
+            if (!table.isPure(cell)) {
+                continue;
+            }
+            int count = table.counts[cell];
+            long[] key = Arrays.copyOfRange(table.keySums, cell * HashKey.LONG_SIZE,
+                                            (cell + 1) * HashKey.LONG_SIZE);
+            (count > 0 ? difference.local : difference.remote).add(new HashKey(key));
+            table.toggle(key, -count);
+            table.indexes(new Hasher(new HashKey(key), seed), indexes);
+            for (int index : indexes) {
+                if (table.isPure(index)) {
+                    pure.add(index);
+                }
+            }
+        }
+        return table.isEmpty() ? difference : null;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0 || hashSums[i] != 0) {
+                return false;
+            }
+        }
+        for (long sum : keySums) {
+            if (sum != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the table representing this - other
+     */
+    public InvertibleBloomLookupTable subtract(InvertibleBloomLookupTable other) {
+        if (seed != other.seed || counts.length != other.counts.length) {
+            throw new IllegalArgumentException("Incompatible IBLTs, seed: " + seed + ":" + other.seed + " cells: "
+                    + counts.length + ":" + other.counts.length);
+        }
+        int[] c = new int[counts.length];
+        long[] h = new long[hashSums.length];
+        long[] k = new long[keySums.length];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = counts[i] - other.counts[i];
+            h[i] = hashSums[i] ^ other.hashSums[i];
+        }
+        for (int i = 0; i < k.length; i++) {
+            k[i] = keySums[i] ^ other.keySums[i];
+        }
+        return new InvertibleBloomLookupTable(seed, c, h, k);
+    }
+
+    public Iblt toIblt() {
+        Iblt.Builder builder = Iblt.newBuilder().setSeed(seed);
+        for (int i = 0; i < counts.length; i++) {
+            builder.addCounts(counts[i]);
+            builder.addHashSums(hashSums[i]);
+        }
+        for (long sum : keySums) {
+            builder.addKeySums(sum);
+        }
+        return builder.build();
+    }
+
+    private void indexes(Hasher hasher, int[] indexes) {
+        int partition = counts.length / HASH_COUNT;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            indexes[i] = i * partition
+                    + (int) Long.remainderUnsigned(fmix64(hasher.getH1() + i * GOLDEN), partition);
+        }
+    }
+
+    private boolean isPure(int cell) {
+        int count = counts[cell];
+        if (count != 1 && count != -1) {
+            return false;
+        }
+        HashKey key = new HashKey(Arrays.copyOfRange(keySums, cell * HashKey.LONG_SIZE,
+                                                     (cell + 1) * HashKey.LONG_SIZE));
+        Hasher hasher = new Hasher(key, seed);
+        if (hashSums[cell] != hasher.getH2()) {
+            return false;
+        }
+        int[] indexes = new int[HASH_COUNT];
+        indexes(hasher, indexes);
+        return indexes[cell / (counts.length / HASH_COUNT)] == cell;
+    }
+
+    private void toggle(long[] key, int count) {
+        Hasher hasher = new Hasher(new HashKey(key), seed);
+        int[] indexes = new int[HASH_COUNT];
+        indexes(hasher, indexes);
+        for (int index : indexes) {
+            counts[index] += count;
+            hashSums[index] ^= hasher.getH2();
+            int offset = index * HashKey.LONG_SIZE;
+            for (int j = 0; j < HashKey.LONG_SIZE; j++) {
+                keySums[offset + j] ^= key[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.List;
+
+import com.google.protobuf.ByteOutput;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * A Digester backed by a thread local JCA MessageDigest
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class JcaDigester implements Digester {
+    private static class DigestOutput extends ByteOutput {
+        private final MessageDigest md;
+
+        private DigestOutput(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override
+        public void write(byte value) {
+            md.update(value);
+        }
+
+        @Override
+        public void write(byte[] value, int offset, int length) {
+            md.update(value, offset, length);
+        }
+
+        @Override
+        public void write(ByteBuffer value) {
+            md.update(value);
+        }
+
+        @Override
+        public void writeLazy(byte[] value, int offset, int length) {
+            md.update(value, offset, length);
+        }
+
+        @Override
+        public void writeLazy(ByteBuffer value) {
+            md.update(value);
+        }
+    }
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final String                    algorithm;
+    private final int                       digestLength;
+    private final ThreadLocal<DigestOutput> digest;
+
+    public JcaDigester(String algorithm) {
+        this(algorithm, null);
+    }
+
+    public JcaDigester(String algorithm, Provider provider) {
+        this.algorithm = algorithm;
+        digestLength = newDigest(algorithm, provider).getDigestLength();
+        digest = ThreadLocal.withInitial(() -> new DigestOutput(newDigest(algorithm, provider)));
+    }
+
+    @Override
+    public String algorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public byte[] digest(byte[]... bytes) {
+        MessageDigest md = reset().md;
+        for (byte[] entry : bytes) {
+            md.update(entry);
+        }
+        return md.digest();
+    }
+
+    @Override
+    public byte[] digest(ByteString... byteStrings) {
+        DigestOutput output = reset();
+        try {
+            for (ByteString bs : byteStrings) {
+                UnsafeByteOperations.unsafeWriteTo(bs, output);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error digesting byte strings", e);
+        }
+        return output.md.digest();
+    }
+
+    @Override
+    public byte[] digest(CompositeBuffer buffer) {
+        MessageDigest md = reset().md;
+        buffer.update(md);
+        return md.digest();
+    }
+
+    @Override
+    public byte[] digest(InputStream is) {
+        MessageDigest md = reset().md;
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        try {
+            for (int read = is.read(buf); read >= 0; read = is.read(buf)) {
+                md.update(buf, 0, read);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading from buffers, cannot generate hash", e);
+        }
+        return md.digest();
+    }
+
+    @Override
+    public byte[] digest(List<ByteBuffer> buffers) {
+        MessageDigest md = reset().md;
+        for (ByteBuffer buffer : buffers) {
+            md.update(buffer.duplicate());
+        }
+        return md.digest();
+    }
+
+    @Override
+    public int digestLength() {
+        return digestLength;
+    }
+
+    @Override
+    public String toString() {
+        return "JcaDigester[" + algorithm + "]";
+    }
+
+    private MessageDigest newDigest(String algorithm, Provider provider) {
+        try {
+            return provider == null ? MessageDigest.getInstance(algorithm)
+                    : MessageDigest.getInstance(algorithm, provider);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to retrieve " + algorithm + " Message Digest instance", e);
+        }
+    }
+
+    private DigestOutput reset() {
+        DigestOutput output = digest.get();
+        output.md.reset();
+        return output;
+    }
+}
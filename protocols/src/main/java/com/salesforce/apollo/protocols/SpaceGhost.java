@@ -21,4 +21,13 @@ public interface SpaceGhost {
     List<DagEntry> intervals(List<Interval> intervals, List<HashKey> have);
 
     void put(DagEntry entry);
+
+    /**
+     * @return the IBLT of the keys held in the intervals, sized for the difference
+     *         estimated by the strata, or null if reconciliation is not supported
+     *         or the difference is too large
+     */
+    InvertibleBloomLookupTable reconcile(List<Interval> intervals, StrataEstimator estimator);
+
+    List<DagEntry> satisfy(List<HashKey> want);
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static com.salesforce.apollo.protocols.InvertibleBloomLookupTable.fmix64;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.salesfoce.apollo.proto.Strata;
+import com.salesforce.apollo.protocols.HashFunction.Hasher;
+
+/**
+ * Estimates the size of the symmetric difference of two sets (Eppstein et al,
+ * "What's the Difference?"). Keys are partitioned into strata by the number of
+ * trailing zeros of their hash, so stratum i holds ~1/2^(i+1) of the set, and
+ * each stratum is a small IBLT of 64 bit key fingerprints. Decoding the
+ * differences from the sparsest stratum down, until one fails to decode,
+ * extrapolates the size of the difference.
+ *
+ * @author hal.hildebrand
+ *
+ */
+public class StrataEstimator {
+    public static final int CELLS_PER_STRATUM = 33;
+    public static final int STRATA            = 16;
+
+    private static final long CHECK     = 0xC2B2AE3D27D4EB4FL;
+    private static final long GOLDEN    = 0x9E3779B97F4A7C15L;
+    private static final int  HASHES    = 3;
+    private static final int  PARTITION = CELLS_PER_STRATUM / HASHES;
+    private static final int  CELLS     = STRATA * CELLS_PER_STRATUM;
+
+    private static long check(long fingerprint) {
+        return fmix64(fingerprint ^ CHECK);
+    }
+
+    private static int index(long fingerprint, int stratum, int i) {
+        return stratum * CELLS_PER_STRATUM + i * PARTITION
+                + (int) Long.remainderUnsigned(fmix64(fingerprint + i * GOLDEN), PARTITION);
+    }
+
+    private final int[]  counts;
+    private final long[] hashSums;
+    private final long[] idSums;
+    private final int    seed;
+
+    public StrataEstimator(int seed) {
+        this.seed = seed;
+        counts = new int[CELLS];
+        idSums = new long[CELLS];
+        hashSums = new long[CELLS];
+    }
+
+    public StrataEstimator(Strata strata) {
+        if (strata.getCountsCount() != CELLS || strata.getIdSumsCount() != CELLS
+                || strata.getHashSumsCount() != CELLS) {
+            throw new IllegalArgumentException("Invalid strata estimator, cells: " + strata.getCountsCount());
+        }
+        seed = strata.getSeed();
+        counts = new int[CELLS];
+        idSums = new long[CELLS];
+        hashSums = new long[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            counts[i] = strata.getCounts(i);
+            idSums[i] = strata.getIdSums(i);
+            hashSums[i] = strata.getHashSums(i);
+        }
+    }
+
+    public void add(HashKey key) {
+        Hasher hasher = new Hasher(key, seed);
+        long fingerprint = hasher.getH1();
+        int stratum = Math.min(STRATA - 1, Long.numberOfTrailingZeros(hasher.getH2()));
+        long check = check(fingerprint);
+        for (int i = 0; i < HASHES; i++) {
+            int index = index(fingerprint, stratum, i);
+            counts[index]++;
+            idSums[index] ^= fingerprint;
+            hashSums[index] ^= check;
+        }
+    }
+
+    /**
+     * @return the estimated size of the symmetric difference between the sets
+     *         represented by the receiver and the other estimator
+     */
+    public int estimate(StrataEstimator other) {
+        if (seed != other.seed) {
+            throw new IllegalArgumentException("Incompatible estimators, seed: " + seed + ":" + other.seed);
+        }
+        int[] c = new int[CELLS];
+        long[] ids = new long[CELLS];
+        long[] hashes = new long[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            c[i] = counts[i] - other.counts[i];
+            ids[i] = idSums[i] ^ other.idSums[i];
+            hashes[i] = hashSums[i] ^ other.hashSums[i];
+        }
+        int count = 0;
+        for (int stratum = STRATA - 1; stratum >= 0; stratum--) {
+            int decoded = decode(stratum, c, ids, hashes);
+            if (decoded < 0) {
+                return Math.max(1, count) << (stratum + 1);
+            }
+            count += decoded;
+        }
+        return count;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public Strata toStrata() {
+        Strata.Builder builder = Strata.newBuilder().setSeed(seed);
+        for (int i = 0; i < CELLS; i++) {
+            builder.addCounts(counts[i]).addIdSums(idSums[i]).addHashSums(hashSums[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Peel the stratum of the difference
+     *
+     * @return the number of differences decoded, or -1 if the stratum could not be
+     *         completely decoded
+     */
+    private int decode(int stratum, int[] c, long[] ids, long[] hashes) {
+        int start = stratum * CELLS_PER_STRATUM;
+        Deque<Integer> pure = new ArrayDeque<>();
+        for (int i = start; i < start + CELLS_PER_STRATUM; i++) {
+            if (isPure(i, c, ids, hashes)) {
+                pure.add(i);
+            }
+        }
+        int decoded = 0;
+        while (!pure.isEmpty()) {
+            int cell = pure.poll();
+            if (!isPure(cell, c, ids, hashes)) {
+                continue;
+            }
+            decoded++;
+            int count = c[cell];
+            long fingerprint = ids[cell];
+            long check = check(fingerprint);
+            for (int i = 0; i < HASHES; i++) {
+                int index = index(fingerprint, stratum, i);
+                c[index] -= count;
+                ids[index] ^= fingerprint;
+                hashes[index] ^= check;
+                if (isPure(index, c, ids, hashes)) {
+                    pure.add(index);
+                }
+            }
+        }
+        for (int i = start; i < start + CELLS_PER_STRATUM; i++) {
+            if (c[i] != 0 || ids[i] != 0 || hashes[i] != 0) {
+                return -1;
+            }
+        }
+        return decoded;
+    }
+
+    private boolean isPure(int cell, int[] c, long[] ids, long[] hashes) {
+        return (c[cell] == 1 || c[cell] == -1) && hashes[cell] == check(ids[cell]);
+    }
+}
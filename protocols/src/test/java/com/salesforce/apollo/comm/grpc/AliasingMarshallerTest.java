@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheBlockingStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.DagNodes;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesfoce.apollo.proto.SuppliedDagNodes;
+
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class AliasingMarshallerTest {
+    private ManagedChannel channel;
+    private Server         server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aliasing() throws Exception {
+        byte[] entry = new byte[4096];
+        new Random(0x1638).nextBytes(entry);
+        SuppliedDagNodes nodes = SuppliedDagNodes.newBuilder()
+                                                 .addEntries(ByteString.copyFrom(entry))
+                                                 .addEntries(ByteString.copyFrom(entry, 0, 100))
+                                                 .build();
+        AliasingMarshaller<SuppliedDagNodes> marshaller = AliasingMarshaller.of(SuppliedDagNodes.getDefaultInstance());
+        SuppliedDagNodes parsed = marshaller.parse(marshaller.stream(nodes));
+        assertEquals(nodes, parsed);
+
+        // the entries are bounded views of the buffer of the message, not copies
+        assertEquals("BoundedByteString", parsed.getEntries(0).getClass().getSimpleName());
+        assertEquals("BoundedByteString", parsed.getEntries(1).getClass().getSimpleName());
+
+        SuppliedDagNodes other = marshaller.parse(new ByteArrayInputStream(nodes.toByteArray()));
+        assertEquals(nodes, other);
+    }
+
+    @Test
+    public void invalid() {
+        AliasingMarshaller<SuppliedDagNodes> marshaller = AliasingMarshaller.of(SuppliedDagNodes.getDefaultInstance());
+        try {
+            marshaller.parse(new ByteArrayInputStream(new byte[] { 0x0A, 0x7F }));
+            throw new AssertionError("Invalid message parsed");
+        } catch (StatusRuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void service() throws IOException {
+        byte[] entry = new byte[8192];
+        new Random(0x1638).nextBytes(entry);
+        String name = "aliasing-" + System.nanoTime();
+        AvalancheImplBase service = new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                responseObserver.onNext(QueryResult.newBuilder().addAllWanted(request.getTransactionsList()).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                responseObserver.onNext(SuppliedDagNodes.newBuilder().addEntries(ByteString.copyFrom(entry)).build());
+                responseObserver.onCompleted();
+            }
+        };
+        server = InProcessServerBuilder.forName(name)
+                                       .addService(AliasingMarshaller.alias(service.bindService(),
+                                                                            AvalancheGrpc.getQueryMethod()))
+                                       .build()
+                                       .start();
+        MethodDescriptor<?, ?> query = server.getServices()
+                                             .get(0)
+                                             .getMethod(AvalancheGrpc.getQueryMethod().getFullMethodName())
+                                             .getMethodDescriptor();
+        assertTrue(query.getRequestMarshaller() instanceof AliasingMarshaller);
+        channel = InProcessChannelBuilder.forName(name)
+                                         .intercept(AliasingMarshaller.clientInterceptor(AvalancheGrpc.getQueryMethod(),
+                                                                                         AvalancheGrpc.getRequestDagMethod()))
+                                         .build();
+        AvalancheBlockingStub client = AvalancheGrpc.newBlockingStub(channel);
+
+        QueryResult result = client.query(Query.newBuilder().addTransactions(ByteString.copyFrom(entry)).build());
+        assertEquals(ByteString.copyFrom(entry), result.getWanted(0));
+        assertEquals(ByteString.copyFrom(entry), client.requestDag(DagNodes.getDefaultInstance()).getEntries(0));
+    }
+}
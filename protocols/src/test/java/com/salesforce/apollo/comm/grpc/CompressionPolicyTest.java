@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheBlockingStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.DagNodes;
+import com.salesfoce.apollo.proto.ID;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesfoce.apollo.proto.SuppliedDagNodes;
+import com.salesforce.apollo.protocols.CompressionMetrics;
+import com.salesforce.apollo.protocols.Utils;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class CompressionPolicyTest {
+    private ManagedChannel channel;
+    private Server         server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void encodings() {
+        CompressionPolicy policy = CompressionPolicy.newBuilder().build();
+        assertEquals(FastDeflateCodec.ENCODING, policy.encodingFor("gzip, deflate"));
+        assertEquals(CompressionPolicy.GZIP, policy.encodingFor("gzip"));
+        assertNull(policy.encodingFor("identity"));
+        assertNull(policy.encodingFor(null));
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        CompressionMetrics metrics = metrics();
+        AvalancheBlockingStub client = start(CompressionPolicy.newBuilder()
+                                                              .setMetrics(metrics)
+                                                              .disableService(AvalancheGrpc.SERVICE_NAME)
+                                                              .build());
+        client.requestDag(DagNodes.getDefaultInstance());
+        client.query(Query.getDefaultInstance());
+        assertEquals(0, metrics.compressionRatio().getCount());
+    }
+
+    @Test
+    public void policy() throws Exception {
+        CompressionMetrics metrics = metrics();
+        AvalancheBlockingStub client = start(CompressionPolicy.newBuilder()
+                                                              .setMetrics(metrics)
+                                                              .setProbeInterval(4)
+                                                              .build());
+        Histogram ratios = metrics.compressionRatio();
+
+        // compressible
+        client.requestDag(DagNodes.getDefaultInstance());
+        assertEquals(1, ratios.getCount());
+        assertTrue(ratios.getSnapshot().getMax() < 10);
+        assertEquals(1, metrics.compressionCpu().getCount());
+
+        // below the threshold
+        client.query(Query.newBuilder().addWanted(ID.getDefaultInstance()).build());
+        assertEquals(1, ratios.getCount());
+
+        // incompressible, then only probed
+        client.query(Query.getDefaultInstance());
+        assertEquals(2, ratios.getCount());
+        assertTrue(ratios.getSnapshot().getMax() > 90);
+        for (int i = 0; i < 8; i++) {
+            client.query(Query.getDefaultInstance());
+        }
+        assertEquals(4, ratios.getCount());
+
+        // other methods are unaffected
+        client.requestDag(DagNodes.getDefaultInstance());
+        assertEquals(5, ratios.getCount());
+    }
+
+    private CompressionMetrics metrics() {
+        MetricRegistry registry = new MetricRegistry();
+        return new CompressionMetrics() {
+            @Override
+            public Timer compressionCpu() {
+                return registry.timer(COMPRESSION_CPU);
+            }
+
+            @Override
+            public Histogram compressionRatio() {
+                return registry.histogram(COMPRESSION_RATIO);
+            }
+        };
+    }
+
+    private AvalancheBlockingStub start(CompressionPolicy policy) throws IOException {
+        Random entropy = new Random(0x1638);
+        byte[] random = new byte[4096];
+        entropy.nextBytes(random);
+
+        InetSocketAddress address = new InetSocketAddress("localhost", Utils.allocatePort());
+        server = NettyServerBuilder.forAddress(address).addService(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                byte[] wanted = request.getWantedCount() == 0 ? random : new byte[16];
+                responseObserver.onNext(QueryResult.newBuilder().addWanted(ByteString.copyFrom(wanted)).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                responseObserver.onNext(SuppliedDagNodes.newBuilder()
+                                                        .addEntries(ByteString.copyFrom(new byte[4096]))
+                                                        .build());
+                responseObserver.onCompleted();
+            }
+        })
+                                   .intercept(policy.interceptor())
+                                   .compressorRegistry(policy.compressors())
+                                   .decompressorRegistry(CompressionPolicy.decompressors())
+                                   .build()
+                                   .start();
+        channel = NettyChannelBuilder.forAddress(address)
+                                     .usePlaintext()
+                                     .decompressorRegistry(CompressionPolicy.decompressors())
+                                     .build();
+        return AvalancheGrpc.newBlockingStub(channel);
+    }
+}
@@ -8,13 +8,23 @@ package com.salesforce.apollo.comm.grpc;
 
 import static io.github.olivierlemasle.ca.CA.createCsr;
 import static io.github.olivierlemasle.ca.CA.dn;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.net.InetSocketAddress;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 import com.salesfoce.apollo.proto.AvalancheGrpc;
 import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
 import com.salesfoce.apollo.proto.DagNodes;
@@ -23,13 +33,17 @@ import com.salesfoce.apollo.proto.QueryResult;
 import com.salesfoce.apollo.proto.SuppliedDagNodes;
 import com.salesforce.apollo.fireflies.ca.CertificateAuthority;
 import com.salesforce.apollo.protocols.CaValidator;
+import com.salesforce.apollo.protocols.HandshakeMetrics;
 import com.salesforce.apollo.protocols.Utils;
 import com.salesforce.apollo.protocols.CertificateValidator;
 
 import io.github.olivierlemasle.ca.CertificateWithPrivateKey;
 import io.github.olivierlemasle.ca.CsrWithPrivateKey;
 import io.github.olivierlemasle.ca.RootCertificate;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.netty.shaded.io.netty.handler.ssl.ClientAuth;
+import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.stub.StreamObserver;
 import io.grpc.util.MutableHandlerRegistry;
 
@@ -57,6 +71,129 @@ public class TestMtls {
         assertNotNull(query);
     }
 
+    @Test
+    public void sessionResumption() throws Exception {
+        ca = certAuth();
+
+        InetSocketAddress serverAddress = new InetSocketAddress("localhost", Utils.allocatePort());
+        HandshakeMetrics metrics = metrics();
+        AtomicBoolean revoked = new AtomicBoolean();
+        CertificateValidator validator = validator();
+        CertificateValidator revocable = new CertificateValidator() {
+            @Override
+            public void validateClient(X509Certificate[] chain) throws CertificateException {
+                if (revoked.get()) {
+                    throw new CertificateException("revoked");
+                }
+                validator.validateClient(chain);
+            }
+
+            @Override
+            public void validateServer(X509Certificate[] chain) throws CertificateException {
+                validator.validateServer(chain);
+            }
+        };
+        CertificateWithPrivateKey serverCert = serverIdentity(ca);
+        MtlsServer server = new MtlsServer(serverAddress, ClientAuth.REQUIRE, "foo", serverCert.getX509Certificate(),
+                serverCert.getPrivateKey(), revocable, new MutableHandlerRegistry(), ForkJoinPool.commonPool(),
+                metrics, CompressionPolicy.newBuilder().build());
+        server.start();
+        try {
+            server.bind(avaServer());
+            CertificateWithPrivateKey clientCert = clientIdentity(ca);
+            SslContext sslContext = MtlsServer.forClient(ClientAuth.REQUIRE, "foo", clientCert.getX509Certificate(),
+                                                         clientCert.getPrivateKey(), validator());
+            for (int i = 0; i < 3; i++) {
+                MtlsClient client = new MtlsClient(serverAddress, sslContext, new ServerValidation(validator()));
+                try {
+                    assertNotNull(AvalancheGrpc.newBlockingStub(client.getChannel())
+                                               .query(Query.getDefaultInstance()));
+                } finally {
+                    client.getChannel().shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+                }
+            }
+            for (int i = 0; i < 100 && metrics.handshakeDuration().getCount() < 3; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, metrics.handshakeDuration().getCount());
+            assertEquals(1, metrics.fullHandshakes().getCount());
+            assertEquals(2, metrics.resumedHandshakes().getCount());
+
+            // the certificate of a resumed session is validated anew
+            revoked.set(true);
+            MtlsClient client = new MtlsClient(serverAddress, sslContext, new ServerValidation(validator()));
+            try {
+                StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                                                        () -> AvalancheGrpc.newBlockingStub(client.getChannel())
+                                                                           .query(Query.getDefaultInstance()));
+                assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+            } finally {
+                client.getChannel().shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+            }
+            assertEquals(3, metrics.resumedHandshakes().getCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void serverRevalidation() throws Exception {
+        ca = certAuth();
+
+        InetSocketAddress serverAddress = new InetSocketAddress("localhost", Utils.allocatePort());
+        HandshakeMetrics metrics = metrics();
+        CertificateWithPrivateKey serverCert = serverIdentity(ca);
+        MtlsServer server = new MtlsServer(serverAddress, ClientAuth.REQUIRE, "foo", serverCert.getX509Certificate(),
+                serverCert.getPrivateKey(), validator(), new MutableHandlerRegistry(), ForkJoinPool.commonPool(),
+                metrics, CompressionPolicy.newBuilder().build());
+        server.start();
+        try {
+            server.bind(avaServer());
+            AtomicBoolean revoked = new AtomicBoolean();
+            CertificateValidator validator = validator();
+            CertificateValidator revocable = new CertificateValidator() {
+                @Override
+                public void validateClient(X509Certificate[] chain) throws CertificateException {
+                    validator.validateClient(chain);
+                }
+
+                @Override
+                public void validateServer(X509Certificate[] chain) throws CertificateException {
+                    if (revoked.get()) {
+                        throw new CertificateException("revoked");
+                    }
+                    validator.validateServer(chain);
+                }
+            };
+            CertificateWithPrivateKey clientCert = clientIdentity(ca);
+            SslContext sslContext = MtlsServer.forClient(ClientAuth.REQUIRE, "foo", clientCert.getX509Certificate(),
+                                                         clientCert.getPrivateKey(), revocable);
+            ServerValidation validation = new ServerValidation(revocable);
+            MtlsClient client = new MtlsClient(serverAddress, sslContext, validation);
+            try {
+                assertNotNull(AvalancheGrpc.newBlockingStub(client.getChannel()).query(Query.getDefaultInstance()));
+            } finally {
+                client.getChannel().shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+            }
+
+            // the resumed session skips the trust manager, but not the validation
+            revoked.set(true);
+            MtlsClient resumed = new MtlsClient(serverAddress, sslContext, validation);
+            try {
+                StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                                                        () -> AvalancheGrpc.newBlockingStub(resumed.getChannel())
+                                                                           .query(Query.getDefaultInstance()));
+                assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+            } finally {
+                resumed.getChannel().shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+            }
+            assertEquals(1, metrics.fullHandshakes().getCount());
+            assertEquals(1, metrics.resumedHandshakes().getCount());
+        } finally {
+            server.stop();
+        }
+    }
+
     private AvalancheImplBase avaServer() {
         return new AvalancheImplBase() {
 
@@ -106,6 +243,26 @@ public class TestMtls {
         return clientCert;
     }
 
+    private HandshakeMetrics metrics() {
+        MetricRegistry registry = new MetricRegistry();
+        return new HandshakeMetrics() {
+            @Override
+            public Meter fullHandshakes() {
+                return registry.meter(FULL_HANDSHAKES);
+            }
+
+            @Override
+            public Timer handshakeDuration() {
+                return registry.timer(HANDSHAKE_DURATION);
+            }
+
+            @Override
+            public Meter resumedHandshakes() {
+                return registry.meter(RESUMED_HANDSHAKES);
+            }
+        };
+    }
+
     private MtlsServer server(CertificateAuthority ca, InetSocketAddress serverAddress) {
         CertificateWithPrivateKey serverCert = serverIdentity(ca);
 
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.comm.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+import com.salesfoce.apollo.proto.AvalancheGrpc;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheBlockingStub;
+import com.salesfoce.apollo.proto.AvalancheGrpc.AvalancheImplBase;
+import com.salesfoce.apollo.proto.DagNodes;
+import com.salesfoce.apollo.proto.MessagingFrame;
+import com.salesfoce.apollo.proto.MessagingGrpc;
+import com.salesfoce.apollo.proto.MessagingGrpc.MessagingImplBase;
+import com.salesfoce.apollo.proto.Push;
+import com.salesfoce.apollo.proto.Query;
+import com.salesfoce.apollo.proto.QueryResult;
+import com.salesfoce.apollo.proto.SuppliedDagNodes;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting.Key;
+import com.salesforce.apollo.comm.grpc.TrafficAccounting.Traffic;
+import com.salesforce.apollo.protocols.ClientIdentity;
+import com.salesforce.apollo.protocols.HashKey;
+import com.salesforce.apollo.protocols.Utils;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class TrafficAccountingTest {
+    private static final HashKey CLIENT = new HashKey(new byte[] { 1 });
+    private static final HashKey SERVER = new HashKey(new byte[] { 2 });
+
+    private ManagedChannel channel;
+    private Server         server;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void accounting() throws Exception {
+        TrafficAccounting served = new TrafficAccounting();
+        TrafficAccounting issued = new TrafficAccounting();
+        AvalancheBlockingStub client = start(served, issued);
+        HashKey a = new HashKey(new byte[] { 3 });
+        HashKey b = new HashKey(new byte[] { 4 });
+
+        DagNodes request = DagNodes.newBuilder().setContext(a.toID()).build();
+        client.requestDag(request);
+        client.requestDag(request);
+        client.requestDag(DagNodes.newBuilder().setContext(b.toID()).build());
+        client.query(Query.getDefaultInstance());
+
+        List<Entry<Key, Traffic>> top = served.top(10);
+        assertEquals(3, top.size());
+
+        Entry<Key, Traffic> heaviest = top.get(0);
+        assertEquals(CLIENT, heaviest.getKey().member);
+        assertEquals(a, heaviest.getKey().context);
+        assertEquals(AvalancheGrpc.getRequestDagMethod().getFullMethodName(), heaviest.getKey().method);
+        assertTrue(heaviest.getKey().served);
+        assertEquals(2, heaviest.getValue().getCalls());
+        assertEquals(2, heaviest.getValue().getMessagesIn());
+        assertEquals(2, heaviest.getValue().getMessagesOut());
+        assertEquals(2 * request.getSerializedSize(), heaviest.getValue().getBytesIn());
+        assertTrue(heaviest.getValue().getBytesOut() > 2 * 4096);
+        assertTrue(heaviest.getValue().latency(0.99) > 0);
+
+        assertEquals(b, top.get(1).getKey().context);
+        assertNull(top.get(2).getKey().context);
+        assertEquals(AvalancheGrpc.getQueryMethod().getFullMethodName(), top.get(2).getKey().method);
+
+        List<Entry<Key, Traffic>> clientTop = issued.top(1);
+        assertEquals(SERVER, clientTop.get(0).getKey().member);
+        assertEquals(a, clientTop.get(0).getKey().context);
+        assertTrue(!clientTop.get(0).getKey().served);
+        assertEquals(heaviest.getValue().getBytesOut(), clientTop.get(0).getValue().getBytesIn());
+        assertEquals(heaviest.getValue().getBytesIn(), clientTop.get(0).getValue().getBytesOut());
+
+        assertTrue(served.dump().contains(AvalancheGrpc.getRequestDagMethod().getFullMethodName()));
+    }
+
+    @Test
+    public void heavyHitters() throws Exception {
+        TrafficAccounting served = new TrafficAccounting(2);
+        AvalancheBlockingStub client = start(served, new TrafficAccounting());
+
+        HashKey heavy = new HashKey(new byte[] { 5 });
+        for (int i = 0; i < 4; i++) {
+            client.requestDag(DagNodes.newBuilder().setContext(heavy.toID()).build());
+        }
+        for (int i = 10; i < 20; i++) {
+            client.query(Query.newBuilder().setContext(new HashKey(new byte[] { (byte) i }).toID()).build());
+        }
+
+        // the heavy hitter survives the churn of light accounts
+        List<Entry<Key, Traffic>> top = served.top(2);
+        assertEquals(2, top.size());
+        assertEquals(heavy, top.get(0).getKey().context);
+        assertEquals(4, top.get(0).getValue().getCalls());
+        assertEquals(9, served.getEvicted());
+        assertTrue(top.get(1).getValue().getError() > 0);
+    }
+
+    @Test
+    public void evictedStream() throws Exception {
+        TrafficAccounting served = new TrafficAccounting(1);
+        start(served, new TrafficAccounting());
+        StreamObserver<MessagingFrame> stream = MessagingGrpc.newStub(channel)
+                                                             .link(new StreamObserver<MessagingFrame>() {
+                                                                 @Override
+                                                                 public void onCompleted() {
+                                                                 }
+
+                                                                 @Override
+                                                                 public void onError(Throwable t) {
+                                                                 }
+
+                                                                 @Override
+                                                                 public void onNext(MessagingFrame value) {
+                                                                 }
+                                                             });
+        String link = MessagingGrpc.getLinkMethod().getFullMethodName();
+        MessagingFrame frame = MessagingFrame.newBuilder().setUpdate(Push.newBuilder().setRing(1)).build();
+        stream.onNext(frame);
+        assertTrue(Utils.waitForCondition(5_000, 10, () -> served.top(1).get(0).getValue().getMessagesIn() == 1));
+
+        // the stream's account is evicted by a new account
+        AvalancheGrpc.newBlockingStub(channel)
+                     .query(Query.newBuilder().setContext(new HashKey(new byte[] { 7 }).toID()).build());
+        assertEquals(AvalancheGrpc.getQueryMethod().getFullMethodName(), served.top(1).get(0).getKey().method);
+
+        // and the stream's later traffic is accounted to a live account
+        stream.onNext(frame);
+        assertTrue(Utils.waitForCondition(5_000, 10, () -> link.equals(served.top(1).get(0).getKey().method)));
+        Traffic traffic = served.top(1).get(0).getValue();
+        assertEquals(1, traffic.getMessagesIn());
+        assertTrue(traffic.getError() > 0);
+        assertEquals(2, served.getEvicted());
+        stream.onCompleted();
+    }
+
+    private AvalancheBlockingStub start(TrafficAccounting served, TrafficAccounting issued) throws IOException {
+        ClientIdentity identity = new ClientIdentity() {
+            @Override
+            public X509Certificate getCert() {
+                return null;
+            }
+
+            @Override
+            public Certificate[] getCerts() {
+                return null;
+            }
+
+            @Override
+            public HashKey getFrom() {
+                return CLIENT;
+            }
+        };
+        String name = "traffic-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(new AvalancheImplBase() {
+            @Override
+            public void query(Query request, StreamObserver<QueryResult> responseObserver) {
+                responseObserver.onNext(QueryResult.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void requestDag(DagNodes request, StreamObserver<SuppliedDagNodes> responseObserver) {
+                responseObserver.onNext(SuppliedDagNodes.newBuilder()
+                                                        .addEntries(ByteString.copyFrom(new byte[4096]))
+                                                        .build());
+                responseObserver.onCompleted();
+            }
+        }).addService(new MessagingImplBase() {
+            @Override
+            public StreamObserver<MessagingFrame> link(StreamObserver<MessagingFrame> responseObserver) {
+                return new StreamObserver<MessagingFrame>() {
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onNext(MessagingFrame value) {
+                    }
+                };
+            }
+        }).intercept(served.serverInterceptor(identity)).build().start();
+        channel = InProcessChannelBuilder.forName(name)
+                                         .directExecutor()
+                                         .intercept(issued.clientInterceptor(SERVER))
+                                         .build();
+        return AvalancheGrpc.newBlockingStub(channel);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesfoce.apollo.proto.Biff;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void blocked() {
+        smoke(true);
+    }
+
+    @Test
+    public void classic() {
+        smoke(false);
+    }
+
+    @Test
+    public void copyOnWrite() {
+        Random entropy = new Random(0x1638);
+        BloomFilter bff = BloomFilter.create(entropy.nextInt(), 100, 0.01, true);
+        HashKey first = key(entropy);
+        bff.add(first);
+        Biff serialized = bff.toBff();
+
+        HashKey second = key(entropy);
+        bff.add(second);
+        assertTrue(bff.contains(second));
+
+        BloomFilter original = BloomFilter.from(serialized);
+        assertTrue(original.contains(first));
+        assertFalse(original.contains(second));
+
+        original.add(second);
+        assertTrue(original.contains(second));
+        assertFalse(BloomFilter.from(serialized).contains(second));
+    }
+
+    @Test
+    public void union() {
+        union(true);
+        union(false);
+    }
+
+    private HashKey key(Random entropy) {
+        byte[] bytes = new byte[32];
+        entropy.nextBytes(bytes);
+        return new HashKey(bytes);
+    }
+
+    private void union(boolean blocked) {
+        Random entropy = new Random(0x1638);
+        int seed = entropy.nextInt();
+        BloomFilter union = BloomFilter.create(seed, 100, 0.01, blocked);
+        BloomFilter first = BloomFilter.create(seed, 100, 0.01, blocked);
+        BloomFilter second = BloomFilter.create(seed, 100, 0.01, blocked);
+        List<HashKey> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            HashKey key = key(entropy);
+            added.add(key);
+            (i % 2 == 0 ? first : second).add(key);
+        }
+        Biff shared = union.toBff();
+        union.or(first);
+        union.or(BloomFilter.from(second.toBff()));
+        added.forEach(k -> assertTrue(union.contains(k)));
+        assertEquals(0, BloomFilter.from(shared).getEstimatedPopulation(), 0.0);
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> union.or(BloomFilter.create(seed + 1, 100, 0.01, blocked)));
+        assertThrows(IllegalArgumentException.class, () -> union.or(BloomFilter.create(seed, 100, 0.01, !blocked)));
+    }
+
+    private void smoke(boolean blocked) {
+        Random entropy = new Random(0x1638);
+        int n = 1000;
+        double p = 0.01;
+        BloomFilter bff = BloomFilter.create(entropy.nextInt(), n, p, blocked);
+        List<HashKey> added = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            HashKey key = key(entropy);
+            added.add(key);
+            bff.add(key);
+        }
+        BloomFilter received = BloomFilter.from(bff.toBff());
+        assertEquals(blocked, received.isBlocked());
+        added.forEach(k -> assertTrue(received.contains(k)));
+
+        int falsePositives = 0;
+        int trials = 100_000;
+        for (int i = 0; i < trials; i++) {
+            if (received.contains(key(entropy))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < trials * p * 2, "false positives: " + falsePositives);
+        assertEquals(n, received.getEstimatedPopulation(), n * 0.1);
+    }
+}
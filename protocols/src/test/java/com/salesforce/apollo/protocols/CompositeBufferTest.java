@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class CompositeBufferTest {
+
+    @Test
+    public void consumers() throws Exception {
+        Random entropy = new Random(0x1638);
+        byte[] bytes = new byte[100_000];
+        entropy.nextBytes(bytes);
+
+        ByteBuffer head = ByteBuffer.wrap(bytes, 0, 10);
+        CompositeBuffer composite = CompositeBuffer.newBuilder()
+                                                   .add(head)
+                                                   .add(ByteString.copyFrom(bytes, 10, 50_000)
+                                                                  .concat(ByteString.copyFrom(bytes, 50_010, 49_989)))
+                                                   .add(ByteString.EMPTY)
+                                                   .add(bytes[99_999])
+                                                   .build();
+        assertEquals(bytes.length, composite.size());
+        assertEquals(4, composite.segmentCount());
+        assertEquals(0, head.position());
+
+        assertArrayEquals(Conversion.hashOf(bytes), Conversion.hashOf(composite));
+        assertArrayEquals(Conversion.hashOf(bytes), Conversion.hashOf(composite));
+        assertArrayEquals(bytes, composite.toByteString().toByteArray());
+    }
+
+    @Test
+    public void deflate() throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 17);
+        }
+        CompositeBuffer composite = CompositeBuffer.of(ByteString.copyFrom(bytes, 0, 1_000),
+                                                       ByteString.copyFrom(bytes, 1_000, bytes.length - 1_000));
+        Deflater deflater = new Deflater();
+        ByteString compressed;
+        try {
+            compressed = composite.deflate(deflater);
+        } finally {
+            deflater.end();
+        }
+        assertTrue(compressed.size() < bytes.length);
+        try (InflaterInputStream is = new InflaterInputStream(compressed.newInput())) {
+            assertArrayEquals(bytes, is.readAllBytes());
+        }
+        assertTrue(CompositeBuffer.EMPTY.isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Hashing of ByteStrings: the InputStream adapter vs the Digester SPI
+ *
+ * @author hal.hildebrand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DigestBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Param({ "64", "1024", "65536", "1048576" })
+    public int size;
+
+    private ByteString payload;
+
+    @Benchmark
+    public byte[] digester() {
+        return Conversion.DEFAULT_DIGESTER.digest(payload);
+    }
+
+    @Benchmark
+    public byte[] inputStream() {
+        return Conversion.hashOf(BbBackedInputStream.aggregate(payload));
+    }
+
+    @Setup
+    public void setup() {
+        byte[] bytes = new byte[size];
+        new Random(0x1638).nextBytes(bytes);
+        // A rope of several segments, as produced by protobuf serialization
+        int segment = Math.max(1, size / 4);
+        ByteString bs = ByteString.EMPTY;
+        for (int i = 0; i < size; i += segment) {
+            bs = bs.concat(ByteString.copyFrom(bytes, i, Math.min(segment, size - i)));
+        }
+        payload = bs;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class DigesterTest {
+
+    @Test
+    public void equivalence() {
+        Random entropy = new Random(0x1638);
+        byte[] bytes = new byte[100_000];
+        entropy.nextBytes(bytes);
+        byte[] expected = Conversion.hashOf(bytes);
+
+        ByteString rope = ByteString.copyFrom(bytes, 0, 10)
+                                    .concat(ByteString.copyFrom(bytes, 10, 50_000))
+                                    .concat(ByteString.copyFrom(bytes, 50_010, 49_990));
+        assertArrayEquals(expected, Conversion.hashOf(rope));
+        assertArrayEquals(expected, Conversion.hashOf(new ByteArrayInputStream(bytes)));
+        assertArrayEquals(expected, Conversion.hashOf(BbBackedInputStream.aggregate(rope)));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertArrayEquals(expected, Conversion.hashOf(buffer));
+        assertEquals(0, buffer.position());
+        assertArrayEquals(expected, Conversion.hashOf(rope.asReadOnlyByteBufferList()));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesfoce.apollo.proto.ID;
+import com.salesforce.apollo.protocols.HashKey.IdEncoding;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class HashKeyTest {
+
+    @Test
+    public void idEncodings() {
+        Random entropy = new Random(0x1638);
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            HashKey key = new HashKey(bytes);
+
+            ID varint = key.toID(IdEncoding.VARINT);
+            ID fixed = key.toID(IdEncoding.FIXED);
+
+            assertEquals(key, new HashKey(varint));
+            assertEquals(key, new HashKey(fixed));
+            assertTrue(fixed.getSerializedSize() <= varint.getSerializedSize());
+            assertEquals(34, fixed.getSerializedSize());
+        }
+        assertTrue(HashKey.isEmpty(ID.getDefaultInstance()));
+        assertFalse(HashKey.isEmpty(HashKey.ORIGIN.toID(IdEncoding.FIXED)));
+        assertFalse(HashKey.isEmpty(HashKey.ORIGIN.toID(IdEncoding.VARINT)));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020, salesforce.com, inc.
+ * All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause
+ * For full license text, see the LICENSE file in the repo root or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.apollo.protocols;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesforce.apollo.protocols.InvertibleBloomLookupTable.Difference;
+
+/**
+ * @author hal.hildebrand
+ *
+ */
+public class InvertibleBloomLookupTableTest {
+
+    @Test
+    public void capped() {
+        Random entropy = new Random(0x1638);
+        int seed = entropy.nextInt();
+        InvertibleBloomLookupTable a = new InvertibleBloomLookupTable(seed, InvertibleBloomLookupTable.MAX_CELLS);
+        InvertibleBloomLookupTable b = new InvertibleBloomLookupTable(seed, a.cells());
+        keys(entropy, a.cells()).forEach(k -> a.add(k));
+        keys(entropy, 2 * a.cells()).forEach(k -> b.add(k));
+        assertTrue(a.subtract(b).toIblt().getSerializedSize() <= 1 << 20);
+    }
+
+    @Test
+    public void reconcile() {
+        Random entropy = new Random(0x1638);
+        List<HashKey> common = keys(entropy, 10_000);
+        List<HashKey> onlyA = keys(entropy, 30);
+        List<HashKey> onlyB = keys(entropy, 20);
+
+        int seed = entropy.nextInt();
+        StrataEstimator estimatorA = new StrataEstimator(seed);
+        StrataEstimator estimatorB = new StrataEstimator(seed);
+        common.forEach(k -> {
+            estimatorA.add(k);
+            estimatorB.add(k);
+        });
+        onlyA.forEach(k -> estimatorA.add(k));
+        onlyB.forEach(k -> estimatorB.add(k));
+
+        int estimate = new StrataEstimator(estimatorB.toStrata()).estimate(estimatorA);
+        assertTrue(estimate >= 25 && estimate <= 200, "estimate: " + estimate);
+
+        InvertibleBloomLookupTable a = new InvertibleBloomLookupTable(seed,
+                InvertibleBloomLookupTable.cellsFor(estimate));
+        InvertibleBloomLookupTable b = new InvertibleBloomLookupTable(seed, a.cells());
+        common.forEach(k -> {
+            a.add(k);
+            b.add(k);
+        });
+        onlyA.forEach(k -> a.add(k));
+        onlyB.forEach(k -> b.add(k));
+
+        Difference difference = new InvertibleBloomLookupTable(a.toIblt()).subtract(b).decode();
+        assertNotNull(difference);
+        assertEquals(new HashSet<>(onlyA), new HashSet<>(difference.local));
+        assertEquals(new HashSet<>(onlyB), new HashSet<>(difference.remote));
+
+        assertTrue(a.subtract(a).isEmpty());
+    }
+
+    @Test
+    public void undersized() {
+        Random entropy = new Random(0x1638);
+        int seed = entropy.nextInt();
+        InvertibleBloomLookupTable a = new InvertibleBloomLookupTable(seed, InvertibleBloomLookupTable.cellsFor(1));
+        InvertibleBloomLookupTable b = new InvertibleBloomLookupTable(seed, a.cells());
+        keys(entropy, 1000).forEach(k -> a.add(k));
+        assertNull(a.subtract(b).decode());
+    }
+
+    private List<HashKey> keys(Random entropy, int count) {
+        List<HashKey> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[32];
+            entropy.nextBytes(bytes);
+            keys.add(new HashKey(bytes));
+        }
+        return keys;
+    }
+}